@@ -157,6 +157,16 @@ public class DSLink {
                     getWriter().writeAck(event.getMsgId());
                 }
             });
+            getWriter().setUpdateHandler(new Handler<Object>() {
+                @Override
+                public void handle(Object event) {
+                    try {
+                        DSLink.this.requester.parseUpdate(event);
+                    } catch (RuntimeException e) {
+                        LOGGER.error("Failed to parse json", e);
+                    }
+                }
+            });
         }
 
         if (responder) {
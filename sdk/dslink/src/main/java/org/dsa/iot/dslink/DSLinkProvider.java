@@ -2,6 +2,7 @@ package org.dsa.iot.dslink;
 
 import static org.dsa.iot.dslink.connection.ConnectionManager.Client;
 
+import io.netty.util.internal.SystemPropertyUtil;
 import java.io.File;
 import java.util.Collections;
 import java.util.Map;
@@ -13,6 +14,7 @@ import org.dsa.iot.dslink.link.Responder;
 import org.dsa.iot.dslink.node.NodeManager;
 import org.dsa.iot.dslink.provider.LoopProvider;
 import org.dsa.iot.dslink.serializer.SerializationManager;
+import org.dsa.iot.dslink.util.PropertyReference;
 import org.dsa.iot.dslink.util.handler.Handler;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -25,6 +27,7 @@ import org.slf4j.LoggerFactory;
 public class DSLinkProvider {
 
     private static final Logger LOGGER;
+    private static final boolean RESUBSCRIBE;
 
     private final Map<String, DSLink> linkRequesterCache;
     private final Map<String, DSLink> linkResponderCache;
@@ -106,13 +109,18 @@ public class DSLinkProvider {
                             event.setRequesterOnConnected(new Handler<Client>() {
                                 @Override
                                 public void handle(Client event) {
+                                    if (RESUBSCRIBE) {
+                                        link.getRequester().resubscribe();
+                                    }
                                     handler.onRequesterConnected(link);
                                 }
                             });
                             event.setRequesterOnDisconnected(new Handler<Void>() {
                                 @Override
                                 public void handle(Void event) {
-                                    link.getRequester().clearSubscriptions();
+                                    if (!RESUBSCRIBE) {
+                                        link.getRequester().clearSubscriptions();
+                                    }
                                     handler.onRequesterDisconnected(link);
                                 }
                             });
@@ -201,5 +209,9 @@ public class DSLinkProvider {
 
     static {
         LOGGER = LoggerFactory.getLogger(DSLinkProvider.class);
+
+        String s = PropertyReference.RESUBSCRIBE;
+        RESUBSCRIBE = SystemPropertyUtil.getBoolean(s, false);
+        LOGGER.debug("-D{}: {}", s, RESUBSCRIBE);
     }
 }
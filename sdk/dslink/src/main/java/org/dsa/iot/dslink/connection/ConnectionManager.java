@@ -129,6 +129,7 @@ public class ConnectionManager {
                                 handler.processData(event);
                             }
                         });
+                        connector.setStreamHandler(handler);
 
                         client = connector;
                         handler.setClient(connector, remoteHandshake.getFormat());
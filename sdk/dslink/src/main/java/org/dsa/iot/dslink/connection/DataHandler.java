@@ -1,12 +1,13 @@
 package org.dsa.iot.dslink.connection;
 
 import java.util.Collection;
+import java.util.Map;
 import org.dsa.iot.dslink.node.MessageGenerator;
-import org.dsa.iot.dslink.provider.LoopProvider;
 import org.dsa.iot.dslink.util.handler.Handler;
 import org.dsa.iot.dslink.util.json.EncodingFormat;
 import org.dsa.iot.dslink.util.json.JsonArray;
 import org.dsa.iot.dslink.util.json.JsonObject;
+import org.dsa.iot.dslink.util.json.decoders.ElementHandler;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -15,7 +16,7 @@ import org.slf4j.LoggerFactory;
  *
  * @author Samuel Grenier
  */
-public class DataHandler implements MessageTracker {
+public class DataHandler implements MessageTracker, ElementHandler {
 
     private static final Logger LOGGER;
 
@@ -24,10 +25,11 @@ public class DataHandler implements MessageTracker {
     private EncodingFormat format;
     private int lastReceivedAck = 0;
     private int messageId = 0;
-    private Handler<DataReceived> reqHandler;
+    private RequestDispatcher dispatcher;
     private QueuedWriteManager reqsManager;
     private Handler<DataReceived> respHandler;
     private QueuedWriteManager respsManager;
+    private Handler<Object> updateHandler;
 
     @Override
     public void ackReceived(int ack) {
@@ -43,6 +45,27 @@ public class DataHandler implements MessageTracker {
         }
     }
 
+    /**
+     * Subscription updates are streamed to the update handler while the
+     * message is being decoded when one is set.
+     */
+    @Override
+    public boolean streamField(Map<String, Object> parent, String name) {
+        if (updateHandler == null || !"updates".equals(name)) {
+            return false;
+        }
+        Object rid = parent.get("rid");
+        return (rid instanceof Number) && ((Number) rid).intValue() == 0;
+    }
+
+    @Override
+    public void onElement(Map<String, Object> parent, String name, Object element) {
+        Handler<Object> handler = updateHandler;
+        if (handler != null) {
+            handler.handle(element);
+        }
+    }
+
     public boolean isConnected() {
         return client != null && client.isConnected();
     }
@@ -61,6 +84,9 @@ public class DataHandler implements MessageTracker {
 
     public void onDisconnected() {
         client = null;
+        if (dispatcher != null) {
+            dispatcher.clear();
+        }
         if (reqsManager != null) {
             reqsManager.close();
         }
@@ -82,13 +108,8 @@ public class DataHandler implements MessageTracker {
 
         final Integer msgId = obj.get("msg");
         final JsonArray requests = obj.get("requests");
-        if (!(reqHandler == null || requests == null)) {
-            LoopProvider.getProvider().schedule(new Runnable() {
-                @Override
-                public void run() {
-                    reqHandler.handle(new DataReceived(msgId, requests));
-                }
-            });
+        if (!(dispatcher == null || requests == null)) {
+            dispatcher.dispatch(msgId, requests);
         }
 
         final JsonArray responses = obj.get("responses");
@@ -110,14 +131,44 @@ public class DataHandler implements MessageTracker {
         this.respsManager = new QueuedWriteManager(client, this, format, "responses");
     }
 
+    /**
+     * Sets the handler of incoming requests. Requests are dispatched to the
+     * handler one at a time through a {@link RequestDispatcher}, the message
+     * is acknowledged once all of its requests were handled.
+     *
+     * @param handler Handler of individual requests.
+     */
     public void setReqHandler(Handler<DataReceived> handler) {
-        this.reqHandler = handler;
+        if (dispatcher != null) {
+            dispatcher.clear();
+        }
+        this.dispatcher = (handler == null) ? null : new RequestDispatcher(this, handler);
+    }
+
+    /**
+     * @return The dispatcher of incoming requests, null when no request
+     * handler is set.
+     */
+    public RequestDispatcher getRequestDispatcher() {
+        return dispatcher;
     }
 
     public void setRespHandler(Handler<DataReceived> handler) {
         this.respHandler = handler;
     }
 
+    /**
+     * Sets the handler that receives every entry of the {@code updates}
+     * array of subscription responses as soon as it is decoded. Those
+     * entries are then omitted from the response passed to the response
+     * handler.
+     *
+     * @param handler Handler of individual subscription updates.
+     */
+    public void setUpdateHandler(Handler<Object> handler) {
+        this.updateHandler = handler;
+    }
+
     public void writeAck(Integer ack) {
         if (ack == null) {
             return;
@@ -191,6 +242,16 @@ public class DataHandler implements MessageTracker {
         respsManager.write(generator);
     }
 
+    /**
+     * Runs the callback once responses can be written again. Used by
+     * generators that were told to retry instead of polling.
+     *
+     * @param waiter Callback to run.
+     */
+    public void awaitWritable(Runnable waiter) {
+        respsManager.awaitWritable(waiter);
+    }
+
     public static class DataReceived {
 
         private final Integer msgId;
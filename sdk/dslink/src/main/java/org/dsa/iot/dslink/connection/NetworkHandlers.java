@@ -2,6 +2,7 @@ package org.dsa.iot.dslink.connection;
 
 import org.dsa.iot.dslink.util.handler.Handler;
 import org.dsa.iot.dslink.util.json.JsonObject;
+import org.dsa.iot.dslink.util.json.decoders.ElementHandler;
 
 /**
  * Handles network clients on vertx events.
@@ -13,6 +14,7 @@ class NetworkHandlers {
     private Handler<Void> onConnected;
     private Handler<Void> onDisconnected;
     private Handler<JsonObject> onData;
+    private ElementHandler streamHandler;
 
     public Handler<Void> getOnConnected() {
         return onConnected;
@@ -37,4 +39,12 @@ class NetworkHandlers {
     public void setOnData(Handler<JsonObject> onData) {
         this.onData = onData;
     }
+
+    public ElementHandler getStreamHandler() {
+        return streamHandler;
+    }
+
+    public void setStreamHandler(ElementHandler streamHandler) {
+        this.streamHandler = streamHandler;
+    }
 }
@@ -1,37 +1,46 @@
 package org.dsa.iot.dslink.connection;
 
 import io.netty.util.internal.SystemPropertyUtil;
-import java.util.HashMap;
-import java.util.Iterator;
-import java.util.LinkedList;
-import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ScheduledFuture;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import org.dsa.iot.dslink.node.MessageGenerator;
+import org.dsa.iot.dslink.node.value.Value;
 import org.dsa.iot.dslink.provider.LoopProvider;
 import org.dsa.iot.dslink.util.PropertyReference;
 import org.dsa.iot.dslink.util.json.EncodingFormat;
 import org.dsa.iot.dslink.util.json.JsonArray;
 import org.dsa.iot.dslink.util.json.JsonObject;
+import org.dsa.iot.dslink.util.json.JsonWritable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * Multi-producer, single-consumer outbound queue. Producers only ever
+ * touch lock-free structures; a single drain task scheduled on the
+ * {@link LoopProvider} batches queued messages into one network write.
+ * Mergeable messages are coalesced per rid into a single slot for as
+ * long as that slot has not been drained.
+ */
 public class QueuedWriteManager implements Runnable {
 
-    private static final int CHUNK = 1000;
+    private static final int BATCH_SIZE;
     private static final int DISPATCH_DELAY;
     private static final Logger LOGGER = LoggerFactory.getLogger(QueuedWriteManager.class);
 
     private final NetworkClient client;
     private final EncodingFormat format;
-    private final Map<Integer, JsonObject> mergedTasks = new HashMap<>();
-    private final List<JsonObject> rawTasks = new LinkedList<>();
+    private final Map<Integer, MergeSlot> mergeSlots = new ConcurrentHashMap<>();
+    private final Queue<Object> tasks = new ConcurrentLinkedQueue<>();
+    private final Queue<Runnable> waiters = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean scheduled = new AtomicBoolean();
     private final String topName;
     private final MessageTracker tracker;
     private final Object writeMutex = new Object();
-    private ScheduledFuture<?> fut;
-    private boolean open = true;
+    private volatile boolean open = true;
 
     public QueuedWriteManager(NetworkClient client,
                               MessageTracker tracker,
@@ -52,50 +61,74 @@ public class QueuedWriteManager implements Runnable {
         this.client = client;
     }
 
-    public synchronized void close() {
+    public void close() {
         open = false;
-        rawTasks.clear();
-        mergedTasks.clear();
+        tasks.clear();
+        mergeSlots.clear();
+        wakeWaiters();
     }
 
+    /**
+     * Queues the content to be written by the drain task. Unlike earlier
+     * versions, the content is never written on the calling thread, even
+     * when nothing else is queued, so callers must not use the return value
+     * to tell whether the content has been sent.
+     *
+     * @param content Message to write.
+     * @param merge   Whether the message may be coalesced with other queued
+     *                messages of the same rid.
+     * @return Always false, the content is always queued.
+     */
     public boolean post(JsonObject content, boolean merge) {
         if (!open) {
             return false;
         }
-        synchronized (this) {
-            if (shouldQueue()) {
-                addTask(content, merge);
-                schedule(DISPATCH_DELAY);
-                return false;
-            }
+        if (merge) {
+            addMergedTask(content);
+        } else {
+            tasks.add(content);
         }
-        JsonArray updates = new JsonArray();
-        updates.add(content);
-        forceWriteUpdates(updates);
-        return true;
+        schedule();
+        return false;
     }
 
     public void run() {
         if (!open) {
+            scheduled.set(false);
             return;
         }
-        final JsonArray updates;
-        synchronized (this) {
-            fut = null;
-            if (shouldQueue()) {
-                updates = null;
-            } else {
-                updates = fetchUpdates();
-            }
+        if (shouldQueue()) {
+            dispatch(DISPATCH_DELAY);
+            return;
         }
+        JsonArray updates = fetchUpdates();
         if (updates != null) {
             forceWriteUpdates(updates);
         }
-        synchronized (this) {
-            if (hasTasks()) {
-                schedule(1);
-            }
+        scheduled.set(false);
+        wakeWaiters();
+        if (!tasks.isEmpty()) {
+            schedule();
+        }
+    }
+
+    /**
+     * Runs the callback once the network is able to accept more data, so
+     * generators told to retry do not have to poll. The callback also runs
+     * when the manager is closed.
+     *
+     * @param waiter Callback to run, it should only schedule work.
+     */
+    public void awaitWritable(Runnable waiter) {
+        if (waiter == null) {
+            throw new NullPointerException("waiter");
+        }
+        waiters.add(waiter);
+        if (!open) {
+            wakeWaiters();
+            return;
         }
+        schedule();
     }
 
     /**
@@ -107,11 +140,9 @@ public class QueuedWriteManager implements Runnable {
         if (!open) {
             return;
         }
-        synchronized (this) {
-            if (shouldQueue()) {
-                generator.retry();
-                return;
-            }
+        if (scheduled.get() || shouldQueue()) {
+            generator.retry();
+            return;
         }
         JsonObject obj = generator.getMessage(tracker.lastAckReceived());
         if (obj != null) {
@@ -121,53 +152,58 @@ public class QueuedWriteManager implements Runnable {
         }
     }
 
-    private synchronized void addTask(JsonObject content, boolean merge) {
-        if (merge) {
-            int rid = content.get("rid");
-            JsonObject fromMerged = mergedTasks.get(rid);
-            if (fromMerged == null) {
-                mergedTasks.put(rid, content);
-            } else {
-                JsonArray oldUpdates = fromMerged.get("updates");
-                if (oldUpdates != null) {
-                    JsonArray newUpdates = content.remove("updates");
-                    if (newUpdates != null) {
-                        for (Object update : newUpdates) {
-                            if (update instanceof JsonArray || update instanceof JsonObject) {
-                                oldUpdates.add(update);
-                            } else {
-                                String clazz = update.getClass().getName();
-                                String err = "Unhandled type: " + clazz;
-                                throw new RuntimeException(err);
-                            }
-                        }
-                    }
-                    fromMerged.mergeIn(content);
-                } else {
-                    fromMerged.mergeIn(content);
+    private void wakeWaiters() {
+        Runnable waiter;
+        while ((waiter = waiters.poll()) != null) {
+            try {
+                waiter.run();
+            } catch (RuntimeException x) {
+                LOGGER.warn("Failed to wake writer", x);
+            }
+        }
+    }
+
+    private void addMergedTask(JsonObject content) {
+        Integer rid = content.get("rid");
+        while (true) {
+            MergeSlot slot = mergeSlots.get(rid);
+            if (slot == null) {
+                slot = new MergeSlot(rid, content);
+                if (mergeSlots.putIfAbsent(rid, slot) == null) {
+                    tasks.add(slot);
+                    return;
                 }
+            } else if (slot.merge(content)) {
+                return;
+            } else {
+                // Drained concurrently, a fresh slot must be created
+                mergeSlots.remove(rid, slot);
             }
-        } else {
-            rawTasks.add(content);
         }
     }
 
+    /**
+     * Polls queued tasks until the estimated encoded size reaches the batch
+     * size.
+     */
     private JsonArray fetchUpdates() {
-        if (!hasTasks()) {
-            return null;
-        }
-        JsonArray updates = new JsonArray();
-        Iterator<JsonObject> it = mergedTasks.values().iterator();
-        int count = CHUNK / 2;
-        while (it.hasNext() && (--count >= 0)) {
-            updates.add(it.next());
-            it.remove();
-        }
-        it = rawTasks.iterator();
-        count += (CHUNK / 2);
-        while (it.hasNext() && (--count >= 0)) {
-            updates.add(it.next());
-            it.remove();
+        JsonArray updates = null;
+        int size = 0;
+        Object task;
+        while ((size < BATCH_SIZE) && ((task = tasks.poll()) != null)) {
+            JsonObject obj;
+            if (task instanceof MergeSlot) {
+                MergeSlot slot = (MergeSlot) task;
+                mergeSlots.remove(slot.rid, slot);
+                obj = slot.drain();
+            } else {
+                obj = (JsonObject) task;
+            }
+            if (updates == null) {
+                updates = new JsonArray();
+            }
+            updates.add(obj);
+            size += estimateSize(obj);
         }
         return updates;
     }
@@ -193,24 +229,123 @@ public class QueuedWriteManager implements Runnable {
         return forceWrite(top);
     }
 
-    private boolean hasTasks() {
-        return !rawTasks.isEmpty() || !mergedTasks.isEmpty();
+    /**
+     * Schedules the drain task unless it is already scheduled. The drain is
+     * delayed when the network is currently unable to accept more data.
+     */
+    private void schedule() {
+        if (scheduled.compareAndSet(false, true)) {
+            dispatch(shouldQueue() ? DISPATCH_DELAY : 0);
+        }
     }
 
-    private void schedule(long millis) {
-        if (fut != null) {
-            return;
+    private void dispatch(long millis) {
+        LoopProvider provider = LoopProvider.getProvider();
+        if (millis <= 0) {
+            provider.schedule(this);
+        } else {
+            provider.schedule(this, millis, TimeUnit.MILLISECONDS);
         }
-        fut = LoopProvider.getProvider().schedule(this, millis, TimeUnit.MILLISECONDS);
     }
 
     private boolean shouldQueue() {
-        return (fut != null) || (tracker.missingAckCount() > 8) || !client.writable();
+        return (tracker.missingAckCount() > 8) || !client.writable();
+    }
+
+    /**
+     * Cheap approximation of how many bytes the object occupies once encoded,
+     * used to size batches without encoding them twice.
+     *
+     * @param obj JSON element or value to estimate.
+     * @return Approximate encoded size in bytes.
+     */
+    public static int estimateSize(Object obj) {
+        if (obj instanceof JsonObject) {
+            int size = 2;
+            for (Map.Entry<String, Object> entry : ((JsonObject) obj).getMap().entrySet()) {
+                size += entry.getKey().length() + 4;
+                size += estimateSize(entry.getValue());
+            }
+            return size;
+        } else if (obj instanceof JsonArray) {
+            int size = 2;
+            for (Object o : ((JsonArray) obj).getList()) {
+                size += estimateSize(o) + 1;
+            }
+            return size;
+        } else if (obj instanceof String) {
+            return ((String) obj).length() + 2;
+        } else if (obj instanceof byte[]) {
+            return (((byte[]) obj).length * 4 / 3) + 10;
+        } else if (obj instanceof Value) {
+            Value value = (Value) obj;
+            if (value.getString() != null) {
+                return value.getString().length() + 2;
+            } else if (value.getMap() != null) {
+                return estimateSize(value.getMap());
+            } else if (value.getArray() != null) {
+                return estimateSize(value.getArray());
+            }
+            return 8;
+        } else if (obj instanceof Number) {
+            return 8;
+        } else if (obj instanceof JsonWritable) {
+            return ((JsonWritable) obj).estimateSize();
+        }
+        return 5;
+    }
+
+    /**
+     * Holds the merged content of a rid until the drain task claims it. Once
+     * drained, the slot rejects further merges.
+     */
+    private static class MergeSlot {
+
+        private final Integer rid;
+        private JsonObject content;
+
+        MergeSlot(Integer rid, JsonObject content) {
+            this.rid = rid;
+            this.content = content;
+        }
+
+        synchronized JsonObject drain() {
+            JsonObject ret = content;
+            content = null;
+            return ret;
+        }
+
+        synchronized boolean merge(JsonObject other) {
+            if (content == null) {
+                return false;
+            }
+            JsonArray oldUpdates = content.get("updates");
+            if (oldUpdates != null) {
+                JsonArray newUpdates = other.remove("updates");
+                if (newUpdates != null) {
+                    for (Object update : newUpdates) {
+                        if (update instanceof JsonArray || update instanceof JsonObject) {
+                            oldUpdates.add(update);
+                        } else {
+                            String clazz = update.getClass().getName();
+                            String err = "Unhandled type: " + clazz;
+                            throw new RuntimeException(err);
+                        }
+                    }
+                }
+            }
+            content.mergeIn(other);
+            return true;
+        }
     }
 
     static {
         String s = PropertyReference.DISPATCH_DELAY;
         DISPATCH_DELAY = SystemPropertyUtil.getInt(s, 10);
         LOGGER.debug("-D{}: {}", s, DISPATCH_DELAY);
+
+        s = PropertyReference.WRITE_BATCH_SIZE;
+        BATCH_SIZE = SystemPropertyUtil.getInt(s, 64 * 1024);
+        LOGGER.debug("-D{}: {}", s, BATCH_SIZE);
     }
 }
@@ -0,0 +1,308 @@
+package org.dsa.iot.dslink.connection;
+
+import io.netty.util.internal.SystemPropertyUtil;
+import java.util.Collections;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.dsa.iot.dslink.connection.DataHandler.DataReceived;
+import org.dsa.iot.dslink.methods.StreamState;
+import org.dsa.iot.dslink.util.Objects;
+import org.dsa.iot.dslink.util.PropertyReference;
+import org.dsa.iot.dslink.util.handler.Handler;
+import org.dsa.iot.dslink.util.json.JsonArray;
+import org.dsa.iot.dslink.util.json.JsonObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Partitions inbound requests onto serial lanes. Requests that belong to
+ * the same stream always land on the same lane and are handled in the
+ * order they were received, while separate lanes are drained concurrently
+ * on a dedicated pool of daemon threads. Lanes never run on the
+ * {@link org.dsa.iot.dslink.provider.LoopProvider} so a slow handler cannot
+ * delay timers or write drains.
+ * <p>
+ * Streams that remain open are keyed by rid so a later close follows the
+ * request that opened it. One-shot writes are keyed by path so writes to a
+ * node apply in order. Subscription changes address sids rather than rids
+ * and therefore share a single lane.
+ * <p>
+ * Each request is passed to the handler on its own, without an ack id. The
+ * ack of the message is written once every request of it was handled.
+ */
+public class RequestDispatcher {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(RequestDispatcher.class);
+    private static final int DEFAULT_LANES;
+    private static final int DEFAULT_BACKLOG;
+    private static final int THREADS;
+    private static volatile Executor EXECUTOR;
+    private static final int DRAIN_LIMIT = 64;
+
+    private final DataHandler writer;
+    private final Handler<DataReceived> handler;
+    private final Executor executor;
+    private final Lane[] lanes;
+    private final int maxBacklog;
+    private final AtomicInteger backlog = new AtomicInteger();
+    private final AtomicInteger rejected = new AtomicInteger();
+
+    public RequestDispatcher(DataHandler writer, Handler<DataReceived> handler) {
+        this(writer, handler, DEFAULT_LANES, DEFAULT_BACKLOG, getExecutor());
+    }
+
+    RequestDispatcher(DataHandler writer,
+                      Handler<DataReceived> handler,
+                      int lanes,
+                      int maxBacklog,
+                      Executor executor) {
+        if (writer == null) {
+            throw new NullPointerException("writer");
+        } else if (handler == null) {
+            throw new NullPointerException("handler");
+        } else if (executor == null) {
+            throw new NullPointerException("executor");
+        }
+        this.writer = writer;
+        this.handler = handler;
+        this.executor = executor;
+        this.maxBacklog = maxBacklog;
+        this.lanes = new Lane[Math.max(1, lanes)];
+        for (int i = 0; i < this.lanes.length; i++) {
+            this.lanes[i] = new Lane();
+        }
+    }
+
+    /**
+     * Queues every request of a message onto its lane.
+     *
+     * @param msgId    ID of the message to acknowledge, can be null.
+     * @param requests Requests of the message.
+     */
+    public void dispatch(Integer msgId, JsonArray requests) {
+        int size = requests.size();
+        if (size == 0) {
+            writer.writeAck(msgId);
+            return;
+        }
+        Batch batch = new Batch(msgId, size);
+        for (Object obj : requests) {
+            if (!(obj instanceof JsonObject)) {
+                LOGGER.warn("Ignoring malformed request: {}", obj);
+                batch.done();
+                continue;
+            }
+            JsonObject req = (JsonObject) obj;
+            if (isFull() && !"close".equals(req.get("method"))) {
+                reject(req);
+                batch.done();
+                continue;
+            }
+            lanes[laneOf(req)].add(new Task(req, batch));
+        }
+    }
+
+    /**
+     * Drops all queued requests, called when the connection is lost.
+     */
+    public void clear() {
+        for (Lane lane : lanes) {
+            lane.clear();
+        }
+    }
+
+    /**
+     * @return The number of requests waiting across all lanes.
+     */
+    public int getBacklog() {
+        return backlog.get();
+    }
+
+    /**
+     * @return The number of lanes requests are partitioned onto.
+     */
+    public int getLaneCount() {
+        return lanes.length;
+    }
+
+    /**
+     * @param lane Index of the lane.
+     * @return The number of requests waiting in the lane.
+     */
+    public int getQueueDepth(int lane) {
+        return lanes[lane].depth.get();
+    }
+
+    /**
+     * @param lane Index of the lane.
+     * @return The highest number of requests that ever waited in the lane.
+     */
+    public int getMaxQueueDepth(int lane) {
+        return lanes[lane].maxDepth;
+    }
+
+    /**
+     * @return The number of requests rejected because the backlog was full.
+     */
+    public int getRejectedCount() {
+        return rejected.get();
+    }
+
+    /**
+     * @return The pool shared by the lanes of every dispatcher.
+     */
+    private static Executor getExecutor() {
+        if (EXECUTOR == null) {
+            synchronized (RequestDispatcher.class) {
+                if (EXECUTOR == null) {
+                    EXECUTOR = Objects.createDaemonThreadPool(THREADS);
+                }
+            }
+        }
+        return EXECUTOR;
+    }
+
+    private boolean isFull() {
+        return (maxBacklog > 0) && (backlog.get() >= maxBacklog);
+    }
+
+    private int laneOf(JsonObject req) {
+        if (lanes.length == 1) {
+            return 0;
+        }
+        Object method = req.get("method");
+        Object key;
+        if ("subscribe".equals(method) || "unsubscribe".equals(method)) {
+            return 0;
+        } else if ("set".equals(method) || "remove".equals(method)) {
+            key = req.get("path");
+        } else {
+            key = req.get("rid");
+        }
+        int hash = (key == null) ? 0 : key.hashCode();
+        hash ^= (hash >>> 16);
+        return (hash & Integer.MAX_VALUE) % lanes.length;
+    }
+
+    private void reject(JsonObject req) {
+        rejected.incrementAndGet();
+        JsonObject resp = new JsonObject();
+        Object rid = req.get("rid");
+        if (rid != null) {
+            resp.put("rid", rid);
+        }
+        resp.put("stream", StreamState.CLOSED.getJsonName());
+        JsonObject err = new JsonObject();
+        err.put("msg", "Request backlog is full");
+        resp.put("error", err);
+        writer.writeRequestResponses(null, Collections.singletonList(resp));
+    }
+
+    /**
+     * Counts down the requests of a message and acknowledges it once all of
+     * them were handled.
+     */
+    private class Batch {
+
+        private final Integer msgId;
+        private final AtomicInteger remaining;
+
+        Batch(Integer msgId, int size) {
+            this.msgId = msgId;
+            this.remaining = new AtomicInteger(size);
+        }
+
+        void done() {
+            if (remaining.decrementAndGet() == 0) {
+                writer.writeAck(msgId);
+            }
+        }
+    }
+
+    private static class Task {
+
+        private final JsonObject request;
+        private final Batch batch;
+
+        Task(JsonObject request, Batch batch) {
+            this.request = request;
+            this.batch = batch;
+        }
+    }
+
+    /**
+     * Queue of requests that is drained by at most one thread at a time.
+     */
+    private class Lane implements Runnable {
+
+        private final Queue<Task> queue = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        private final AtomicInteger depth = new AtomicInteger();
+        private volatile int maxDepth;
+
+        void add(Task task) {
+            queue.add(task);
+            backlog.incrementAndGet();
+            int d = depth.incrementAndGet();
+            if (d > maxDepth) {
+                maxDepth = d;
+            }
+            schedule();
+        }
+
+        void clear() {
+            while (queue.poll() != null) {
+                depth.decrementAndGet();
+                backlog.decrementAndGet();
+            }
+        }
+
+        @Override
+        public void run() {
+            Task task;
+            int count = 0;
+            while ((count++ < DRAIN_LIMIT) && ((task = queue.poll()) != null)) {
+                depth.decrementAndGet();
+                backlog.decrementAndGet();
+                JsonArray single = new JsonArray();
+                single.add(task.request);
+                try {
+                    handler.handle(new DataReceived(null, single));
+                } catch (RuntimeException e) {
+                    LOGGER.error("Failed to handle request", e);
+                } finally {
+                    task.batch.done();
+                }
+            }
+            scheduled.set(false);
+            if (!queue.isEmpty()) {
+                schedule();
+            }
+        }
+
+        private void schedule() {
+            if (scheduled.compareAndSet(false, true)) {
+                executor.execute(this);
+            }
+        }
+    }
+
+    static {
+        String s = PropertyReference.REQUEST_LANES;
+        int lanes = Runtime.getRuntime().availableProcessors();
+        DEFAULT_LANES = SystemPropertyUtil.getInt(s, lanes);
+        LOGGER.debug("-D{}: {}", s, DEFAULT_LANES);
+
+        s = PropertyReference.REQUEST_BACKLOG;
+        DEFAULT_BACKLOG = SystemPropertyUtil.getInt(s, 10000);
+        LOGGER.debug("-D{}: {}", s, DEFAULT_BACKLOG);
+
+        s = PropertyReference.REQUEST_THREADS;
+        int threads = SystemPropertyUtil.getInt(s, lanes);
+        THREADS = Math.max(1, threads);
+        LOGGER.debug("-D{}: {}", s, THREADS);
+    }
+}
@@ -8,10 +8,13 @@ import org.dsa.iot.dslink.util.URLInfo;
 import org.dsa.iot.dslink.util.handler.Handler;
 import org.dsa.iot.dslink.util.http.WsClient;
 import org.dsa.iot.dslink.util.json.EncodingFormat;
+import org.dsa.iot.dslink.util.json.Json;
 import org.dsa.iot.dslink.util.json.JsonObject;
+import org.dsa.iot.dslink.util.json.decoders.ElementHandler;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.InputStream;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 
@@ -124,7 +127,19 @@ public class WebSocketConnector extends RemoteEndpoint {
 
         @Override
         public void onData(byte[] data, int offset, int length) {
-            JsonObject obj = new JsonObject(getFormat(), data, offset, length);
+            EncodingFormat format = getFormat();
+            ElementHandler handler = getStreamHandler();
+            handle(new JsonObject(Json.decodeMap(format, data, offset, length, handler)));
+        }
+
+        @Override
+        public void onData(InputStream in, int length) {
+            EncodingFormat format = getFormat();
+            ElementHandler handler = getStreamHandler();
+            handle(new JsonObject(Json.decodeMap(format, in, handler)));
+        }
+
+        private void handle(JsonObject obj) {
             if (obj.contains("ping")) {
                 obj.put("pong", obj.remove("ping"));
                 WebSocketConnector.this.write(getFormat(), obj);
@@ -3,8 +3,11 @@ package org.dsa.iot.dslink.handshake;
 import io.netty.util.CharsetUtil;
 import org.bouncycastle.jcajce.provider.digest.SHA256;
 import org.dsa.iot.dslink.config.Configuration;
+import org.dsa.iot.dslink.util.PropertyReference;
 import org.dsa.iot.dslink.util.StringUtils;
 import org.dsa.iot.dslink.util.UrlBase64;
+import org.dsa.iot.dslink.util.json.EncodingFormat;
+import org.dsa.iot.dslink.util.json.JsonArray;
 import org.dsa.iot.dslink.util.json.JsonObject;
 
 /**
@@ -115,19 +118,25 @@ public class LocalHandshake {
         obj.put("version", "1.0.4");
         obj.put("enableWebSocketCompression", true);
 
-        /*String formats = System.getProperty(PropertyReference.FORMATS);
-        String[] split = formats != null ? formats.split(",") : null;
-        if (split != null && split.length > 0) {
-            JsonArray array = new JsonArray();
-            for (String f : split) {
-                EncodingFormat enc = EncodingFormat.toEnum(f);
-                array.add(enc.toJson());
+        // Only JSON is advertised unless other formats are opted into
+        JsonArray array = new JsonArray();
+        String formats = System.getProperty(PropertyReference.FORMATS);
+        if (formats != null) {
+            for (String f : formats.split(",")) {
+                f = f.trim();
+                if (f.isEmpty()) {
+                    continue;
+                }
+                String enc = EncodingFormat.toEnum(f).toJson();
+                if (!array.getList().contains(enc)) {
+                    array.add(enc);
+                }
             }
-            obj.put("formats", array);
-        } else {
-            obj.put("formats", EncodingFormat.toJsonArray());
         }
-        */
+        if (array.size() == 0) {
+            array.add(EncodingFormat.JSON.toJson());
+        }
+        obj.put("formats", array);
         return obj;
     }
 }
@@ -1,9 +1,11 @@
 package org.dsa.iot.dslink.link;
 
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import io.netty.util.internal.SystemPropertyUtil;
 import java.io.PrintWriter;
 import java.io.StringWriter;
-import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -14,6 +16,7 @@ import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 import org.dsa.iot.dslink.DSLink;
 import org.dsa.iot.dslink.DSLinkHandler;
 import org.dsa.iot.dslink.methods.Request;
@@ -41,10 +44,14 @@ import org.dsa.iot.dslink.node.NodePair;
 import org.dsa.iot.dslink.node.SubscriptionManager;
 import org.dsa.iot.dslink.node.value.SubscriptionValue;
 import org.dsa.iot.dslink.node.value.Value;
+import org.dsa.iot.dslink.node.value.ValueType;
+import org.dsa.iot.dslink.util.PropertyReference;
 import org.dsa.iot.dslink.util.StringUtils;
 import org.dsa.iot.dslink.util.SubData;
 import org.dsa.iot.dslink.util.handler.Handler;
 import org.dsa.iot.dslink.util.json.JsonObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * Handles incoming responses and outgoing requests.
@@ -53,6 +60,10 @@ import org.dsa.iot.dslink.util.json.JsonObject;
  */
 public class Requester extends Linkable {
 
+    private static final Logger LOGGER = LoggerFactory.getLogger(Requester.class);
+    private static final int SUBSCRIBE_BATCH_SIZE;
+    private static final int SUBSCRIBE_DELAY;
+
     /**
      * Current request ID to send to the client
      */
@@ -78,7 +89,27 @@ public class Requester extends Linkable {
      * Mapping of sid->handler
      */
     private final Map<Integer, Handler<SubscriptionValue>> subUpdates = new ConcurrentHashMap<>();
+    /**
+     * Mapping of sid->subscription, indexed by the sid itself. Only
+     * replaced while holding the requester lock.
+     */
+    private volatile AtomicReferenceArray<Subscription> subTable = new AtomicReferenceArray<>(16);
+    /**
+     * Sids that can be taken again, used as a stack so the sid table
+     * only grows with the number of concurrent subscriptions. Guarded by
+     * the requester lock.
+     */
+    private int[] freeSids = new int[16];
+    private int freeSidCount;
+    /**
+     * Incremented whenever the subscriptions are cleared, sids released
+     * by answers to unsubscribes sent before are ignored. Guarded by the
+     * requester lock.
+     */
+    private int sidEpoch;
+    private final SubscriptionBatcher batcher;
     private SubscriptionHelper subscriptionHelper;
+    private SubscriptionUpdate subscriptionUpdate;
 
     /**
      * Constructs a requester
@@ -88,6 +119,7 @@ public class Requester extends Linkable {
     public Requester(DSLinkHandler handler) {
         super(handler);
         reqs = new ConcurrentHashMap<>();
+        batcher = new SubscriptionBatcher(this, SUBSCRIBE_DELAY, SUBSCRIBE_BATCH_SIZE);
     }
 
     @Override
@@ -97,12 +129,20 @@ public class Requester extends Linkable {
 
     /**
      * Forcibly clears all subscriptions and handlers. This does not call
-     * unsubscribe to the server.
+     * unsubscribe to the server. Sids are handed out from 0 again,
+     * including the sids whose unsubscribe was not answered yet.
      */
     public void clearSubscriptions() {
-        subPaths.clear();
-        subSids.clear();
-        subUpdates.clear();
+        batcher.clear();
+        synchronized (this) {
+            subPaths.clear();
+            subSids.clear();
+            subUpdates.clear();
+            subTable = new AtomicReferenceArray<>(16);
+            freeSidCount = 0;
+            currentSubID.set(0);
+            sidEpoch++;
+        }
         invokeResponses.clear();
         if (subscriptionHelper != null) {
             subscriptionHelper.clear();
@@ -159,6 +199,20 @@ public class Requester extends Linkable {
         return subscriptionHelper;
     }
 
+    /**
+     * Looks up a subscription by its sid without boxing the sid.
+     *
+     * @param sid Subscription ID.
+     * @return The subscription, or {@code null} if the sid is unknown.
+     */
+    public Subscription getSubscription(int sid) {
+        AtomicReferenceArray<Subscription> table = subTable;
+        if (sid < 0 || sid >= table.length()) {
+            return null;
+        }
+        return table.get(sid);
+    }
+
     public Map<Integer, String> getSubscriptionIDs() {
         return Collections.unmodifiableMap(subSids);
     }
@@ -201,6 +255,29 @@ public class Requester extends Linkable {
         return sendRequest(wrapper);
     }
 
+    /**
+     * Handles a single subscription update that was streamed out of an
+     * incoming message.
+     *
+     * @param update Update in either list or map form.
+     * @see SubscriptionUpdate#populateUpdate(Object)
+     */
+    public void parseUpdate(Object update) {
+        if (getDSLink() == null) {
+            return;
+        }
+        getSubscriptionUpdate().populateUpdate(update);
+    }
+
+    private SubscriptionUpdate getSubscriptionUpdate() {
+        SubscriptionUpdate update = subscriptionUpdate;
+        if (update == null) {
+            update = new SubscriptionUpdate(this);
+            subscriptionUpdate = update;
+        }
+        return update;
+    }
+
     /**
      * Handles incoming responses.
      *
@@ -213,7 +290,7 @@ public class Requester extends Linkable {
         }
         int rid = in.get("rid");
         if (rid == 0) {
-            new SubscriptionUpdate(this).populate(in);
+            getSubscriptionUpdate().populate(in);
             return;
         }
         RequestWrapper wrapper = reqs.get(rid);
@@ -403,7 +480,7 @@ public class Requester extends Linkable {
             throw new NullPointerException("req");
         }
         final Set<SubData> paths = req.getPaths();
-        Map<SubData, Integer> subs = new HashMap<>();
+        final boolean mirror = req.isMirrorNodes();
         Iterator<SubData> it = paths.iterator();
         StringBuilder error = null;
         HandlerAdapter handler;
@@ -411,27 +488,39 @@ public class Requester extends Linkable {
         while (it.hasNext()) {
             try {
                 SubData data = it.next();
+                boolean fresh;
                 synchronized (this) {
                     String path = data.getPath();
                     subId = subPaths.get(path);
                     if (subId != null) {
                         handler = (HandlerAdapter) subUpdates.get(subId);
+                        int qos = handler.qos();
                         handler.add(data, onUpdate);
-                        Integer q = data.getQos();
-                        if (q == null) {
-                            q = 0;
-                        }
-                        if (handler.qos() != q) {
+                        if (handler.qos() == qos) {
+                            data = null;
+                        } else {
                             data = new SubData(path, handler.qos());
                         }
+                        Subscription sub = getSubscription(subId);
+                        if (mirror && sub != null) {
+                            sub.mirror = true;
+                        }
+                        fresh = false;
                     } else {
-                        subId = currentSubID.getAndIncrement();
+                        subId = nextSid();
+                        handler = new HandlerAdapter(data, onUpdate);
                         subPaths.put(path, subId);
                         subSids.put(subId, path);
-                        subUpdates.put(subId, new HandlerAdapter(data, onUpdate));
+                        subUpdates.put(subId, handler);
+                        putSubscription(subId, new Subscription(path, handler, mirror));
+                        fresh = true;
                     }
                 }
-                subs.put(data, subId);
+                // Paths that are already subscribed at the same qos need
+                // no request.
+                if (data != null) {
+                    batcher.subscribe(data, subId, fresh);
+                }
             } catch (IllegalArgumentException e) {
                 if (error == null) {
                     error = new StringBuilder();
@@ -443,14 +532,27 @@ public class Requester extends Linkable {
             }
         }
 
-        req.setSubSids(subs);
-        RequestWrapper wrapper = new RequestWrapper(req);
-        sendRequest(wrapper, currentReqID.incrementAndGet());
         if (error != null) {
             throw new RuntimeException(error.toString());
         }
     }
 
+    /**
+     * Subscribes every current subscription again, used after the
+     * connection was re-established. The subscriptions keep their sids and
+     * are sent in bulk.
+     */
+    public void resubscribe() {
+        for (Map.Entry<String, Integer> entry : subPaths.entrySet()) {
+            Integer sid = entry.getValue();
+            HandlerAdapter handler = (HandlerAdapter) subUpdates.get(sid);
+            if (handler != null) {
+                SubData data = new SubData(entry.getKey(), handler.qos());
+                batcher.subscribe(data, sid, false);
+            }
+        }
+    }
+
     /**
      * @deprecated
      */
@@ -487,7 +589,6 @@ public class Requester extends Linkable {
         if (paths == null) {
             throw new NullPointerException("paths");
         }
-        List<Integer> subs = new ArrayList<>();
         for (String path : paths) {
             if (subscriptionHelper != null) {
                 subscriptionHelper.clear(path);
@@ -495,24 +596,120 @@ public class Requester extends Linkable {
             path = NodeManager.normalizePath(path, true);
             Integer sid = subPaths.get(path);
             if (sid != null) {
+                boolean unsubscribe = false;
+                int epoch;
                 synchronized (this) {
+                    epoch = sidEpoch;
                     HandlerAdapter adapter = (HandlerAdapter) subUpdates.get(sid);
                     adapter.remove(onUpdate);
                     if (adapter.size() <= 0) {
-                        subs.add(sid);
                         subPaths.remove(path);
                         subSids.remove(sid);
                         subUpdates.remove(sid);
+                        putSubscription(sid, null);
+                        unsubscribe = true;
                     }
                 }
+                if (unsubscribe && !batcher.unsubscribe(path, sid)) {
+                    releaseSids(Collections.singletonList(sid), epoch);
+                }
             }
         }
-        UnsubscribeRequest req = new UnsubscribeRequest(subs);
+        batcher.unsubscribed(onResponse);
+    }
+
+    /**
+     * Sends a subscribe request for a batch of paths.
+     *
+     * @param subs Paths mapped to their sids.
+     */
+    void sendSubscribe(Map<SubData, Integer> subs) {
+        SubscribeRequest req = new SubscribeRequest(subs.keySet());
+        req.setSubSids(subs);
+        RequestWrapper wrapper = new RequestWrapper(req);
+        sendRequest(wrapper, currentReqID.incrementAndGet());
+    }
+
+    /**
+     * Sends an unsubscribe request for a batch of sids.
+     *
+     * @param sids       Sids to unsubscribe.
+     * @param onResponse Response, can be {@code null}.
+     */
+    void sendUnsubscribe(List<Integer> sids, Handler<UnsubscribeResponse> onResponse) {
+        UnsubscribeRequest req = new UnsubscribeRequest(sids);
         RequestWrapper wrapper = new RequestWrapper(req);
         wrapper.unsubHandler = onResponse;
         sendRequest(wrapper, currentReqID.incrementAndGet());
     }
 
+    /**
+     * @return Current sid epoch, to be passed back when releasing sids.
+     */
+    synchronized int sidEpoch() {
+        return sidEpoch;
+    }
+
+    /**
+     * Makes sids that are no longer subscribed available to new
+     * subscriptions. Sids of an earlier epoch are ignored, they were
+     * already freed when the subscriptions were cleared.
+     *
+     * @param sids  Sids whose unsubscribe was answered or never sent.
+     * @param epoch Sid epoch at the time the sids were unsubscribed.
+     */
+    synchronized void releaseSids(Collection<Integer> sids, int epoch) {
+        if (epoch != sidEpoch) {
+            return;
+        }
+        for (Integer sid : sids) {
+            if (freeSidCount == freeSids.length) {
+                freeSids = Arrays.copyOf(freeSids, freeSidCount << 1);
+            }
+            freeSids[freeSidCount++] = sid;
+        }
+    }
+
+    /**
+     * Must be called while holding the requester lock.
+     *
+     * @return A released sid or, if there is none, a new one.
+     */
+    private int nextSid() {
+        if (freeSidCount > 0) {
+            return freeSids[--freeSidCount];
+        }
+        return currentSubID.getAndIncrement();
+    }
+
+    /**
+     * Stores a subscription in the sid table, growing it as needed. Must
+     * be called while holding the requester lock.
+     *
+     * @param sid Subscription ID.
+     * @param sub Subscription to store, or {@code null} to remove it.
+     */
+    private void putSubscription(int sid, Subscription sub) {
+        AtomicReferenceArray<Subscription> table = subTable;
+        if (sid >= table.length()) {
+            if (sub == null) {
+                return;
+            }
+            int len = table.length();
+            while (sid >= len) {
+                len <<= 1;
+            }
+            AtomicReferenceArray<Subscription> grown = new AtomicReferenceArray<>(len);
+            for (int i = 0; i < table.length(); i++) {
+                grown.lazySet(i, table.get(i));
+            }
+            grown.set(sid, sub);
+            subTable = grown;
+            return;
+        }
+        table.set(sid, sub);
+    }
+
     /**
      * Sends a request to the client.
      *
@@ -566,6 +763,63 @@ public class Requester extends Linkable {
         link.getWriter().writeRequest(obj, merge);
     }
 
+    /**
+     * State of a single subscription, looked up by sid when updates
+     * arrive.
+     */
+    public static final class Subscription {
+
+        private final String path;
+        private final Handler<SubscriptionValue> handler;
+        private volatile boolean mirror;
+        private volatile ValueType type;
+
+        Subscription(String path,
+                     Handler<SubscriptionValue> handler,
+                     boolean mirror) {
+            this.path = path;
+            this.handler = handler;
+            this.mirror = mirror;
+        }
+
+        /**
+         * @return Path of the subscription.
+         */
+        public String getPath() {
+            return path;
+        }
+
+        /**
+         * @return Handler receiving the updates of the subscription.
+         */
+        public Handler<SubscriptionValue> getHandler() {
+            return handler;
+        }
+
+        /**
+         * @return Whether updates are mirrored into the node manager.
+         * @see SubscribeRequest#setMirrorNodes(boolean)
+         */
+        public boolean isMirrored() {
+            return mirror;
+        }
+
+        /**
+         * @return Type of the last update, used for updates without a
+         * value when the node tree is not mirrored.
+         */
+        public ValueType getValueType() {
+            return type;
+        }
+
+        /**
+         * @param type Type of the last update.
+         */
+        public void setValueType(ValueType type) {
+            this.type = type;
+        }
+    }
+
     /**
      * Facade for multiple subscription handlers.
      */
@@ -736,4 +990,14 @@ public class Requester extends Linkable {
         }
 
     }
+
+    static {
+        String s = PropertyReference.SUBSCRIBE_BATCH_SIZE;
+        SUBSCRIBE_BATCH_SIZE = SystemPropertyUtil.getInt(s, 1000);
+        LOGGER.debug("-D{}: {}", s, SUBSCRIBE_BATCH_SIZE);
+
+        s = PropertyReference.SUBSCRIBE_DELAY;
+        SUBSCRIBE_DELAY = SystemPropertyUtil.getInt(s, 10);
+        LOGGER.debug("-D{}: {}", s, SUBSCRIBE_DELAY);
+    }
 }
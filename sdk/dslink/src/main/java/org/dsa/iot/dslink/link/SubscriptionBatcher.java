@@ -0,0 +1,278 @@
+package org.dsa.iot.dslink.link;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.dsa.iot.dslink.methods.responses.UnsubscribeResponse;
+import org.dsa.iot.dslink.provider.LoopProvider;
+import org.dsa.iot.dslink.util.SubData;
+import org.dsa.iot.dslink.util.handler.Handler;
+
+/**
+ * Coalesces the subscribe and unsubscribe calls of a requester so that they
+ * are sent as few, size bounded requests. Pending subscriptions are keyed
+ * by path, only the latest subscription of a path is sent. A new
+ * subscription that is unsubscribed before it was sent is dropped without
+ * sending either.
+ */
+class SubscriptionBatcher implements Runnable {
+
+    private final Object flushLock = new Object();
+    private final Requester requester;
+    private final long delay;
+    private final int batchSize;
+    private Map<String, Pending> subscribes = new LinkedHashMap<>();
+    private Set<Integer> unsubscribes = new LinkedHashSet<>();
+    private List<Handler<UnsubscribeResponse>> unsubHandlers = new ArrayList<>();
+    private boolean unsubscribeRequested;
+    private boolean scheduled;
+
+    /**
+     * @param requester Requester that sends the batched requests.
+     * @param delay     Milliseconds to accumulate calls before they are
+     *                  flushed.
+     * @param batchSize Maximum number of paths or sids per request, 0 or
+     *                  less for no limit.
+     */
+    SubscriptionBatcher(Requester requester, long delay, int batchSize) {
+        if (requester == null) {
+            throw new NullPointerException("requester");
+        }
+        this.requester = requester;
+        this.delay = delay;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * @param data  Path and qos to subscribe to.
+     * @param sid   Subscription ID of the path.
+     * @param fresh Whether the sid was never sent before.
+     */
+    void subscribe(SubData data, int sid, boolean fresh) {
+        boolean flush;
+        synchronized (this) {
+            String path = data.getPath();
+            Pending prev = subscribes.get(path);
+            if (prev != null && prev.sid == sid) {
+                fresh |= prev.fresh;
+            }
+            subscribes.put(path, new Pending(data, sid, fresh));
+            flush = schedule();
+        }
+        if (flush) {
+            run();
+        }
+    }
+
+    /**
+     * @param path Path to unsubscribe from.
+     * @param sid  Subscription ID of the path.
+     * @return Whether an unsubscribe request is sent for the sid, the sid
+     * is released once it is answered.
+     */
+    boolean unsubscribe(String path, int sid) {
+        boolean flush;
+        synchronized (this) {
+            Pending pending = subscribes.get(path);
+            if (pending != null && pending.sid == sid) {
+                subscribes.remove(path);
+                if (pending.fresh) {
+                    return false;
+                }
+            }
+            unsubscribes.add(sid);
+            flush = schedule();
+        }
+        if (flush) {
+            run();
+        }
+        return true;
+    }
+
+    /**
+     * Ensures an unsubscribe request is sent with the next flush.
+     *
+     * @param handler Called when the last unsubscribe request of the flush
+     *                is answered, can be {@code null}.
+     */
+    void unsubscribed(Handler<UnsubscribeResponse> handler) {
+        boolean flush;
+        synchronized (this) {
+            unsubscribeRequested = true;
+            if (handler != null) {
+                unsubHandlers.add(handler);
+            }
+            flush = schedule();
+        }
+        if (flush) {
+            run();
+        }
+    }
+
+    /**
+     * Discards all pending calls.
+     */
+    synchronized void clear() {
+        subscribes.clear();
+        unsubscribes.clear();
+        unsubHandlers.clear();
+        unsubscribeRequested = false;
+    }
+
+    /**
+     * @return The number of pending paths and sids.
+     */
+    synchronized int size() {
+        return subscribes.size() + unsubscribes.size();
+    }
+
+    /**
+     * Sends all pending calls. Flushes are serialized so that requests are
+     * sent in the order they were taken.
+     */
+    @Override
+    public void run() {
+        synchronized (flushLock) {
+            flush();
+        }
+    }
+
+    private void flush() {
+        Map<String, Pending> subs;
+        Set<Integer> unsubs;
+        List<Handler<UnsubscribeResponse>> handlers;
+        boolean unsubscribe;
+        // Taken first so that sids cleared during the flush are never
+        // released into the next epoch.
+        int epoch = requester.sidEpoch();
+        synchronized (this) {
+            scheduled = false;
+            subs = subscribes;
+            unsubs = unsubscribes;
+            handlers = unsubHandlers;
+            unsubscribe = unsubscribeRequested || !unsubs.isEmpty();
+            if (!unsubscribe && subs.isEmpty()) {
+                return;
+            }
+            subscribes = new LinkedHashMap<>();
+            unsubscribes = new LinkedHashSet<>();
+            unsubHandlers = new ArrayList<>();
+            unsubscribeRequested = false;
+        }
+
+        if (unsubscribe) {
+            List<Integer> chunk = new ArrayList<>();
+            int remaining = unsubs.size();
+            for (Integer sid : unsubs) {
+                chunk.add(sid);
+                remaining--;
+                if (isFull(chunk.size()) && remaining > 0) {
+                    requester.sendUnsubscribe(chunk, release(chunk, epoch, null));
+                    chunk = new ArrayList<>();
+                }
+            }
+            requester.sendUnsubscribe(chunk, release(chunk, epoch, combine(handlers)));
+        }
+
+        Map<SubData, Integer> chunk = new LinkedHashMap<>();
+        for (Pending pending : subs.values()) {
+            chunk.put(pending.data, pending.sid);
+            if (isFull(chunk.size())) {
+                requester.sendSubscribe(chunk);
+                chunk = new LinkedHashMap<>();
+            }
+        }
+        if (!chunk.isEmpty()) {
+            requester.sendSubscribe(chunk);
+        }
+    }
+
+    private boolean isFull(int size) {
+        return (batchSize > 0) && (size >= batchSize);
+    }
+
+    /**
+     * Schedules a flush unless one is scheduled already.
+     *
+     * @return Whether the batch size is reached and the caller must flush.
+     */
+    private boolean schedule() {
+        if (isFull(subscribes.size() + unsubscribes.size())) {
+            return true;
+        }
+        if (!scheduled) {
+            scheduled = true;
+            LoopProvider provider = LoopProvider.getProvider();
+            if (delay <= 0) {
+                provider.schedule(this);
+            } else {
+                provider.schedule(this, delay, TimeUnit.MILLISECONDS);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Sids are only reused once the unsubscribe was answered so that late
+     * updates of the old subscription never reach a new one.
+     *
+     * @return A handler that releases the sids and calls the given
+     * handler.
+     */
+    private Handler<UnsubscribeResponse> release(
+            final List<Integer> sids,
+            final int epoch,
+            final Handler<UnsubscribeResponse> handler) {
+        if (sids.isEmpty()) {
+            return handler;
+        }
+        return new Handler<UnsubscribeResponse>() {
+            @Override
+            public void handle(UnsubscribeResponse event) {
+                requester.releaseSids(sids, epoch);
+                if (handler != null) {
+                    handler.handle(event);
+                }
+            }
+        };
+    }
+
+    private static Handler<UnsubscribeResponse> combine(
+            final List<Handler<UnsubscribeResponse>> handlers) {
+        if (handlers.isEmpty()) {
+            return null;
+        } else if (handlers.size() == 1) {
+            return handlers.get(0);
+        }
+        return new Handler<UnsubscribeResponse>() {
+            @Override
+            public void handle(UnsubscribeResponse event) {
+                for (Handler<UnsubscribeResponse> handler : handlers) {
+                    handler.handle(event);
+                }
+            }
+        };
+    }
+
+    private static class Pending {
+
+        private final SubData data;
+        private final int sid;
+
+        /**
+         * Whether the sid was never sent, an unsubscribe of it needs no
+         * request.
+         */
+        private final boolean fresh;
+
+        Pending(SubData data, int sid, boolean fresh) {
+            this.data = data;
+            this.sid = sid;
+            this.fresh = fresh;
+        }
+    }
+}
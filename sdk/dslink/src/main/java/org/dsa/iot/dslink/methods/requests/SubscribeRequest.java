@@ -16,6 +16,7 @@ public class SubscribeRequest extends Request {
 
     private Map<SubData, Integer> subSids;
     private final Set<SubData> paths;
+    private boolean mirrorNodes = true;
 
     /**
      * @param paths Paths to subscribe to.
@@ -31,6 +32,26 @@ public class SubscribeRequest extends Request {
         return Collections.unmodifiableSet(paths);
     }
 
+    /**
+     * By default every update is mirrored into the requester's node
+     * manager, creating a node for each subscribed path. Requesters that
+     * only need the update handler can disable this to skip the node
+     * tree entirely. A path stays mirrored if any subscription to it
+     * asked for mirroring.
+     *
+     * @param mirrorNodes Whether updates are mirrored into nodes.
+     */
+    public void setMirrorNodes(boolean mirrorNodes) {
+        this.mirrorNodes = mirrorNodes;
+    }
+
+    /**
+     * @return Whether updates are mirrored into nodes.
+     */
+    public boolean isMirrorNodes() {
+        return mirrorNodes;
+    }
+
     public void setSubSids(Map<SubData, Integer> sids) {
         this.subSids = sids;
     }
@@ -1,5 +1,6 @@
 package org.dsa.iot.dslink.methods.responses;
 
+import io.netty.util.internal.SystemPropertyUtil;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -21,23 +22,31 @@ import org.dsa.iot.dslink.node.actions.ResultType;
 import org.dsa.iot.dslink.node.value.Value;
 import org.dsa.iot.dslink.node.value.ValueType;
 import org.dsa.iot.dslink.node.value.ValueUtils;
+import org.dsa.iot.dslink.util.PropertyReference;
 import org.dsa.iot.dslink.util.StringUtils;
 import org.dsa.iot.dslink.util.TimeUtils;
 import org.dsa.iot.dslink.util.handler.Handler;
 import org.dsa.iot.dslink.util.json.JsonArray;
 import org.dsa.iot.dslink.util.json.JsonObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * @author Samuel Grenier
  */
 public class ListResponse extends Response {
 
+    private static final Logger LOGGER = LoggerFactory.getLogger(ListResponse.class);
+    private static final int CHUNK_SIZE;
+    private static final int UPDATE_DELAY;
+
     private final DSLink link;
     private final SubscriptionManager manager;
     private Node node;
     private final String path;
     private final int rid;
     private final Map<Node, Boolean> updates = new HashMap<>();
+    private final ListUpdateBuffer buffer;
 
     public ListResponse(DSLink link, SubscriptionManager manager,
                         int rid, Node node, String path) {
@@ -53,21 +62,25 @@ public class ListResponse extends Response {
         this.rid = rid;
         this.node = node;
         this.path = path;
+        this.buffer = new ListUpdateBuffer(new Handler<JsonArray>() {
+            @Override
+            public void handle(JsonArray event) {
+                writeUpdates(event);
+            }
+        }, UPDATE_DELAY, CHUNK_SIZE);
     }
 
     public void childUpdate(Node child, boolean removed) {
-        JsonArray updates = new JsonArray();
-        updates.add(getChildUpdate(child, removed));
-
-        JsonObject resp = new JsonObject();
-        resp.put("rid", getRid());
-        resp.put("stream", StreamState.OPEN.getJsonName());
-        resp.put("updates", updates);
-        link.getWriter().writeResponse(resp);
+        if (removed) {
+            buffer.childRemoved(child);
+        } else {
+            buffer.childAdded(child);
+        }
     }
 
     @Override
     public JsonObject getCloseResponse() {
+        buffer.close();
         manager.removePathSub(node);
         if (node != null) {
             NodeListener listener = node.getListener();
@@ -83,6 +96,8 @@ public class ListResponse extends Response {
 
     @Override
     public JsonObject getJsonResponse(JsonObject in) {
+        // The entire state supersedes any pending change
+        buffer.clear();
         JsonObject out = new JsonObject();
         out.put("rid", getRid());
         out.put("stream", StreamState.OPEN.getJsonName());
@@ -199,12 +214,23 @@ public class ListResponse extends Response {
                 updates.add(update);
             }
 
-            // Children
+            // Children, streamed in chunks while the list initializes
             Map<String, Node> children = node.getChildren();
             if (children != null) {
+                int count = 0;
                 for (Node child : children.values()) {
-                    Object update = getChildUpdate(child, false);
-                    updates.add(update);
+                    if ((CHUNK_SIZE > 0) && (count++ == CHUNK_SIZE)) {
+                        out.put("stream", StreamState.INITIALIZED.getJsonName());
+                        out.put("updates", updates);
+                        link.getWriter().writeResponse(out, false);
+
+                        out = new JsonObject();
+                        out.put("rid", getRid());
+                        out.put("stream", StreamState.OPEN.getJsonName());
+                        updates = new JsonArray();
+                        count = 1;
+                    }
+                    updates.add(getChildSummary(child));
                 }
             }
         }
@@ -235,41 +261,25 @@ public class ListResponse extends Response {
     }
 
     public void metaUpdate(String name, Value value) {
-        JsonArray updates = new JsonArray();
         if (value != null) {
             JsonArray update = new JsonArray();
             update.add(name);
 
             update.add(value);
             update.add(value.getTimeStamp());
-
-            updates.add(update);
+            buffer.metaUpdate(name, update);
         } else {
             JsonObject obj = new JsonObject();
             obj.put("name", name);
             obj.put("change", "remove");
-            updates.add(obj);
+            buffer.metaUpdate(name, obj);
         }
-
-        JsonObject resp = new JsonObject();
-        resp.put("rid", getRid());
-        resp.put("stream", StreamState.OPEN.getJsonName());
-        resp.put("updates", updates);
-        link.getWriter().writeResponse(resp);
     }
 
     public void multiChildrenUpdate(List<Node> children) {
-        JsonArray updates = new JsonArray();
-
         for (Node child : children) {
-            updates.add(getChildUpdate(child, false));
+            buffer.childAdded(child);
         }
-
-        JsonObject resp = new JsonObject();
-        resp.put("rid", getRid());
-        resp.put("stream", StreamState.OPEN.getJsonName());
-        resp.put("updates", updates);
-        link.getWriter().writeResponse(resp);
     }
 
     public void nodeAdded(Node node) {
@@ -296,6 +306,14 @@ public class ListResponse extends Response {
         }
     }
 
+    private void writeUpdates(JsonArray updates) {
+        JsonObject resp = new JsonObject();
+        resp.put("rid", getRid());
+        resp.put("stream", StreamState.OPEN.getJsonName());
+        resp.put("updates", updates);
+        link.getWriter().writeResponse(resp);
+    }
+
     /**
      * @param prefix Prefix to use (whether its an attribute or config)
      * @param out    Updates array
@@ -313,14 +331,46 @@ public class ListResponse extends Response {
         }
     }
 
-    private Object getChildUpdate(Node child, boolean removed) {
-        if (removed) {
-            JsonObject obj = new JsonObject();
-            obj.put("name", child.getName());
-            obj.put("change", "remove");
-            return obj;
+    /**
+     * Gets the summary of a child from its cache, or builds and caches it
+     * when the child changed since it was last listed.
+     */
+    static JsonArray getChildSummary(Node child) {
+        JsonArray cached = child.getListSummary();
+        if (isCurrent(child, cached)) {
+            return cached;
         }
+        // Claims the cache so that a concurrent change of the child
+        // prevents caching a summary of its previous state.
+        JsonArray claim = new JsonArray();
+        if (!child.compareAndSetListSummary(cached, claim)) {
+            return buildChildSummary(child);
+        }
+        JsonArray summary = buildChildSummary(child);
+        child.compareAndSetListSummary(claim, summary);
+        return summary;
+    }
 
+    /**
+     * Actions can change without the node being notified, their part of
+     * the summary is validated on every use.
+     */
+    private static boolean isCurrent(Node child, JsonArray summary) {
+        if (summary == null || summary.size() == 0) {
+            return false;
+        }
+        JsonObject data = summary.get(1);
+        Action action = child.getAction();
+        if (action == null) {
+            return data.get("$invokable") == null;
+        }
+        String perm = action.getPermission().getJsonName();
+        String result = action.getResultType().getJsonName();
+        return perm.equals(data.get("$invokable"))
+                && result.equals(data.get("$result"));
+    }
+
+    private static JsonArray buildChildSummary(Node child) {
         JsonArray update = new JsonArray();
         update.add(child.getName());
 
@@ -597,4 +647,14 @@ public class ListResponse extends Response {
             throw new RuntimeException("Unhandled update: " + in);
         }
     }
+
+    static {
+        String s = PropertyReference.LIST_CHUNK_SIZE;
+        CHUNK_SIZE = SystemPropertyUtil.getInt(s, 1000);
+        LOGGER.debug("-D{}: {}", s, CHUNK_SIZE);
+
+        s = PropertyReference.LIST_UPDATE_DELAY;
+        UPDATE_DELAY = SystemPropertyUtil.getInt(s, 10);
+        LOGGER.debug("-D{}: {}", s, UPDATE_DELAY);
+    }
 }
@@ -0,0 +1,211 @@
+package org.dsa.iot.dslink.methods.responses;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.dsa.iot.dslink.node.Node;
+import org.dsa.iot.dslink.provider.LoopProvider;
+import org.dsa.iot.dslink.util.handler.Handler;
+import org.dsa.iot.dslink.util.json.JsonArray;
+import org.dsa.iot.dslink.util.json.JsonObject;
+
+/**
+ * Accumulates the updates of a list stream so that bursts of changes are
+ * written as a single message. Changes are keyed by name, only the latest
+ * change of a child or metadata field is written. Child summaries are built
+ * when the updates are flushed so they reflect the latest state of the
+ * child. A child that is added and then removed before the flush is only
+ * written as removed.
+ */
+class ListUpdateBuffer implements Runnable {
+
+    private final Object flushLock = new Object();
+    private final Handler<JsonArray> writer;
+    private final long delay;
+    private final int threshold;
+    private Map<String, Change> changes = new LinkedHashMap<>();
+    private boolean scheduled;
+    private boolean closed;
+
+    /**
+     * @param writer    Writes the updates of a flush.
+     * @param delay     Milliseconds to accumulate changes before they are
+     *                  flushed.
+     * @param threshold Number of pending changes that causes an immediate
+     *                  flush, 0 or less for no limit.
+     */
+    ListUpdateBuffer(Handler<JsonArray> writer, long delay, int threshold) {
+        if (writer == null) {
+            throw new NullPointerException("writer");
+        }
+        this.writer = writer;
+        this.delay = delay;
+        this.threshold = threshold;
+    }
+
+    void childAdded(Node child) {
+        boolean flush;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            String name = child.getName();
+            Change change = changes.get(name);
+            if (change == null) {
+                change = new Change();
+                changes.put(name, change);
+            }
+            change.child = child;
+            flush = schedule();
+        }
+        if (flush) {
+            run();
+        }
+    }
+
+    void childRemoved(Node child) {
+        boolean flush;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            String name = child.getName();
+            Change change = changes.get(name);
+            if (change == null) {
+                change = new Change();
+                changes.put(name, change);
+            }
+            // Removing an unknown child is harmless, an add that was never
+            // written is simply dropped.
+            change.child = null;
+            change.removed = true;
+            flush = schedule();
+        }
+        if (flush) {
+            run();
+        }
+    }
+
+    /**
+     * @param name   Name of the metadata field.
+     * @param update Update of the field, replaces any pending update of it.
+     */
+    void metaUpdate(String name, Object update) {
+        boolean flush;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            Change change = new Change();
+            change.update = update;
+            changes.put(name, change);
+            flush = schedule();
+        }
+        if (flush) {
+            run();
+        }
+    }
+
+    /**
+     * Discards all pending changes, called when the entire state of the
+     * stream is written.
+     */
+    synchronized void clear() {
+        changes.clear();
+    }
+
+    /**
+     * Discards all pending changes and ignores any further changes.
+     */
+    synchronized void close() {
+        closed = true;
+        changes.clear();
+    }
+
+    /**
+     * @return The number of pending changes.
+     */
+    synchronized int size() {
+        return changes.size();
+    }
+
+    /**
+     * Writes all pending changes. Flushes are serialized so that they are
+     * written in the order they were taken.
+     */
+    @Override
+    public void run() {
+        synchronized (flushLock) {
+            flush();
+        }
+    }
+
+    private void flush() {
+        Map<String, Change> pending;
+        synchronized (this) {
+            scheduled = false;
+            if (closed || changes.isEmpty()) {
+                return;
+            }
+            pending = changes;
+            changes = new LinkedHashMap<>();
+        }
+        JsonArray updates = new JsonArray();
+        for (Map.Entry<String, Change> entry : pending.entrySet()) {
+            Change change = entry.getValue();
+            if (change.update != null) {
+                updates.add(change.update);
+                continue;
+            }
+            if (change.removed) {
+                JsonObject obj = new JsonObject();
+                obj.put("name", entry.getKey());
+                obj.put("change", "remove");
+                updates.add(obj);
+            }
+            if (change.child != null) {
+                updates.add(ListResponse.getChildSummary(change.child));
+            }
+        }
+        writer.handle(updates);
+    }
+
+    /**
+     * Schedules a flush unless one is scheduled already.
+     *
+     * @return Whether the threshold is reached and the caller must flush.
+     */
+    private boolean schedule() {
+        if ((threshold > 0) && (changes.size() >= threshold)) {
+            return true;
+        }
+        if (!scheduled) {
+            scheduled = true;
+            LoopProvider provider = LoopProvider.getProvider();
+            if (delay <= 0) {
+                provider.schedule(this);
+            } else {
+                provider.schedule(this, delay, TimeUnit.MILLISECONDS);
+            }
+        }
+        return false;
+    }
+
+    private static class Change {
+
+        /**
+         * Child to write the summary of.
+         */
+        private Node child;
+
+        /**
+         * Whether a remove is written before the summary of the child.
+         */
+        private boolean removed;
+
+        /**
+         * Metadata update to write.
+         */
+        private Object update;
+    }
+}
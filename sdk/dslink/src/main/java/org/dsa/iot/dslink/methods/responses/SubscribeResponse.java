@@ -49,6 +49,7 @@ public class SubscribeResponse extends Response {
                     String path = subData.get("path");
                     int sid = subData.get("sid");
                     int qos = subData.get("qos", 0);
+                    Number rollup = subData.get("rollup");
 
                     NodeManager nm = link.getNodeManager();
                     NodePair pair = nm.getNode(path, false, false);
@@ -57,7 +58,11 @@ public class SubscribeResponse extends Response {
                         DSLinkHandler h = link.getLinkHandler();
                         h.onSubscriptionFail(path);
                     }
-                    manager.addValueSub(path, sid, qos);
+                    if (rollup != null) {
+                        manager.addValueSub(path, sid, qos, rollup.intValue());
+                    } else {
+                        manager.addValueSub(path, sid, qos);
+                    }
                 } catch (Exception e) {
                     if (builder == null) {
                         builder = new StringBuilder();
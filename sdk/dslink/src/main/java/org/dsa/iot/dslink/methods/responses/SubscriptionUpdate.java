@@ -12,8 +12,6 @@ import org.dsa.iot.dslink.util.handler.Handler;
 import org.dsa.iot.dslink.util.json.JsonArray;
 import org.dsa.iot.dslink.util.json.JsonObject;
 
-import java.util.Map;
-
 /**
  * @author Samuel Grenier
  */
@@ -23,8 +21,16 @@ public class SubscriptionUpdate extends Response {
     private final NodeManager manager;
 
     public SubscriptionUpdate(Requester requester) {
+        this(requester, requester.getDSLink().getNodeManager());
+    }
+
+    /**
+     * @param requester Requester the subscriptions belong to.
+     * @param manager   Node manager that mirrored updates are written to.
+     */
+    public SubscriptionUpdate(Requester requester, NodeManager manager) {
         this.requester = requester;
-        this.manager = requester.getDSLink().getNodeManager();
+        this.manager = manager;
     }
 
     @Override
@@ -35,65 +41,83 @@ public class SubscriptionUpdate extends Response {
     @Override
     public void populate(JsonObject in) {
         JsonArray updates = in.get("updates");
-        Map<Integer, String> paths = requester.getSubscriptionIDs();
-        Map<Integer, Handler<SubscriptionValue>> handlers = requester.getSubscriptionHandlers();
         if (updates != null) {
             for (Object obj : updates) {
-                int rid;
-                String path;
-                Object valueObj;
-                String timestamp;
-                Number count = null;
-                Number sum = null;
-                Number min = null;
-                Number max = null;
-
-                if (obj instanceof JsonArray) {
-                    JsonArray update = (JsonArray) obj;
-                    rid = update.get(0);
-                    path = paths.get(rid);
-                    valueObj = update.get(1);
-                    timestamp = update.get(2);
-                } else if (obj instanceof JsonObject) {
-                    JsonObject update = (JsonObject) obj;
-                    rid = update.get("sid");
-                    path = paths.get(rid);
-                    valueObj = update.get("value");
-                    timestamp = update.get("ts");
-                    count = update.get("count");
-                    sum = update.get("sum");
-                    min = update.get("min");
-                    max = update.get("max");
-                } else {
-                    String err = "Invalid subscription update: " + in;
-                    throw new RuntimeException(err);
-                }
-                if (path == null) {
-                    continue;
-                }
+                populateUpdate(obj);
+            }
+        }
+    }
 
-                final Node node = manager.getNode(path, true).getNode();
-                Value val = ValueUtils.toValue(valueObj, timestamp);
-                if (val == null) {
-                    ValueType type = node.getValueType();
-                    if (type != null) {
-                        val = ValueUtils.toEmptyValue(type, timestamp);
-                    } else {
-                        continue;
-                    }
-                }
+    /**
+     * Processes a single entry of an {@code updates} array. This allows
+     * updates to be handled as they are decoded from the network without
+     * collecting the whole array first.
+     *
+     * @param obj Update in either list or map form.
+     */
+    public void populateUpdate(Object obj) {
+        int rid;
+        Object valueObj;
+        String timestamp;
+        Number count = null;
+        Number sum = null;
+        Number min = null;
+        Number max = null;
 
-                Handler<SubscriptionValue> handler = handlers.get(rid);
-                SubscriptionValue value;
-                if (handler != null) {
-                    value = new SubscriptionValue(path, val, count, sum, min, max);
-                    handler.handle(value);
-                }
+        if (obj instanceof JsonArray) {
+            JsonArray update = (JsonArray) obj;
+            rid = update.get(0);
+            valueObj = update.get(1);
+            timestamp = update.get(2);
+        } else if (obj instanceof JsonObject) {
+            JsonObject update = (JsonObject) obj;
+            rid = update.get("sid");
+            valueObj = update.get("value");
+            timestamp = update.get("ts");
+            count = update.get("count");
+            sum = update.get("sum");
+            min = update.get("min");
+            max = update.get("max");
+        } else {
+            String err = "Invalid subscription update: " + obj;
+            throw new RuntimeException(err);
+        }
+        Requester.Subscription sub = requester.getSubscription(rid);
+        if (sub == null) {
+            return;
+        }
+        String path = sub.getPath();
 
-                node.setValueType(val.getType());
-                node.setValue(val);
+        Node node = null;
+        ValueType type;
+        if (sub.isMirrored()) {
+            node = manager.getNode(path, true).getNode();
+            type = node.getValueType();
+        } else {
+            type = sub.getValueType();
+        }
+        Value val = ValueUtils.toValue(valueObj, timestamp);
+        if (val == null) {
+            if (type != null) {
+                val = ValueUtils.toEmptyValue(type, timestamp);
+            } else {
+                return;
             }
         }
+
+        Handler<SubscriptionValue> handler = sub.getHandler();
+        if (handler != null) {
+            SubscriptionValue value;
+            value = new SubscriptionValue(path, val, count, sum, min, max);
+            handler.handle(value);
+        }
+
+        if (node != null) {
+            node.setValueType(val.getType());
+            node.setValue(val);
+        } else if (type != val.getType()) {
+            sub.setValueType(val.getType());
+        }
     }
 
     @Override
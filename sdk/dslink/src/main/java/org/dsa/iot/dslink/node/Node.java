@@ -1,6 +1,6 @@
 package org.dsa.iot.dslink.node;
 
-import java.lang.ref.WeakReference;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -9,6 +9,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 import org.dsa.iot.dslink.link.Linkable;
 import org.dsa.iot.dslink.node.NodeListener.ValueUpdate;
 import org.dsa.iot.dslink.node.actions.Action;
@@ -17,41 +18,48 @@ import org.dsa.iot.dslink.node.value.ValuePair;
 import org.dsa.iot.dslink.node.value.ValueType;
 import org.dsa.iot.dslink.serializer.SerializationManager;
 import org.dsa.iot.dslink.util.StringUtils;
+import org.dsa.iot.dslink.util.json.JsonArray;
 
 /**
  * Contains information about a node and its data.
+ * <p>
+ * The layout is kept compact so that trees of millions of nodes fit in
+ * memory. A private lock guards the mutable state and is never held while
+ * listeners or the link are called, the path is derived from the parent,
+ * the listener is created when it is first used and configurations and
+ * attributes are held in small inline maps.
  *
  * @author Samuel Grenier
  */
 public class Node {
 
+    private static final AtomicReferenceFieldUpdater<Node, JsonArray> LIST_SUMMARY
+            = AtomicReferenceFieldUpdater.newUpdater(Node.class, JsonArray.class, "listSummary");
+    private static final AtomicReferenceFieldUpdater<Node, NodeListener> LISTENER
+            = AtomicReferenceFieldUpdater.newUpdater(Node.class, NodeListener.class, "listener");
     private static final char[] BANNED_CHARS = new char[]{
             '%', '.', '/', '\\', '?', '*', ':', '|', '<', '>', '$', '@', ','
     };
 
-    private final Object roConfigLock = new Object();
-    private final Object configLock = new Object();
-
-    private final Object attributeLock = new Object();
-    private final Object interfaceLock = new Object();
-    private final Object childrenLock = new Object();
-    private final Object passwordLock = new Object();
-    private final Object valueLock = new Object();
-
-    private final WeakReference<Node> parent;
+    /**
+     * Guards the configs, attributes, interfaces, children, password and
+     * value. Listeners, the subscription manager and the serialization
+     * manager are never called while it is held.
+     */
+    private final Object lock = new Object();
+    private final Node parent;
     private final Linkable link;
-    private final String path;
     private final String name;
 
     private boolean serializable = true;
     private Map<String, Node> children;
-    private NodeListener listener;
+    private volatile NodeListener listener;
     private Writable writable;
     private Object metaData;
 
-    private Map<String, Value> roConfigs;
-    private Map<String, Value> configs;
-    private Map<String, Value> attribs;
+    private ValueMap roConfigs;
+    private ValueMap configs;
+    private ValueMap attribs;
     private Boolean hasChildren;
     private boolean hidden;
 
@@ -67,6 +75,24 @@ public class Node {
 
     private boolean shouldPostCachedValue = true;
 
+    /**
+     * Value subscription of this node, resolved lazily by the
+     * {@link SubscriptionManager} so updates avoid the path lookup.
+     */
+    volatile SubscriptionManager.Subscription subscription;
+
+    /**
+     * Version of the {@link SubscriptionManager} value subscriptions at
+     * which this node was last found to have no subscription.
+     */
+    volatile int noSubscription;
+
+    /**
+     * Summary of this node as listed by its parent. Discarded whenever the
+     * structure or metadata of the node changes, value updates keep it.
+     */
+    private volatile JsonArray listSummary;
+
     /**
      * Constructs a node object.
      *
@@ -79,8 +105,7 @@ public class Node {
     }
 
     public Node(String name, Node parent, Linkable link, boolean shouldEncodeName) {
-        this.parent = new WeakReference<>(parent);
-        this.listener = new NodeListener(this);
+        this.parent = parent;
         this.link = link;
         if (shouldEncodeName) {
             name = StringUtils.encodeName(name);
@@ -88,28 +113,17 @@ public class Node {
         if (name == null) {
             throw new IllegalArgumentException("name");
         }
-        if (parent != null) {
-            if (name.isEmpty()) {
-                throw new IllegalArgumentException("name");
-            }
-            this.name = name;
-            if (parent instanceof NodeManager.SuperRoot) {
-                this.path = "/" + name;
-            } else {
-                this.path = parent.getPath() + "/" + name;
-            }
-        } else {
-            this.path = "/" + name;
-            this.name = name;
+        if (parent != null && name.isEmpty()) {
+            throw new IllegalArgumentException("name");
         }
+        this.name = name;
     }
 
     /**
-     * @return Parent of this node, can be null if the parent was garbage
-     * collected or there is no parent.
+     * @return Parent of this node, can be null if there is no parent.
      */
     public Node getParent() {
-        return parent.get();
+        return parent;
     }
 
     /**
@@ -131,7 +145,26 @@ public class Node {
      * @return Formalized path of this node.
      */
     public String getPath() {
-        return path;
+        int len = 0;
+        Node node = this;
+        while (true) {
+            len += node.name.length() + 1;
+            Node parent = node.parent;
+            if (parent == null || parent instanceof NodeManager.SuperRoot) {
+                break;
+            }
+            node = parent;
+        }
+        char[] path = new char[len];
+        node = this;
+        while (len > 0) {
+            String name = node.name;
+            len -= name.length();
+            name.getChars(0, name.length(), path, len);
+            path[--len] = '/';
+            node = node.parent;
+        }
+        return new String(path);
     }
 
     /**
@@ -181,6 +214,20 @@ public class Node {
      * @return The node's listener.
      */
     public NodeListener getListener() {
+        NodeListener listener = this.listener;
+        if (listener == null) {
+            listener = new NodeListener(this);
+            if (!LISTENER.compareAndSet(this, null, listener)) {
+                listener = this.listener;
+            }
+        }
+        return listener;
+    }
+
+    /**
+     * @return The listener of the node, or null if it was never used.
+     */
+    NodeListener peekListener() {
         return listener;
     }
 
@@ -199,41 +246,43 @@ public class Node {
     }
 
     public void addInterface(String _interface) {
-        synchronized (interfaceLock) {
+        synchronized (lock) {
             if (_interface == null) {
                 throw new NullPointerException("_interface");
             } else if (interfaces == null) {
                 interfaces = new HashSet<>();
             }
             interfaces.add(_interface);
-            markChanged();
         }
+        markChanged();
     }
 
     @SuppressWarnings("unused")
     public void removeInterface(String _interface) {
-        synchronized (interfaceLock) {
+        synchronized (lock) {
             if (_interface == null) {
                 throw new NullPointerException("_interface");
-            } else if (interfaces != null) {
-                interfaces.remove(_interface);
-                markChanged();
+            } else if (interfaces == null) {
+                return;
             }
+            interfaces.remove(_interface);
         }
+        markChanged();
     }
 
     public void setInterfaces(String interfaces) {
-        synchronized (interfaceLock) {
+        synchronized (lock) {
             if (interfaces == null) {
                 this.interfaces = null;
+                listSummary = null;
                 return;
             } else if (this.interfaces == null) {
                 this.interfaces = new HashSet<>();
             }
             String[] split = interfaces.split("\\|");
             Collections.addAll(this.interfaces, split);
-            markChanged();
         }
+        markChanged();
     }
 
     public Set<String> getInterfaces() {
@@ -280,10 +329,11 @@ public class Node {
         }
 
         ValuePair pair;
-        synchronized (valueLock) {
+        synchronized (lock) {
             pair = new ValuePair(this.value, value, externalSource);
         }
-        if (listener.postValueUpdate(pair)) {
+        NodeListener listener = this.listener;
+        if (listener != null && listener.postValueUpdate(pair)) {
             return false;
         }
         value = pair.getCurrent();
@@ -321,19 +371,20 @@ public class Node {
                 throw new RuntimeException(err);
             }
         }
-        synchronized (valueLock) {
-            Value prev = this.value;
+        Value prev;
+        synchronized (lock) {
+            prev = this.value;
             this.value = value;
-            if ((prev != null && prev.isSerializable())
-                    || (value != null && value.isSerializable())
-                    || (prev == null && value == null)) {
-                markChanged();
-            }
-            if (publish && link != null) {
-                SubscriptionManager manager = link.getSubscriptionManager();
-                if (manager != null) {
-                    manager.postValueUpdate(this);
-                }
+        }
+        if ((prev != null && prev.isSerializable())
+                || (value != null && value.isSerializable())
+                || (prev == null && value == null)) {
+            markValueChanged();
+        }
+        if (publish && link != null) {
+            SubscriptionManager manager = link.getSubscriptionManager();
+            if (manager != null) {
+                manager.postValueUpdate(this);
             }
         }
         return true;
@@ -417,15 +468,13 @@ public class Node {
      */
     @SuppressWarnings("unused")
     public void clearChildren() {
-        synchronized (childrenLock) {
-            if (children != null) {
-                Map<String, Node> children = getChildren();
-                for (Node child : children.values()) {
-                    removeChild(child);
-                }
+        Map<String, Node> children = this.children;
+        if (children != null) {
+            for (Node child : children.values()) {
+                removeChild(child, false);
             }
-            markChanged();
         }
+        markChanged();
     }
 
     /**
@@ -505,23 +554,25 @@ public class Node {
      * @return The node
      */
     public Node addChild(Node node) {
-        synchronized (childrenLock) {
-            String name = node.getName();
+        String name = node.getName();
+        synchronized (lock) {
             maybeInitializeChildren();
-            if (children.containsKey(name)) {
-                return children.get(name);
+            Node child = children.get(name);
+            if (child != null) {
+                return child;
             }
 
             if (node.getProfile() == null) {
                 node.setProfile(profile);
             }
             children.put(name, node);
-            childAdded(node);
-            if (node.isSerializable()) {
-                markChanged();
-            }
-            return node;
         }
+        indexChild(node);
+        childAdded(node);
+        if (node.isSerializable()) {
+            markChanged();
+        }
+        return node;
     }
 
     void childAdded(Node node) {
@@ -547,8 +598,9 @@ public class Node {
             manager = link.getSubscriptionManager();
         }
         boolean reserialize = false;
+        List<Node> added = new ArrayList<>(nodes.size());
 
-        synchronized (childrenLock) {
+        synchronized (lock) {
             for (Node node : nodes) {
                 String name = node.getName();
                 maybeInitializeChildren();
@@ -558,6 +610,7 @@ public class Node {
 
                 node.maybeInitializeProfile(profile);
                 children.put(name, node);
+                added.add(node);
 
                 if (node.isSerializable()) {
                     reserialize = true;
@@ -565,6 +618,10 @@ public class Node {
             }
         }
 
+        for (Node node : added) {
+            indexChild(node);
+        }
+
         if (manager != null) {
             manager.postMultiChildUpdate(this, nodes);
         }
@@ -580,6 +637,55 @@ public class Node {
         }
     }
 
+    private void indexChild(Node child) {
+        NodeManager.SuperRoot root = getSuperRoot();
+        if (root != null) {
+            root.index(child);
+        }
+    }
+
+    private void unindexChild(Node child) {
+        NodeManager.SuperRoot root = getSuperRoot();
+        if (root != null) {
+            root.unindex(child);
+        }
+    }
+
+    /**
+     * @return The super root this node is attached to, if any.
+     */
+    private NodeManager.SuperRoot getSuperRoot() {
+        Node node = this;
+        while (node != null) {
+            if (node instanceof NodeManager.SuperRoot) {
+                return (NodeManager.SuperRoot) node;
+            }
+            node = node.getParent();
+        }
+        return null;
+    }
+
+    /**
+     * @param root Super root to test against.
+     * @return Whether every ancestor of this node up to the root still
+     * holds this node as its child.
+     */
+    boolean isAttached(Node root) {
+        Node node = this;
+        while (node != root) {
+            Node parent = node.getParent();
+            if (parent == null) {
+                return false;
+            }
+            Map<String, Node> children = parent.children;
+            if (children == null || children.get(node.name) != node) {
+                return false;
+            }
+            node = parent;
+        }
+        return true;
+    }
+
     private void maybeInitializeChildren() {
         if (children == null) {
             children = new ConcurrentHashMap<>();
@@ -635,29 +741,34 @@ public class Node {
     }
 
     public Node removeChild(String name, boolean encodeName) {
-        synchronized (childrenLock) {
-            if (encodeName) {
-                name = StringUtils.encodeName(name);
-            }
-            Node child = children != null ? children.remove(name) : null;
-            SubscriptionManager manager = null;
-            if (link != null) {
-                manager = link.getSubscriptionManager();
-            }
-
-            if (child != null) {
-                child.getListener().postNodeRemoved();
-                child.getListener().kill();
+        if (encodeName) {
+            name = StringUtils.encodeName(name);
+        }
+        Node child;
+        synchronized (lock) {
+            child = children != null ? children.remove(name) : null;
+        }
+        if (child == null) {
+            return null;
+        }
+        unindexChild(child);
+        NodeListener listener = child.listener;
+        if (listener != null) {
+            listener.postNodeRemoved();
+            listener.kill();
+        }
 
-                if (manager != null) {
-                    manager.postChildUpdate(child, true);
-                }
-                if (isSerializable()) {
-                    markChanged();
-                }
-            }
-            return child;
+        SubscriptionManager manager = null;
+        if (link != null) {
+            manager = link.getSubscriptionManager();
+        }
+        if (manager != null) {
+            manager.postChildUpdate(child, true);
+        }
+        if (isSerializable()) {
+            markChanged();
         }
+        return child;
     }
 
     /**
@@ -713,7 +824,7 @@ public class Node {
     public Value removeConfig(String name) {
         name = StringUtils.encodeName(name);
         Value ret;
-        synchronized (configLock) {
+        synchronized (lock) {
             ret = configs != null ? configs.remove(name) : null;
         }
         postRemoval("$", name, ret);
@@ -727,7 +838,7 @@ public class Node {
      */
     public Map<String, Value> clearConfigs() {
         Map<String, Value> configs;
-        synchronized (configLock) {
+        synchronized (lock) {
             if (this.configs == null) {
                 return null;
             }
@@ -751,14 +862,11 @@ public class Node {
      * @see Action
      */
     public Value setConfig(String name, Value value) {
-        synchronized (configLock) {
-            name = checkAndEncodeName(name);
-            if (value == null) {
-                throw new NullPointerException("value");
-            } else if (configs == null) {
-                configs = new ConcurrentHashMap<>();
-            }
-            switch (name) {
+        name = checkAndEncodeName(name);
+        if (value == null) {
+            throw new NullPointerException("value");
+        }
+        switch (name) {
                 case "params":
                 case "columns":
                 case "name":
@@ -769,26 +877,32 @@ public class Node {
                 case "result":
                 case "type":
                 case "writable":
-                case "hidden":
-                    String err = "Config `" + name + "` has special methods"
-                            + " for setting these properties";
-                    throw new IllegalArgumentException(err);
+            case "hidden":
+                String err = "Config `" + name + "` has special methods"
+                        + " for setting these properties";
+                throw new IllegalArgumentException(err);
+        }
+        value.setImmutable();
+        Value prev;
+        synchronized (lock) {
+            if (configs == null) {
+                configs = new ValueMap();
             }
-            value.setImmutable();
+            prev = configs.put(name, value);
+        }
+        NodeListener listener = this.listener;
+        if (listener != null) {
             ValueUpdate update = new ValueUpdate(name, value, false);
-            NodeListener listener = this.listener;
-            if (listener != null) {
-                listener.postConfigUpdate(update);
-            }
-
-            SubscriptionManager man = link.getSubscriptionManager();
-            if (man != null) {
-                man.postMetaUpdate(this, "$" + name, value);
-            }
+            listener.postConfigUpdate(update);
+        }
 
-            markChanged();
-            return configs.put(name, value);
+        SubscriptionManager man = link.getSubscriptionManager();
+        if (man != null) {
+            man.postMetaUpdate(this, "$" + name, value);
         }
+
+        markChanged();
+        return prev;
     }
 
     /**
@@ -808,7 +922,7 @@ public class Node {
     public Value removeRoConfig(String name) {
         name = StringUtils.encodeName(name);
         Value ret;
-        synchronized (roConfigLock) {
+        synchronized (lock) {
             ret = roConfigs != null ? roConfigs.remove(name) : null;
         }
         postRemoval("$$", name, ret);
@@ -822,7 +936,7 @@ public class Node {
      */
     public Map<String, Value> clearRoConfigs() {
         Map<String, Value> roConfigs;
-        synchronized (roConfigLock) {
+        synchronized (lock) {
             if (this.roConfigs == null) {
                 return null;
             }
@@ -859,29 +973,33 @@ public class Node {
      * @return The previous value, if any.
      */
     public Value setRoConfig(String name, Value value) {
-        synchronized (roConfigLock) {
-            name = checkAndEncodeName(name);
-            if (value == null) {
-                throw new NullPointerException("value");
-            } else if (roConfigs == null) {
-                roConfigs = new ConcurrentHashMap<>();
-            }
+        name = checkAndEncodeName(name);
+        if (value == null) {
+            throw new NullPointerException("value");
+        }
 
-            switch (name) {
-                case "password":
-                    String err = "Config `" + name + "` has special methods"
-                            + " for setting these properties";
-                    throw new IllegalArgumentException(err);
-            }
+        switch (name) {
+            case "password":
+                String err = "Config `" + name + "` has special methods"
+                        + " for setting these properties";
+                throw new IllegalArgumentException(err);
+        }
 
-            SubscriptionManager man = link.getSubscriptionManager();
-            if (man != null) {
-                man.postMetaUpdate(this, "$$" + name, value);
+        Value prev;
+        synchronized (lock) {
+            if (roConfigs == null) {
+                roConfigs = new ValueMap();
             }
+            prev = roConfigs.put(name, value);
+        }
 
-            markChanged();
-            return roConfigs.put(name, value);
+        SubscriptionManager man = link.getSubscriptionManager();
+        if (man != null) {
+            man.postMetaUpdate(this, "$$" + name, value);
         }
+
+        markChanged();
+        return prev;
     }
 
     /**
@@ -912,7 +1030,7 @@ public class Node {
     public Value removeAttribute(String name) {
         name = StringUtils.encodeName(name);
         Value ret;
-        synchronized (attributeLock) {
+        synchronized (lock) {
             ret = attribs != null ? attribs.remove(name) : null;
         }
         postRemoval("@", name, ret);
@@ -926,7 +1044,7 @@ public class Node {
      */
     public Map<String, Value> clearAttributes() {
         Map<String, Value> attribs;
-        synchronized (attributeLock) {
+        synchronized (lock) {
             if (this.attribs == null) {
                 return null;
             }
@@ -945,25 +1063,31 @@ public class Node {
      * @return The previous attribute value, if any
      */
     public Value setAttribute(String name, Value value) {
-        synchronized (attributeLock) {
-            name = checkAndEncodeName(name);
-            if (value == null) {
-                throw new NullPointerException("value");
-            } else if (attribs == null) {
-                attribs = new ConcurrentHashMap<>();
+        name = checkAndEncodeName(name);
+        if (value == null) {
+            throw new NullPointerException("value");
+        }
+        value.setImmutable();
+        Value prev;
+        synchronized (lock) {
+            if (attribs == null) {
+                attribs = new ValueMap();
             }
-            value.setImmutable();
+            prev = attribs.put(name, value);
+        }
+        NodeListener listener = this.listener;
+        if (listener != null) {
             ValueUpdate update = new ValueUpdate(name, value, false);
             listener.postAttributeUpdate(update);
+        }
 
-            SubscriptionManager man = link.getSubscriptionManager();
-            if (man != null) {
-                man.postMetaUpdate(this, "@" + name, value);
-            }
-
-            markChanged();
-            return attribs.put(name, value);
+        SubscriptionManager man = link.getSubscriptionManager();
+        if (man != null) {
+            man.postMetaUpdate(this, "@" + name, value);
         }
+
+        markChanged();
+        return prev;
     }
 
     /**
@@ -1006,7 +1130,7 @@ public class Node {
      * @return Password the node is configured to use.
      */
     public char[] getPassword() {
-        synchronized (passwordLock) {
+        synchronized (lock) {
             return pass != null ? pass.clone() : null;
         }
     }
@@ -1019,10 +1143,10 @@ public class Node {
      * @param password Password to set.
      */
     public void setPassword(char[] password) {
-        synchronized (passwordLock) {
+        synchronized (lock) {
             this.pass = password != null ? password.clone() : null;
-            markChanged();
         }
+        markChanged();
     }
 
     /**
@@ -1124,6 +1248,30 @@ public class Node {
         return (T) metaData;
     }
 
+    /**
+     * The summary is only valid as long as it is not discarded by a change
+     * of the node.
+     *
+     * @return Cached summary of this node as listed by its parent.
+     */
+    public JsonArray getListSummary() {
+        return listSummary;
+    }
+
+    /**
+     * Caches the summary of this node as listed by its parent unless the
+     * cached summary is no longer the expected one, which is the case when
+     * the node changed in the meantime. The summary must not be modified
+     * once it is cached.
+     *
+     * @param expect  Summary that is expected to be cached.
+     * @param summary Summary to cache.
+     * @return Whether the summary was cached.
+     */
+    public boolean compareAndSetListSummary(JsonArray expect, JsonArray summary) {
+        return LIST_SUMMARY.compareAndSet(this, expect, summary);
+    }
+
     /**
      * Resets the node's exposed data.
      */
@@ -1141,7 +1289,20 @@ public class Node {
         setWritable(null);
     }
 
+    /**
+     * Marks a change of the node's structure or metadata, which also
+     * discards the summary listed by its parent.
+     */
     private void markChanged() {
+        listSummary = null;
+        markValueChanged();
+    }
+
+    /**
+     * Marks a change that is not part of the summary listed by the parent,
+     * such as a new value, so the cached summary is kept.
+     */
+    private void markValueChanged() {
         if (!isSerializable()) {
             return;
         }
@@ -1149,7 +1310,7 @@ public class Node {
         if (link != null) {
             SerializationManager sm = link.getSerialManager();
             if (sm != null) {
-                sm.markChanged();
+                sm.markChanged(this);
             }
         }
     }
@@ -1159,11 +1320,14 @@ public class Node {
             return;
         }
 
-        ValueUpdate update = new ValueUpdate(name, value, true);
-        if ("$".equals(prefix)) {
-            listener.postConfigUpdate(update);
-        } else if ("@".equals(prefix)) {
-            listener.postAttributeUpdate(update);
+        NodeListener listener = this.listener;
+        if (listener != null) {
+            ValueUpdate update = new ValueUpdate(name, value, true);
+            if ("$".equals(prefix)) {
+                listener.postConfigUpdate(update);
+            } else if ("@".equals(prefix)) {
+                listener.postAttributeUpdate(update);
+            }
         }
 
         SubscriptionManager man = link.getSubscriptionManager();
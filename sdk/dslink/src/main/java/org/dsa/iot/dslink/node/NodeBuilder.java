@@ -146,7 +146,9 @@ public class NodeBuilder {
                     node.setAction(child.getAction());
                 }
             }
-            node.setListener(child.getListener());
+            if (node != child) {
+                node.setListener(child.getListener());
+            }
             node.setDisplayName(child.getDisplayName());
             node.setValueType(child.getValueType());
             node.setValue(child.getValue());
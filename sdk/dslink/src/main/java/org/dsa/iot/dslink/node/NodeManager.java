@@ -4,7 +4,10 @@ import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import org.dsa.iot.dslink.DSLinkHandler;
 import org.dsa.iot.dslink.link.Linkable;
 import org.dsa.iot.dslink.methods.StreamState;
@@ -27,7 +30,7 @@ import org.dsa.iot.dslink.util.handler.Handler;
 public class NodeManager {
 
     // Fake root to provide a listing on "/"
-    private final Node superRoot;
+    private final SuperRoot superRoot;
     private final String defaultProfile;
 
     public NodeManager(Linkable link, String defaultProfile) {
@@ -69,6 +72,10 @@ public class NodeManager {
             throw new NullPointerException("path");
         else if ("/".equals(path))
             return new NodePair(superRoot, null);
+        NodePair pair = superRoot.lookup(path);
+        if (pair != null) {
+            return pair;
+        }
         String[] parts = splitPath(path);
         if (parts.length == 1 && StringUtils.isReference(parts[0])) {
             return new NodePair(superRoot, parts[0]);
@@ -131,6 +138,15 @@ public class NodeManager {
     public static class SuperRoot extends Node {
         private static final String ICON = "Icon";
 
+        /**
+         * Every attached node keyed by its path. The index is maintained
+         * as children are added and removed so that formalized paths are
+         * resolved without splitting them and walking the tree. Keys
+         * compare against the names along the parent chain of the node
+         * so no path strings are kept.
+         */
+        private final Map<PathKey, Node> index = new ConcurrentHashMap<>();
+
         private SuperRoot(Linkable link, String profile) {
             super("", null, link);
             super.setProfile(profile);
@@ -165,6 +181,184 @@ public class NodeManager {
                    .setSerializable(false)
                    .build();
         }
+
+        /**
+         * Resolves a formalized path, such as "/a/b" or "/a/b/$config",
+         * from the index.
+         *
+         * @param path Path to resolve.
+         * @return The pair, or null if the path is not in the index.
+         */
+        NodePair lookup(String path) {
+            int i = path.lastIndexOf('/');
+            if (i > 0 && i + 1 < path.length()) {
+                char c = path.charAt(i + 1);
+                if (c == '$' || c == '@') {
+                    Node node = index.get(new PathKey(path, i));
+                    if (node == null) {
+                        return null;
+                    }
+                    return new NodePair(node, path.substring(i + 1));
+                }
+            }
+            Node node = index.get(new PathKey(path, path.length()));
+            if (node == null) {
+                return null;
+            }
+            return new NodePair(node, null);
+        }
+
+        /**
+         * Adds a node and all its descendants to the index. If the node
+         * was concurrently removed from the tree then it is taken out of
+         * the index again.
+         *
+         * @param node Node that was added to the tree.
+         */
+        void index(Node node) {
+            Deque<Node> nodes = new ArrayDeque<>();
+            nodes.push(node);
+            while (!nodes.isEmpty()) {
+                Node n = nodes.pop();
+                index.put(new PathKey(n), n);
+                Map<String, Node> children = n.getChildren();
+                if (children != null) {
+                    for (Node child : children.values()) {
+                        nodes.push(child);
+                    }
+                }
+            }
+            if (!node.isAttached(this)) {
+                unindex(node);
+            }
+        }
+
+        /**
+         * Removes a node and all its descendants from the index.
+         *
+         * @param node Node that was removed from the tree.
+         */
+        void unindex(Node node) {
+            Deque<Node> nodes = new ArrayDeque<>();
+            nodes.push(node);
+            while (!nodes.isEmpty()) {
+                Node n = nodes.pop();
+                index.remove(new PathKey(n), n);
+                Map<String, Node> children = n.getChildren();
+                if (children != null) {
+                    for (Node child : children.values()) {
+                        nodes.push(child);
+                    }
+                }
+            }
+        }
+
+        /**
+         * @return The number of indexed nodes.
+         */
+        int indexSize() {
+            return index.size();
+        }
+
+        /**
+         * Index key of a node or of a path being resolved. The hash is the
+         * hash of the formalized path and equality compares the names of
+         * the node and its ancestors against the other key.
+         */
+        private static final class PathKey {
+            private final Node node;
+            private final String path;
+            private final int length;
+            private final int hash;
+
+            PathKey(Node node) {
+                this.node = node;
+                this.path = null;
+                this.length = 0;
+                this.hash = hash(node);
+            }
+
+            /**
+             * @param path   Path to resolve.
+             * @param length Length of the path prefix to resolve.
+             */
+            PathKey(String path, int length) {
+                this.node = null;
+                this.path = path;
+                this.length = length;
+                int h = 0;
+                for (int i = 0; i < length; i++) {
+                    h = 31 * h + path.charAt(i);
+                }
+                this.hash = h;
+            }
+
+            @Override
+            public int hashCode() {
+                return hash;
+            }
+
+            @Override
+            public boolean equals(Object o) {
+                if (this == o) {
+                    return true;
+                } else if (!(o instanceof PathKey)) {
+                    return false;
+                }
+                PathKey other = (PathKey) o;
+                if (hash != other.hash) {
+                    return false;
+                } else if (node == null) {
+                    return other.node != null && matches(other.node, path, length);
+                } else if (other.node == null) {
+                    return matches(node, other.path, other.length);
+                }
+                return samePath(node, other.node);
+            }
+
+            private static boolean isTop(Node node) {
+                return node == null || node instanceof SuperRoot;
+            }
+
+            private static int hash(Node node) {
+                Node parent = node.getParent();
+                int h = isTop(parent) ? 0 : hash(parent);
+                h = 31 * h + '/';
+                String name = node.getName();
+                for (int i = 0; i < name.length(); i++) {
+                    h = 31 * h + name.charAt(i);
+                }
+                return h;
+            }
+
+            private static boolean matches(Node node, String path, int end) {
+                while (true) {
+                    String name = node.getName();
+                    int start = end - name.length() - 1;
+                    if (start < 0 || path.charAt(start) != '/'
+                            || !path.regionMatches(start + 1, name, 0, name.length())) {
+                        return false;
+                    }
+                    end = start;
+                    node = node.getParent();
+                    if (isTop(node)) {
+                        return end == 0;
+                    }
+                }
+            }
+
+            private static boolean samePath(Node a, Node b) {
+                while (a != b) {
+                    if (isTop(a) || isTop(b)
+                            || !a.getName().equals(b.getName())) {
+                        return false;
+                    }
+                    a = a.getParent();
+                    b = b.getParent();
+                }
+                return true;
+            }
+        }
     }
 
 }
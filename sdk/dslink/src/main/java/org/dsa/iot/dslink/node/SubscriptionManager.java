@@ -2,6 +2,7 @@ package org.dsa.iot.dslink.node;
 
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import io.netty.util.internal.SystemPropertyUtil;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
@@ -9,11 +10,15 @@ import java.util.List;
 import java.util.Map;
 import java.util.Queue;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import org.dsa.iot.dslink.DSLink;
 import org.dsa.iot.dslink.link.Responder;
 import org.dsa.iot.dslink.methods.responses.ListResponse;
 import org.dsa.iot.dslink.node.value.Value;
+import org.dsa.iot.dslink.provider.LoopProvider;
 import org.dsa.iot.dslink.util.Objects;
 import org.dsa.iot.dslink.util.PropertyReference;
 import org.dsa.iot.dslink.util.StringUtils;
@@ -31,20 +36,38 @@ public class SubscriptionManager {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(FileDriver.class);
     public static final int QOS_QUEUE_SIZE;
+    private static final int MAX_BATCH = 1024;
+    private static final int RETRY_DELAY;
+    private static final int ROLLUP_INTERVAL;
+    private static final int WRITERS;
 
     private boolean connected = false;
     private DSLink link;
     private Map<String, ListResponse> pathSubsMap = new ConcurrentHashMap<>();
     private FileDriver storage;
-    private SubscriptionWriter subscriptionWriter;
-    private Object valueLock = new Object();
-    private Map<String, Subscription> valueSubsPaths = new HashMap<>();
-    private Map<Integer, String> valueSubsSids = new HashMap<>();
+    private SubscriptionWriter[] subscriptionWriters;
+    private final int writerCount;
+    /**
+     * Only guards changes to the subscription indexes, lookups never lock.
+     */
+    private final Object valueLock = new Object();
+    private final Map<String, Subscription> valueSubsPaths = new ConcurrentHashMap<>();
+    private final Map<Integer, Subscription> valueSubsSids = new ConcurrentHashMap<>();
+    /**
+     * Incremented after a path gains a value subscription. Nodes remember
+     * the version they missed at so repeated misses skip the path lookup.
+     */
+    private volatile int valueSubsVersion = 1;
 
     public SubscriptionManager(DSLink link) {
+        this(link, WRITERS);
+    }
+
+    SubscriptionManager(DSLink link, int writers) {
         this.link = link;
+        this.writerCount = Math.max(1, writers);
         if (link.isResponder()) {
-            subscriptionWriter = new SubscriptionWriter();
+            subscriptionWriters = createWriters();
             storage = new FileDriver(this);
             storage.restore();
         }
@@ -75,6 +98,21 @@ public class SubscriptionManager {
      * @param qos  The QoS level of the designated subscription.
      */
     public void addValueSub(String path, int sid, int qos) {
+        addValueSub(path, sid, qos, ROLLUP_INTERVAL);
+    }
+
+    /**
+     * Adds a value subscription whose updates are rolled up. All updates
+     * within the interval are sent as a single summary of their count,
+     * sum, min, max and last value rather than one by one.
+     *
+     * @param path   Path to subscribe to.
+     * @param sid    Subscription ID to send back to the client.
+     * @param qos    The QoS level of the designated subscription.
+     * @param rollup Rollup interval in milliseconds, 0 or less to send
+     *               every update.
+     */
+    public void addValueSub(String path, int sid, int qos, int rollup) {
         path = NodeManager.normalizePath(path, true);
         boolean clearStorage = false;
         Subscription sub;
@@ -86,26 +124,33 @@ public class SubscriptionManager {
                 } else {
                     valueSubsSids.remove(sub.getSid());
                 }
-                sub.update(sid, qos);
+                sub.update(sid, qos, rollup);
             } else {
-                sub = new Subscription(path, sid, qos);
+                sub = new Subscription(path, sid, qos, rollup);
                 valueSubsPaths.put(path, sub);
+                valueSubsVersion++;
             }
-            valueSubsSids.put(sid, path);
+            valueSubsSids.put(sid, sub);
         }
         if (clearStorage) {
             storage.clear(sub);
         }
+        NodeManager man = link.getNodeManager();
+        Node node = man.getNode(path, false, false).getNode();
+        if (node != null) {
+            node.subscription = sub;
+        }
         if (sub.hasUpdates()) {
             sub.enqueue();
         } else {
-            NodeManager man = link.getNodeManager();
-            Node node = man.getNode(path, false, false).getNode();
             if (node != null) {
                 if (node.shouldPostCachedValue()) {
                     postValueUpdate(node);
                 }
-                node.getListener().postOnSubscription();
+                NodeListener listener = node.peekListener();
+                if (listener != null) {
+                    listener.postOnSubscription();
+                }
             }
         }
     }
@@ -121,9 +166,7 @@ public class SubscriptionManager {
             if (set) {
                 node.setValue(val, false, false);
             }
-            synchronized (valueLock) {
-                sub = valueSubsPaths.get(node.getPath());
-            }
+            sub = getSubscription(node);
             if (sub != null) {
                 sub.postUpdate(val);
             }
@@ -139,9 +182,7 @@ public class SubscriptionManager {
      */
     @SuppressWarnings("unused")
     public boolean hasPathSub(Node node) {
-        synchronized (valueLock) {
-            return node != null && pathSubsMap.containsKey(node.getPath());
-        }
+        return node != null && pathSubsMap.containsKey(node.getPath());
     }
 
     /**
@@ -153,9 +194,7 @@ public class SubscriptionManager {
      */
     @SuppressWarnings("unused")
     public boolean hasValueSub(Node node) {
-        synchronized (valueLock) {
-            return valueSubsPaths.containsKey(node.getPath());
-        }
+        return getSubscription(node) != null;
     }
 
     /**
@@ -163,9 +202,10 @@ public class SubscriptionManager {
      */
     public void onConnected() {
         connected = true;
-        if (subscriptionWriter != null) {
-            synchronized (subscriptionWriter) {
-                subscriptionWriter.notifyAll();
+        SubscriptionWriter[] writers = subscriptionWriters;
+        if (writers != null) {
+            for (SubscriptionWriter writer : writers) {
+                writer.schedule(0);
             }
         }
     }
@@ -175,8 +215,11 @@ public class SubscriptionManager {
      */
     public void onDisconnected() {
         connected = false;
-        if (subscriptionWriter != null) {
-            subscriptionWriter.clearQueue();
+        SubscriptionWriter[] writers = subscriptionWriters;
+        if (writers != null) {
+            for (SubscriptionWriter writer : writers) {
+                writer.clearQueue();
+            }
         }
         ScheduledThreadPoolExecutor stpe = Objects.getDaemonThreadPool();
         NodeManager manager = link.getNodeManager();
@@ -202,7 +245,7 @@ public class SubscriptionManager {
                 if (node == null) {
                     continue;
                 }
-                final NodeListener listener = node.getListener();
+                final NodeListener listener = node.peekListener();
                 if (listener != null) {
                     stpe.execute(new Runnable() {
                         @Override
@@ -228,7 +271,7 @@ public class SubscriptionManager {
                 if (node == null) {
                     continue;
                 }
-                final NodeListener listener = node.getListener();
+                final NodeListener listener = node.peekListener();
                 if (listener != null) {
                     stpe.execute(new Runnable() {
                         @Override
@@ -259,6 +302,10 @@ public class SubscriptionManager {
         if (resp != null) {
             resp.childUpdate(child, removed);
         }
+        if (pathSubsMap.isEmpty() && valueSubsPaths.isEmpty()) {
+            // Nothing in the subtree can be subscribed
+            return;
+        }
         if (removed) {
             nodeRemoved(child);
         } else {
@@ -310,10 +357,7 @@ public class SubscriptionManager {
      * @param node Updated node.
      */
     public void postValueUpdate(Node node) {
-        Subscription sub;
-        synchronized (valueLock) {
-            sub = valueSubsPaths.get(node.getPath());
-        }
+        Subscription sub = getSubscription(node);
         if (sub != null) {
             sub.postUpdate(node.getValue());
         }
@@ -340,11 +384,13 @@ public class SubscriptionManager {
     public void removeValueSub(int sid) {
         String path;
         synchronized (valueLock) {
-            path = valueSubsSids.remove(sid);
-            if (path == null) {
+            Subscription sub = valueSubsSids.remove(sid);
+            if (sub == null) {
                 return;
             }
+            path = sub.key;
             valueSubsPaths.remove(path);
+            sub.removed = true;
         }
 
         Node node = null;
@@ -355,7 +401,11 @@ public class SubscriptionManager {
             }
         }
         if (node != null) {
-            node.getListener().postOnUnsubscription();
+            node.subscription = null;
+            NodeListener listener = node.peekListener();
+            if (listener != null) {
+                listener.postOnUnsubscription();
+            }
         }
     }
 
@@ -369,7 +419,11 @@ public class SubscriptionManager {
         Subscription sub;
         synchronized (valueLock) {
             sub = valueSubsPaths.remove(node.getPath());
+            if (sub != null) {
+                sub.removed = true;
+            }
         }
+        node.subscription = null;
         if (sub != null) {
             removeValueSub(sub.getSid());
         }
@@ -383,7 +437,44 @@ public class SubscriptionManager {
         sub.updates = updates;
         synchronized (valueLock) {
             valueSubsPaths.put(path, sub);
+            valueSubsVersion++;
+        }
+    }
+
+    /**
+     * Finds the subscription of the node without taking any lock. The
+     * subscription is cached on the node so the path index is only
+     * consulted when the node has not been resolved yet. A miss is cached
+     * as well until another path is subscribed, so nodes nobody listens
+     * to never build their path.
+     */
+    private Subscription getSubscription(Node node) {
+        Subscription sub = node.subscription;
+        if (sub != null) {
+            if (!sub.removed) {
+                return sub;
+            }
+            node.subscription = null;
         }
+        int version = valueSubsVersion;
+        if (node.noSubscription == version || valueSubsPaths.isEmpty()) {
+            return null;
+        }
+        sub = valueSubsPaths.get(node.getPath());
+        if (sub != null) {
+            node.subscription = sub;
+        } else {
+            node.noSubscription = version;
+        }
+        return sub;
+    }
+
+    private SubscriptionWriter[] createWriters() {
+        SubscriptionWriter[] writers = new SubscriptionWriter[writerCount];
+        for (int i = 0; i < writers.length; i++) {
+            writers[i] = new SubscriptionWriter();
+        }
+        return writers;
     }
 
     private void nodeAdded(Node node) {
@@ -413,10 +504,13 @@ public class SubscriptionManager {
         }
     }
 
-    class Subscription implements MessageGenerator {
+    class Subscription {
 
-        boolean enqueued = false;
+        final AtomicBoolean enqueued = new AtomicBoolean();
+        volatile boolean removed = false;
+        final String key;
         private int lastMid = -1;
+        private boolean awaitingId;
         private Value lastUpdate;
         private Queue<Value> lastUpdates;
         private String path;
@@ -424,94 +518,118 @@ public class SubscriptionManager {
         private int sid;
         @SuppressFBWarnings("IS2_INCONSISTENT_SYNC")
         private Queue<Value> updates;
+        private int rollupInterval;
+        private Rollup rollup;
+        private Rollup lastRollup;
+        private boolean rollupDue;
+        private boolean rollupScheduled;
 
         Subscription(String path, int sid, int qos) {
+            this(path, sid, qos, 0);
+        }
+
+        Subscription(String path, int sid, int qos, int rollupInterval) {
+            this.key = path;
             this.path = StringUtils.encodeName(path);
             this.sid = sid;
             this.qos = qos;
+            this.rollupInterval = rollupInterval;
         }
 
-        @Override
-        public JsonObject getMessage(int lastAckId) {
+        /**
+         * Moves the pending updates into the array according to the QoS of
+         * the subscription.
+         *
+         * @param ary       Updates of the message being built.
+         * @param lastAckId Last message id acknowledged by the remote endpoint.
+         * @return False if the previous message of this subscription has not
+         * been acknowledged yet and nothing was added.
+         */
+        synchronized boolean appendUpdates(JsonArray ary, int lastAckId) {
+            if (rollupInterval > 0) {
+                return appendRollup(ary, lastAckId);
+            }
             if (qos == 0) {
-                Value val;
-                synchronized (this) {
-                    val = lastUpdate;
-                    lastUpdate = null;
-                    if (val == null) {
-                        return null;
-                    }
+                Value val = lastUpdate;
+                lastUpdate = null;
+                if (val != null) {
+                    ary.add(generateUpdate(val));
                 }
-                JsonArray ary = new JsonArray();
-                ary.add(generateUpdate(val));
-                JsonObject msg = new JsonObject();
-                msg.put("rid", 0);
-                msg.put("updates", ary);
-                return msg;
+                return true;
             }
-            if (lastMid > lastAckId) {
-                Thread.yield();
-                enqueue();
-                return null;
+            if (awaitingId || (lastMid > lastAckId)) {
+                return false;
             }
-            JsonArray ary;
-            synchronized (this) {
-                if (updates == null) {
-                    return null;
-                }
-                int size = updates.size();
-                if (size == 0) {
-                    return null;
-                }
-                if (size < 1024) { //don't want messages too large
-                    lastUpdates = updates;
-                    updates = null;
-                } else {
-                    lastUpdates = new LinkedList<Value>();
-                    for (int i = 1024; --i >= 0; ) {
-                        lastUpdates.add(updates.poll());
-                    }
-                }
-                ary = new JsonArray();
-                for (Value val : lastUpdates) {
-                    ary.add(generateUpdate(val));
-                }
+            if (updates == null) {
+                return true;
             }
-            JsonObject msg = new JsonObject();
-            msg.put("rid", 0);
-            msg.put("updates", ary);
-            if (qos == 1) {
-                synchronized (this) {
-                    if (updates == null) {
-                        lastUpdates.clear();
-                        updates = lastUpdates;
-                        lastUpdates = null;
-                    }
+            int size = updates.size();
+            if (size == 0) {
+                return true;
+            }
+            // Updates of the previous message were acknowledged
+            lastUpdates = null;
+            Queue<Value> sent;
+            if (size < 1024) { //don't want messages too large
+                sent = updates;
+                updates = null;
+            } else {
+                sent = new LinkedList<Value>();
+                for (int i = 1024; --i >= 0; ) {
+                    sent.add(updates.poll());
                 }
             }
-            if (hasUpdates()) {
-                enqueue();
+            for (Value val : sent) {
+                ary.add(generateUpdate(val));
             }
-            return msg;
+            awaitingId = true;
+            if (qos > 1) {
+                // Retained until acknowledged, resent after a reconnect
+                lastUpdates = sent;
+            } else if (updates == null) {
+                sent.clear();
+                updates = sent;
+            }
+            return true;
         }
 
-        @Override
-        public void retry() {
-            enqueue();
+        /**
+         * Moves the summary of the elapsed rollup interval into the array.
+         * While a summary waits for its acknowledgement further updates
+         * keep accumulating, so no samples are lost from the statistics.
+         */
+        private boolean appendRollup(JsonArray ary, int lastAckId) {
+            if ((qos > 0) && (awaitingId || (lastMid > lastAckId))) {
+                return false;
+            }
+            if (!rollupDue || (rollup == null)) {
+                return true;
+            }
+            Rollup r = rollup;
+            rollup = null;
+            rollupDue = false;
+            lastRollup = (qos > 1) ? r : null;
+            awaitingId = qos > 0;
+            ary.add(r.toUpdate(getSid()));
+            return true;
         }
 
-        @Override
-        public void setMessageId(int lastMessageId) {
+        synchronized void setMessageId(int lastMessageId) {
             lastMid = lastMessageId;
+            awaitingId = false;
         }
 
         private void enqueue() {
+            SubscriptionWriter[] writers;
             synchronized (SubscriptionManager.this) {
-                if (subscriptionWriter == null) {
-                    subscriptionWriter = new SubscriptionWriter();
+                writers = subscriptionWriters;
+                if (writers == null) {
+                    writers = createWriters();
+                    subscriptionWriters = writers;
                 }
             }
-            subscriptionWriter.enqueue(this);
+            int idx = (sid & Integer.MAX_VALUE) % writers.length;
+            writers[idx].enqueue(this);
         }
 
         private JsonArray generateUpdate(Value val) {
@@ -544,6 +662,9 @@ public class SubscriptionManager {
         }
 
         synchronized boolean hasUpdates() {
+            if (rollupInterval > 0) {
+                return rollupDue && (rollup != null);
+            }
             if ((qos == 0) && (lastUpdate != null)) {
                 return true;
             }
@@ -555,15 +676,25 @@ public class SubscriptionManager {
 
         synchronized void onDisconnected() {
             lastMid = -1;
+            awaitingId = false;
             sid = -1;
+            if (lastRollup != null) {
+                // The summary may not have been received, merge it back.
+                if (rollup != null) {
+                    lastRollup.merge(rollup);
+                }
+                rollup = lastRollup;
+                lastRollup = null;
+            }
             if (lastUpdates != null) {
+                // The updates may not have been received, resend them.
                 if (updates != null) {
                     lastUpdates.addAll(updates);
-                    updates = lastUpdates;
-                    lastUpdates = null;
-                    if (qos == 3) {
-                        storage.store(this);
-                    }
+                }
+                updates = lastUpdates;
+                lastUpdates = null;
+                if (qos == 3) {
+                    storage.store(this);
                 }
             }
         }
@@ -572,6 +703,10 @@ public class SubscriptionManager {
             if (!connected && (qos < 2)) {
                 return;
             }
+            if (rollupInterval > 0) {
+                postRollup(value);
+                return;
+            }
             synchronized (this) {
                 if (qos == 0) {
                     lastUpdate = value;
@@ -595,88 +730,259 @@ public class SubscriptionManager {
             }
         }
 
+        /**
+         * Folds the value into the summary of the current interval. The
+         * first value of an interval schedules its end, the summary is
+         * written once the interval elapsed.
+         */
+        private void postRollup(Value value) {
+            long interval;
+            synchronized (this) {
+                if (rollup == null) {
+                    rollup = new Rollup();
+                }
+                rollup.add(value);
+                if (rollupScheduled) {
+                    return;
+                }
+                rollupScheduled = true;
+                interval = rollupInterval;
+            }
+            LoopProvider.getProvider().schedule(new Runnable() {
+                @Override
+                public void run() {
+                    synchronized (Subscription.this) {
+                        rollupScheduled = false;
+                        rollupDue = true;
+                    }
+                    if (sid >= 0) {
+                        enqueue();
+                    }
+                }
+            }, interval, TimeUnit.MILLISECONDS);
+        }
+
         void update(int sid, int qos) {
+            update(sid, qos, rollupInterval);
+        }
+
+        void update(int sid, int qos, int rollupInterval) {
             this.sid = sid;
             this.qos = qos;
             synchronized (this) {
+                this.rollupInterval = rollupInterval;
                 if (qos == 0) {
                     lastUpdates = null;
                     updates = null;
                 }
+                if (rollupInterval <= 0) {
+                    rollup = null;
+                    lastRollup = null;
+                    rollupDue = false;
+                } else if (rollup != null) {
+                    rollupDue = true;
+                }
             }
         }
 
     }
 
-    private class SubscriptionWriter implements Runnable {
-
-        private Queue<Subscription> queue = new LinkedList<Subscription>();
-
-        public SubscriptionWriter() {
-            new Thread(this, "Subscription Writer").start();
+    /**
+     * Summary of the values posted to a subscription during a rollup
+     * interval. Non-numeric values only count towards the count and the
+     * last value.
+     */
+    static class Rollup {
+
+        private int count;
+        private int numbers;
+        private double sum;
+        private double min = Double.POSITIVE_INFINITY;
+        private double max = Double.NEGATIVE_INFINITY;
+        private Value last;
+
+        void add(Value value) {
+            count++;
+            last = value;
+            if (value == null) {
+                return;
+            }
+            double d = value.getDouble();
+            if (!Double.isNaN(d)) {
+                numbers++;
+                sum += d;
+                if (d < min) {
+                    min = d;
+                }
+                if (d > max) {
+                    max = d;
+                }
+            }
         }
 
         /**
-         * Returns true if enqueued to be written.
+         * Adds a newer summary into this one, the last value of the newer
+         * summary is kept.
          */
-        public synchronized Subscription dequeue() {
-            Subscription ret = queue.poll();
-            if (ret != null) {
-                ret.enqueued = false;
+        void merge(Rollup newer) {
+            count += newer.count;
+            numbers += newer.numbers;
+            sum += newer.sum;
+            min = Math.min(min, newer.min);
+            max = Math.max(max, newer.max);
+            last = newer.last;
+        }
+
+        int getCount() {
+            return count;
+        }
+
+        Value getLast() {
+            return last;
+        }
+
+        JsonObject toUpdate(int sid) {
+            JsonObject update = new JsonObject();
+            update.put("sid", sid);
+            if (last != null) {
+                update.put("value", last);
+                update.put("ts", last.getTimeStamp());
+            } else {
+                update.put("value", null);
+            }
+            update.put("count", count);
+            if (numbers > 0) {
+                update.put("sum", sum);
+                update.put("min", min);
+                update.put("max", max);
             }
-            return ret;
+            return update;
         }
+    }
 
-        /**
-         * Returns true if enqueued to be written.
-         */
-        public synchronized boolean enqueue(Subscription sub) {
-            if (connected) {
-                if (sub.enqueued) {
-                    return false;
-                }
-                sub.enqueued = true;
+    /**
+     * Drains ready subscriptions into a single responses message. Each writer
+     * is drained by at most one task at a time and a subscription only ever
+     * sits in the queue of the writer its sid maps to, keeping the updates of
+     * a sid in order when multiple writers encode concurrently.
+     */
+    private class SubscriptionWriter implements MessageGenerator, Runnable {
+
+        private final Queue<Subscription> queue = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        private final List<Subscription> written = new ArrayList<>();
+        private boolean progress;
+
+        void enqueue(Subscription sub) {
+            if (!connected) {
+                return;
+            }
+            if (sub.enqueued.compareAndSet(false, true)) {
                 queue.add(sub);
+                schedule(0);
+            }
+        }
+
+        void schedule(long delay) {
+            if (!connected || queue.isEmpty()) {
+                return;
+            }
+            if (scheduled.compareAndSet(false, true)) {
+                LoopProvider provider = LoopProvider.getProvider();
+                if (delay <= 0) {
+                    provider.schedule(this);
+                } else {
+                    provider.schedule(this, delay, TimeUnit.MILLISECONDS);
+                }
             }
-            notifyAll();
-            return false;
         }
 
+        @Override
         public void run() {
-            Subscription sub = null;
-            while (true) {
-                synchronized (this) {
-                    while (!connected) {
-                        try {
-                            wait(10000);
-                        } catch (Exception ignore) {
-                        }
+            long delay = 0;
+            try {
+                if (connected) {
+                    progress = false;
+                    link.getWriter().writeResponse(this);
+                    if (!progress) {
+                        delay = RETRY_DELAY;
                     }
-                    while (connected && queue.isEmpty()) {
-                        try {
-                            wait(10000);
-                        } catch (Exception x) {
-                            LOGGER.trace("Ignore", x);
-                        }
+                }
+            } catch (Exception x) {
+                LOGGER.warn("Failed to write subscription updates", x);
+            } finally {
+                scheduled.set(false);
+            }
+            schedule(delay);
+        }
+
+        @Override
+        public JsonObject getMessage(int lastAckId) {
+            written.clear();
+            JsonArray updates = new JsonArray();
+            List<Subscription> deferred = null;
+            Subscription sub;
+            // Subscriptions stay flagged as enqueued until they were
+            // appended or deferred, a concurrent post must not queue them
+            // a second time while they are being drained.
+            while ((updates.size() < MAX_BATCH) && ((sub = queue.poll()) != null)) {
+                if (sub.appendUpdates(updates, lastAckId)) {
+                    written.add(sub);
+                } else {
+                    if (deferred == null) {
+                        deferred = new ArrayList<>();
                     }
+                    deferred.add(sub);
+                }
+            }
+            if (deferred != null) {
+                for (Subscription s : deferred) {
                     if (connected) {
-                        sub = dequeue();
+                        queue.add(s);
+                    } else {
+                        s.enqueued.set(false);
                     }
                 }
-                if (sub != null) {
-                    try {
-                        link.getWriter().writeResponse(sub);
-                    } catch (Exception x) {
-                        LOGGER.warn(sub.path, x);
+            }
+            for (Subscription s : written) {
+                s.enqueued.set(false);
+            }
+            if (updates.size() == 0) {
+                for (Subscription s : written) {
+                    if (s.hasUpdates()) {
+                        enqueue(s);
                     }
                 }
+                written.clear();
+                return null;
+            }
+            progress = true;
+            JsonObject msg = new JsonObject();
+            msg.put("rid", 0);
+            msg.put("updates", updates);
+            return msg;
+        }
+
+        @Override
+        public void retry() {
+            written.clear();
+        }
+
+        @Override
+        public void setMessageId(int lastMessageId) {
+            for (Subscription sub : written) {
+                sub.setMessageId(lastMessageId);
+                if (sub.hasUpdates()) {
+                    enqueue(sub);
+                }
             }
+            written.clear();
         }
 
-        synchronized void clearQueue() {
+        void clearQueue() {
             Subscription sub = queue.poll();
             while (sub != null) {
-                sub.enqueued = false;
+                sub.enqueued.set(false);
                 sub = queue.poll();
             }
         }
@@ -686,6 +992,15 @@ public class SubscriptionManager {
     static {
         String s = PropertyReference.QOS_QUEUE_SIZE;
         QOS_QUEUE_SIZE = SystemPropertyUtil.getInt(s, 0);
+
+        s = PropertyReference.SUBSCRIPTION_WRITERS;
+        WRITERS = Math.max(1, SystemPropertyUtil.getInt(s, 1));
+
+        s = PropertyReference.DISPATCH_DELAY;
+        RETRY_DELAY = SystemPropertyUtil.getInt(s, 10);
+
+        s = PropertyReference.ROLLUP_INTERVAL;
+        ROLLUP_INTERVAL = SystemPropertyUtil.getInt(s, 0);
     }
 
 }
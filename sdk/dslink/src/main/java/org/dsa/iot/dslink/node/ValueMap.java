@@ -0,0 +1,174 @@
+package org.dsa.iot.dslink.node;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import org.dsa.iot.dslink.node.value.Value;
+
+/**
+ * Map of the configurations or attributes of a node, sized for the few
+ * entries a node usually has. Up to {@link #INLINE_SIZE} entries are kept
+ * in a single array of alternating keys and values that is replaced on
+ * every change. Larger maps are backed by a {@link ConcurrentHashMap}.
+ * <p>
+ * Reads never lock and iterate over a snapshot, changes must be
+ * synchronized by the caller. That includes removals through an iterator,
+ * which remove the entry from the map rather than from the snapshot.
+ */
+final class ValueMap extends AbstractMap<String, Value> {
+
+    static final int INLINE_SIZE = 8;
+    private static final Object[] EMPTY = new Object[0];
+
+    /**
+     * Either an array of alternating keys and values or a map.
+     */
+    private volatile Object store = EMPTY;
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Value get(Object key) {
+        Object store = this.store;
+        if (store instanceof Map) {
+            return ((Map<String, Value>) store).get(key);
+        }
+        Object[] entries = (Object[]) store;
+        for (int i = 0; i < entries.length; i += 2) {
+            if (entries[i].equals(key)) {
+                return (Value) entries[i + 1];
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return get(key) != null;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Value put(String key, Value value) {
+        if (key == null) {
+            throw new NullPointerException("key");
+        } else if (value == null) {
+            throw new NullPointerException("value");
+        }
+        Object store = this.store;
+        if (store instanceof Map) {
+            return ((Map<String, Value>) store).put(key, value);
+        }
+        Object[] entries = (Object[]) store;
+        for (int i = 0; i < entries.length; i += 2) {
+            if (entries[i].equals(key)) {
+                Object[] copy = entries.clone();
+                copy[i + 1] = value;
+                this.store = copy;
+                return (Value) entries[i + 1];
+            }
+        }
+        if (entries.length / 2 >= INLINE_SIZE) {
+            Map<String, Value> map = new ConcurrentHashMap<>();
+            for (int i = 0; i < entries.length; i += 2) {
+                map.put((String) entries[i], (Value) entries[i + 1]);
+            }
+            map.put(key, value);
+            this.store = map;
+            return null;
+        }
+        Object[] copy = Arrays.copyOf(entries, entries.length + 2);
+        copy[entries.length] = key;
+        copy[entries.length + 1] = value;
+        this.store = copy;
+        return null;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Value remove(Object key) {
+        Object store = this.store;
+        if (store instanceof Map) {
+            return ((Map<String, Value>) store).remove(key);
+        }
+        Object[] entries = (Object[]) store;
+        for (int i = 0; i < entries.length; i += 2) {
+            if (entries[i].equals(key)) {
+                Object[] copy = new Object[entries.length - 2];
+                System.arraycopy(entries, 0, copy, 0, i);
+                System.arraycopy(entries, i + 2, copy, i, copy.length - i);
+                this.store = copy;
+                return (Value) entries[i + 1];
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public void clear() {
+        store = EMPTY;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public int size() {
+        Object store = this.store;
+        if (store instanceof Map) {
+            return ((Map<String, Value>) store).size();
+        }
+        return ((Object[]) store).length / 2;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Set<Entry<String, Value>> entrySet() {
+        Object store = this.store;
+        if (store instanceof Map) {
+            return ((Map<String, Value>) store).entrySet();
+        }
+        final Object[] entries = (Object[]) store;
+        return new AbstractSet<Entry<String, Value>>() {
+            @Override
+            public Iterator<Entry<String, Value>> iterator() {
+                return new Iterator<Entry<String, Value>>() {
+                    private int index;
+                    private String last;
+
+                    @Override
+                    public boolean hasNext() {
+                        return index < entries.length;
+                    }
+
+                    @Override
+                    public Entry<String, Value> next() {
+                        if (index >= entries.length) {
+                            throw new NoSuchElementException();
+                        }
+                        String key = (String) entries[index++];
+                        Value value = (Value) entries[index++];
+                        last = key;
+                        return new SimpleImmutableEntry<>(key, value);
+                    }
+
+                    @Override
+                    public void remove() {
+                        if (last == null) {
+                            throw new IllegalStateException();
+                        }
+                        ValueMap.this.remove(last);
+                        last = null;
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return entries.length / 2;
+            }
+        };
+    }
+}
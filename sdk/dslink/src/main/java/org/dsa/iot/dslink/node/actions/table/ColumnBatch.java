@@ -0,0 +1,249 @@
+package org.dsa.iot.dslink.node.actions.table;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import org.dsa.iot.dslink.node.value.Value;
+import org.dsa.iot.dslink.util.TimeUtils;
+import org.dsa.iot.dslink.util.json.JsonWritable;
+
+/**
+ * Batch of rows stored by column in primitive arrays. Every row starts
+ * with a timestamp followed by one cell per column. Tables write the batch
+ * directly to the network without creating a {@link Row} or
+ * {@link Value} per cell.
+ * <p>
+ * A NaN double or a null string is written as null. This class is not
+ * thread safe and the batch must not be modified once it is added to a
+ * table.
+ *
+ * @see Table#addColumnBatch(ColumnBatch)
+ */
+public class ColumnBatch {
+
+    private static final int TIME_SIZE = 32;
+    private static final int NUMBER_SIZE = 12;
+
+    private final Type[] types;
+    private final long[] times;
+    private final Object[] columns;
+    private int size;
+
+    /**
+     * @param capacity Maximum number of rows in the batch.
+     * @param types    Types of the columns following the timestamp.
+     */
+    public ColumnBatch(int capacity, Type... types) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("capacity < 0");
+        } else if (types == null) {
+            throw new NullPointerException("types");
+        }
+        this.types = types.clone();
+        this.times = new long[capacity];
+        this.columns = new Object[types.length];
+        for (int i = 0; i < types.length; i++) {
+            Type type = types[i];
+            if (type == null) {
+                throw new NullPointerException("types[" + i + "]");
+            }
+            switch (type) {
+                case DOUBLE:
+                    columns[i] = new double[capacity];
+                    break;
+                case LONG:
+                    columns[i] = new long[capacity];
+                    break;
+                default:
+                    columns[i] = new String[capacity];
+            }
+        }
+    }
+
+    /**
+     * Adds a row, its cells are set afterwards. Unset cells are 0 or null.
+     *
+     * @param time Timestamp of the row.
+     * @return Index of the row.
+     */
+    public int addRow(long time) {
+        if (size == times.length) {
+            throw new IllegalStateException("Batch is full");
+        }
+        times[size] = time;
+        return size++;
+    }
+
+    public void setDouble(int column, int row, double value) {
+        ((double[]) columns[column])[check(row)] = value;
+    }
+
+    public void setLong(int column, int row, long value) {
+        ((long[]) columns[column])[check(row)] = value;
+    }
+
+    public void setString(int column, int row, String value) {
+        ((String[]) columns[column])[check(row)] = value;
+    }
+
+    public double getDouble(int column, int row) {
+        return ((double[]) columns[column])[check(row)];
+    }
+
+    public long getLong(int column, int row) {
+        return ((long[]) columns[column])[check(row)];
+    }
+
+    public String getString(int column, int row) {
+        return ((String[]) columns[column])[check(row)];
+    }
+
+    public long getTime(int row) {
+        return times[check(row)];
+    }
+
+    /**
+     * @return Types of the columns following the timestamp.
+     */
+    public Type[] getTypes() {
+        return types.clone();
+    }
+
+    /**
+     * @return Number of rows in the batch.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return Whether no more rows can be added.
+     */
+    public boolean isFull() {
+        return size == times.length;
+    }
+
+    /**
+     * Converts the batch into rows, used where the table is not streaming.
+     *
+     * @return Rows of the batch.
+     */
+    public List<Row> toRows() {
+        List<Row> rows = new ArrayList<>(size);
+        for (int row = 0; row < size; row++) {
+            Row r = new Row();
+            r.addValue(new Value(TimeUtils.format(times[row])));
+            for (int col = 0; col < columns.length; col++) {
+                switch (types[col]) {
+                    case DOUBLE: {
+                        double d = ((double[]) columns[col])[row];
+                        r.addValue(Double.isNaN(d) ? null : new Value(d));
+                        break;
+                    }
+                    case LONG:
+                        r.addValue(new Value(((long[]) columns[col])[row]));
+                        break;
+                    default: {
+                        String s = ((String[]) columns[col])[row];
+                        r.addValue(s == null ? null : new Value(s));
+                    }
+                }
+            }
+            rows.add(r);
+        }
+        return rows;
+    }
+
+    /**
+     * @param row Index of the row.
+     * @return Approximate encoded size of the row in bytes.
+     */
+    int estimateSize(int row) {
+        int size = TIME_SIZE;
+        for (int col = 0; col < columns.length; col++) {
+            if (types[col] == Type.STRING) {
+                String s = ((String[]) columns[col])[row];
+                size += (s == null) ? 5 : s.length() + 3;
+            } else {
+                size += NUMBER_SIZE;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * @param from First row, inclusive.
+     * @param to   Last row, exclusive.
+     * @return Element that writes the rows as an array of row arrays.
+     */
+    JsonWritable slice(final int from, final int to) {
+        return new JsonWritable() {
+            @Override
+            public void write(JsonGenerator gen) throws IOException {
+                writeRows(gen, from, to);
+            }
+
+            @Override
+            public int estimateSize() {
+                int size = 2;
+                for (int row = from; row < to; row++) {
+                    size += ColumnBatch.this.estimateSize(row);
+                }
+                return size;
+            }
+        };
+    }
+
+    private void writeRows(JsonGenerator gen, int from, int to) throws IOException {
+        char[] buf = new char[TimeUtils.MAX_ENCODED_LENGTH];
+        gen.writeStartArray();
+        for (int row = from; row < to; row++) {
+            gen.writeStartArray();
+            int len = TimeUtils.encode(times[row], true, buf, 0);
+            gen.writeString(buf, 0, len);
+            for (int col = 0; col < columns.length; col++) {
+                switch (types[col]) {
+                    case DOUBLE: {
+                        double d = ((double[]) columns[col])[row];
+                        if (Double.isNaN(d)) {
+                            gen.writeNull();
+                        } else {
+                            gen.writeNumber(d);
+                        }
+                        break;
+                    }
+                    case LONG:
+                        gen.writeNumber(((long[]) columns[col])[row]);
+                        break;
+                    default: {
+                        String s = ((String[]) columns[col])[row];
+                        if (s == null) {
+                            gen.writeNull();
+                        } else {
+                            gen.writeString(s);
+                        }
+                    }
+                }
+            }
+            gen.writeEndArray();
+        }
+        gen.writeEndArray();
+    }
+
+    private int check(int row) {
+        if (row < 0 || row >= size) {
+            throw new IndexOutOfBoundsException("row: " + row);
+        }
+        return row;
+    }
+
+    /**
+     * Storage type of a column.
+     */
+    public enum Type {
+        DOUBLE,
+        LONG,
+        STRING
+    }
+}
@@ -0,0 +1,27 @@
+package org.dsa.iot.dslink.node.actions.table;
+
+/**
+ * Source of rows that a streaming {@link Table} pulls from whenever the
+ * network is able to accept more data. Rows are only requested from the
+ * thread writing the table, a producer does not have to be thread safe
+ * unless it is fed by other threads.
+ *
+ * @see Table#setProducer(RowProducer)
+ */
+public interface RowProducer {
+
+    /**
+     * @return The next row, or null if no row is available at the moment.
+     * Once more rows are available the producer must call
+     * {@link Table#resume()}.
+     */
+    Row next();
+
+    /**
+     * Called after {@link #next()} returned null.
+     *
+     * @return Whether all rows were produced. The stream of the table is
+     * closed once the rows are written.
+     */
+    boolean isComplete();
+}
@@ -1,26 +1,52 @@
 package org.dsa.iot.dslink.node.actions.table;
 
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import io.netty.util.internal.SystemPropertyUtil;
+import java.util.ArrayDeque;
 import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import org.dsa.iot.dslink.connection.DataHandler;
+import org.dsa.iot.dslink.connection.QueuedWriteManager;
 import org.dsa.iot.dslink.link.Responder;
 import org.dsa.iot.dslink.methods.StreamState;
+import org.dsa.iot.dslink.node.MessageGenerator;
 import org.dsa.iot.dslink.node.actions.Parameter;
 import org.dsa.iot.dslink.node.value.Value;
+import org.dsa.iot.dslink.provider.LoopProvider;
+import org.dsa.iot.dslink.util.PropertyReference;
 import org.dsa.iot.dslink.util.handler.Handler;
 import org.dsa.iot.dslink.util.json.JsonArray;
 import org.dsa.iot.dslink.util.json.JsonObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
- * Constructs a table for action results. This class is not thread safe.
+ * Constructs a table for action results. All methods are synchronized on
+ * the table, so rows can be added from any thread.
+ * <p>
+ * Once streaming, rows and metadata are buffered and written in batches
+ * whenever the network is able to accept more data. Adding rows blocks
+ * while the buffer is full, this includes the threads that invoke actions.
+ * Threads of the {@link LoopProvider} never block since the buffer is
+ * written by tasks of the same threads, the buffer grows past its size
+ * instead. Long running producers should therefore add rows from their own
+ * threads, or set a {@link RowProducer} for the rows to be pulled as they
+ * can be written.
  *
  * @author Samuel Grenier
  */
 @SuppressFBWarnings("IS2_INCONSISTENT_SYNC")
 public class Table {
 
+    private static final Logger LOGGER = LoggerFactory.getLogger(Table.class);
+    private static final int BUFFER_SIZE;
+    private static final int BATCH_SIZE;
+    private static final int RETRY_DELAY;
+
     private List<Parameter> columns;
     private List<Row> rows;
     private Mode mode;
@@ -35,6 +61,13 @@ public class Table {
     private Object streamMutex;
     private boolean closed = false;
 
+    private final Queue<Object> pending = new ArrayDeque<>();
+    private int pendingRows;
+    private RowProducer producer;
+    private boolean starved;
+    private boolean closing;
+    private Streamer streamer;
+
     /**
      * Adds a column to the table.
      *
@@ -65,10 +98,14 @@ public class Table {
      * @param batch Batch of rows.
      */
     public synchronized void addBatchRows(List<Parameter> cols, BatchRow batch) {
-        DataHandler writer = this.writer;
         if (batch == null) {
             throw new NullPointerException("batch");
-        } else if (rows == null && writer == null) {
+        } else if (closed || closing) {
+            return;
+        }
+        awaitCapacity();
+        DataHandler writer = this.writer;
+        if (rows == null && writer == null) {
             rows = new LinkedList<>();
         }
 
@@ -76,18 +113,42 @@ public class Table {
             setColumns(cols);
             rows.addAll(batch.getRows());
         } else {
-            JsonArray updates = new JsonArray();
-            for (Row r : batch.getRows()) {
-                updates.add(processRow(r));
-            }
-
             BatchRow.Modifier m = batch.getModifier();
             JsonObject meta = null;
             if (m != null) {
                 meta = new JsonObject();
                 meta.put("modify", batch.getModifier().get());
             }
-            write(writer, cols, updates, meta);
+            if (cols != null || meta != null) {
+                enqueue(new Control(processColumns(cols), meta, null));
+            }
+            for (Row r : batch.getRows()) {
+                enqueue(r);
+            }
+        }
+    }
+
+    /**
+     * Adds a batch of rows stored by column. While streaming, the batch is
+     * written without converting its cells into values, otherwise it is
+     * converted into rows.
+     *
+     * @param batch Batch of rows.
+     */
+    public synchronized void addColumnBatch(ColumnBatch batch) {
+        if (batch == null) {
+            throw new NullPointerException("batch");
+        } else if (closed || closing || batch.size() == 0) {
+            return;
+        }
+        awaitCapacity();
+        if (writer == null) {
+            if (rows == null) {
+                rows = new LinkedList<>();
+            }
+            rows.addAll(batch.toRows());
+        } else {
+            enqueue(new BatchCursor(batch));
         }
     }
 
@@ -109,10 +170,14 @@ public class Table {
      * @param row  Row to add to the table.
      */
     public synchronized void addRow(List<Parameter> cols, Row row) {
-        DataHandler writer = this.writer;
         if (row == null) {
             throw new NullPointerException("row");
-        } else if (rows == null && writer == null) {
+        } else if (closed || closing) {
+            return;
+        }
+        awaitCapacity();
+        DataHandler writer = this.writer;
+        if (rows == null && writer == null) {
             rows = new LinkedList<>();
         }
 
@@ -120,9 +185,10 @@ public class Table {
             setColumns(cols);
             rows.add(row);
         } else {
-            JsonArray updates = new JsonArray();
-            updates.add(processRow(row));
-            write(writer, cols, updates, null);
+            if (cols != null) {
+                enqueue(new Control(processColumns(cols), null, null));
+            }
+            enqueue(row);
         }
     }
 
@@ -141,10 +207,40 @@ public class Table {
             throw new NullPointerException("mode");
         } else if (writer == null) {
             this.mode = mode;
-        } else {
+        } else if (!closing) {
             JsonObject meta = new JsonObject();
             meta.put("mode", mode.getName());
-            write(writer, null, null, meta);
+            enqueue(new Control(null, meta, null));
+        }
+    }
+
+    /**
+     * Sets the producer the rows of the table are pulled from while the
+     * table is streaming. Rows added to the table are written ahead of the
+     * rows of the producer. The stream is closed once the producer is
+     * complete.
+     *
+     * @param producer Producer of rows.
+     */
+    public synchronized void setProducer(RowProducer producer) {
+        if (producer == null) {
+            throw new NullPointerException("producer");
+        }
+        this.producer = producer;
+        this.starved = false;
+        if (streamer != null) {
+            streamer.schedule(0);
+        }
+    }
+
+    /**
+     * Notifies the table that its producer has rows available after it
+     * returned none.
+     */
+    public synchronized void resume() {
+        starved = false;
+        if (streamer != null) {
+            streamer.schedule(0);
         }
     }
 
@@ -165,6 +261,10 @@ public class Table {
         this.writer = writer;
         this.responder = responder;
         this.closeHandler = closeHandler;
+        this.streamer = new Streamer(writer);
+        if (producer != null) {
+            streamer.schedule(0);
+        }
         if (ready) {
             sendReady();
         }
@@ -258,18 +358,13 @@ public class Table {
      * tables.
      */
     public synchronized void close() {
-        DataHandler writer = this.writer;
         if (writer != null) {
-            JsonObject obj = new JsonObject();
-            obj.put("rid", rid);
-            obj.put("stream", StreamState.CLOSED.getJsonName());
-            writer.writeResponse(obj, false);
-            this.writer = null;
-            Handler<Void> closeHandler = this.closeHandler;
-            if (closeHandler != null) {
-                this.closeHandler = null;
-                closeHandler.handle(null);
+            if (!closing) {
+                // Written once the buffered rows are written
+                closing = true;
+                enqueue(new Control(null, null, StreamState.CLOSED));
             }
+            return;
         }
         setClosed();
     }
@@ -292,6 +387,12 @@ public class Table {
         this.meta = null;
         this.responder = null;
         this.closed = true;
+        this.closing = false;
+        this.producer = null;
+        this.streamer = null;
+        this.pending.clear();
+        this.pendingRows = 0;
+        notifyAll();
     }
 
     /**
@@ -370,35 +471,168 @@ public class Table {
             return;
         }
         ready = false;
-        JsonObject obj = new JsonObject();
-        obj.put("rid", rid);
-        obj.put("stream", StreamState.OPEN.getJsonName());
-        writer.writeResponse(obj, false);
+        if (!closing) {
+            enqueue(new Control(null, null, StreamState.OPEN));
+        }
     }
 
-    private void write(DataHandler writer,
-                       List<Parameter> cols,
-                       JsonArray updates,
-                       JsonObject meta) {
-        JsonObject obj = new JsonObject();
-        obj.put("rid", rid);
-        if (ready) {
-            ready = false;
-            obj.put("stream", StreamState.OPEN.getJsonName());
+    /**
+     * Blocks while the buffer of a streaming table is full. Waiting is
+     * aborted when the table is closed. Threads of the loop provider do not
+     * wait, the buffer may never be written if they all did.
+     */
+    private void awaitCapacity() {
+        if ((BUFFER_SIZE <= 0) || (pendingRows < BUFFER_SIZE) || (writer == null)) {
+            return;
+        } else if (LoopProvider.getProvider().isLoopThread()) {
+            return;
+        }
+        while ((pendingRows >= BUFFER_SIZE) && (writer != null)) {
+            try {
+                wait(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
         }
-        if (meta != null) {
-            obj.put("meta", meta);
+    }
+
+    private void enqueue(Object entry) {
+        pending.add(entry);
+        if (entry instanceof Row) {
+            pendingRows++;
+        } else if (entry instanceof BatchCursor) {
+            pendingRows += ((BatchCursor) entry).batch.size();
         }
-        if (cols != null) {
-            JsonArray array = processColumns(cols);
-            if (array != null) {
-                obj.put("columns", array);
+        streamer.schedule(0);
+    }
+
+    /**
+     * Discards everything that is buffered, called when the connection is
+     * lost. A pending close is completed.
+     */
+    private synchronized void discard() {
+        pending.clear();
+        pendingRows = 0;
+        producer = null;
+        if (closing) {
+            finishClose();
+        }
+        notifyAll();
+    }
+
+    private void finishClose() {
+        Handler<Void> closeHandler = this.closeHandler;
+        this.writer = null;
+        this.closeHandler = null;
+        if (closeHandler != null) {
+            closeHandler.handle(null);
+        }
+        setClosed();
+    }
+
+    /**
+     * @return Whether the streamer has anything to write.
+     */
+    private synchronized boolean hasPending() {
+        return !pending.isEmpty() || (producer != null && !starved);
+    }
+
+    /**
+     * Takes the next entry to write, pulling from the producer when
+     * nothing is buffered.
+     */
+    private Object nextEntry() {
+        Object next = pending.peek();
+        if (next != null || closing || producer == null || starved) {
+            return next;
+        }
+        Row row = producer.next();
+        if (row != null) {
+            pending.add(row);
+            pendingRows++;
+            return row;
+        }
+        if (producer.isComplete()) {
+            producer = null;
+            closing = true;
+            next = new Control(null, null, StreamState.CLOSED);
+            pending.add(next);
+            return next;
+        }
+        starved = true;
+        return null;
+    }
+
+    /**
+     * Builds the next message from the buffer. Rows are batched until the
+     * estimated encoded size reaches the batch size. Metadata always starts
+     * a new message and a close ends it.
+     */
+    private synchronized JsonObject nextMessage() {
+        if (writer == null) {
+            return null;
+        }
+        JsonObject obj = null;
+        JsonArray updates = null;
+        int size = 0;
+        Object next;
+        while ((size < BATCH_SIZE) && ((next = nextEntry()) != null)) {
+            if (next instanceof Row) {
+                pending.poll();
+                pendingRows--;
+                Row row = (Row) next;
+                JsonArray array = processRow(row);
+                if (updates == null) {
+                    updates = new JsonArray();
+                }
+                updates.add(array);
+                size += QueuedWriteManager.estimateSize(array);
+                continue;
+            } else if (next instanceof BatchCursor) {
+                if (updates != null) {
+                    break;
+                }
+                // Column batches are written as the entire updates array
+                BatchCursor cursor = (BatchCursor) next;
+                int from = cursor.position;
+                int to = cursor.advance(BATCH_SIZE - size);
+                pendingRows -= (to - from);
+                if (cursor.position == cursor.batch.size()) {
+                    pending.poll();
+                }
+                if (obj == null) {
+                    obj = new JsonObject();
+                }
+                obj.put("updates", cursor.batch.slice(from, to));
+                break;
+            }
+            Control control = (Control) next;
+            boolean close = control.stream == StreamState.CLOSED;
+            if (((obj != null) || (updates != null)) && !close) {
+                // Metadata applies to the rows after it
+                break;
+            }
+            pending.poll();
+            if (obj == null) {
+                obj = new JsonObject();
+            }
+            control.apply(obj);
+            if (close) {
+                break;
             }
         }
+        notifyAll();
+        if (obj == null && updates == null) {
+            return null;
+        } else if (obj == null) {
+            obj = new JsonObject();
+        }
+        obj.put("rid", rid);
         if (updates != null) {
             obj.put("updates", updates);
         }
-        writer.writeResponse(obj, false);
+        return obj;
     }
 
     private JsonArray processRow(Row row) {
@@ -412,7 +646,7 @@ public class Table {
         return rowArray;
     }
 
-    private JsonArray processColumns(List<Parameter> cols) {
+    private static JsonArray processColumns(List<Parameter> cols) {
         if (cols == null || cols.isEmpty()) {
             return null;
         }
@@ -445,4 +679,170 @@ public class Table {
             return mode;
         }
     }
+
+    /**
+     * Metadata or stream state change that is written in order with the
+     * buffered rows.
+     */
+    private static class Control {
+
+        private final JsonArray columns;
+        private final JsonObject meta;
+        private final StreamState stream;
+
+        Control(JsonArray columns, JsonObject meta, StreamState stream) {
+            this.columns = columns;
+            this.meta = meta;
+            this.stream = stream;
+        }
+
+        void apply(JsonObject obj) {
+            if (columns != null) {
+                obj.put("columns", columns);
+            }
+            if (meta != null) {
+                obj.put("meta", meta);
+            }
+            if (stream != null) {
+                obj.put("stream", stream.getJsonName());
+            }
+        }
+    }
+
+    /**
+     * Position of the next row of a column batch to write.
+     */
+    private static class BatchCursor {
+
+        private final ColumnBatch batch;
+        private int position;
+
+        BatchCursor(ColumnBatch batch) {
+            this.batch = batch;
+        }
+
+        /**
+         * Advances by at least one row and until the estimated size of the
+         * rows reaches the budget.
+         *
+         * @return The new position.
+         */
+        int advance(int budget) {
+            int end = batch.size();
+            int size = 0;
+            do {
+                size += batch.estimateSize(position++);
+            } while ((position < end) && (size < budget));
+            return position;
+        }
+    }
+
+    /**
+     * Writes the buffer of the table whenever the network is able to
+     * accept more data.
+     */
+    private class Streamer implements MessageGenerator, Runnable {
+
+        private final DataHandler writer;
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        private boolean blocked;
+        private boolean progress;
+        private boolean closeWritten;
+        private final Runnable wake = new Runnable() {
+            @Override
+            public void run() {
+                if (isCurrent() && hasPending()) {
+                    schedule(0);
+                }
+            }
+        };
+
+        Streamer(DataHandler writer) {
+            this.writer = writer;
+        }
+
+        void schedule(long delay) {
+            if (scheduled.compareAndSet(false, true)) {
+                LoopProvider provider = LoopProvider.getProvider();
+                if (delay <= 0) {
+                    provider.schedule(this);
+                } else {
+                    provider.schedule(this, delay, TimeUnit.MILLISECONDS);
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            long delay = 0;
+            try {
+                if (!writer.isConnected()) {
+                    discard();
+                    return;
+                }
+                blocked = false;
+                progress = false;
+                writer.writeResponse(this);
+                if (!progress) {
+                    delay = RETRY_DELAY;
+                }
+            } catch (Exception x) {
+                LOGGER.warn("Failed to write table", x);
+                delay = RETRY_DELAY;
+            } finally {
+                scheduled.set(false);
+            }
+            if (blocked) {
+                // Woken up once the network accepts more data
+                writer.awaitWritable(wake);
+            } else if (isCurrent() && hasPending()) {
+                schedule(delay);
+            }
+        }
+
+        @Override
+        public JsonObject getMessage(int lastAckId) {
+            JsonObject obj = nextMessage();
+            if (obj != null) {
+                progress = true;
+                closeWritten = StreamState.CLOSED.getJsonName().equals(obj.get("stream"));
+            }
+            return obj;
+        }
+
+        @Override
+        public void retry() {
+            blocked = true;
+        }
+
+        @Override
+        public void setMessageId(int messageId) {
+            if (closeWritten) {
+                closeWritten = false;
+                synchronized (Table.this) {
+                    if (isCurrent()) {
+                        finishClose();
+                    }
+                }
+            }
+        }
+
+        private boolean isCurrent() {
+            synchronized (Table.this) {
+                return streamer == this;
+            }
+        }
+    }
+
+    static {
+        String s = PropertyReference.TABLE_BUFFER_SIZE;
+        BUFFER_SIZE = SystemPropertyUtil.getInt(s, 1000);
+        LOGGER.debug("-D{}: {}", s, BUFFER_SIZE);
+
+        s = PropertyReference.WRITE_BATCH_SIZE;
+        BATCH_SIZE = SystemPropertyUtil.getInt(s, 64 * 1024);
+
+        s = PropertyReference.DISPATCH_DELAY;
+        RETRY_DELAY = SystemPropertyUtil.getInt(s, 10);
+    }
 }
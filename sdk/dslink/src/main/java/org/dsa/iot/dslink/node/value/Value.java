@@ -16,6 +16,10 @@ import java.util.Arrays;
  */
 public class Value {
 
+    private static final byte PRIMITIVE_NONE = 0;
+    private static final byte PRIMITIVE_DOUBLE = 1;
+    private static final byte PRIMITIVE_LONG = 2;
+
     private ValueType type;
     private boolean immutable;
     private boolean serializable = true;
@@ -23,6 +27,10 @@ public class Value {
     private long tsDate = -1;
     private String tsFormatted;
 
+    private byte primitive;
+    private double primitiveDouble;
+    private long primitiveLong;
+
     private Number number;
     private Boolean bool;
     private String string;
@@ -66,6 +74,36 @@ public class Value {
         set(n, time);
     }
 
+    /**
+     * Creates a number value backed by a primitive double. The number is
+     * only boxed if {@link #getNumber()} is called.
+     *
+     * @param n Initial number to set.
+     * @param time Initial time to set, in milliseconds since the epoch.
+     */
+    public Value(double n, long time) {
+        set(n, time);
+    }
+
+    /**
+     * Creates a number value backed by a primitive long. The number is
+     * only boxed if {@link #getNumber()} is called.
+     *
+     * @param n Initial number to set.
+     * @param time Initial time to set, in milliseconds since the epoch.
+     */
+    public Value(long n, long time) {
+        set(n, time);
+    }
+
+    /**
+     * @param b Initial boolean to set.
+     * @param time Initial time to set, in milliseconds since the epoch.
+     */
+    public Value(boolean b, long time) {
+        set(b, time);
+    }
+
     /**
      * Creates a value with an initial type of a boolean.
      *
@@ -160,6 +198,31 @@ public class Value {
         set(ValueType.NUMBER, null, n, null, null, null, null, time);
     }
 
+    /**
+     * @param n Number to set.
+     * @param time Time to set, in milliseconds since the epoch.
+     */
+    public void set(double n, long time) {
+        setPrimitive(PRIMITIVE_DOUBLE, n, 0, time);
+    }
+
+    /**
+     * @param n Number to set.
+     * @param time Time to set, in milliseconds since the epoch.
+     */
+    public void set(long n, long time) {
+        setPrimitive(PRIMITIVE_LONG, 0, n, time);
+    }
+
+    /**
+     * @param b Boolean to set.
+     * @param time Time to set, in milliseconds since the epoch.
+     */
+    public void set(boolean b, long time) {
+        set(ValueType.BOOL, null, null, b, null, null, null, null);
+        setTime(time);
+    }
+
     /**
      * @param b Boolean to set
      */
@@ -252,6 +315,7 @@ public class Value {
         }
 
         this.binary = binary == null ? null : binary.clone();
+        this.primitive = PRIMITIVE_NONE;
         this.number = n;
         this.bool = b;
         this.string = s;
@@ -259,6 +323,22 @@ public class Value {
         this.map = o;
     }
 
+    private void setPrimitive(byte primitive, double d, long l, long time) {
+        checkImmutable();
+        this.type = ValueType.NUMBER;
+        setTime(time);
+
+        this.binary = null;
+        this.primitive = primitive;
+        this.primitiveDouble = d;
+        this.primitiveLong = l;
+        this.number = null;
+        this.bool = null;
+        this.string = null;
+        this.array = null;
+        this.map = null;
+    }
+
     /**
      * Sets the time of the value.
      *
@@ -313,7 +393,7 @@ public class Value {
      */
     public long getTime() {
         if (tsDate == -1) {
-            tsDate = TimeUtils.parseTz(tsFormatted).getTime();
+            tsDate = TimeUtils.decode(tsFormatted);
         }
         return tsDate;
     }
@@ -326,7 +406,59 @@ public class Value {
      * @return Number of the value
      */
     public Number getNumber() {
-        return number;
+        Number n = number;
+        if ((n == null) && (primitive != PRIMITIVE_NONE)) {
+            if (primitive == PRIMITIVE_DOUBLE) {
+                n = primitiveDouble;
+            } else {
+                n = primitiveLong;
+            }
+            number = n;
+        }
+        return n;
+    }
+
+    /**
+     * @return Whether the number of this value is held as a primitive.
+     */
+    public boolean isPrimitive() {
+        return primitive != PRIMITIVE_NONE;
+    }
+
+    /**
+     * @return Whether the number of this value is a primitive double rather
+     * than a primitive long.
+     */
+    public boolean isDouble() {
+        return primitive == PRIMITIVE_DOUBLE;
+    }
+
+    /**
+     * @return Number of the value as a double, or NaN if there is none.
+     */
+    public double getDouble() {
+        if (primitive == PRIMITIVE_DOUBLE) {
+            return primitiveDouble;
+        } else if (primitive == PRIMITIVE_LONG) {
+            return primitiveLong;
+        } else if (number != null) {
+            return number.doubleValue();
+        }
+        return Double.NaN;
+    }
+
+    /**
+     * @return Number of the value as a long, or 0 if there is none.
+     */
+    public long getLong() {
+        if (primitive == PRIMITIVE_LONG) {
+            return primitiveLong;
+        } else if (primitive == PRIMITIVE_DOUBLE) {
+            return (long) primitiveDouble;
+        } else if (number != null) {
+            return number.longValue();
+        }
+        return 0;
     }
 
     /**
@@ -387,7 +519,7 @@ public class Value {
     public String toString() {
         switch (type.toJsonString()) {
             case ValueType.JSON_NUMBER:
-                return String.valueOf(number);
+                return String.valueOf(getNumber());
             case ValueType.JSON_BOOL:
                 return String.valueOf(bool);
             case ValueType.JSON_STRING:
@@ -412,7 +544,7 @@ public class Value {
             if (value.getType().toJsonString().equals(compare)) {
                 switch (compare) {
                     case ValueType.JSON_NUMBER:
-                        equal = objectEquals(number, value.number);
+                        equal = objectEquals(getNumber(), value.getNumber());
                         break;
                     case ValueType.JSON_TIME:
                     case ValueType.JSON_STRING:
@@ -21,6 +21,12 @@ public class ValueUtils {
     public static Value mutableCopy(Value arg) {
         ValueType type = arg.getType();
         if (ValueType.NUMBER.compare(type)) {
+            if (arg.isPrimitive()) {
+                if (arg.isDouble()) {
+                    return new Value(arg.getDouble(), arg.getTime());
+                }
+                return new Value(arg.getLong(), arg.getTime());
+            }
             return new Value(arg.getNumber(), arg.getTimeStamp());
         } else if (ValueType.BOOL.compare(type)) {
             return new Value(arg.getBool(), arg.getTimeStamp());
@@ -33,6 +33,17 @@ public abstract class LoopProvider {
         PROVIDER = provider;
     }
 
+    /**
+     * Threads of the event loop must not block while waiting for other
+     * tasks of the event loop, which may never get a thread.
+     *
+     * @return Whether the current thread runs tasks of the event loop, false
+     * if it is not known.
+     */
+    public boolean isLoopThread() {
+        return false;
+    }
+
     /**
      * Schedule a task on the event loop immediately.
      * @param task a task to schedule
@@ -7,18 +7,44 @@ import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 
 public class DefaultLoopProvider extends LoopProvider {
+
+    /**
+     * Set on the threads of the pool as they run their first task.
+     */
+    private static final ThreadLocal<Boolean> LOOP_THREAD = new ThreadLocal<>();
+
     @Override
     public void schedule(Runnable task) {
-        Objects.getDaemonThreadPool().execute(task);
+        Objects.getDaemonThreadPool().execute(wrap(task));
     }
 
     @Override
     public ScheduledFuture schedule(Runnable task, long delay, TimeUnit timeUnit) {
-        return Objects.getDaemonThreadPool().schedule(task, delay, timeUnit);
+        return Objects.getDaemonThreadPool().schedule(wrap(task), delay, timeUnit);
     }
 
     @Override
     public ScheduledFuture schedulePeriodic(Runnable task, long initialDelay, long delay, TimeUnit timeUnit) {
-        return Objects.getDaemonThreadPool().scheduleWithFixedDelay(task, initialDelay, delay, timeUnit);
+        return Objects.getDaemonThreadPool().scheduleWithFixedDelay(wrap(task), initialDelay, delay, timeUnit);
+    }
+
+    @Override
+    public boolean isLoopThread() {
+        return LOOP_THREAD.get() != null;
+    }
+
+    private static Runnable wrap(final Runnable task) {
+        if (task == null) {
+            throw new NullPointerException("task");
+        }
+        return new Runnable() {
+            @Override
+            public void run() {
+                if (LOOP_THREAD.get() == null) {
+                    LOOP_THREAD.set(Boolean.TRUE);
+                }
+                task.run();
+            }
+        };
     }
 }
@@ -2,7 +2,8 @@ package org.dsa.iot.dslink.provider.netty;
 
 import io.netty.bootstrap.Bootstrap;
 import io.netty.buffer.ByteBuf;
-import io.netty.buffer.Unpooled;
+import io.netty.buffer.ByteBufInputStream;
+import io.netty.buffer.ByteBufOutputStream;
 import io.netty.channel.*;
 import io.netty.channel.socket.SocketChannel;
 import io.netty.channel.socket.nio.NioSocketChannel;
@@ -131,17 +132,26 @@ public class DefaultWsProvider extends WsProvider {
                     @Override
                     public void write(EncodingFormat format,
                                       JsonObject data) {
-                        byte[] bytes = data.encode(format);
-                        ByteBuf buf = Unpooled.wrappedBuffer(bytes);
+                        ByteBuf buf = ch.alloc().buffer();
+                        try {
+                            data.encode(format, new ByteBufOutputStream(buf));
+                        } catch (RuntimeException e) {
+                            buf.release();
+                            throw e;
+                        }
                         WebSocketFrame frame = null;
                         if (format == EncodingFormat.JSON) {
                             frame = new TextWebSocketFrame(buf);
+                        } else if (format == EncodingFormat.MSGPACK) {
+                            frame = new BinaryWebSocketFrame(buf);
                         } else {
                             String err = "Unsupported encoding format: {}";
                             LOGGER.error(err, format);
                         }
                         if (frame != null) {
                             ch.writeAndFlush(frame);
+                        } else {
+                            buf.release();
                         }
                     }
 
@@ -169,19 +179,13 @@ public class DefaultWsProvider extends WsProvider {
             if (frame instanceof TextWebSocketFrame
                     || frame instanceof BinaryWebSocketFrame) {
                 ByteBuf content = frame.content();
-                int offset = 0;
                 int length = content.readableBytes();
-                byte[] bytes;
-                {
-                    if (content.hasArray()) {
-                        offset = content.arrayOffset();
-                        bytes = content.array();
-                    } else {
-                        bytes = new byte[length];
-                        content.readBytes(bytes);
-                    }
+                if (content.hasArray()) {
+                    int offset = content.arrayOffset() + content.readerIndex();
+                    client.onData(content.array(), offset, length);
+                } else {
+                    client.onData(new ByteBufInputStream(content), length);
                 }
-                client.onData(bytes, offset, length);
             } else if (frame instanceof PingWebSocketFrame) {
                 ByteBuf buf = frame.content().retain();
                 PongWebSocketFrame pong = new PongWebSocketFrame(buf);
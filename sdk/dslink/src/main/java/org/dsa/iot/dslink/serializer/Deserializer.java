@@ -1,14 +1,27 @@
 package org.dsa.iot.dslink.serializer;
 
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import org.dsa.iot.dslink.node.Node;
 import org.dsa.iot.dslink.node.NodeManager;
 import org.dsa.iot.dslink.node.Writable;
 import org.dsa.iot.dslink.node.value.Value;
 import org.dsa.iot.dslink.node.value.ValueType;
 import org.dsa.iot.dslink.node.value.ValueUtils;
+import org.dsa.iot.dslink.util.json.EncodingFormat;
+import org.dsa.iot.dslink.util.json.Json;
+import org.dsa.iot.dslink.util.json.JsonArray;
 import org.dsa.iot.dslink.util.json.JsonObject;
+import org.dsa.iot.dslink.util.json.decoders.ListDecoder;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * Deserializes a JSON file into a node manager
@@ -46,6 +59,72 @@ public class Deserializer {
         }
     }
 
+    /**
+     * Deserializes the JSON read from the stream into the node manager. Nodes
+     * are created as the stream is parsed, so the document is never held in
+     * memory as a whole.
+     *
+     * @param in Stream of the JSON to deserialize, it is not closed.
+     * @throws IOException Failed to read or parse the stream.
+     */
+    public void deserialize(InputStream in) throws IOException {
+        JsonFactory factory = Json.getFactory(EncodingFormat.JSON);
+        JsonParser parser = factory.createParser(in);
+        parser.disable(JsonParser.Feature.AUTO_CLOSE_SOURCE);
+        try {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IOException("Expected a JSON object");
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String name = parser.getCurrentName();
+                Node node = nodeManager.getNode(name, true).getNode();
+                if (parser.nextToken() != JsonToken.START_OBJECT) {
+                    throw new IOException("Expected a JSON object for " + name);
+                }
+                deserializeNode(node, parser);
+            }
+        } finally {
+            parser.close();
+        }
+    }
+
+    /**
+     * Deserializes the fields of the object the parser is currently in,
+     * up to and including its end token.
+     */
+    private void deserializeNode(Node node, JsonParser parser) throws IOException {
+        Object pendingValue = null;
+        boolean typed = false;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.getCurrentName();
+            JsonToken token = parser.nextToken();
+            if ((token == JsonToken.START_OBJECT) && !isMetaData(name)) {
+                Node child = node.createChild(name, false).build();
+                deserializeNode(child, parser);
+                continue;
+            }
+            Object value = ListDecoder.decodeValue(parser);
+            if ("$type".equals(name)) {
+                if (value != null) {
+                    node.setValueType(ValueType.toValueType((String) value));
+                }
+                typed = true;
+                if (pendingValue != null) {
+                    deserializeField(node, "?value", pendingValue);
+                    pendingValue = null;
+                }
+            } else if (!typed && "?value".equals(name)) {
+                // The value type must be known before the value is set
+                pendingValue = value;
+            } else {
+                deserializeField(node, name, value);
+            }
+        }
+        if (pendingValue != null) {
+            deserializeField(node, "?value", pendingValue);
+        }
+    }
+
     @SuppressWarnings("unchecked")
     private void deserializeNode(Node node, JsonObject map) {
         final String type = map.get("$type");
@@ -56,66 +135,177 @@ public class Deserializer {
         for (Map.Entry<String, Object> entry : map) {
             String name = entry.getKey();
             Object value = entry.getValue();
-            if (value == null || "$type".equals(name)) {
+            if ("$type".equals(name)) {
                 continue;
             }
-            if ("$is".equals(name)) {
-                node.setProfile((String) value);
-            } else if ("$interface".equals(name)) {
-                node.setInterfaces((String) value);
-            } else if ("$name".equals(name)) {
-                node.setDisplayName((String) value);
-            } else if ("$writable".equals(name)) {
-                node.setWritable(Writable.toEnum((String) value));
-            } else if ("$hidden".equals(name)) {
-                node.setHidden((Boolean) value);
-            } else if ("$$password".equals(name)) {
-                String pass = decrypt((String) value);
-                node.setPassword(pass.toCharArray());
-            } else if ("?value".equals(name)) {
-                ValueType t = node.getValueType();
-                Value val = ValueUtils.toValue(value);
-                if (t != null && val != null
-                        && val.getType().compare(ValueType.STRING)
-                        && t.compare(ValueType.NUMBER)) {
-                    String str = val.getString();
-                    if ((str == null) || str.isEmpty()) {
-                        node.setValue(null);
-                    } else {
-                        switch (str) {
-                            case "NaN":
-                                node.setValue(new Value(Float.NaN));
-                                break;
-                            case "Infinity":
-                                node.setValue(new Value(Float.POSITIVE_INFINITY));
-                                break;
-                            case "-Infinity":
-                                node.setValue(new Value(Float.NEGATIVE_INFINITY));
-                                break;
-                            default:
-                                node.setValue(null);
-                        }
-                    }
-                } else {
-                    node.setValue(val);
+            deserializeField(node, name, value);
+        }
+    }
+
+    /**
+     * Applies a journal record to the node. The record is a complete
+     * snapshot of the node, so anything it does not mention is reset to
+     * what loading the node from a snapshot would produce.
+     *
+     * @param node     Node the record was written for.
+     * @param fields   Fields of the node.
+     * @param children Names of the serializable children of the node.
+     */
+    void deserializeRecord(Node node, JsonObject fields, JsonArray children) {
+        Set<String> names = new HashSet<>();
+        for (Object name : children) {
+            names.add((String) name);
+        }
+        Map<String, Node> current = node.getChildren();
+        if (current != null) {
+            for (Node child : new ArrayList<>(current.values())) {
+                if (child.isSerializable() && !names.contains(child.getName())) {
+                    node.removeChild(child.getName(), false);
+                }
+            }
+        }
+        for (String name : names) {
+            if (node.getChild(name, false) == null) {
+                node.createChild(name, false).build();
+            }
+        }
+        if (node instanceof NodeManager.SuperRoot) {
+            return;
+        }
+
+        for (String name : missing(node.getConfigurations(), fields, "$")) {
+            node.removeConfig(name);
+        }
+        for (String name : missing(node.getRoConfigurations(), fields, "$$")) {
+            node.removeRoConfig(name);
+        }
+        for (String name : missing(node.getAttributes(), fields, "@")) {
+            node.removeAttribute(name);
+        }
+        Value value = node.getValue();
+        if (!fields.contains("?value") && (value != null) && value.isSerializable()) {
+            node.setValue(null);
+        }
+        if (!fields.contains("$name") && (node.getDisplayName() != null)) {
+            node.setDisplayName(null);
+        }
+        if (!fields.contains("$hidden") && node.isHidden()) {
+            node.setHidden(false);
+        }
+        Writable writable = node.getWritable();
+        if (!fields.contains("$writable")
+                && !((writable == null) || (writable == Writable.NEVER))) {
+            node.setWritable(Writable.NEVER);
+        }
+        if (node.getInterfaces() != null) {
+            node.setInterfaces(null);
+        }
+        if (!fields.contains("$type") && (node.getValueType() != null)) {
+            node.setValue(null);
+            node.setValueType(null);
+        }
+        if (!fields.contains("$$password") && (node.getPassword() != null)) {
+            node.setPassword(null);
+        }
+        if (!fields.contains("$is")) {
+            // Children are created with the profile of their parent
+            Node parent = node.getParent();
+            String profile = (parent == null) ? null : parent.getProfile();
+            String current = node.getProfile();
+            if ((profile == null) ? (current != null) : !profile.equals(current)) {
+                node.setProfile(profile);
+            }
+        }
+        if (node.getAction() != null) {
+            // Actions are never serialized
+            node.setAction(null);
+        }
+        deserializeNode(node, fields);
+    }
+
+    /**
+     * Names of the serializable values that are not in the fields.
+     */
+    private static List<String> missing(Map<String, Value> values,
+                                        JsonObject fields,
+                                        String prefix) {
+        List<String> ret = new ArrayList<>();
+        if (values != null) {
+            for (Map.Entry<String, Value> entry : values.entrySet()) {
+                String name = entry.getKey();
+                if (entry.getValue().isSerializable()
+                        && !fields.contains(prefix + name)) {
+                    ret.add(name);
                 }
-            } else if (name.startsWith("$$")) {
-                if (name.endsWith(SerializationManager.PASSWORD_TOKEN)) {
-                    value = decrypt((String) value);
+            }
+        }
+        return ret;
+    }
+
+    private void deserializeField(Node node, String name, Object value) {
+        if (value == null) {
+            return;
+        }
+        if ("$is".equals(name)) {
+            node.setProfile((String) value);
+        } else if ("$interface".equals(name)) {
+            node.setInterfaces((String) value);
+        } else if ("$name".equals(name)) {
+            node.setDisplayName((String) value);
+        } else if ("$writable".equals(name)) {
+            node.setWritable(Writable.toEnum((String) value));
+        } else if ("$hidden".equals(name)) {
+            node.setHidden((Boolean) value);
+        } else if ("$$password".equals(name)) {
+            String pass = decrypt((String) value);
+            node.setPassword(pass.toCharArray());
+        } else if ("?value".equals(name)) {
+            ValueType t = node.getValueType();
+            Value val = ValueUtils.toValue(value);
+            if (t != null && val != null
+                    && val.getType().compare(ValueType.STRING)
+                    && t.compare(ValueType.NUMBER)) {
+                String str = val.getString();
+                if ((str == null) || str.isEmpty()) {
+                    node.setValue(null);
+                } else {
+                    switch (str) {
+                        case "NaN":
+                            node.setValue(new Value(Float.NaN));
+                            break;
+                        case "Infinity":
+                            node.setValue(new Value(Float.POSITIVE_INFINITY));
+                            break;
+                        case "-Infinity":
+                            node.setValue(new Value(Float.NEGATIVE_INFINITY));
+                            break;
+                        default:
+                            node.setValue(null);
+                    }
                 }
-                node.setRoConfig(name.substring(2), ValueUtils.toValue(value));
-            } else if (name.startsWith("$")) {
-                node.setConfig(name.substring(1), ValueUtils.toValue(value));
-            } else if (name.startsWith("@")) {
-                node.setAttribute(name.substring(1), ValueUtils.toValue(value));
             } else {
-                Node child = node.createChild(name, false).build();
-                JsonObject children = (JsonObject) value;
-                deserializeNode(child, children);
+                node.setValue(val);
+            }
+        } else if (name.startsWith("$$")) {
+            if (name.endsWith(SerializationManager.PASSWORD_TOKEN)) {
+                value = decrypt((String) value);
             }
+            node.setRoConfig(name.substring(2), ValueUtils.toValue(value));
+        } else if (name.startsWith("$")) {
+            node.setConfig(name.substring(1), ValueUtils.toValue(value));
+        } else if (name.startsWith("@")) {
+            node.setAttribute(name.substring(1), ValueUtils.toValue(value));
+        } else {
+            Node child = node.createChild(name, false).build();
+            JsonObject children = (JsonObject) value;
+            deserializeNode(child, children);
         }
     }
 
+    private static boolean isMetaData(String name) {
+        return name.startsWith("$") || name.startsWith("@") || "?value".equals(name);
+    }
+
     private String decrypt(String pass) {
         return serializationManager.decrypt(nodeManager.getSuperRoot(), pass);
     }
@@ -0,0 +1,207 @@
+package org.dsa.iot.dslink.serializer;
+
+import org.dsa.iot.dslink.node.Node;
+import org.dsa.iot.dslink.node.NodeManager;
+import org.dsa.iot.dslink.util.json.JsonArray;
+import org.dsa.iot.dslink.util.json.JsonObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+
+/**
+ * Append-only log of the node changes made since the last full
+ * serialization. Each line is a compact JSON record holding the complete
+ * state of a single node, without its descendants, along with the names of
+ * its children. Replaying a record more than once is harmless.
+ * <p>
+ * The first line holds the checksum of the snapshot the records apply to,
+ * so a journal left behind by a crash after a newer snapshot was written
+ * is discarded rather than replayed over newer state.
+ */
+class Journal {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(Journal.class);
+    private static final int BUFFER_SIZE = 16 * 1024;
+
+    private final File file;
+    private final NodeManager manager;
+    private final Serializer serializer;
+    private final Deserializer deserializer;
+    private int records;
+    private long snapshot = -1;
+
+    Journal(File file,
+            NodeManager manager,
+            Serializer serializer,
+            Deserializer deserializer) {
+        this.file = file;
+        this.manager = manager;
+        this.serializer = serializer;
+        this.deserializer = deserializer;
+    }
+
+    /**
+     * @return The number of records in the journal.
+     */
+    int size() {
+        return records;
+    }
+
+    /**
+     * @return The checksum of the snapshot the records apply to, or -1 if
+     * it is not known.
+     */
+    long getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * @param snapshot CRC32 of the snapshot the records apply to, or -1 if
+     *                 it is not known.
+     */
+    void setSnapshot(long snapshot) {
+        this.snapshot = snapshot;
+    }
+
+    /**
+     * Appends a record for every node that is still part of the serialized
+     * tree and syncs the journal to disk.
+     */
+    void append(Collection<Node> nodes) throws IOException {
+        boolean empty = !file.exists() || (file.length() == 0);
+        try (FileOutputStream fos = new FileOutputStream(file, true)) {
+            OutputStream out = new BufferedOutputStream(fos, BUFFER_SIZE);
+            if (empty && (snapshot >= 0)) {
+                JsonObject header = new JsonObject();
+                header.put("snapshot", snapshot);
+                out.write(header.encode());
+                out.write('\n');
+            }
+            for (Node node : nodes) {
+                if (isSerialized(node)) {
+                    serializer.serializeRecord(out, node);
+                    records++;
+                }
+            }
+            out.flush();
+            try {
+                fos.getFD().sync();
+            } catch (SyncFailedException ignored) {
+            }
+        }
+    }
+
+    /**
+     * Applies the records of the journal to the node manager. A record that
+     * cannot be parsed, such as one cut short by a crash, ends the replay
+     * and the journal is truncated after the last good record so later
+     * records are not appended behind it. A journal written for another
+     * snapshot than the one set is discarded.
+     *
+     * @return Whether the journal was replayed to its end.
+     */
+    boolean replay() throws IOException {
+        records = 0;
+        if (!file.exists()) {
+            return true;
+        }
+        long good = 0; // Offset after the last good line
+        boolean complete = true;
+        try (InputStream in = new BufferedInputStream(
+                new FileInputStream(file), BUFFER_SIZE)) {
+            ByteArrayOutputStream line = new ByteArrayOutputStream();
+            boolean first = true;
+            long offset = 0;
+            int b;
+            while ((b = in.read()) >= 0) {
+                offset++;
+                if (b != '\n') {
+                    line.write(b);
+                    continue;
+                }
+                String text = new String(line.toByteArray(), StandardCharsets.UTF_8);
+                line.reset();
+                if (!text.isEmpty()) {
+                    try {
+                        JsonObject record = new JsonObject(text);
+                        if (first && record.contains("snapshot")) {
+                            long crc = ((Number) record.get("snapshot")).longValue();
+                            if ((snapshot >= 0) && (crc != snapshot)) {
+                                LOGGER.info("Discarding {}, it was written for an older snapshot",
+                                            file.getName());
+                                reset();
+                                return true;
+                            }
+                        } else {
+                            String path = record.get("path");
+                            JsonObject fields = record.get("node");
+                            JsonArray children = record.get("children");
+                            Node node = manager.getNode(path, true).getNode();
+                            deserializer.deserializeRecord(node, fields, children);
+                            records++;
+                        }
+                    } catch (Exception x) {
+                        LOGGER.warn("Stopped replaying {} at record {}",
+                                    file.getName(), records + 1, x);
+                        complete = false;
+                        break;
+                    }
+                    first = false;
+                }
+                good = offset;
+            }
+            if (line.size() > 0) {
+                // The last record was not completely written
+                complete = false;
+            }
+        }
+        if (!complete) {
+            truncate(good);
+        }
+        LOGGER.debug("Replayed {} records from {}", records, file.getName());
+        return complete;
+    }
+
+    private void truncate(long length) throws IOException {
+        LOGGER.warn("Truncating {} to {} bytes", file.getName(), length);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(length);
+            try {
+                raf.getFD().sync();
+            } catch (SyncFailedException ignored) {
+            }
+        }
+    }
+
+    /**
+     * Discards all records, called once they are part of a full
+     * serialization.
+     */
+    void reset() {
+        records = 0;
+        if (file.exists() && !file.delete()) {
+            LOGGER.warn("Unable to delete " + file.getName());
+        }
+    }
+
+    /**
+     * Whether the node is still attached to the tree and neither it nor
+     * any of its ancestors is excluded from serialization.
+     */
+    private boolean isSerialized(Node node) {
+        Node current = manager.getNode(node.getPath(), false, false).getNode();
+        if (current != node) {
+            return false;
+        }
+        while (node != null) {
+            if (!node.isSerializable()) {
+                return false;
+            }
+            node = node.getParent();
+        }
+        return true;
+    }
+}
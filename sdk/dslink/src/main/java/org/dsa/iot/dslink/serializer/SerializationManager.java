@@ -1,13 +1,15 @@
 package org.dsa.iot.dslink.serializer;
 
+import io.netty.util.internal.SystemPropertyUtil;
 import org.dsa.iot.dslink.node.*;
 import org.dsa.iot.dslink.provider.*;
 import org.dsa.iot.dslink.util.*;
-import org.dsa.iot.dslink.util.json.*;
 import org.slf4j.*;
 import java.io.*;
+import java.util.*;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.*;
+import java.util.zip.*;
 import javax.crypto.*;
 import javax.crypto.spec.*;
 
@@ -19,6 +21,8 @@ import javax.crypto.spec.*;
 public class SerializationManager {
 
     private static final Logger LOGGER;
+    private static final boolean COMPACT;
+    private static final int JOURNAL_SIZE;
 
     private final File file;
     private final File backup;
@@ -30,8 +34,19 @@ public class SerializationManager {
     private SecretKeySpec secretKeySpec;
     private static final String PASSWORD_PREFIX = "\u001Bpw:";
     static final String PASSWORD_TOKEN = "assword";
+    private static final int BUFFER_SIZE = 64 * 1024;
 
     private final AtomicBoolean changed = new AtomicBoolean(false);
+    private final AtomicBoolean fullRewrite = new AtomicBoolean(false);
+    /**
+     * Keyed by identity so marking a node never builds its path, the path
+     * is only resolved when the journal is written.
+     */
+    private final Set<Node> changedNodes =
+            Collections.newSetFromMap(new ConcurrentHashMap<Node, Boolean>());
+    private final Journal journal;
+    private final Object ioLock = new Object();
+    private volatile boolean restoring;
 
     /**
      * Handles serialization based on the file path.
@@ -44,13 +59,45 @@ public class SerializationManager {
         this.backup = new File(file.getPath() + ".bak");
         this.deserializer = new Deserializer(this, manager);
         this.serializer = new Serializer(this, manager);
+        if (JOURNAL_SIZE > 0) {
+            File path = new File(file.getPath() + ".journal");
+            journal = new Journal(path, manager, serializer, deserializer);
+        } else {
+            journal = null;
+        }
     }
 
+    /**
+     * Causes the next serialization to rewrite the entire file.
+     */
     public void markChanged() {
+        fullRewrite.set(true);
+        changed.set(true);
+    }
+
+    /**
+     * Records a change of a single node. The node is appended to the journal
+     * on the next serialization rather than rewriting the entire file.
+     *
+     * @param node Node that changed.
+     */
+    public void markChanged(Node node) {
+        if (restoring) {
+            return;
+        }
+        if (journal == null) {
+            changed.set(true);
+            return;
+        }
+        changedNodes.add(node);
         changed.set(true);
     }
 
     public void markChangedOverride(boolean bool) {
+        if (!bool) {
+            fullRewrite.set(false);
+            changedNodes.clear();
+        }
         changed.set(bool);
     }
 
@@ -61,7 +108,7 @@ public class SerializationManager {
             public void run() {
                 boolean c = changed.getAndSet(false);
                 if (c) {
-                    serialize();
+                    persistChanges();
                 }
             }
         }, 5, 5, TimeUnit.SECONDS);
@@ -74,14 +121,52 @@ public class SerializationManager {
         }
     }
 
+    /**
+     * Appends the changed nodes to the journal. The entire file is rewritten
+     * instead, compacting the journal, when it has grown too large or a full
+     * rewrite was requested.
+     */
+    private void persistChanges() {
+        boolean full = fullRewrite.getAndSet(false);
+        List<Node> nodes = new ArrayList<>(changedNodes.size());
+        Iterator<Node> it = changedNodes.iterator();
+        while (it.hasNext()) {
+            nodes.add(it.next());
+            it.remove();
+        }
+        if (!full && (journal != null) && nodes.isEmpty()) {
+            return;
+        }
+        synchronized (ioLock) {
+            if (!(full || (journal == null) || !file.exists())
+                    && (journal.size() + nodes.size() <= JOURNAL_SIZE)) {
+                try {
+                    if (journal.getSnapshot() < 0) {
+                        journal.setSnapshot(checksum(file));
+                    }
+                    journal.append(nodes);
+                    return;
+                } catch (IOException e) {
+                    LOGGER.error("Failed to append to the journal", e);
+                }
+            }
+            writeFile();
+        }
+    }
+
     /**
      * Serializes the data from the node manager into the file based on the
      * path. Manually calling this is redundant as a timer will automatically
      * handle serialization.
      */
     public void serialize() {
+        synchronized (ioLock) {
+            writeFile();
+        }
+    }
+
+    private void writeFile() {
         try {
-            JsonObject json = serializer.serialize();
             //Save the config db to a temp file.  If we can't do that, then we don't
             //want to do anything else.
             File tmp = new File(file.getParent(), file.getName() + ".tmp");
@@ -90,7 +175,23 @@ public class SerializationManager {
                     throw new IOException("Could not delete " + tmp.getName());
                 }
             }
-            FileUtils.write(tmp, json.encodePrettily());
+            long start = System.currentTimeMillis();
+            long crc;
+            try (FileOutputStream fos = new FileOutputStream(tmp)) {
+                CheckedOutputStream checked = new CheckedOutputStream(fos, new CRC32());
+                OutputStream out = new BufferedOutputStream(checked, BUFFER_SIZE);
+                serializer.serialize(out, COMPACT);
+                out.flush();
+                crc = checked.getChecksum().getValue();
+                try {
+                    fos.getFD().sync();
+                } catch (SyncFailedException ignored) {
+                }
+            }
+            if (LOGGER.isDebugEnabled()) {
+                long time = System.currentTimeMillis() - start;
+                LOGGER.debug("Serialized {} in {}ms", tmp.getName(), time);
+            }
             if (!tmp.exists()) {
                 throw new IOException(
                         tmp.getName() + " weirdly did not exist after writing to it");
@@ -138,6 +239,12 @@ public class SerializationManager {
             if (LOGGER.isDebugEnabled()) {
                 LOGGER.debug("Backup complete");
             }
+            if (journal != null) {
+                // A journal left behind by a crash before this point holds
+                // the checksum of the previous snapshot and is discarded.
+                journal.reset();
+                journal.setSnapshot(crc);
+            }
         } catch (IOException e) {
             LOGGER.error("Failed to save configuration database", e);
         }
@@ -149,11 +256,32 @@ public class SerializationManager {
      * @throws Exception An error has occurred deserializing the nodes.
      */
     public void deserialize() throws Exception {
+        restoring = true;
+        try {
+            synchronized (ioLock) {
+                long crc = readFile();
+                if (journal != null) {
+                    journal.setSnapshot(crc);
+                    if (!journal.replay()) {
+                        // Compact what could be replayed into a snapshot
+                        markChanged();
+                    }
+                }
+            }
+        } finally {
+            restoring = false;
+        }
+    }
+
+    /**
+     * @return The checksum of the restored file or -1 if none was restored.
+     */
+    private long readFile() {
         if (file.exists()) {
             try {
-                handle(FileUtils.readAllBytes(file));
+                long crc = handle(file);
                 LOGGER.debug("Restored " + file.getName());
-                return;
+                return crc;
             } catch (Exception x) {
                 LOGGER.error("Could not deserialize " + file.getName(), x);
             }
@@ -161,7 +289,7 @@ public class SerializationManager {
         //There was a problem with the primary db.
         if (backup.exists()) {
             try {
-                handle(FileUtils.readAllBytes(backup));
+                long crc = handle(backup);
                 LOGGER.warn("Restored backup " + backup.getName());
                 if (file.exists()) {
                     //Try delete the primary db so it won't overwrite the
@@ -170,7 +298,7 @@ public class SerializationManager {
                         LOGGER.warn("Unable to delete corrupt " + file.getName());
                     }
                 }
-                return;
+                return crc;
             } catch (Exception x) {
                 LOGGER.error("Could not delete " + file.getName(), x);
             }
@@ -179,20 +307,41 @@ public class SerializationManager {
         File tmp = new File(file.getParent(), file.getName() + ".tmp");
         if (tmp.exists()) {
             try {
-                handle(FileUtils.readAllBytes(tmp));
+                long crc = handle(tmp);
                 LOGGER.warn("Restored " + tmp.getName());
-                return;
+                return crc;
             } catch (Exception x) {
                 LOGGER.error("Could not deserialize " + tmp.getName(), x);
             }
         }
         LOGGER.warn("Unable to deserialize a configuration database");
+        return -1;
+    }
+
+    /**
+     * @return The checksum of the file.
+     */
+    private long handle(File file) throws Exception {
+        CheckedInputStream checked = new CheckedInputStream(
+                new FileInputStream(file), new CRC32());
+        try (InputStream in = new BufferedInputStream(checked, BUFFER_SIZE)) {
+            deserializer.deserialize(in);
+            // Include anything after the JSON in the checksum
+            byte[] buf = new byte[BUFFER_SIZE];
+            while (in.read(buf) >= 0) {
+            }
+        }
+        return checked.getChecksum().getValue();
     }
 
-    private void handle(byte[] bytes) throws Exception {
-        String in = new String(bytes, "UTF-8");
-        JsonObject obj = new JsonObject(in);
-        deserializer.deserialize(obj);
+    private static long checksum(File file) throws IOException {
+        try (CheckedInputStream in = new CheckedInputStream(
+                new FileInputStream(file), new CRC32())) {
+            byte[] buf = new byte[BUFFER_SIZE];
+            while (in.read(buf) >= 0) {
+            }
+            return in.getChecksum().getValue();
+        }
     }
 
     /**
@@ -259,6 +408,10 @@ public class SerializationManager {
 
     static {
         LOGGER = LoggerFactory.getLogger(SerializationManager.class);
+        String s = PropertyReference.SERIALIZE_COMPACT;
+        COMPACT = SystemPropertyUtil.getBoolean(s, false);
+        s = PropertyReference.JOURNAL_SIZE;
+        JOURNAL_SIZE = SystemPropertyUtil.getInt(s, 10000);
     }
 
 }
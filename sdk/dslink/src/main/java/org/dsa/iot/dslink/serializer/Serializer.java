@@ -1,10 +1,14 @@
 package org.dsa.iot.dslink.serializer;
 
+import com.fasterxml.jackson.core.*;
+import com.fasterxml.jackson.core.util.*;
+import java.io.*;
 import java.util.*;
 import org.dsa.iot.dslink.node.*;
 import org.dsa.iot.dslink.node.value.*;
 import org.dsa.iot.dslink.util.*;
 import org.dsa.iot.dslink.util.json.*;
+import org.dsa.iot.dslink.util.json.encoders.*;
 
 /**
  * @author Samuel Grenier
@@ -40,6 +44,148 @@ public class Serializer {
         return top;
     }
 
+    /**
+     * Walks the node tree and writes it directly to the stream, the tree is
+     * never built in memory.
+     *
+     * @param out     Stream to write the JSON to, it is not closed.
+     * @param compact Whether to omit the indentation.
+     * @throws IOException Failed to write to the stream.
+     */
+    public void serialize(OutputStream out, boolean compact) throws IOException {
+        JsonFactory factory = Json.getFactory(EncodingFormat.JSON);
+        JsonGenerator gen = factory.createGenerator(out, JsonEncoding.UTF8);
+        gen.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        if (!compact) {
+            gen.setPrettyPrinter(new DefaultPrettyPrinter());
+        }
+        gen.writeStartObject();
+        Map<String, Node> rootChildren = nodeManager.getChildren("/");
+        if (rootChildren != null) {
+            for (Node child : rootChildren.values()) {
+                if (child.isSerializable()) {
+                    gen.writeObjectFieldStart(child.getName());
+                    serializeChildren(gen, child);
+                }
+            }
+        }
+        gen.writeEndObject();
+        gen.close();
+    }
+
+    /**
+     * Writes a single line journal record of the node. The record holds the
+     * fields of the node and the names of its children, but not the
+     * descendants themselves.
+     *
+     * @param out  Stream to write the record to, it is not closed.
+     * @param node Node to write.
+     * @throws IOException Failed to write to the stream.
+     */
+    void serializeRecord(OutputStream out, Node node) throws IOException {
+        JsonFactory factory = Json.getFactory(EncodingFormat.JSON);
+        JsonGenerator gen = factory.createGenerator(out, JsonEncoding.UTF8);
+        gen.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        gen.writeStartObject();
+        gen.writeStringField("path", node.getPath());
+        gen.writeObjectFieldStart("node");
+        writeFields(gen, node);
+        gen.writeEndObject();
+        gen.writeArrayFieldStart("children");
+        Map<String, Node> children = node.getChildren();
+        if (children != null) {
+            for (Node child : children.values()) {
+                if (child.isSerializable()) {
+                    gen.writeString(child.getName());
+                }
+            }
+        }
+        gen.writeEndArray();
+        gen.writeEndObject();
+        gen.close();
+        out.write('\n');
+    }
+
+    private void serializeChildren(JsonGenerator gen, Node parent) throws IOException {
+        writeFields(gen, parent);
+        Map<String, Node> children = parent.getChildren();
+        if (children != null && children.size() > 0) {
+            for (Node child : children.values()) {
+                if (child.isSerializable()) {
+                    gen.writeObjectFieldStart(child.getName());
+                    serializeChildren(gen, child);
+                }
+            }
+        }
+        gen.writeEndObject();
+    }
+
+    private void writeFields(JsonGenerator gen, Node parent) throws IOException {
+        String data = parent.getDisplayName();
+        if (data != null) {
+            gen.writeStringField("$name", data);
+        }
+
+        Set<String> set = parent.getInterfaces();
+        if (set != null && set.size() > 0) {
+            gen.writeStringField("$interface", StringUtils.join(set, "|"));
+        }
+
+        String profile = parent.getProfile();
+        if (profile != null) {
+            gen.writeStringField("$is", profile);
+        }
+
+        ValueType type = parent.getValueType();
+        if (type != null) {
+            gen.writeStringField("$type", type.toJsonString());
+            Value value = parent.getValue();
+            if (value != null && value.isSerializable()) {
+                gen.writeFieldName("?value");
+                ListEncoder.writeValue(gen, value);
+            }
+        }
+
+        char[] password = parent.getPassword();
+        if (password != null) {
+            gen.writeStringField("$$password", encrypt(new String(password)));
+        }
+
+        Writable writable = parent.getWritable();
+        if (!(writable == null || writable == Writable.NEVER)) {
+            gen.writeStringField("$writable", writable.toJsonName());
+        }
+
+        if (parent.isHidden()) {
+            gen.writeBooleanField("$hidden", true);
+        }
+
+        writeValues("$$", gen, parent.getRoConfigurations());
+        writeValues("$", gen, parent.getConfigurations());
+        writeValues("@", gen, parent.getAttributes());
+    }
+
+    private void writeValues(String prefix, JsonGenerator gen, Map<String, Value> vals)
+            throws IOException {
+        if (vals == null || vals.size() == 0) {
+            return;
+        }
+        boolean testPassword = prefix.equals("$$");
+        for (Map.Entry<String, Value> entry : vals.entrySet()) {
+            Value value = entry.getValue();
+            if (value.isSerializable()) {
+                String name = prefix + entry.getKey();
+                if (testPassword && (value.getType() == ValueType.STRING)) {
+                    if (name.endsWith(SerializationManager.PASSWORD_TOKEN)) {
+                        value = new Value(encrypt(value.getString()));
+                    }
+                }
+                gen.writeFieldName(name);
+                ListEncoder.writeValue(gen, value);
+            }
+        }
+    }
+
     private void serializeChildren(JsonObject out, Node parent) {
         String data = parent.getDisplayName();
         if (data != null) {
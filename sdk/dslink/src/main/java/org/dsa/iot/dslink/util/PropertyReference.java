@@ -12,8 +12,9 @@ public class PropertyReference {
 
     /**
      * A string property of CSV values for the supported encoding formats
-     * that can be used over the network for communication. If the property
-     * is not specified then the SDK will allow using any supported format.
+     * that can be used over the network for communication, such as
+     * {@code json,msgpack}. If the property is not specified then only JSON
+     * is used.
      */
     public static final String FORMATS = NAMESPACE + ".formats";
 
@@ -26,6 +27,15 @@ public class PropertyReference {
      */
     public static final String DISPATCH_DELAY = NAMESPACE + ".dispatchDelay";
 
+    /**
+     * An integer property that determines the approximate amount of encoded
+     * bytes a single outgoing message may batch before the remaining queued
+     * messages are deferred to the next write.
+     *
+     * Default value is 65536.
+     */
+    public static final String WRITE_BATCH_SIZE = NAMESPACE + ".writeBatchSize";
+
     /**
      * An integer property that determines the QOS queue size.  A value of 0 or less means an
      * unlimited queue.
@@ -34,6 +44,126 @@ public class PropertyReference {
      */
     public static final String QOS_QUEUE_SIZE = NAMESPACE + ".qosQueueSize";
 
+    /**
+     * A boolean property that determines whether the nodes database is
+     * written without indentation. Compact output is smaller and faster to
+     * write but harder to edit by hand.
+     *
+     * Default value is false.
+     */
+    public static final String SERIALIZE_COMPACT = NAMESPACE + ".serializeCompact";
+
+    /**
+     * An integer property that determines how many node changes may be
+     * appended to the journal of the nodes database before the entire
+     * database is rewritten. A value of 0 or less disables the journal and
+     * every change rewrites the database.
+     *
+     * Default value is 10000.
+     */
+    public static final String JOURNAL_SIZE = NAMESPACE + ".journalSize";
+
+    /**
+     * An integer property that determines the default rollup interval of
+     * value subscriptions in milliseconds. Updates of a subscription with
+     * a rollup interval are aggregated into a single count, sum, min, max
+     * and last value summary per interval instead of being sent one by
+     * one. A subscribe request may set its own interval per path with a
+     * {@code rollup} field. A value of 0 or less disables rollups.
+     *
+     * Default value is 0.
+     */
+    public static final String ROLLUP_INTERVAL = NAMESPACE + ".rollupInterval";
+    /**
+     * An integer property that determines how many subscription writers
+     * encode value updates concurrently. Subscriptions are assigned to a
+     * writer by sid so updates of a sid are always written in order.
+     *
+     * Default value is 1.
+     */
+    public static final String SUBSCRIPTION_WRITERS = NAMESPACE + ".subscriptionWriters";
+
+    /**
+     * An integer property that determines how many children are listed per
+     * message. The children of a node with more children are streamed over
+     * multiple messages while the list initializes. A value of 0 or less
+     * lists all children in a single message.
+     *
+     * Default value is 1000.
+     */
+    public static final String LIST_CHUNK_SIZE = NAMESPACE + ".listChunkSize";
+
+    /**
+     * An integer property that determines how many milliseconds changes to
+     * a listed node are accumulated before they are written as a single
+     * update. A value of 0 or less writes them as soon as possible.
+     *
+     * Default value is 10.
+     */
+    public static final String LIST_UPDATE_DELAY = NAMESPACE + ".listUpdateDelay";
+
+    /**
+     * An integer property that determines how many rows a streaming table
+     * buffers before adding rows blocks until the buffered rows are written.
+     * A value of 0 or less means an unlimited buffer.
+     *
+     * Default value is 1000.
+     */
+    public static final String TABLE_BUFFER_SIZE = NAMESPACE + ".tableBufferSize";
+
+    /**
+     * An integer property that determines how many lanes incoming requests
+     * are partitioned onto. Requests of a stream are always handled in order
+     * on the same lane while separate lanes are handled concurrently.
+     *
+     * Default value is the number of available processors.
+     */
+    public static final String REQUEST_LANES = NAMESPACE + ".requestLanes";
+
+    /**
+     * An integer property that determines how many incoming requests may
+     * wait to be handled. Requests received while the backlog is full are
+     * closed with an error. A value of 0 or less means an unlimited backlog.
+     *
+     * Default value is 10000.
+     */
+    public static final String REQUEST_BACKLOG = NAMESPACE + ".requestBacklog";
+
+    /**
+     * An integer property that determines how many threads drain the
+     * request lanes. These threads are separate from the loop provider so
+     * slow requests never hold up timers.
+     *
+     * Default value is the number of available processors.
+     */
+    public static final String REQUEST_THREADS = NAMESPACE + ".requestThreads";
+
+    /**
+     * An integer property that determines how many paths a requester
+     * subscribes or unsubscribes per request. Subscribe and unsubscribe
+     * calls are coalesced and split into requests of at most this many
+     * paths. A value of 0 or less sends all pending paths in one request.
+     *
+     * Default value is 1000.
+     */
+    public static final String SUBSCRIBE_BATCH_SIZE = NAMESPACE + ".subscribeBatchSize";
+    /**
+     * An integer property that determines how many milliseconds subscribe
+     * and unsubscribe calls of a requester are accumulated before they are
+     * sent. A value of 0 or less sends them as soon as possible.
+     *
+     * Default value is 10.
+     */
+    public static final String SUBSCRIBE_DELAY = NAMESPACE + ".subscribeDelay";
+    /**
+     * A boolean property that determines whether a requester keeps its
+     * subscriptions when it disconnects and subscribes all of them again
+     * in bulk when it reconnects. When disabled the subscriptions are
+     * cleared on disconnect.
+     *
+     * Default value is false.
+     */
+    public static final String RESUBSCRIBE = NAMESPACE + ".resubscribe";
     /**
      * A boolean property that determines the sdk should perform any
      * validations. Currently only the dslink.json is validated.
@@ -11,10 +11,18 @@ public class TimeUtils {
     private static Calendar calendarCache;
     public static final int MILLIS_MINUTE = 60 * 1000;
     public static final int MILLIS_HOUR = 60 * MILLIS_MINUTE;
+    private static final int MILLIS_DAY = 24 * MILLIS_HOUR;
+
+    /**
+     * The maximum number of characters of an encoded timestamp, including
+     * the timezone offset.
+     */
+    public static final int MAX_ENCODED_LENGTH = 34;
     private static final Map<String, TimeZone> timezones = new HashMap<String, TimeZone>();
 
     private static final ThreadLocal<DateFormat> FORMAT_TIME_ZONE;
     private static final ThreadLocal<DateFormat> FORMAT;
+    private static final ThreadLocal<MinuteCache> MINUTE_CACHE;
     private static final String TIME_PATTERN_TZ;
     private static final String TIME_PATTERN;
     private static final String TIME_ZONE_COLON;
@@ -47,6 +55,12 @@ public class TimeUtils {
                 return new SimpleDateFormat(getTimePatternTz());
             }
         };
+        MINUTE_CACHE = new ThreadLocal<MinuteCache>() {
+            @Override
+            public MinuteCache initialValue() {
+                return new MinuteCache();
+            }
+        };
     }
 
     /**
@@ -70,17 +84,133 @@ public class TimeUtils {
     }
 
     public static String format(long time) {
-        return encode(time, true).toString();
+        char[] buf = new char[MAX_ENCODED_LENGTH];
+        int len = encode(time, true, buf, 0);
+        return new String(buf, 0, len);
     }
 
     public static String format(Date time) {
-        return encode(time.getTime(), true).toString();
+        return format(time.getTime());
     }
 
     public static Date parseTz(String time) {
         return new Date(decode(time));
     }
 
+    /**
+     * Encodes the timestamp in the default time zone into the buffer, which
+     * must have {@link #MAX_ENCODED_LENGTH} characters available from the
+     * offset. The date, hour and minute are cached per thread and minute so
+     * only the seconds and millis are written for each call.
+     *
+     * @param timestamp      What to encode.
+     * @param encodeTzOffset Whether or not to encode the timezone offset.
+     * @param buf            Destination of the encoded characters.
+     * @param off            Where to start writing in the buffer.
+     * @return The offset after the last character written.
+     */
+    public static int encode(long timestamp, boolean encodeTzOffset, char[] buf, int off) {
+        long minute = Math.floorDiv(timestamp, MILLIS_MINUTE);
+        MinuteCache cache = MINUTE_CACHE.get();
+        if (cache.minute != minute) {
+            cache.update(minute);
+        }
+        char[] prefix = cache.prefix;
+        System.arraycopy(prefix, 0, buf, off, prefix.length);
+        off += prefix.length;
+        int millis = (int) (timestamp - (minute * MILLIS_MINUTE));
+        int sec = millis / 1000;
+        millis %= 1000;
+        buf[off++] = (char) ('0' + sec / 10);
+        buf[off++] = (char) ('0' + sec % 10);
+        buf[off++] = '.';
+        buf[off++] = (char) ('0' + millis / 100);
+        buf[off++] = (char) ('0' + (millis / 10) % 10);
+        buf[off++] = (char) ('0' + millis % 10);
+        if (encodeTzOffset) {
+            char[] tz = cache.tz;
+            System.arraycopy(tz, 0, buf, off, tz.length);
+            off += tz.length;
+        }
+        return off;
+    }
+
+    /**
+     * Encodes the timestamp in a time zone into the buffer, which must have
+     * {@link #MAX_ENCODED_LENGTH} characters available from the offset. The
+     * fields are calculated from the epoch millis, the result is the same
+     * as encoding a calendar of the time zone.
+     *
+     * @param timestamp      What to encode.
+     * @param timeZone       Time zone of the local time.
+     * @param encodeTzOffset Whether or not to encode the timezone offset.
+     * @param buf            Destination of the encoded characters.
+     * @param off            Where to start writing in the buffer.
+     * @return The offset after the last character written.
+     */
+    public static int encode(long timestamp, TimeZone timeZone,
+                             boolean encodeTzOffset, char[] buf, int off) {
+        int offset = timeZone.getOffset(timestamp);
+        long local = timestamp + offset;
+        long days = Math.floorDiv(local, MILLIS_DAY);
+        int time = (int) (local - days * MILLIS_DAY);
+
+        // Civil date of the days since the epoch
+        long z = days + 719468;
+        long era = Math.floorDiv(z, 146097);
+        int doe = (int) (z - era * 146097);
+        int yoe = (doe - doe / 1460 + doe / 36524 - doe / 146096) / 365;
+        int doy = doe - (365 * yoe + yoe / 4 - yoe / 100);
+        int mp = (5 * doy + 2) / 153;
+        int day = doy - (153 * mp + 2) / 5 + 1;
+        int month = mp < 10 ? mp + 3 : mp - 9;
+        int year = (int) (era * 400) + yoe + (month <= 2 ? 1 : 0);
+
+        if (year >= 1000 && year <= 9999) {
+            off = writeDigits(year / 100, buf, off);
+            off = writeDigits(year % 100, buf, off);
+        } else {
+            String str = Integer.toString(year);
+            str.getChars(0, str.length(), buf, off);
+            off += str.length();
+        }
+        buf[off++] = '-';
+        off = writeDigits(month, buf, off);
+        buf[off++] = '-';
+        off = writeDigits(day, buf, off);
+        buf[off++] = 'T';
+        off = writeDigits(time / MILLIS_HOUR, buf, off);
+        buf[off++] = ':';
+        off = writeDigits((time % MILLIS_HOUR) / MILLIS_MINUTE, buf, off);
+        buf[off++] = ':';
+        off = writeDigits((time % MILLIS_MINUTE) / 1000, buf, off);
+        buf[off++] = '.';
+        int millis = time % 1000;
+        buf[off++] = (char) ('0' + millis / 100);
+        off = writeDigits(millis % 100, buf, off);
+        if (encodeTzOffset) {
+            if (offset == 0) {
+                buf[off++] = 'Z';
+            } else {
+                buf[off++] = offset < 0 ? '-' : '+';
+                offset = Math.abs(offset);
+                off = writeDigits(offset / MILLIS_HOUR, buf, off);
+                buf[off++] = ':';
+                off = writeDigits((offset % MILLIS_HOUR) / MILLIS_MINUTE, buf, off);
+            }
+        }
+        return off;
+    }
+
+    /**
+     * Writes a number below 100 as two digits.
+     */
+    private static int writeDigits(int value, char[] buf, int off) {
+        buf[off++] = (char) ('0' + value / 10);
+        buf[off++] = (char) ('0' + value % 10);
+        return off;
+    }
+
     /**
      * @deprecated
      */
@@ -340,15 +470,72 @@ public class TimeUtils {
     }
 
     /**
-     * This is a convenience that uses reuses and recycles a calendar instance to
-     * get the time in millis.
+     * Decodes a DSA encoded timestamp into the time in millis without the use
+     * of a calendar. If the timestamp does not specify a timezone, the
+     * default timezone is used.
      */
     public static long decode(String timestamp) {
-        Calendar cal = reuseCalendar();
-        decode(timestamp, cal);
-        long millis = cal.getTimeInMillis();
-        recycleCalendar(cal);
-        return millis;
+        try {
+            int len = timestamp.length();
+            int idx = 0;
+            int year = convertDigits(timestamp.charAt(idx++), timestamp.charAt(idx++),
+                                     timestamp.charAt(idx++), timestamp.charAt(idx++));
+            validateChar(timestamp.charAt(idx++), '-');
+            int month = convertDigits(timestamp.charAt(idx++), timestamp.charAt(idx++));
+            validateChar(timestamp.charAt(idx++), '-');
+            int day = convertDigits(timestamp.charAt(idx++), timestamp.charAt(idx++));
+            validateChar(timestamp.charAt(idx++), 'T');
+            int hour = convertDigits(timestamp.charAt(idx++), timestamp.charAt(idx++));
+            validateChar(timestamp.charAt(idx++), ':');
+            int minute = convertDigits(timestamp.charAt(idx++), timestamp.charAt(idx++));
+            validateChar(timestamp.charAt(idx++), ':');
+            int second = convertDigits(timestamp.charAt(idx++), timestamp.charAt(idx++));
+            int millis = 0;
+            if ((len > idx) && (timestamp.charAt(idx) == '.')) {
+                idx++;
+                millis = convertDigits('0', timestamp.charAt(idx++),
+                                       timestamp.charAt(idx++), timestamp.charAt(idx++));
+            }
+            //more than 3 millis digits is possible
+            char ch = 0;
+            while ((len > idx)
+                    && ((ch = timestamp.charAt(idx)) != 'Z')
+                    && (ch != '+')
+                    && (ch != '-')) {
+                idx++;
+            }
+            if ((month < 1) || (month > 12)) {
+                throw new IllegalStateException();
+            }
+            long local = daysFromCivil(year, month, day) * MILLIS_DAY
+                    + (long) hour * MILLIS_HOUR
+                    + (long) minute * MILLIS_MINUTE
+                    + second * 1000L
+                    + millis;
+            if (idx >= len) {
+                TimeZone timezone = TimeZone.getDefault();
+                int offset = timezone.getOffset(local - timezone.getOffset(local));
+                return local - offset;
+            }
+            idx++;
+            if (ch == 'Z') {
+                return local;
+            }
+            int hrOff = convertDigits(timestamp.charAt(idx++), timestamp.charAt(idx++));
+            int minOff = 0;
+            //minutes are optional in 8601
+            if (idx < len) {
+                validateChar(timestamp.charAt(idx++), ':');
+                minOff = convertDigits(timestamp.charAt(idx++), timestamp.charAt(idx++));
+            }
+            int tzOff = (hrOff * MILLIS_HOUR) + (minOff * MILLIS_MINUTE);
+            if (ch == '-') {
+                tzOff = -tzOff;
+            }
+            return local - tzOff;
+        } catch (Exception x) {
+            throw new IllegalArgumentException("Invalid timestamp: " + timestamp);
+        }
     }
 
     /**
@@ -442,10 +629,9 @@ public class TimeUtils {
      * @return The buffer containing the encoding.
      */
     public static StringBuilder encode(long timestamp, boolean encodeTzOffset) {
-        Calendar cal = reuseCalendar(timestamp);
-        StringBuilder buf = encode(cal, encodeTzOffset, new StringBuilder());
-        recycleCalendar(cal);
-        return buf;
+        char[] buf = new char[MAX_ENCODED_LENGTH];
+        int len = encode(timestamp, encodeTzOffset, buf, 0);
+        return new StringBuilder(MAX_ENCODED_LENGTH).append(buf, 0, len);
     }
 
     /**
@@ -509,6 +695,22 @@ public class TimeUtils {
         return buf;
     }
 
+    /**
+     * Days since the epoch of a proleptic Gregorian date.
+     *
+     * @param month 1 based month of the year.
+     */
+    private static long daysFromCivil(int year, int month, int day) {
+        if (month <= 2) {
+            year--;
+        }
+        int era = Math.floorDiv(year, 400);
+        int yoe = year - era * 400;
+        int doy = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        int doe = yoe * 365 + yoe / 4 - yoe / 100 + doy;
+        return era * 146097L + doe - 719468;
+    }
+
     /**
      * Return a calendar instance for reuse.
      */
@@ -575,5 +777,34 @@ public class TimeUtils {
             throw new IllegalStateException();
     }
 
+    /**
+     * The encoded date, hour and minute along with the timezone offset of
+     * a minute in the default timezone. Offsets only ever change on minute
+     * boundaries so the cache is valid for the entire minute. Each thread
+     * has its own cache so threads encoding different minutes do not
+     * replace each other's entries.
+     */
+    private static class MinuteCache {
+
+        private long minute = Long.MIN_VALUE;
+        private char[] prefix;
+        private char[] tz;
+
+        void update(long minute) {
+            Calendar cal = reuseCalendar(minute * MILLIS_MINUTE);
+            StringBuilder buf = encode(cal, true, new StringBuilder());
+            recycleCalendar(cal);
+            // yyyy-MM-ddTHH:mm:
+            int idx = buf.indexOf("T") + 7;
+            prefix = new char[idx];
+            buf.getChars(0, idx, prefix, 0);
+            // ss.SSS
+            idx += 6;
+            tz = new char[buf.length() - idx];
+            buf.getChars(idx, buf.length(), tz, 0);
+            this.minute = minute;
+        }
+    }
+
 
 }
@@ -4,6 +4,9 @@ import org.dsa.iot.dslink.connection.NetworkClient;
 import org.dsa.iot.dslink.provider.WsProvider;
 import org.dsa.iot.dslink.util.URLInfo;
 
+import java.io.IOException;
+import java.io.InputStream;
+
 /**
  * @author Samuel Grenier
  */
@@ -28,6 +31,31 @@ public abstract class WsClient {
 
     public abstract void onData(byte[] data, int offset, int length);
 
+    /**
+     * Called when the received data is not backed by an accessible array.
+     * Implementations should override this to decode straight from the
+     * stream, the default implementation copies the data into an array.
+     *
+     * @param in     Stream of the received data.
+     * @param length Amount of bytes available in the stream.
+     */
+    public void onData(InputStream in, int length) {
+        byte[] bytes = new byte[length];
+        try {
+            int read = 0;
+            while (read < length) {
+                int r = in.read(bytes, read, length - read);
+                if (r < 0) {
+                    break;
+                }
+                read += r;
+            }
+            onData(bytes, 0, read);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
     public abstract void onConnected(NetworkClient writer);
 
     public abstract void onDisconnected();
@@ -7,13 +7,16 @@ import com.fasterxml.jackson.core.util.DefaultPrettyPrinter;
 import org.dsa.iot.dslink.node.value.Value;
 import org.dsa.iot.dslink.node.value.ValueUtils;
 import org.dsa.iot.dslink.util.UrlBase64;
+import org.dsa.iot.dslink.util.json.decoders.ElementHandler;
 import org.dsa.iot.dslink.util.json.decoders.ListDecoder;
 import org.dsa.iot.dslink.util.json.decoders.MapDecoder;
 import org.dsa.iot.dslink.util.json.encoders.ListEncoder;
 import org.dsa.iot.dslink.util.json.encoders.MapEncoder;
+import org.msgpack.jackson.dataformat.MessagePackFactory;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.Writer;
 import java.math.BigDecimal;
@@ -27,6 +30,7 @@ import java.util.Map;
 public class Json {
 
     private static final JsonFactory JSON_FACTORY;
+    private static final JsonFactory MSGPACK_FACTORY;
 
     private Json() {
     }
@@ -41,30 +45,49 @@ public class Json {
         return performEncode(format, obj, new DefaultPrettyPrinter());
     }
 
+    /**
+     * Streams the encoded object directly into the output without
+     * buffering the whole message in an intermediate byte array.
+     *
+     * @param format Format to encode in.
+     * @param obj    {@link JsonObject} or {@link JsonArray} to encode.
+     * @param out    Stream to write the encoded bytes to.
+     */
+    public static void encode(EncodingFormat format,
+                              Object obj,
+                              OutputStream out) {
+        performEncode(format, obj, null, out);
+    }
+
     private static byte[] performEncode(EncodingFormat format,
                                         Object obj,
                                         PrettyPrinter printer) {
         ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        performEncode(format, obj, printer, baos);
+        return baos.toByteArray();
+    }
+
+    private static void performEncode(EncodingFormat format,
+                                      Object obj,
+                                      PrettyPrinter printer,
+                                      OutputStream out) {
         JsonEncoding enc = JsonEncoding.UTF8;
         JsonGenerator gen;
         try {
-            if (format == EncodingFormat.JSON) {
-                gen = JSON_FACTORY.createGenerator(baos, enc);
-            } else {
-                throw new UnsupportedOperationException(format.toJson());
-            }
+            gen = getFactory(format).createGenerator(out, enc);
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
         try {
-            gen.setPrettyPrinter(printer);
+            if (printer != null && format == EncodingFormat.JSON) {
+                gen.setPrettyPrinter(printer);
+            }
             if (obj instanceof JsonObject) {
                 MapEncoder.write(gen, (JsonObject) obj);
             } else if (obj instanceof JsonArray) {
                 ListEncoder.write(gen, (JsonArray) obj);
             }
             gen.close();
-            return baos.toByteArray();
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
@@ -74,20 +97,51 @@ public class Json {
                                                 byte[] content,
                                                 int offset,
                                                 int length) {
-        if (format == EncodingFormat.JSON) {
-            return MapDecoder.decode(JSON_FACTORY, content, offset, length);
-        }
-        throw new UnsupportedOperationException(format.toJson());
+        return MapDecoder.decode(getFactory(format), content, offset, length);
+    }
+
+    /**
+     * Decodes a map, passing the elements of arrays selected by the
+     * handler to it as they are decoded.
+     */
+    public static Map<String, Object> decodeMap(EncodingFormat format,
+                                                byte[] content,
+                                                int offset,
+                                                int length,
+                                                ElementHandler handler) {
+        JsonFactory factory = getFactory(format);
+        return MapDecoder.decode(factory, content, offset, length, handler);
+    }
+
+    /**
+     * Decodes a map directly from the stream.
+     *
+     * @see #decodeMap(EncodingFormat, byte[], int, int, ElementHandler)
+     */
+    public static Map<String, Object> decodeMap(EncodingFormat format,
+                                                InputStream in,
+                                                ElementHandler handler) {
+        return MapDecoder.decode(getFactory(format), in, handler);
     }
 
     public static List<Object> decodeList(EncodingFormat format,
                                           byte[] content,
                                           int offset,
                                           int length) {
+        return ListDecoder.decode(getFactory(format), content, offset, length);
+    }
+
+    /**
+     * @param format Encoding format.
+     * @return The factory that creates generators and parsers of the format.
+     */
+    public static JsonFactory getFactory(EncodingFormat format) {
         if (format == EncodingFormat.JSON) {
-            return ListDecoder.decode(JSON_FACTORY, content, offset, length);
+            return JSON_FACTORY;
+        } else if (format == EncodingFormat.MSGPACK) {
+            return MSGPACK_FACTORY;
         }
-        throw new UnsupportedOperationException(format.toJson());
+        throw new UnsupportedOperationException(String.valueOf(format));
     }
 
     @SuppressWarnings("unchecked")
@@ -107,6 +161,7 @@ public class Json {
                 || (value instanceof JsonObject)
                 || (value instanceof JsonArray)
                 || (value instanceof Value)
+                || (value instanceof JsonWritable)
                 || (value instanceof byte[]))) {
             throw new IllegalArgumentException("Invalid class: " + value.getClass());
         }
@@ -115,7 +170,12 @@ public class Json {
         } else if (value instanceof List) {
             return new JsonArray((List<Object>) value);
         } else if (value instanceof Value) {
-            return ValueUtils.toObject((Value) value);
+            Value val = (Value) value;
+            if (val.isPrimitive() && val.isImmutable()) {
+                // Written by the encoders without boxing
+                return val;
+            }
+            return ValueUtils.toObject(val);
         }
         return value;
     }
@@ -126,11 +186,15 @@ public class Json {
             return new JsonObject((Map) value);
         } else if (value instanceof List) {
             return new JsonArray((List) value);
+        } else if (value instanceof Value) {
+            return ValueUtils.toObject((Value) value);
         }
         return value;
     }
 
     static {
+        // Binary values are written natively as msgpack bin
+        MSGPACK_FACTORY = new MessagePackFactory();
         JSON_FACTORY = new JsonFactory() {
             @Override
             protected JsonGenerator _createGenerator(Writer out,
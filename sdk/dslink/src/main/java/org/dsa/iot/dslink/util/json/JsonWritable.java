@@ -0,0 +1,27 @@
+package org.dsa.iot.dslink.util.json;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import java.io.IOException;
+
+/**
+ * Element that writes itself directly to the generator when a
+ * {@link JsonObject} or {@link JsonArray} holding it is encoded. This
+ * allows large data to be encoded without first being converted into
+ * JSON elements.
+ */
+public interface JsonWritable {
+
+    /**
+     * Writes exactly one JSON value.
+     *
+     * @param gen Generator to write to.
+     * @throws IOException If writing fails.
+     */
+    void write(JsonGenerator gen) throws IOException;
+
+    /**
+     * @return Approximate encoded size in bytes.
+     */
+    int estimateSize();
+}
@@ -0,0 +1,29 @@
+package org.dsa.iot.dslink.util.json.decoders;
+
+import java.util.Map;
+
+/**
+ * Allows the elements of selected arrays to be consumed as they are
+ * decoded instead of being collected into the decoded tree.
+ */
+public interface ElementHandler {
+
+    /**
+     * Called when an array field is about to be decoded.
+     *
+     * @param parent Fields of the parent object decoded so far.
+     * @param name   Name of the array field.
+     * @return Whether the elements should be handed to
+     * {@link #onElement} rather than being stored in the parent.
+     */
+    boolean streamField(Map<String, Object> parent, String name);
+
+    /**
+     * Called for every element of a streamed array, in order.
+     *
+     * @param parent  Fields of the parent object decoded so far.
+     * @param name    Name of the array field.
+     * @param element Fully decoded element.
+     */
+    void onElement(Map<String, Object> parent, String name, Object element);
+}
@@ -17,6 +17,16 @@ import java.util.Map;
  */
 public class ListDecoder {
 
+    /**
+     * Marks the end of the array being decoded.
+     */
+    private static final Object END = new Object();
+
+    /**
+     * Marks a token that does not start an element.
+     */
+    private static final Object SKIP = new Object();
+
     public static List<Object> decode(JsonFactory factory,
                                       byte[] content,
                                       int offset,
@@ -26,7 +36,7 @@ public class ListDecoder {
         try {
             parser = factory.createParser(content, offset, length);
             parser.nextToken();
-            performDecodeList(list, parser);
+            performDecodeList(list, parser, null);
         } catch (IOException e) {
             throw new RuntimeException(e);
         } finally {
@@ -41,33 +51,80 @@ public class ListDecoder {
     }
 
     static void performDecodeList(List<Object> in,
-                                          JsonParser parser)
+                                          JsonParser parser,
+                                          ElementHandler handler)
             throws IOException {
-        JsonToken token;
-        while (!((token = parser.nextToken()) == JsonToken.END_ARRAY
-                || token == null)) {
-            if (token == JsonToken.VALUE_NULL) {
-                in.add(null);
-            } else if (token == JsonToken.VALUE_STRING) {
-                in.add(parser.getText());
-            } else if (token == JsonToken.VALUE_FALSE) {
-                in.add(false);
-            } else if (token == JsonToken.VALUE_TRUE) {
-                in.add(true);
-            } else if (token == JsonToken.VALUE_NUMBER_INT
-                    || token == JsonToken.VALUE_NUMBER_FLOAT) {
-                in.add(parser.getNumberValue());
-            } else if (token == JsonToken.VALUE_EMBEDDED_OBJECT) {
-                in.add(parser.getBinaryValue());
-            } else if (token == JsonToken.START_ARRAY) {
-                List<Object> list = new LinkedList<>();
-                performDecodeList(list, parser);
-                in.add(new JsonArray(list));
-            } else if (token == JsonToken.START_OBJECT) {
-                Map<String, Object> map = new LinkedHashMap<>();
-                MapDecoder.performDecodeMap(map, parser);
-                in.add(new JsonObject(map));
-            }
+        Object element;
+        while ((element = nextElement(parser, handler)) != END) {
+            in.add(element);
+        }
+    }
+
+    /**
+     * Decodes each element of the array and hands it off to the handler
+     * without retaining it.
+     */
+    static void performStreamList(Map<String, Object> parent,
+                                  String name,
+                                  JsonParser parser,
+                                  ElementHandler handler)
+            throws IOException {
+        Object element;
+        while ((element = nextElement(parser, handler)) != END) {
+            handler.onElement(parent, name, element);
+        }
+    }
+
+    /**
+     * Decodes the value at the current token of the parser. Objects and
+     * arrays are consumed up to and including their end token.
+     *
+     * @param parser Parser positioned on the first token of the value.
+     * @return The decoded value.
+     */
+    public static Object decodeValue(JsonParser parser) throws IOException {
+        Object value = toElement(parser.getCurrentToken(), parser, null);
+        return value == END ? null : value;
+    }
+
+    private static Object nextElement(JsonParser parser,
+                                      ElementHandler handler)
+            throws IOException {
+        Object element;
+        do {
+            element = toElement(parser.nextToken(), parser, handler);
+        } while (element == SKIP);
+        return element;
+    }
+
+    private static Object toElement(JsonToken token,
+                                    JsonParser parser,
+                                    ElementHandler handler)
+            throws IOException {
+        if (token == JsonToken.END_ARRAY || token == null) {
+            return END;
+        } else if (token == JsonToken.VALUE_NULL) {
+            return null;
+        } else if (token == JsonToken.VALUE_STRING) {
+            return parser.getText();
+        } else if (token == JsonToken.VALUE_FALSE) {
+            return false;
+        } else if (token == JsonToken.VALUE_TRUE) {
+            return true;
+        } else if (token == JsonToken.VALUE_NUMBER_INT
+                || token == JsonToken.VALUE_NUMBER_FLOAT) {
+            return parser.getNumberValue();
+        } else if (token == JsonToken.VALUE_EMBEDDED_OBJECT) {
+            return parser.getBinaryValue();
+        } else if (token == JsonToken.START_ARRAY) {
+            List<Object> list = new LinkedList<>();
+            performDecodeList(list, parser, handler);
+            return new JsonArray(list);
+        } else if (token == JsonToken.START_OBJECT) {
+            Map<String, Object> map = new LinkedHashMap<>();
+            MapDecoder.performDecodeMap(map, parser, handler);
+            return new JsonObject(map);
         }
+        return SKIP;
     }
 }
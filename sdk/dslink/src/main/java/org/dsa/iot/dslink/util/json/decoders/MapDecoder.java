@@ -7,6 +7,7 @@ import org.dsa.iot.dslink.util.json.JsonArray;
 import org.dsa.iot.dslink.util.json.JsonObject;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
@@ -21,27 +22,59 @@ public class MapDecoder {
                                              byte[] content,
                                              int offset,
                                              int length) {
-        final Map<String, Object> map = new LinkedHashMap<>();
-        JsonParser parser = null;
+        return decode(factory, content, offset, length, null);
+    }
+
+    public static Map<String, Object> decode(JsonFactory factory,
+                                             byte[] content,
+                                             int offset,
+                                             int length,
+                                             ElementHandler handler) {
+        JsonParser parser;
         try {
             parser = factory.createParser(content, offset, length);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return decode(parser, handler);
+    }
+
+    /**
+     * Decodes directly from the stream, the content is never copied into
+     * an intermediate array.
+     */
+    public static Map<String, Object> decode(JsonFactory factory,
+                                             InputStream in,
+                                             ElementHandler handler) {
+        JsonParser parser;
+        try {
+            parser = factory.createParser(in);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return decode(parser, handler);
+    }
+
+    private static Map<String, Object> decode(JsonParser parser,
+                                              ElementHandler handler) {
+        final Map<String, Object> map = new LinkedHashMap<>();
+        try {
             parser.nextToken();
-            performDecodeMap(map, parser);
+            performDecodeMap(map, parser, handler);
         } catch (IOException e) {
             throw new RuntimeException(e);
         } finally {
-            if (parser != null) {
-                try {
-                    parser.close();
-                } catch (IOException ignored) {
-                }
+            try {
+                parser.close();
+            } catch (IOException ignored) {
             }
         }
         return map;
     }
 
     static void performDecodeMap(Map<String, Object> in,
-                                         JsonParser parser)
+                                         JsonParser parser,
+                                         ElementHandler handler)
                                             throws IOException {
         while (parser.nextToken() == JsonToken.FIELD_NAME) {
             String name = parser.getText();
@@ -62,12 +95,16 @@ public class MapDecoder {
             } else if (token == JsonToken.VALUE_EMBEDDED_OBJECT) {
                 in.put(name, parser.getBinaryValue());
             } else if (token == JsonToken.START_ARRAY) {
+                if (handler != null && handler.streamField(in, name)) {
+                    ListDecoder.performStreamList(in, name, parser, handler);
+                    continue;
+                }
                 List<Object> list = new LinkedList<>();
-                ListDecoder.performDecodeList(list, parser);
+                ListDecoder.performDecodeList(list, parser, handler);
                 in.put(name, new JsonArray(list));
             } else if (token == JsonToken.START_OBJECT) {
                 Map<String, Object> map = new LinkedHashMap<>();
-                performDecodeMap(map, parser);
+                performDecodeMap(map, parser, handler);
                 in.put(name, new JsonObject(map));
             }
         }
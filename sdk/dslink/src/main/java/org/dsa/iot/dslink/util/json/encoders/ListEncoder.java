@@ -1,8 +1,12 @@
 package org.dsa.iot.dslink.util.json.encoders;
 
 import com.fasterxml.jackson.core.JsonGenerator;
+import org.dsa.iot.dslink.node.value.Value;
+import org.dsa.iot.dslink.node.value.ValueUtils;
+import org.dsa.iot.dslink.util.json.Json;
 import org.dsa.iot.dslink.util.json.JsonArray;
 import org.dsa.iot.dslink.util.json.JsonObject;
+import org.dsa.iot.dslink.util.json.JsonWritable;
 
 import java.io.IOException;
 import java.math.BigDecimal;
@@ -21,42 +25,66 @@ public class ListEncoder {
 
     static void performWrite(JsonGenerator gen, JsonArray json)
                                             throws IOException {
-        for (Object instance : json) {
-            if (instance instanceof Byte) {
-                gen.writeNumber(((Number) instance).byteValue());
-            } else if (instance instanceof Short) {
-                gen.writeNumber(((Number) instance).shortValue());
-            } else if (instance instanceof Integer) {
-                gen.writeNumber(((Number) instance).intValue());
-            } else if (instance instanceof Long) {
-                gen.writeNumber(((Number) instance).longValue());
-            } else if (instance instanceof Float) {
-                gen.writeNumber(((Number) instance).floatValue());
-            } else if (instance instanceof Double) {
-                gen.writeNumber(((Number) instance).doubleValue());
-            } else if (instance instanceof BigDecimal) {
-                gen.writeNumber((BigDecimal) instance);
-            } else if (instance instanceof BigInteger) {
-                gen.writeNumber((BigInteger) instance);
-            } else if (instance instanceof Boolean) {
-                gen.writeBoolean((Boolean) instance);
-            } else if (instance instanceof String) {
-                gen.writeString((String) instance);
-            } else if (instance instanceof JsonObject) {
-                gen.writeStartObject();
-                MapEncoder.performWrite(gen, (JsonObject) instance);
-            } else if (instance instanceof JsonArray) {
-                gen.writeStartArray();
-                performWrite(gen, (JsonArray) instance);
-            } else if (instance instanceof byte[]) {
-                gen.writeBinary((byte[]) instance);
-            } else if (instance == null) {
-                gen.writeNull();
+        for (Object instance : json.getList()) {
+            writeValue(gen, instance);
+        }
+        gen.writeEndArray();
+    }
+
+    /**
+     * Writes a single value, which can be any type a {@link JsonArray} can
+     * hold or a {@link Value}.
+     */
+    public static void writeValue(JsonGenerator gen, Object instance)
+                                            throws IOException {
+        if (instance instanceof Value) {
+            Value value = (Value) instance;
+            if (!value.isPrimitive()) {
+                instance = ValueUtils.toObject(value);
+            } else if (value.isDouble()) {
+                gen.writeNumber(value.getDouble());
+                return;
             } else {
-                String err = "Unsupported class: " + instance.getClass().getName();
-                throw new RuntimeException(err);
+                gen.writeNumber(value.getLong());
+                return;
             }
         }
-        gen.writeEndArray();
+        instance = Json.update(instance);
+        if (instance instanceof JsonWritable) {
+            ((JsonWritable) instance).write(gen);
+        } else if (instance instanceof Byte) {
+            gen.writeNumber(((Number) instance).byteValue());
+        } else if (instance instanceof Short) {
+            gen.writeNumber(((Number) instance).shortValue());
+        } else if (instance instanceof Integer) {
+            gen.writeNumber(((Number) instance).intValue());
+        } else if (instance instanceof Long) {
+            gen.writeNumber(((Number) instance).longValue());
+        } else if (instance instanceof Float) {
+            gen.writeNumber(((Number) instance).floatValue());
+        } else if (instance instanceof Double) {
+            gen.writeNumber(((Number) instance).doubleValue());
+        } else if (instance instanceof BigDecimal) {
+            gen.writeNumber((BigDecimal) instance);
+        } else if (instance instanceof BigInteger) {
+            gen.writeNumber((BigInteger) instance);
+        } else if (instance instanceof Boolean) {
+            gen.writeBoolean((Boolean) instance);
+        } else if (instance instanceof String) {
+            gen.writeString((String) instance);
+        } else if (instance instanceof JsonObject) {
+            gen.writeStartObject();
+            MapEncoder.performWrite(gen, (JsonObject) instance);
+        } else if (instance instanceof JsonArray) {
+            gen.writeStartArray();
+            performWrite(gen, (JsonArray) instance);
+        } else if (instance instanceof byte[]) {
+            gen.writeBinary((byte[]) instance);
+        } else if (instance == null) {
+            gen.writeNull();
+        } else {
+            String err = "Unsupported class: " + instance.getClass().getName();
+            throw new RuntimeException(err);
+        }
     }
 }
@@ -1,8 +1,12 @@
 package org.dsa.iot.dslink.util.json.encoders;
 
 import com.fasterxml.jackson.core.JsonGenerator;
+import org.dsa.iot.dslink.node.value.Value;
+import org.dsa.iot.dslink.node.value.ValueUtils;
+import org.dsa.iot.dslink.util.json.Json;
 import org.dsa.iot.dslink.util.json.JsonArray;
 import org.dsa.iot.dslink.util.json.JsonObject;
+import org.dsa.iot.dslink.util.json.JsonWritable;
 
 import java.io.IOException;
 import java.math.BigDecimal;
@@ -22,10 +26,28 @@ public class MapEncoder {
 
     static void performWrite(JsonGenerator gen, JsonObject json)
                                                         throws IOException {
-        for (Map.Entry<String, Object> entry : json) {
+        for (Map.Entry<String, Object> entry : json.getMap().entrySet()) {
             String name = entry.getKey();
             Object instance = entry.getValue();
-            if (instance instanceof Byte) {
+            if (instance instanceof Value) {
+                Value value = (Value) instance;
+                if (!value.isPrimitive()) {
+                    instance = ValueUtils.toObject(value);
+                } else {
+                    gen.writeFieldName(name);
+                    if (value.isDouble()) {
+                        gen.writeNumber(value.getDouble());
+                    } else {
+                        gen.writeNumber(value.getLong());
+                    }
+                    continue;
+                }
+            }
+            instance = Json.update(instance);
+            if (instance instanceof JsonWritable) {
+                gen.writeFieldName(name);
+                ((JsonWritable) instance).write(gen);
+            } else if (instance instanceof Byte) {
                 gen.writeNumberField(name, ((Number) instance).byteValue());
             } else if (instance instanceof Short) {
                 gen.writeNumberField(name, ((Number) instance).shortValue());
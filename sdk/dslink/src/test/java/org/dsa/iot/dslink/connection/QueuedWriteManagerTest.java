@@ -0,0 +1,281 @@
+package org.dsa.iot.dslink.connection;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import org.dsa.iot.dslink.provider.LoopProvider;
+import org.dsa.iot.dslink.provider.ManualLoopProvider;
+import org.dsa.iot.dslink.util.json.EncodingFormat;
+import org.dsa.iot.dslink.util.json.JsonArray;
+import org.dsa.iot.dslink.util.json.JsonObject;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the outbound write queue.
+ */
+public class QueuedWriteManagerTest {
+
+    private LoopProvider previous;
+    private ManualLoopProvider loop;
+    private Client client;
+    private QueuedWriteManager manager;
+
+    @Before
+    public void setup() {
+        previous = LoopProvider.getProvider();
+        loop = new ManualLoopProvider();
+        LoopProvider.setProvider(loop);
+        client = new Client();
+        manager = new QueuedWriteManager(client, new Tracker(),
+                EncodingFormat.JSON, "responses");
+    }
+
+    @After
+    public void teardown() {
+        LoopProvider.setProvider(previous);
+    }
+
+    /**
+     * Mergeable messages for the same rid must be coalesced into a single
+     * response while they are still queued.
+     */
+    @Test
+    public void mergesByRid() {
+        manager.post(update(1, 10), true);
+        manager.post(update(2, 20), true);
+        manager.post(update(1, 11), true);
+        manager.post(update(1, 12), true);
+        Assert.assertEquals(1, loop.pending());
+        loop.runAll();
+
+        Assert.assertEquals(1, client.written.size());
+        JsonArray responses = client.written.get(0).get("responses");
+        Assert.assertEquals(2, responses.size());
+        JsonObject first = responses.get(0);
+        Assert.assertEquals(1, (int) first.get("rid"));
+        JsonArray updates = first.get("updates");
+        Assert.assertEquals(3, updates.size());
+        Assert.assertEquals(11, (int) updates.<JsonArray>get(1).get(0));
+    }
+
+    /**
+     * Once a merge slot is drained, later messages for the same rid must be
+     * written in a subsequent message.
+     */
+    @Test
+    public void drainedSlotIsNotReused() {
+        manager.post(update(1, 10), true);
+        loop.runAll();
+        manager.post(update(1, 11), true);
+        manager.post(new JsonObject().put("rid", 3), false);
+        loop.runAll();
+
+        Assert.assertEquals(2, client.written.size());
+        JsonArray responses = client.written.get(1).get("responses");
+        Assert.assertEquals(2, responses.size());
+        JsonObject first = responses.get(0);
+        JsonArray updates = first.get("updates");
+        Assert.assertEquals(1, updates.size());
+    }
+
+    /**
+     * Large backlogs are split over multiple messages by their encoded size.
+     */
+    @Test
+    public void batchesBySize() {
+        for (int i = 0; i < 20000; i++) {
+            manager.post(update(i, i), false);
+        }
+        loop.runAll();
+        Assert.assertTrue(client.written.size() > 1);
+        int total = 0;
+        for (JsonObject obj : client.written) {
+            total += obj.<JsonArray>get("responses").size();
+        }
+        Assert.assertEquals(20000, total);
+    }
+
+    /**
+     * Producers posting concurrently while the drain runs must not lose or
+     * duplicate updates, and the updates of each rid must stay in order.
+     */
+    @Test
+    public void concurrentProducers() throws InterruptedException {
+        final ConcurrentLoop loop = new ConcurrentLoop();
+        LoopProvider.setProvider(loop);
+        final Client client = new Client();
+        final QueuedWriteManager manager = new QueuedWriteManager(client,
+                new Tracker(), EncodingFormat.JSON, "responses");
+
+        final int producers = 4;
+        final int rids = 5;
+        final int posts = 20000;
+        Thread drain = new Thread(loop);
+        drain.start();
+        Thread[] threads = new Thread[producers];
+        for (int t = 0; t < producers; t++) {
+            final int base = t * 10;
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < posts; i++) {
+                        // The last rid of each producer is never merged
+                        int rid = i % (rids + 1);
+                        boolean merge = rid < rids;
+                        manager.post(update(base + rid, i / (rids + 1)), merge);
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join(30000);
+        }
+        loop.stop();
+        drain.join(30000);
+        Assert.assertFalse(drain.isAlive());
+
+        Map<Integer, List<Integer>> received = new HashMap<>();
+        for (JsonObject obj : client.written) {
+            for (Object o : obj.<JsonArray>get("responses")) {
+                JsonObject response = (JsonObject) o;
+                int rid = response.get("rid");
+                List<Integer> values = received.get(rid);
+                if (values == null) {
+                    values = new ArrayList<>();
+                    received.put(rid, values);
+                }
+                for (Object u : response.<JsonArray>get("updates")) {
+                    values.add(((JsonArray) u).<Integer>get(0));
+                }
+            }
+        }
+        Assert.assertEquals(producers * (rids + 1), received.size());
+        for (Map.Entry<Integer, List<Integer>> entry : received.entrySet()) {
+            List<Integer> values = entry.getValue();
+            int rid = entry.getKey() % 10;
+            int expected = posts / (rids + 1);
+            if (rid < posts % (rids + 1)) {
+                expected++;
+            }
+            Assert.assertEquals("rid " + entry.getKey(), expected, values.size());
+            for (int i = 0; i < values.size(); i++) {
+                Assert.assertEquals("rid " + entry.getKey(), i, (int) values.get(i));
+            }
+        }
+    }
+
+    private static JsonObject update(int rid, int value) {
+        JsonArray updates = new JsonArray();
+        updates.add(new JsonArray().add(value));
+        JsonObject obj = new JsonObject();
+        obj.put("rid", rid);
+        obj.put("updates", updates);
+        return obj;
+    }
+
+    private static class Client implements NetworkClient {
+
+        private final List<JsonObject> written = new ArrayList<>();
+
+        @Override
+        public boolean writable() {
+            return true;
+        }
+
+        @Override
+        public void write(EncodingFormat format, JsonObject data) {
+            written.add(data);
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public boolean isConnected() {
+            return true;
+        }
+    }
+
+    /**
+     * Acknowledges every message as soon as it is sent.
+     */
+    private static class Tracker implements MessageTracker {
+
+        private int messageId;
+
+        @Override
+        public void ackReceived(int ack) {
+        }
+
+        @Override
+        public int incrementMessageId() {
+            return ++messageId;
+        }
+
+        @Override
+        public int lastAckReceived() {
+            return messageId;
+        }
+
+        @Override
+        public int missingAckCount() {
+            return 0;
+        }
+    }
+
+    /**
+     * Runs scheduled tasks on a single thread as soon as they are queued,
+     * until stopped and idle.
+     */
+    private static class ConcurrentLoop extends LoopProvider implements Runnable {
+
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        private volatile boolean running = true;
+
+        void stop() {
+            running = false;
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                boolean stopping = !running;
+                Runnable r = tasks.poll();
+                if (r != null) {
+                    r.run();
+                } else if (stopping) {
+                    return;
+                } else {
+                    Thread.yield();
+                }
+            }
+        }
+
+        @Override
+        public void schedule(Runnable task) {
+            tasks.add(task);
+        }
+
+        @Override
+        public ScheduledFuture schedule(Runnable task, long delay, TimeUnit timeUnit) {
+            tasks.add(task);
+            return null;
+        }
+
+        @Override
+        public ScheduledFuture schedulePeriodic(Runnable task, long initialDelay,
+                                                long delay, TimeUnit timeUnit) {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
@@ -0,0 +1,189 @@
+package org.dsa.iot.dslink.connection;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.dsa.iot.dslink.connection.DataHandler.DataReceived;
+import org.dsa.iot.dslink.provider.LoopProvider;
+import org.dsa.iot.dslink.provider.ManualLoopProvider;
+import org.dsa.iot.dslink.util.handler.Handler;
+import org.dsa.iot.dslink.util.json.EncodingFormat;
+import org.dsa.iot.dslink.util.json.JsonArray;
+import org.dsa.iot.dslink.util.json.JsonObject;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the partitioning of incoming requests onto lanes.
+ */
+public class RequestDispatcherTest {
+
+    private LoopProvider previous;
+    private ManualLoopProvider loop;
+    private Client client;
+    private DataHandler writer;
+    private List<JsonObject> handled;
+
+    @Before
+    public void setup() {
+        previous = LoopProvider.getProvider();
+        loop = new ManualLoopProvider();
+        LoopProvider.setProvider(loop);
+        client = new Client();
+        writer = new DataHandler();
+        writer.setClient(client, EncodingFormat.JSON);
+        handled = new ArrayList<>();
+    }
+
+    @After
+    public void teardown() {
+        LoopProvider.setProvider(previous);
+    }
+
+    /**
+     * Requests of a stream must be handled in order and the message must
+     * only be acknowledged after all of its requests were handled.
+     */
+    @Test
+    public void ordersStreamsAndAcks() {
+        RequestDispatcher dispatcher = new RequestDispatcher(writer, new Recorder(), 4, 0, loop);
+        JsonArray requests = new JsonArray();
+        for (int i = 0; i < 10; i++) {
+            requests.add(request(i % 2, "invoke", "/a"));
+        }
+        dispatcher.dispatch(7, requests);
+        Assert.assertEquals(10, dispatcher.getBacklog());
+        Assert.assertTrue(client.written.isEmpty());
+
+        loop.runAll();
+        Assert.assertEquals(10, handled.size());
+        Assert.assertEquals(0, dispatcher.getBacklog());
+        int last0 = -1;
+        int last1 = -1;
+        for (JsonObject req : handled) {
+            int seq = req.get("seq");
+            if ((int) req.get("rid") == 0) {
+                Assert.assertTrue(seq > last0);
+                last0 = seq;
+            } else {
+                Assert.assertTrue(seq > last1);
+                last1 = seq;
+            }
+        }
+        Assert.assertEquals(1, client.written.size());
+        Assert.assertEquals(7, (int) client.written.get(0).get("ack"));
+    }
+
+    /**
+     * Subscription changes must share a lane regardless of their rid.
+     */
+    @Test
+    public void subscriptionsShareLane() {
+        RequestDispatcher dispatcher = new RequestDispatcher(writer, new Recorder(), 8, 0, loop);
+        JsonArray requests = new JsonArray();
+        for (int i = 0; i < 16; i++) {
+            String method = (i % 2 == 0) ? "subscribe" : "unsubscribe";
+            requests.add(request(i, method, null));
+        }
+        dispatcher.dispatch(1, requests);
+        Assert.assertEquals(16, dispatcher.getQueueDepth(0));
+        Assert.assertEquals(16, dispatcher.getMaxQueueDepth(0));
+        loop.runAll();
+        for (int i = 0; i < handled.size(); i++) {
+            Assert.assertEquals(i, (int) handled.get(i).get("seq"));
+        }
+    }
+
+    /**
+     * Requests beyond the backlog must be closed with an error, except for
+     * close requests.
+     */
+    @Test
+    public void rejectsWhenFull() {
+        RequestDispatcher dispatcher = new RequestDispatcher(writer, new Recorder(), 2, 2, loop);
+        JsonArray requests = new JsonArray();
+        requests.add(request(1, "list", "/a"));
+        requests.add(request(2, "list", "/b"));
+        requests.add(request(3, "list", "/c"));
+        requests.add(request(1, "close", null));
+        dispatcher.dispatch(3, requests);
+        Assert.assertEquals(1, dispatcher.getRejectedCount());
+        Assert.assertEquals(3, dispatcher.getBacklog());
+
+        loop.runAll();
+        Assert.assertEquals(3, handled.size());
+        int listSeq = -1;
+        int closeSeq = -1;
+        for (JsonObject req : handled) {
+            if ((int) req.get("rid") == 1) {
+                if ("close".equals(req.get("method"))) {
+                    closeSeq = req.get("seq");
+                } else {
+                    listSeq = req.get("seq");
+                }
+            }
+        }
+        Assert.assertTrue(listSeq >= 0 && closeSeq > listSeq);
+        boolean rejected = false;
+        boolean acked = false;
+        for (JsonObject obj : client.written) {
+            JsonArray responses = obj.get("responses");
+            if (responses != null) {
+                JsonObject resp = responses.get(0);
+                rejected |= (int) resp.get("rid") == 3 && resp.get("error") != null;
+            }
+            acked |= obj.get("ack") != null;
+        }
+        Assert.assertTrue(rejected);
+        Assert.assertTrue(acked);
+    }
+
+    private static JsonObject request(int rid, String method, String path) {
+        JsonObject obj = new JsonObject();
+        obj.put("rid", rid);
+        obj.put("method", method);
+        if (path != null) {
+            obj.put("path", path);
+        }
+        return obj;
+    }
+
+    private class Recorder implements Handler<DataReceived> {
+
+        private int seq;
+
+        @Override
+        public void handle(DataReceived event) {
+            Assert.assertNull(event.getMsgId());
+            Assert.assertEquals(1, event.getData().size());
+            JsonObject req = event.getData().get(0);
+            req.put("seq", seq++);
+            handled.add(req);
+        }
+    }
+
+    private static class Client implements NetworkClient {
+
+        private final List<JsonObject> written = new ArrayList<>();
+
+        @Override
+        public boolean writable() {
+            return true;
+        }
+
+        @Override
+        public void write(EncodingFormat format, JsonObject data) {
+            written.add(data);
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public boolean isConnected() {
+            return true;
+        }
+    }
+}
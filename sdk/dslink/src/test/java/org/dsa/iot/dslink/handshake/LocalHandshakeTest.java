@@ -2,6 +2,8 @@ package org.dsa.iot.dslink.handshake;
 
 import org.dsa.iot.dslink.config.Configuration;
 import org.dsa.iot.dslink.connection.ConnectionType;
+import org.dsa.iot.dslink.util.PropertyReference;
+import org.dsa.iot.dslink.util.json.JsonArray;
 import org.dsa.iot.dslink.util.json.JsonObject;
 import org.junit.Assert;
 import org.junit.Test;
@@ -41,4 +43,36 @@ public class LocalHandshakeTest {
         Assert.assertTrue(object.contains("isRequester"));
         Assert.assertTrue(object.contains("isResponder"));
     }
+
+    /**
+     * Only JSON may be advertised unless more formats are configured.
+     */
+    @Test
+    public void formats() {
+        Configuration config = new Configuration();
+        config.setConnectionType(ConnectionType.WEB_SOCKET);
+        config.setAuthEndpoint("http://localhost");
+        config.setKeys(LocalKeys.generate());
+        config.setDsId("test");
+
+        String prev = System.getProperty(PropertyReference.FORMATS);
+        try {
+            System.clearProperty(PropertyReference.FORMATS);
+            JsonArray formats = new LocalHandshake(config).toJson().get("formats");
+            Assert.assertEquals(1, formats.size());
+            Assert.assertEquals("json", formats.get(0));
+
+            System.setProperty(PropertyReference.FORMATS, "msgpack, json");
+            formats = new LocalHandshake(config).toJson().get("formats");
+            Assert.assertEquals(2, formats.size());
+            Assert.assertEquals("msgpack", formats.get(0));
+            Assert.assertEquals("json", formats.get(1));
+        } finally {
+            if (prev != null) {
+                System.setProperty(PropertyReference.FORMATS, prev);
+            } else {
+                System.clearProperty(PropertyReference.FORMATS);
+            }
+        }
+    }
 }
@@ -0,0 +1,253 @@
+package org.dsa.iot.dslink.link;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import org.dsa.iot.dslink.methods.responses.UnsubscribeResponse;
+import org.dsa.iot.dslink.node.value.SubscriptionValue;
+import org.dsa.iot.dslink.provider.LoopProvider;
+import org.dsa.iot.dslink.provider.ManualLoopProvider;
+import org.dsa.iot.dslink.util.SubData;
+import org.dsa.iot.dslink.util.handler.Handler;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Ignore;
+import org.junit.Test;
+
+/**
+ * Tests the coalescing of subscribe and unsubscribe calls.
+ */
+public class SubscriptionBatcherTest {
+
+    private LoopProvider previous;
+    private ManualLoopProvider loop;
+    private RecordingRequester requester;
+
+    @Before
+    public void setup() {
+        previous = LoopProvider.getProvider();
+        loop = new ManualLoopProvider();
+        LoopProvider.setProvider(loop);
+        requester = new RecordingRequester();
+    }
+
+    @After
+    public void teardown() {
+        LoopProvider.setProvider(previous);
+    }
+
+    /**
+     * Calls made before the flush must be sent as a single request.
+     */
+    @Test
+    public void coalescesSubscribes() {
+        SubscriptionBatcher batcher = batcher(0);
+        for (int i = 0; i < 100; i++) {
+            batcher.subscribe(new SubData("/p" + i, null), i, true);
+        }
+        Assert.assertTrue(requester.subscribes.isEmpty());
+        loop.runAll();
+        Assert.assertEquals(1, requester.subscribes.size());
+        Assert.assertEquals(100, requester.subscribes.get(0).size());
+    }
+
+    /**
+     * Only the latest subscription of a path must be sent.
+     */
+    @Test
+    public void deduplicatesPaths() {
+        SubscriptionBatcher batcher = batcher(0);
+        batcher.subscribe(new SubData("/a", 0), 0, true);
+        batcher.subscribe(new SubData("/a", 2), 0, false);
+        loop.runAll();
+
+        Map<SubData, Integer> subs = requester.subscribes.get(0);
+        Assert.assertEquals(1, subs.size());
+        SubData data = subs.keySet().iterator().next();
+        Assert.assertEquals(2, (int) data.getQos());
+    }
+
+    /**
+     * A new subscription that is unsubscribed before the flush must not
+     * send anything, a sent subscription must be unsubscribed.
+     */
+    @Test
+    public void cancelsFreshSubscriptions() {
+        SubscriptionBatcher batcher = batcher(0);
+        batcher.subscribe(new SubData("/a", null), 0, true);
+        batcher.subscribe(new SubData("/b", 1), 1, false);
+        batcher.unsubscribe("/a", 0);
+        batcher.unsubscribe("/b", 1);
+        Assert.assertEquals(1, batcher.size());
+        loop.runAll();
+
+        Assert.assertTrue(requester.subscribes.isEmpty());
+        Assert.assertEquals(1, requester.unsubscribes.size());
+        Assert.assertEquals(1, (int) requester.unsubscribes.get(0).get(0));
+    }
+
+    /**
+     * Reaching the batch size must send on the calling thread and every
+     * request must be bounded by it.
+     */
+    @Test
+    public void boundsRequests() {
+        SubscriptionBatcher batcher = batcher(10);
+        for (int i = 0; i < 25; i++) {
+            batcher.subscribe(new SubData("/p" + i, null), i, true);
+        }
+        Assert.assertEquals(2, requester.subscribes.size());
+        Assert.assertEquals(5, batcher.size());
+        loop.runAll();
+        Assert.assertEquals(3, requester.subscribes.size());
+        Assert.assertEquals(5, requester.subscribes.get(2).size());
+    }
+
+    /**
+     * Every unsubscribe handler of a flush must be called once.
+     */
+    @Test
+    public void combinesUnsubscribeHandlers() {
+        SubscriptionBatcher batcher = batcher(0);
+        final int[] calls = new int[1];
+        Handler<UnsubscribeResponse> handler = new Handler<UnsubscribeResponse>() {
+            @Override
+            public void handle(UnsubscribeResponse event) {
+                calls[0]++;
+            }
+        };
+        batcher.unsubscribed(handler);
+        batcher.unsubscribed(handler);
+        loop.runAll();
+
+        Assert.assertEquals(1, requester.unsubscribes.size());
+        Assert.assertTrue(requester.unsubscribes.get(0).isEmpty());
+        requester.unsubHandlers.get(0).handle(null);
+        Assert.assertEquals(2, calls[0]);
+    }
+
+    /**
+     * Sids must only be reused once their unsubscribe was answered or if
+     * it never had to be sent.
+     */
+    @Test
+    public void reusesSids() {
+        Handler<SubscriptionValue> handler = new Handler<SubscriptionValue>() {
+            @Override
+            public void handle(SubscriptionValue event) {
+            }
+        };
+        requester.subscribe("/a", handler);
+        requester.subscribe("/b", handler);
+        loop.runAll();
+        int a = sid("/a");
+
+        requester.unsubscribe("/a", handler, null);
+        loop.runAll();
+        requester.subscribe("/c", handler);
+        Assert.assertNotEquals(a, sid("/c"));
+
+        int last = requester.unsubHandlers.size() - 1;
+        Assert.assertEquals(a, (int) requester.unsubscribes.get(last).get(0));
+        requester.unsubHandlers.get(last).handle(null);
+        requester.subscribe("/d", handler);
+        Assert.assertEquals(a, sid("/d"));
+
+        int c = sid("/c");
+        requester.unsubscribe("/c", handler, null);
+        requester.subscribe("/e", handler);
+        Assert.assertEquals(c, sid("/e"));
+    }
+
+    /**
+     * Clearing the subscriptions must hand out sids from 0 again and
+     * ignore unsubscribes that are answered afterwards.
+     */
+    @Test
+    public void clearResetsSids() {
+        Handler<SubscriptionValue> handler = new Handler<SubscriptionValue>() {
+            @Override
+            public void handle(SubscriptionValue event) {
+            }
+        };
+        requester.subscribe("/a", handler);
+        requester.subscribe("/b", handler);
+        loop.runAll();
+        requester.unsubscribe("/b", handler, null);
+        loop.runAll();
+
+        requester.clearSubscriptions();
+        requester.subscribe("/c", handler);
+        requester.subscribe("/d", handler);
+        Assert.assertEquals(0, sid("/c"));
+        Assert.assertEquals(1, sid("/d"));
+
+        int last = requester.unsubHandlers.size() - 1;
+        requester.unsubHandlers.get(last).handle(null);
+        requester.subscribe("/e", handler);
+        Assert.assertEquals(2, sid("/e"));
+    }
+
+    /**
+     * Not really a test, times resubscribing many paths after a reconnect.
+     */
+    @Ignore
+    @Test
+    public void performanceTest() {
+        Handler<SubscriptionValue> handler = new Handler<SubscriptionValue>() {
+            @Override
+            public void handle(SubscriptionValue event) {
+            }
+        };
+        int paths = 200000;
+        for (int i = 0; i < paths; i++) {
+            requester.subscribe("/points/p" + i, handler);
+        }
+        loop.runAll();
+
+        requester.subscribes.clear();
+        long start = System.currentTimeMillis();
+        requester.resubscribe();
+        loop.runAll();
+        long time = System.currentTimeMillis() - start;
+
+        int sent = 0;
+        for (Map<SubData, Integer> subs : requester.subscribes) {
+            sent += subs.size();
+        }
+        Assert.assertEquals(paths, sent);
+        System.out.println("Resubscribe: " + paths + " paths in "
+                + requester.subscribes.size() + " requests, " + time + "ms");
+    }
+
+    private int sid(String path) {
+        return requester.getSubscriptionPaths().get(path);
+    }
+
+    private SubscriptionBatcher batcher(int batchSize) {
+        return new SubscriptionBatcher(requester, 0, batchSize);
+    }
+
+    private static class RecordingRequester extends Requester {
+
+        private final List<Map<SubData, Integer>> subscribes = new ArrayList<>();
+        private final List<List<Integer>> unsubscribes = new ArrayList<>();
+        private final List<Handler<UnsubscribeResponse>> unsubHandlers = new ArrayList<>();
+
+        RecordingRequester() {
+            super(null);
+        }
+
+        @Override
+        void sendSubscribe(Map<SubData, Integer> subs) {
+            subscribes.add(subs);
+        }
+
+        @Override
+        void sendUnsubscribe(List<Integer> sids, Handler<UnsubscribeResponse> onResponse) {
+            unsubscribes.add(sids);
+            unsubHandlers.add(onResponse);
+        }
+    }
+}
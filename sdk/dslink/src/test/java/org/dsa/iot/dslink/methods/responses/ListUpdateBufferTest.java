@@ -0,0 +1,155 @@
+package org.dsa.iot.dslink.methods.responses;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.dsa.iot.dslink.node.Node;
+import org.dsa.iot.dslink.provider.LoopProvider;
+import org.dsa.iot.dslink.provider.ManualLoopProvider;
+import org.dsa.iot.dslink.util.handler.Handler;
+import org.dsa.iot.dslink.util.json.JsonArray;
+import org.dsa.iot.dslink.util.json.JsonObject;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Ignore;
+import org.junit.Test;
+
+/**
+ * Tests the coalescing of list updates.
+ */
+public class ListUpdateBufferTest {
+
+    private LoopProvider previous;
+    private ManualLoopProvider loop;
+    private List<JsonArray> written;
+    private Node parent;
+
+    @Before
+    public void setup() {
+        previous = LoopProvider.getProvider();
+        loop = new ManualLoopProvider();
+        LoopProvider.setProvider(loop);
+        written = new ArrayList<>();
+        parent = new Node("parent", null, null);
+    }
+
+    @After
+    public void teardown() {
+        LoopProvider.setProvider(previous);
+    }
+
+    /**
+     * Changes made before the flush must be written as a single message.
+     */
+    @Test
+    public void coalescesChanges() {
+        ListUpdateBuffer buffer = buffer(0);
+        for (int i = 0; i < 100; i++) {
+            buffer.childAdded(child("c" + i));
+        }
+        buffer.metaUpdate("$name", meta("$name", "a"));
+        buffer.metaUpdate("$name", meta("$name", "b"));
+        Assert.assertEquals(1, loop.pending());
+        loop.runAll();
+
+        Assert.assertEquals(1, written.size());
+        JsonArray updates = written.get(0);
+        Assert.assertEquals(101, updates.size());
+        JsonArray name = updates.get(100);
+        Assert.assertEquals("b", name.get(1));
+    }
+
+    /**
+     * An add followed by a remove must only write the remove, a remove
+     * followed by an add must write both in order.
+     */
+    @Test
+    public void addThenRemove() {
+        ListUpdateBuffer buffer = buffer(0);
+        Node a = child("a");
+        Node b = child("b");
+        buffer.childAdded(a);
+        buffer.childRemoved(a);
+        buffer.childRemoved(b);
+        buffer.childAdded(b);
+        loop.runAll();
+
+        JsonArray updates = written.get(0);
+        Assert.assertEquals(3, updates.size());
+        JsonObject removeA = updates.get(0);
+        Assert.assertEquals("a", removeA.get("name"));
+        JsonObject removeB = updates.get(1);
+        Assert.assertEquals("b", removeB.get("name"));
+        JsonArray addB = updates.get(2);
+        Assert.assertEquals("b", addB.get(0));
+    }
+
+    /**
+     * Reaching the threshold must flush on the calling thread.
+     */
+    @Test
+    public void flushesAtThreshold() {
+        ListUpdateBuffer buffer = buffer(10);
+        for (int i = 0; i < 25; i++) {
+            buffer.childAdded(child("c" + i));
+        }
+        Assert.assertEquals(2, written.size());
+        Assert.assertEquals(5, buffer.size());
+        loop.runAll();
+        Assert.assertEquals(3, written.size());
+        Assert.assertEquals(0, buffer.size());
+    }
+
+    /**
+     * A closed buffer must not write anything.
+     */
+    @Test
+    public void closedBufferIsSilent() {
+        ListUpdateBuffer buffer = buffer(0);
+        buffer.childAdded(child("a"));
+        buffer.close();
+        buffer.childAdded(child("b"));
+        loop.runAll();
+        Assert.assertTrue(written.isEmpty());
+    }
+
+    /**
+     * Not really a test, times listing a bulk tree construction.
+     */
+    @Ignore
+    @Test
+    public void performanceTest() {
+        int count = 50000;
+        List<Node> children = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            children.add(child("c" + i));
+        }
+        ListUpdateBuffer buffer = buffer(1000);
+        long start = System.currentTimeMillis();
+        for (Node child : children) {
+            buffer.childAdded(child);
+        }
+        loop.runAll();
+        long time = System.currentTimeMillis() - start;
+        Assert.assertEquals(count / 1000, written.size());
+        System.out.println("Coalesced " + count + " children into "
+                + written.size() + " messages in " + time + "ms");
+    }
+
+    private ListUpdateBuffer buffer(int threshold) {
+        return new ListUpdateBuffer(new Handler<JsonArray>() {
+            @Override
+            public void handle(JsonArray event) {
+                written.add(event);
+            }
+        }, 10, threshold);
+    }
+
+    private Node child(String name) {
+        return parent.createChild(name, "node").build();
+    }
+
+    private static JsonArray meta(String name, String value) {
+        return new JsonArray().add(name).add(value);
+    }
+}
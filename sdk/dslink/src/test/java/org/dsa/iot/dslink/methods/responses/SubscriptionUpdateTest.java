@@ -0,0 +1,165 @@
+package org.dsa.iot.dslink.methods.responses;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import org.dsa.iot.dslink.link.Requester;
+import org.dsa.iot.dslink.methods.requests.SubscribeRequest;
+import org.dsa.iot.dslink.node.Node;
+import org.dsa.iot.dslink.node.NodeManager;
+import org.dsa.iot.dslink.node.value.SubscriptionValue;
+import org.dsa.iot.dslink.util.SubData;
+import org.dsa.iot.dslink.util.handler.Handler;
+import org.dsa.iot.dslink.util.json.JsonArray;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Ignore;
+import org.junit.Test;
+
+/**
+ * Tests the handling of subscription updates on the requester.
+ */
+public class SubscriptionUpdateTest {
+
+    private static final String TIME = "2016-01-01T00:00:00.000-00:00";
+
+    private Requester requester;
+    private NodeManager manager;
+    private SubscriptionUpdate update;
+
+    @Before
+    public void setup() {
+        requester = new Requester(null);
+        manager = new NodeManager(requester, "node");
+        update = new SubscriptionUpdate(requester, manager);
+    }
+
+    /**
+     * Mirrored subscriptions must update the requester's node tree.
+     */
+    @Test
+    public void mirrored() {
+        Counter counter = new Counter();
+        requester.subscribe("/a", counter);
+        update.populateUpdate(update(0, 1));
+
+        Assert.assertEquals(1, counter.count);
+        Assert.assertEquals("/a", counter.last.getPath());
+        Node node = manager.getNode("/a", false, false).getNode();
+        Assert.assertNotNull(node);
+        Assert.assertEquals(1, node.getValue().getNumber().intValue());
+    }
+
+    /**
+     * Detached subscriptions must reach the handler without creating
+     * nodes.
+     */
+    @Test
+    public void detached() {
+        Counter counter = new Counter();
+        requester.subscribe(request(false, "/b"), counter);
+        update.populateUpdate(update(0, 2));
+
+        Assert.assertEquals(1, counter.count);
+        Assert.assertEquals("/b", counter.last.getPath());
+        Assert.assertEquals(2, counter.last.getValue().getNumber().intValue());
+        Assert.assertNull(manager.getNode("/b", false, false).getNode());
+
+        // Empty values reuse the type of the last update
+        update.populateUpdate(update(0, null));
+        Assert.assertEquals(2, counter.count);
+        Assert.assertNull(counter.last.getValue().getNumber());
+    }
+
+    /**
+     * A path stays mirrored once any subscription asks for it.
+     */
+    @Test
+    public void mirroringIsSticky() {
+        requester.subscribe(request(false, "/c"), new Counter());
+        requester.subscribe(request(true, "/c"), new Counter());
+        Assert.assertTrue(requester.getSubscription(0).isMirrored());
+    }
+
+    /**
+     * Unknown and unsubscribed sids must be ignored.
+     */
+    @Test
+    public void unknownSid() {
+        Counter counter = new Counter();
+        requester.subscribe(request(false, "/d"), counter);
+        update.populateUpdate(update(100, 1));
+        update.populateUpdate(update(-1, 1));
+
+        requester.unsubscribe("/d", counter, null);
+        Assert.assertNull(requester.getSubscription(0));
+        update.populateUpdate(update(0, 1));
+        Assert.assertEquals(0, counter.count);
+    }
+
+    /**
+     * Not really a test, times updates with and without mirroring.
+     */
+    @Ignore
+    @Test
+    public void performanceTest() {
+        int points = 100000;
+        time(true, points);
+        time(false, points);
+    }
+
+    private void time(boolean mirror, int points) {
+        setup();
+        Set<SubData> paths = new HashSet<>();
+        for (int i = 0; i < points; i++) {
+            paths.add(new SubData("/points/p" + i, null));
+        }
+        SubscribeRequest req = new SubscribeRequest(paths);
+        req.setMirrorNodes(mirror);
+        Counter counter = new Counter();
+        requester.subscribe(req, counter);
+
+        int updates = points * 10;
+        JsonArray[] batch = new JsonArray[points];
+        for (int i = 0; i < points; i++) {
+            batch[i] = update(i, i);
+        }
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < updates; i++) {
+            update.populateUpdate(batch[i % points]);
+        }
+        long time = System.currentTimeMillis() - start;
+        Assert.assertEquals(updates, counter.count);
+
+        String name = mirror ? "Mirrored" : "Detached";
+        System.out.println(name + ": " + updates + " updates of "
+                + points + " points in " + time + "ms");
+    }
+
+    private static SubscribeRequest request(boolean mirror, String path) {
+        Set<SubData> paths = Collections.singleton(new SubData(path, null));
+        SubscribeRequest req = new SubscribeRequest(paths);
+        req.setMirrorNodes(mirror);
+        return req;
+    }
+
+    private static JsonArray update(int sid, Object value) {
+        JsonArray update = new JsonArray();
+        update.add(sid);
+        update.add(value);
+        update.add(TIME);
+        return update;
+    }
+
+    private static class Counter implements Handler<SubscriptionValue> {
+
+        private int count;
+        private SubscriptionValue last;
+
+        @Override
+        public void handle(SubscriptionValue event) {
+            count++;
+            last = event;
+        }
+    }
+}
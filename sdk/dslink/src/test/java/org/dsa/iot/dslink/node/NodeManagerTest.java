@@ -2,6 +2,7 @@ package org.dsa.iot.dslink.node;
 
 import org.dsa.iot.dslink.node.exceptions.NoSuchPathException;
 import org.junit.Assert;
+import org.junit.Ignore;
 import org.junit.Test;
 
 /**
@@ -39,6 +40,69 @@ public class NodeManagerTest {
         manager.getNode("/A");
     }
 
+    /**
+     * The path index must follow subtrees as they are attached and removed.
+     */
+    @Test
+    public void indexFollowsTree() {
+        NodeManager manager = new NodeManager(null, "node");
+        NodeManager.SuperRoot root = (NodeManager.SuperRoot) manager.getSuperRoot();
+        int base = root.indexSize();
+        Node a = manager.createRootNode("A").build();
+        Node b = a.createChild("B", "node").build();
+        b.createChild("C", "node").build();
+        Assert.assertEquals(base + 3, root.indexSize());
+        Assert.assertSame(b, manager.getNode("/A/B").getNode());
+
+        NodePair pair = manager.getNode("/A/B/$is");
+        Assert.assertSame(b, pair.getNode());
+        Assert.assertEquals("$is", pair.getReference());
+
+        a.removeChild(b, false);
+        Assert.assertEquals(base + 1, root.indexSize());
+        Assert.assertNull(manager.getNode("/A/B/C", false, false).getNode());
+
+        // Reattaching the detached subtree indexes its descendants
+        a.addChild(b);
+        Assert.assertEquals(base + 3, root.indexSize());
+        Assert.assertNotNull(manager.getNode("/A/B/C").getNode());
+
+        manager.getSuperRoot().removeChild(a, false);
+        Assert.assertEquals(base, root.indexSize());
+    }
+
+    /**
+     * Not really a test, times path lookups of deep and wide trees.
+     */
+    @Ignore
+    @Test
+    public void performanceTest() {
+        NodeManager manager = new NodeManager(null, "node");
+        Node node = manager.createRootNode("deep").build();
+        for (int i = 0; i < 32; i++) {
+            node = node.createChild("level" + i, "node").build();
+        }
+        String deep = node.getPath();
+        time(manager, "Deep", new String[] {deep});
+
+        Node wide = manager.createRootNode("wide").build();
+        String[] paths = new String[100000];
+        for (int i = 0; i < paths.length; i++) {
+            paths[i] = wide.createChild("child" + i, "node").build().getPath();
+        }
+        time(manager, "Wide", paths);
+    }
+
+    private static void time(NodeManager manager, String name, String[] paths) {
+        int lookups = 1000000;
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < lookups; i++) {
+            Assert.assertNotNull(manager.getNode(paths[i % paths.length]).getNode());
+        }
+        long time = System.currentTimeMillis() - start;
+        System.out.println(name + ": " + lookups + " lookups in " + time + "ms");
+    }
+
     @Test(expected = NullPointerException.class)
     public void nullPath() {
         NodeManager manager = new NodeManager(null, "node");
@@ -1,6 +1,16 @@
 package org.dsa.iot.dslink.node;
 
+import java.util.Iterator;
+import java.util.Map;
+import org.dsa.iot.dslink.link.Linkable;
+import org.dsa.iot.dslink.node.NodeListener.ValueUpdate;
+import org.dsa.iot.dslink.node.value.Value;
+import org.dsa.iot.dslink.node.value.ValueType;
+import org.dsa.iot.dslink.serializer.SerializationManager;
+import org.dsa.iot.dslink.util.handler.Handler;
+import org.dsa.iot.dslink.util.json.JsonArray;
 import org.junit.Assert;
+import org.junit.Ignore;
 import org.junit.Test;
 
 /**
@@ -63,4 +73,218 @@ public class NodeTest {
         Assert.assertNull(node.getAttributes());
         Assert.assertNull(node.getAttribute("nothing"));
     }
+
+    /**
+     * Ensures that a cached list summary is discarded when the node changes.
+     */
+    @Test
+    public void listSummaryDiscarded() {
+        Node node = new Node("Test", null, null);
+        JsonArray summary = new JsonArray();
+        Assert.assertTrue(node.compareAndSetListSummary(null, summary));
+        Assert.assertSame(summary, node.getListSummary());
+
+        node.setDisplayName("Renamed");
+        Assert.assertNull(node.getListSummary());
+        Assert.assertFalse(node.compareAndSetListSummary(summary, new JsonArray()));
+
+        node.compareAndSetListSummary(null, summary);
+        node.setInterfaces(null);
+        Assert.assertNull(node.getListSummary());
+    }
+
+    /**
+     * Ensures that value updates keep the cached list summary since the
+     * value is not part of it.
+     */
+    @Test
+    public void listSummaryKeptOnValue() {
+        Node node = new Node("Test", null, null);
+        node.setValueType(ValueType.NUMBER);
+        JsonArray summary = new JsonArray();
+        Assert.assertTrue(node.compareAndSetListSummary(null, summary));
+
+        node.setValue(new Value(1));
+        Assert.assertSame(summary, node.getListSummary());
+
+        node.setValueType(ValueType.STRING);
+        Assert.assertNull(node.getListSummary());
+    }
+
+    /**
+     * Ensures attributes keep working when they outgrow the inline map.
+     */
+    @Test
+    public void inlineAttributes() {
+        Node node = new Node("Test", null, new TestLinkable());
+        int count = ValueMap.INLINE_SIZE * 2;
+        for (int i = 0; i < count; i++) {
+            node.setAttribute("attr" + i, new Value(i));
+        }
+        Map<String, Value> attribs = node.getAttributes();
+        Assert.assertEquals(count, attribs.size());
+        for (int i = 0; i < count; i++) {
+            Assert.assertEquals(i, node.getAttribute("attr" + i).getNumber().intValue());
+        }
+
+        node.setAttribute("attr0", new Value("changed"));
+        Assert.assertEquals("changed", node.getAttribute("attr0").getString());
+        Assert.assertEquals(count, node.getAttributes().size());
+
+        node = new Node("Test", null, new TestLinkable());
+        node.setAttribute("a", new Value(1));
+        node.setAttribute("b", new Value(2));
+        node.setAttribute("c", new Value(3));
+        Assert.assertEquals(2, node.removeAttribute("b").getNumber().intValue());
+        Assert.assertNull(node.removeAttribute("b"));
+        Assert.assertEquals(2, node.getAttributes().size());
+        Assert.assertEquals(3, node.getAttribute("c").getNumber().intValue());
+        Assert.assertEquals(2, node.clearAttributes().size());
+        Assert.assertNull(node.getAttribute("a"));
+    }
+
+    /**
+     * Ensures entries can be removed while iterating, inline and past the
+     * inline size.
+     */
+    @Test
+    public void valueMapIteratorRemove() {
+        for (int count : new int[]{3, ValueMap.INLINE_SIZE * 2}) {
+            ValueMap map = new ValueMap();
+            for (int i = 0; i < count; i++) {
+                map.put("key" + i, new Value(i));
+            }
+            Iterator<Map.Entry<String, Value>> it = map.entrySet().iterator();
+            while (it.hasNext()) {
+                if (it.next().getValue().getNumber().intValue() % 2 == 0) {
+                    it.remove();
+                }
+            }
+            Assert.assertEquals(count / 2, map.size());
+            Assert.assertNull(map.get("key0"));
+            Assert.assertNotNull(map.get("key1"));
+        }
+
+        ValueMap map = new ValueMap();
+        map.put("key", new Value(1));
+        Iterator<Map.Entry<String, Value>> it = map.entrySet().iterator();
+        try {
+            it.remove();
+            Assert.fail();
+        } catch (IllegalStateException ignored) {
+        }
+    }
+
+    /**
+     * Ensures listeners are called without the node lock held so they can
+     * wait on other threads that change the node.
+     */
+    @Test
+    public void listenersOutsideLock() throws InterruptedException {
+        final Node node = new Node("Test", null, new TestLinkable());
+        final boolean[] set = new boolean[1];
+        node.getListener().setAttributeHandler(new Handler<ValueUpdate>() {
+            @Override
+            public void handle(ValueUpdate event) {
+                if (!"a".equals(event.name())) {
+                    return;
+                }
+                Thread thread = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        node.setAttribute("b", new Value(2));
+                        set[0] = true;
+                    }
+                });
+                thread.start();
+                try {
+                    thread.join(5000);
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+        node.setAttribute("a", new Value(1));
+        Assert.assertTrue(set[0]);
+        Assert.assertEquals(2, node.getAttribute("b").getNumber().intValue());
+    }
+
+    /**
+     * Ensures the listener is only created when it is asked for.
+     */
+    @Test
+    public void lazyListener() {
+        Node node = new Node("Test", null, null);
+        Assert.assertNull(node.peekListener());
+        NodeListener listener = node.getListener();
+        Assert.assertNotNull(listener);
+        Assert.assertSame(listener, node.getListener());
+        Assert.assertSame(listener, node.peekListener());
+    }
+
+    /**
+     * Not really a test, prints the heap used per node of a large tree
+     * attached to a node manager, including its path index.
+     */
+    @Ignore
+    @Test
+    public void footprintTest() {
+        Linkable link = new TestLinkable();
+        NodeManager manager = new NodeManager(link, "node");
+        Node root = manager.createRootNode("root").build();
+        int count = 200000;
+        Node[] nodes = new Node[count];
+
+        long before = usedMemory();
+        for (int i = 0; i < count; i++) {
+            Node parent = root;
+            if (i >= 100) {
+                parent = nodes[i / 100 - 1];
+            }
+            Node node = new Node("node" + i, parent, link);
+            node.setSerializable(false);
+            node.setAttribute("unit", new Value("C"));
+            node.setConfig("enum", new Value("a,b"));
+            parent.addChild(node);
+            nodes[i] = node;
+        }
+        long after = usedMemory();
+        Assert.assertEquals("/root/node0", nodes[0].getPath());
+        Assert.assertNotNull(root.getChild("node0", false));
+        Assert.assertSame(nodes[count - 1],
+                manager.getNode(nodes[count - 1].getPath()).getNode());
+
+        long perNode = (after - before) / count;
+        System.out.println("Footprint: " + count + " nodes, "
+                + perNode + " bytes per node");
+    }
+
+    private static long usedMemory() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 4; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static class TestLinkable extends Linkable {
+
+        TestLinkable() {
+            super(null);
+        }
+
+        @Override
+        public void batchSet(Map<Node, Value> updates) {
+        }
+
+        @Override
+        public SubscriptionManager getSubscriptionManager() {
+            return null;
+        }
+
+        @Override
+        public SerializationManager getSerialManager() {
+            return null;
+        }
+    }
 }
@@ -0,0 +1,429 @@
+package org.dsa.iot.dslink.node;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.dsa.iot.dslink.DSLink;
+import org.dsa.iot.dslink.DSLinkHandler;
+import org.dsa.iot.dslink.connection.DataHandler;
+import org.dsa.iot.dslink.connection.NetworkClient;
+import org.dsa.iot.dslink.node.value.Value;
+import org.dsa.iot.dslink.node.value.ValueType;
+import org.dsa.iot.dslink.provider.LoopProvider;
+import org.dsa.iot.dslink.provider.ManualLoopProvider;
+import org.dsa.iot.dslink.util.json.EncodingFormat;
+import org.dsa.iot.dslink.util.json.JsonArray;
+import org.dsa.iot.dslink.util.json.JsonObject;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Ignore;
+import org.junit.Test;
+
+/**
+ * Tests the delivery and rollup of subscription updates.
+ */
+public class SubscriptionManagerTest {
+
+    private LoopProvider previous;
+    private ManualLoopProvider loop;
+    private Client client;
+    private DataHandler writer;
+    private DSLink link;
+    private SubscriptionManager manager;
+    private Node node;
+    private int nodes;
+
+    @Before
+    public void setup() {
+        previous = LoopProvider.getProvider();
+        loop = new ManualLoopProvider();
+        LoopProvider.setProvider(loop);
+        client = new Client();
+        writer = new DataHandler();
+        writer.setClient(client, EncodingFormat.JSON);
+        link = new DSLink(new DSLinkHandler() {
+        }, false, "/") {
+        };
+        link.setWriter(writer);
+        manager = link.getSubscriptionManager();
+        manager.onConnected();
+        node = link.getNodeManager().createRootNode("value")
+                .setValueType(ValueType.NUMBER)
+                .build();
+        node.setShouldPostCachedValue(false);
+    }
+
+    @After
+    public void teardown() {
+        LoopProvider.setProvider(previous);
+    }
+
+    /**
+     * Values posted while the subscription is being drained must be
+     * written exactly once and in order.
+     */
+    @Test
+    public void postWhileDraining() throws InterruptedException {
+        final int count = 20000;
+        manager.addValueSub(node.getPath(), 1, 1);
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < count; i++) {
+                    node.setValue(new Value(i));
+                }
+            }
+        });
+        producer.start();
+        while (producer.isAlive()) {
+            loop.runPending();
+            ackAll();
+        }
+        producer.join();
+        for (int i = 0; i < 100; i++) {
+            loop.runPending();
+            ackAll();
+        }
+
+        List<Integer> values = values(1);
+        Assert.assertEquals(count, values.size());
+        for (int i = 0; i < count; i++) {
+            Assert.assertEquals(i, (int) values.get(i));
+        }
+    }
+
+    /**
+     * Updates of a qos 2 subscription that were written but never
+     * acknowledged must be written again after a reconnect.
+     */
+    @Test
+    public void qosRetention() {
+        manager.addValueSub(node.getPath(), 1, 2);
+        for (int i = 0; i < 3; i++) {
+            node.setValue(new Value(i));
+        }
+        loop.runPending();
+        Assert.assertEquals(3, values(1).size());
+        node.setValue(new Value(3));
+
+        manager.onDisconnected();
+        manager.onConnected();
+        manager.addValueSub(node.getPath(), 2, 2);
+        for (int i = 0; i < 10; i++) {
+            loop.runPending();
+            ackAll();
+        }
+        List<Integer> values = values(2);
+        Assert.assertEquals(4, values.size());
+        for (int i = 0; i < 4; i++) {
+            Assert.assertEquals(i, (int) values.get(i));
+        }
+    }
+
+    /**
+     * Updates posted concurrently to subscriptions spread over several
+     * writers must all be written, in order per sid.
+     */
+    @Test
+    public void shardedWriters() throws InterruptedException {
+        PoolLoop pool = new PoolLoop(4);
+        LoopProvider.setProvider(pool);
+        try {
+            client.ackTo = writer;
+            SubscriptionManager sharded = new SubscriptionManager(link, 4);
+            sharded.onConnected();
+            int producers = 4;
+            int sids = 4;
+            int count = 2000;
+            Assert.assertTrue(post(sharded, producers, sids, count, 10000) >= 0);
+            for (int sid = 1; sid <= producers * sids; sid++) {
+                List<Integer> values = values(sid);
+                Assert.assertEquals(count, values.size());
+                for (int i = 0; i < count; i++) {
+                    Assert.assertEquals(i, (int) values.get(i));
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Not really a test, prints the rate at which updates of concurrent
+     * producers are written as producers and writers are added.
+     */
+    @Ignore
+    @Test
+    public void producerScaling() throws InterruptedException {
+        client.ackTo = writer;
+        client.record = false;
+        int count = 20000;
+        for (int threads = 1; threads <= 8; threads *= 2) {
+            PoolLoop pool = new PoolLoop(threads);
+            LoopProvider.setProvider(pool);
+            try {
+                SubscriptionManager sharded = new SubscriptionManager(link, threads);
+                sharded.onConnected();
+                client.updates.set(0);
+                long time = post(sharded, threads, 10, count, 60000);
+                long total = threads * 10L * count;
+                System.out.println("Producers and writers: " + threads + ", "
+                        + (total * 1000 / Math.max(1, time)) + " updates/s");
+            } finally {
+                pool.shutdown();
+            }
+        }
+    }
+
+    /**
+     * A summary must hold the statistics of every value it was given.
+     */
+    @Test
+    public void rollupSummary() {
+        SubscriptionManager.Rollup rollup = new SubscriptionManager.Rollup();
+        rollup.add(new Value(4));
+        rollup.add(new Value(-2.5));
+        rollup.add(new Value(10));
+
+        JsonObject update = rollup.toUpdate(7);
+        Assert.assertEquals(7, (int) update.get("sid"));
+        Assert.assertEquals(3, (int) update.get("count"));
+        Assert.assertEquals(11.5, ((Number) update.get("sum")).doubleValue(), 0);
+        Assert.assertEquals(-2.5, ((Number) update.get("min")).doubleValue(), 0);
+        Assert.assertEquals(10, ((Number) update.get("max")).doubleValue(), 0);
+        Assert.assertEquals(10, ((Number) update.get("value")).intValue());
+    }
+
+    /**
+     * Non-numeric values must only be counted.
+     */
+    @Test
+    public void rollupNonNumeric() {
+        SubscriptionManager.Rollup rollup = new SubscriptionManager.Rollup();
+        rollup.add(new Value("a"));
+        rollup.add(new Value("b"));
+
+        JsonObject update = rollup.toUpdate(0);
+        Assert.assertEquals(2, (int) update.get("count"));
+        Assert.assertEquals("b", update.get("value"));
+        Assert.assertNull(update.get("sum"));
+        Assert.assertNull(update.get("min"));
+        Assert.assertNull(update.get("max"));
+    }
+
+    /**
+     * Merging must keep the statistics of both summaries and the latest
+     * value.
+     */
+    @Test
+    public void rollupMerge() {
+        SubscriptionManager.Rollup older = new SubscriptionManager.Rollup();
+        older.add(new Value(1));
+        older.add(new Value(5));
+        SubscriptionManager.Rollup newer = new SubscriptionManager.Rollup();
+        newer.add(new Value(3));
+
+        older.merge(newer);
+        Assert.assertEquals(3, older.getCount());
+        Assert.assertEquals(3, older.getLast().getNumber().intValue());
+        JsonObject update = older.toUpdate(0);
+        Assert.assertEquals(9, ((Number) update.get("sum")).doubleValue(), 0);
+        Assert.assertEquals(1, ((Number) update.get("min")).doubleValue(), 0);
+        Assert.assertEquals(5, ((Number) update.get("max")).doubleValue(), 0);
+    }
+
+    /**
+     * A summary of a second of 1 kHz samples must encode smaller than the
+     * samples sent one by one.
+     */
+    @Test
+    public void rollupSize() {
+        int samples = 1000;
+        long time = System.currentTimeMillis();
+        JsonArray tuples = new JsonArray();
+        SubscriptionManager.Rollup rollup = new SubscriptionManager.Rollup();
+        for (int i = 0; i < samples; i++) {
+            Value value = new Value(Math.sin(i), time + i);
+            JsonArray tuple = new JsonArray();
+            tuple.add(0);
+            tuple.add(value);
+            tuple.add(value.getTimeStamp());
+            tuples.add(tuple);
+            rollup.add(value);
+        }
+        JsonArray summary = new JsonArray();
+        summary.add(rollup.toUpdate(0));
+
+        int raw = tuples.encode().length;
+        int rolled = summary.encode().length;
+        Assert.assertTrue(rolled < raw);
+    }
+
+    /**
+     * Posts values 0 to count - 1 to sids subscriptions per producer, each
+     * producer on its own thread, and waits for them to be written.
+     *
+     * @return Milliseconds until every update was written, -1 on timeout.
+     */
+    private long post(final SubscriptionManager sharded,
+                      int producers,
+                      int sids,
+                      final int count,
+                      long timeout) throws InterruptedException {
+        Thread[] threads = new Thread[producers];
+        int sid = 1;
+        for (int p = 0; p < producers; p++) {
+            final Node[] owned = new Node[sids];
+            for (int n = 0; n < sids; n++) {
+                owned[n] = link.getNodeManager().createRootNode("node" + nodes++)
+                        .setValueType(ValueType.NUMBER)
+                        .build();
+                owned[n].setShouldPostCachedValue(false);
+                sharded.addValueSub(owned[n].getPath(), sid++, 1);
+            }
+            threads[p] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < count; i++) {
+                        for (Node n : owned) {
+                            Value value = new Value(i);
+                            sharded.batchValueUpdate(Collections.singletonMap(n, value), true);
+                        }
+                    }
+                }
+            });
+        }
+        long start = System.currentTimeMillis();
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        int total = producers * sids * count;
+        long end = start + timeout;
+        while (client.updates.get() < total) {
+            if (System.currentTimeMillis() > end) {
+                return -1;
+            }
+            Thread.sleep(1);
+        }
+        return System.currentTimeMillis() - start;
+    }
+
+    private void ackAll() {
+        writer.ackReceived(client.lastMsg);
+    }
+
+    /**
+     * @return The values written for the sid in the order they were written.
+     */
+    private List<Integer> values(int sid) {
+        List<Integer> values = new ArrayList<>();
+        for (JsonObject obj : client.written) {
+            JsonArray responses = obj.get("responses");
+            if (responses == null) {
+                continue;
+            }
+            for (Object resp : responses) {
+                JsonArray updates = ((JsonObject) resp).get("updates");
+                if (updates == null) {
+                    continue;
+                }
+                for (Object update : updates) {
+                    JsonArray tuple = (JsonArray) update;
+                    if ((int) tuple.get(0) == sid) {
+                        values.add(((Number) tuple.get(1)).intValue());
+                    }
+                }
+            }
+        }
+        return values;
+    }
+
+    private static class Client implements NetworkClient {
+
+        private final Queue<JsonObject> written = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger updates = new AtomicInteger();
+        private volatile DataHandler ackTo;
+        private volatile boolean record = true;
+        private volatile int lastMsg;
+
+        @Override
+        public boolean writable() {
+            return true;
+        }
+
+        @Override
+        public void write(EncodingFormat format, JsonObject data) {
+            Integer msg = data.get("msg");
+            if (msg != null) {
+                lastMsg = msg;
+            }
+            JsonArray responses = data.get("responses");
+            if (responses != null) {
+                for (Object resp : responses) {
+                    JsonArray list = ((JsonObject) resp).get("updates");
+                    if (list != null) {
+                        updates.addAndGet(list.size());
+                    }
+                }
+            }
+            if (record) {
+                written.add(data);
+            }
+            DataHandler handler = ackTo;
+            if ((handler != null) && (msg != null)) {
+                handler.ackReceived(msg);
+            }
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public boolean isConnected() {
+            return true;
+        }
+    }
+
+    /**
+     * Runs tasks on a pool of threads so writers drain concurrently.
+     */
+    private static class PoolLoop extends LoopProvider {
+
+        private final ScheduledThreadPoolExecutor pool;
+
+        PoolLoop(int threads) {
+            pool = new ScheduledThreadPoolExecutor(threads);
+        }
+
+        void shutdown() {
+            pool.shutdownNow();
+        }
+
+        @Override
+        public void schedule(Runnable task) {
+            pool.execute(task);
+        }
+
+        @Override
+        public ScheduledFuture schedule(Runnable task, long delay, TimeUnit timeUnit) {
+            return pool.schedule(task, delay, timeUnit);
+        }
+
+        @Override
+        public ScheduledFuture schedulePeriodic(Runnable task, long initialDelay,
+                                                long delay, TimeUnit timeUnit) {
+            return pool.scheduleWithFixedDelay(task, initialDelay, delay, timeUnit);
+        }
+    }
+}
@@ -0,0 +1,470 @@
+package org.dsa.iot.dslink.node.actions.table;
+
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.dsa.iot.dslink.connection.DataHandler;
+import org.dsa.iot.dslink.connection.NetworkClient;
+import org.dsa.iot.dslink.node.value.Value;
+import org.dsa.iot.dslink.provider.LoopProvider;
+import org.dsa.iot.dslink.provider.ManualLoopProvider;
+import org.dsa.iot.dslink.provider.netty.DefaultLoopProvider;
+import org.dsa.iot.dslink.util.Objects;
+import org.dsa.iot.dslink.util.TimeUtils;
+import org.dsa.iot.dslink.util.handler.Handler;
+import org.dsa.iot.dslink.util.json.EncodingFormat;
+import org.dsa.iot.dslink.util.json.Json;
+import org.dsa.iot.dslink.util.json.JsonArray;
+import org.dsa.iot.dslink.util.json.JsonObject;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Ignore;
+import org.junit.Test;
+
+/**
+ * Tests the streaming of tables.
+ */
+public class TableTest {
+
+    private LoopProvider previous;
+    private ManualLoopProvider loop;
+    private Client client;
+    private DataHandler writer;
+    private boolean closed;
+
+    @Before
+    public void setup() {
+        previous = LoopProvider.getProvider();
+        loop = new ManualLoopProvider();
+        LoopProvider.setProvider(loop);
+        client = new Client();
+        writer = new DataHandler();
+        writer.setClient(client, EncodingFormat.JSON);
+    }
+
+    @After
+    public void teardown() {
+        LoopProvider.setProvider(previous);
+    }
+
+    /**
+     * Rows of a producer must be written in order over multiple messages
+     * and the stream closed once the producer is complete.
+     */
+    @Test
+    public void streamsProducer() {
+        Table table = new Table();
+        Producer producer = new Producer(20000);
+        table.setProducer(producer);
+        table.setStreaming(5, writer, null, closeHandler());
+        for (int i = 0; i < 1000 && !closed; i++) {
+            loop.runPending();
+            ackAll();
+        }
+        Assert.assertTrue(closed);
+
+        List<JsonObject> responses = responses();
+        Assert.assertTrue(responses.size() > 1);
+        int expected = 0;
+        for (JsonObject resp : responses) {
+            Assert.assertEquals(5, (int) resp.get("rid"));
+            JsonArray updates = resp.get("updates");
+            if (updates == null) {
+                continue;
+            }
+            for (Object row : updates) {
+                String value = ((JsonArray) row).get(0);
+                Assert.assertEquals("row-" + expected++, value);
+            }
+        }
+        Assert.assertEquals(20000, expected);
+        JsonObject last = responses.get(responses.size() - 1);
+        Assert.assertEquals("closed", last.get("stream"));
+    }
+
+    /**
+     * Without acknowledgements the producer must not be pulled beyond what
+     * the network accepted.
+     */
+    @Test
+    public void pullsOnlyWhenWritable() {
+        Table table = new Table();
+        Producer producer = new Producer(1000000);
+        table.setProducer(producer);
+        table.setStreaming(5, writer, null, closeHandler());
+        for (int i = 0; i < 50; i++) {
+            loop.runPending();
+        }
+        int written = client.written.size();
+        int pulled = producer.count;
+        Assert.assertTrue(written <= 10);
+        Assert.assertTrue(pulled < 1000000);
+
+        for (int i = 0; i < 50; i++) {
+            loop.runPending();
+        }
+        Assert.assertEquals(written, client.written.size());
+        Assert.assertEquals(pulled, producer.count);
+        Assert.assertFalse(closed);
+    }
+
+    /**
+     * While the network cannot accept data the table must wait to be woken
+     * up rather than polling.
+     */
+    @Test
+    public void waitsUntilWritable() {
+        client.writable = false;
+        Table table = new Table();
+        Producer producer = new Producer(10);
+        table.setProducer(producer);
+        table.setStreaming(5, writer, null, closeHandler());
+        for (int i = 0; i < 50; i++) {
+            loop.runPending();
+            // Only the drain of the write manager is polling
+            Assert.assertTrue(loop.pending() <= 1);
+        }
+        Assert.assertEquals(0, producer.count);
+        Assert.assertTrue(client.written.isEmpty());
+
+        client.writable = true;
+        for (int i = 0; i < 5 && !closed; i++) {
+            loop.runPending();
+        }
+        Assert.assertTrue(closed);
+        Assert.assertEquals(10, producer.count);
+    }
+
+    /**
+     * Rows added from threads outside of the loop provider, such as the
+     * threads that invoke actions, must block while the buffer is full.
+     */
+    @Test
+    public void blocksProducerThread() throws InterruptedException {
+        final Table table = new Table();
+        table.setStreaming(5, writer, null, closeHandler());
+        final AtomicInteger added = new AtomicInteger();
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < 5000; i++) {
+                    table.addRow(Row.make(new Value("row-" + i)));
+                    added.incrementAndGet();
+                }
+                table.close();
+            }
+        });
+        thread.setDaemon(true);
+        thread.start();
+        long end = System.currentTimeMillis() + 5000;
+        while (thread.getState() != Thread.State.TIMED_WAITING
+                && System.currentTimeMillis() < end) {
+            Thread.sleep(1);
+        }
+        Assert.assertTrue(added.get() < 5000);
+
+        end = System.currentTimeMillis() + 10000;
+        while (!closed && System.currentTimeMillis() < end) {
+            loop.runPending();
+            ackAll();
+            Thread.sleep(1);
+        }
+        thread.join(1000);
+        Assert.assertTrue(closed);
+        Assert.assertEquals(5000, added.get());
+    }
+
+    /**
+     * Buffered rows must be written before the stream closes.
+     */
+    @Test
+    public void closeAfterBufferedRows() {
+        Table table = new Table();
+        table.setStreaming(5, writer, null, closeHandler());
+        for (int i = 0; i < 10; i++) {
+            table.addRow(Row.make(new Value("row-" + i)));
+        }
+        table.close();
+        table.addRow(Row.make(new Value("ignored")));
+        Assert.assertFalse(closed);
+
+        loop.runPending();
+        Assert.assertTrue(closed);
+        List<JsonObject> responses = responses();
+        Assert.assertEquals(1, responses.size());
+        JsonObject resp = responses.get(0);
+        Assert.assertEquals("closed", resp.get("stream"));
+        Assert.assertEquals(10, resp.<JsonArray>get("updates").size());
+    }
+
+    /**
+     * Metadata queued after rows must not be merged into the message of
+     * the earlier rows.
+     */
+    @Test
+    public void metadataStartsMessage() {
+        Table table = new Table();
+        table.setStreaming(5, writer, null, closeHandler());
+        table.addRow(Row.make(new Value("row-0")));
+        table.addRow(Row.make(new Value("row-1")));
+        BatchRow batch = new BatchRow();
+        batch.addRow(Row.make(new Value("row-2")));
+        batch.setModifier(BatchRow.Modifier.makeReplace(0, 1));
+        table.addBatchRows(batch);
+        loop.runPending();
+        ackAll();
+        loop.runPending();
+
+        List<JsonObject> responses = responses();
+        Assert.assertEquals(2, responses.size());
+        JsonObject first = responses.get(0);
+        Assert.assertNull(first.get("meta"));
+        Assert.assertEquals(2, first.<JsonArray>get("updates").size());
+        JsonObject second = responses.get(1);
+        JsonObject meta = second.get("meta");
+        Assert.assertEquals("replace 0-1", meta.get("modify"));
+        JsonArray updates = second.get("updates");
+        Assert.assertEquals(1, updates.size());
+        Assert.assertEquals("row-2", updates.<JsonArray>get(0).get(0));
+    }
+
+    /**
+     * Tables filled from every thread of the loop provider must still be
+     * written, which needs a thread of the same pool.
+     */
+    @Test
+    public void saturatedPool() throws InterruptedException {
+        ScheduledThreadPoolExecutor pool = Objects.createDaemonThreadPool(2);
+        ScheduledThreadPoolExecutor previousPool = Objects.getDaemonThreadPool();
+        Objects.setDaemonThreadPool(pool);
+        LoopProvider.setProvider(new DefaultLoopProvider());
+        try {
+            client.encode = true;
+            int tables = 4;
+            final AtomicInteger closes = new AtomicInteger();
+            for (int i = 0; i < tables; i++) {
+                final Table table = new Table();
+                table.setStreaming(i, writer, null, new Handler<Void>() {
+                    @Override
+                    public void handle(Void event) {
+                        closes.incrementAndGet();
+                    }
+                });
+                LoopProvider.getProvider().schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        for (int i = 0; i < 5000; i++) {
+                            table.addRow(Row.make(new Value(i)));
+                        }
+                        table.close();
+                    }
+                });
+            }
+            long end = System.currentTimeMillis() + 10000;
+            while (closes.get() < tables && System.currentTimeMillis() < end) {
+                ackAll();
+                Thread.sleep(1);
+            }
+            Assert.assertEquals(tables, closes.get());
+        } finally {
+            Objects.setDaemonThreadPool(previousPool);
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Column batches must be written as regular rows split over messages.
+     */
+    @Test
+    public void streamsColumnBatch() {
+        Table table = new Table();
+        table.setStreaming(5, writer, null, closeHandler());
+        ColumnBatch batch = new ColumnBatch(10000, ColumnBatch.Type.DOUBLE,
+                ColumnBatch.Type.LONG, ColumnBatch.Type.STRING);
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < 10000; i++) {
+            int row = batch.addRow(now + i);
+            batch.setDouble(0, row, (i == 0) ? Double.NaN : i / 2.0);
+            batch.setLong(1, row, i);
+            batch.setString(2, row, "s" + i);
+        }
+        table.addColumnBatch(batch);
+        table.close();
+        drain();
+        Assert.assertTrue(closed);
+
+        int count = 0;
+        for (JsonObject obj : client.written) {
+            // Decode what went over the wire
+            obj = new JsonObject(obj.toString());
+            for (Object resp : obj.<JsonArray>get("responses")) {
+                JsonArray updates = ((JsonObject) resp).get("updates");
+                if (updates == null) {
+                    continue;
+                }
+                for (Object o : updates) {
+                    JsonArray row = (JsonArray) o;
+                    Assert.assertEquals(4, row.size());
+                    if (count == 0) {
+                        Assert.assertNull(row.get(1));
+                    } else {
+                        double d = row.<Number>get(1).doubleValue();
+                        Assert.assertEquals(count / 2.0, d, 0);
+                    }
+                    Assert.assertEquals(count, row.<Number>get(2).intValue());
+                    Assert.assertEquals("s" + count, row.get(3));
+                    count++;
+                }
+            }
+        }
+        Assert.assertEquals(10000, count);
+        Assert.assertTrue(client.written.size() > 2);
+    }
+
+    /**
+     * Not really a test, times writing a table of 10M cells.
+     */
+    @Ignore
+    @Test
+    public void performanceTest() {
+        client.encode = true;
+        int rows = 5000000;
+        ColumnBatch batch = new ColumnBatch(rows, ColumnBatch.Type.DOUBLE);
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < rows; i++) {
+            batch.setDouble(0, batch.addRow(now + i), i * 0.25);
+        }
+        Table table = new Table();
+        table.setStreaming(5, writer, null, closeHandler());
+        long start = System.currentTimeMillis();
+        table.addColumnBatch(batch);
+        table.close();
+        drain();
+        Assert.assertTrue(closed);
+        System.out.println("Columns: " + (rows * 2) + " cells, " + client.bytes
+                + " bytes in " + (System.currentTimeMillis() - start) + "ms");
+
+        rows = 500000;
+        BatchRow rowBatch = new BatchRow();
+        for (int i = 0; i < rows; i++) {
+            String time = TimeUtils.format(now + i);
+            rowBatch.addRow(Row.make(new Value(time), new Value(i * 0.25)));
+        }
+        closed = false;
+        client.bytes = 0;
+        table = new Table();
+        table.setStreaming(6, writer, null, closeHandler());
+        start = System.currentTimeMillis();
+        table.addBatchRows(rowBatch);
+        table.close();
+        drain();
+        Assert.assertTrue(closed);
+        System.out.println("Rows: " + (rows * 2) + " cells, " + client.bytes
+                + " bytes in " + (System.currentTimeMillis() - start) + "ms");
+    }
+
+    private void drain() {
+        for (int i = 0; i < 100000 && !closed; i++) {
+            loop.runPending();
+            ackAll();
+        }
+    }
+
+    private Handler<Void> closeHandler() {
+        return new Handler<Void>() {
+            @Override
+            public void handle(Void event) {
+                closed = true;
+            }
+        };
+    }
+
+    private void ackAll() {
+        writer.ackReceived(client.lastMsg);
+    }
+
+    private List<JsonObject> responses() {
+        List<JsonObject> list = new ArrayList<>();
+        for (JsonObject obj : client.written) {
+            JsonArray responses = obj.get("responses");
+            if (responses != null) {
+                for (Object resp : responses) {
+                    list.add((JsonObject) resp);
+                }
+            }
+        }
+        return list;
+    }
+
+    private static class Producer implements RowProducer {
+
+        private final int total;
+        private int count;
+
+        Producer(int total) {
+            this.total = total;
+        }
+
+        @Override
+        public Row next() {
+            if (count >= total) {
+                return null;
+            }
+            return Row.make(new Value("row-" + count++));
+        }
+
+        @Override
+        public boolean isComplete() {
+            return count >= total;
+        }
+    }
+
+    private static class Client implements NetworkClient {
+
+        private final List<JsonObject> written = new ArrayList<>();
+        private boolean encode;
+        private volatile boolean writable = true;
+        private volatile long bytes;
+        private volatile int lastMsg;
+
+        @Override
+        public boolean writable() {
+            return writable;
+        }
+
+        @Override
+        public void write(EncodingFormat format, JsonObject data) {
+            Integer msg = data.get("msg");
+            if (msg != null) {
+                lastMsg = msg;
+            }
+            if (!encode) {
+                written.add(data);
+                return;
+            }
+            Json.encode(format, data, new OutputStream() {
+                @Override
+                public void write(int b) {
+                    bytes++;
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) {
+                    bytes += len;
+                }
+            });
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public boolean isConnected() {
+            return true;
+        }
+    }
+}
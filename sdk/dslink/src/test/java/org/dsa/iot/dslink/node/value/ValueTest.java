@@ -1,6 +1,7 @@
 package org.dsa.iot.dslink.node.value;
 
 import org.dsa.iot.dslink.util.json.JsonArray;
+import org.dsa.iot.dslink.util.json.JsonObject;
 import org.junit.Assert;
 import org.junit.Test;
 
@@ -96,4 +97,49 @@ public class ValueTest {
         Assert.assertFalse(d.equals(e));
     }
 
+    @Test
+    public void primitives() {
+        Value val = new Value(1.5, 1000L);
+        Assert.assertEquals(ValueType.NUMBER, val.getType());
+        Assert.assertTrue(val.isPrimitive());
+        Assert.assertTrue(val.isDouble());
+        Assert.assertEquals(1.5, val.getDouble(), 0);
+        Assert.assertEquals(1000L, val.getTime());
+        Assert.assertEquals(1.5, val.getNumber());
+        Assert.assertEquals(new Value(1.5), val);
+
+        val = new Value(7L, 1000L);
+        Assert.assertFalse(val.isDouble());
+        Assert.assertEquals(7L, val.getLong());
+        Assert.assertEquals(7L, val.getNumber());
+
+        val.set(true);
+        Assert.assertFalse(val.isPrimitive());
+        Assert.assertNull(val.getNumber());
+
+        val = new Value(false, 1000L);
+        Assert.assertEquals(ValueType.BOOL, val.getType());
+        Assert.assertEquals(false, val.getBool());
+        Assert.assertEquals(1000L, val.getTime());
+    }
+
+    @Test
+    public void primitiveEncoding() {
+        Value d = new Value(2.5, 0L);
+        d.setImmutable();
+        Value l = new Value(3L, 0L);
+        l.setImmutable();
+
+        JsonArray array = new JsonArray();
+        array.add(d);
+        array.add(l);
+        Assert.assertEquals("[2.5,3]", array.toString());
+        Assert.assertEquals(2.5, (Object) array.get(0));
+        Assert.assertEquals(3L, (Object) array.get(1));
+
+        JsonObject obj = new JsonObject();
+        obj.put("value", d);
+        Assert.assertEquals("{\"value\":2.5}", obj.toString());
+    }
+
 }
@@ -0,0 +1,66 @@
+package org.dsa.iot.dslink.provider;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loop provider for tests that queues every task, delayed or not, until
+ * the test runs it. Tasks may be scheduled from any thread.
+ */
+public class ManualLoopProvider extends LoopProvider implements Executor {
+
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+    /**
+     * @return Number of tasks waiting to be run.
+     */
+    public int pending() {
+        return tasks.size();
+    }
+
+    /**
+     * Runs tasks until none are left, including the tasks scheduled by
+     * them.
+     */
+    public void runAll() {
+        Runnable r;
+        while ((r = tasks.poll()) != null) {
+            r.run();
+        }
+    }
+
+    /**
+     * Runs the tasks that are currently scheduled, tasks scheduled by
+     * them are left for the next call.
+     */
+    public void runPending() {
+        for (int i = tasks.size(); i > 0; i--) {
+            tasks.poll().run();
+        }
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        tasks.add(task);
+    }
+
+    @Override
+    public void schedule(Runnable task) {
+        tasks.add(task);
+    }
+
+    @Override
+    public ScheduledFuture schedule(Runnable task, long delay, TimeUnit timeUnit) {
+        tasks.add(task);
+        return null;
+    }
+
+    @Override
+    public ScheduledFuture schedulePeriodic(Runnable task, long initialDelay,
+                                            long delay, TimeUnit timeUnit) {
+        throw new UnsupportedOperationException();
+    }
+}
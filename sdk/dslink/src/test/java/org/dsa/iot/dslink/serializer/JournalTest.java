@@ -0,0 +1,194 @@
+package org.dsa.iot.dslink.serializer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import org.dsa.iot.dslink.node.Node;
+import org.dsa.iot.dslink.node.NodeManager;
+import org.dsa.iot.dslink.node.Permission;
+import org.dsa.iot.dslink.node.actions.Action;
+import org.dsa.iot.dslink.node.actions.ActionResult;
+import org.dsa.iot.dslink.node.value.Value;
+import org.dsa.iot.dslink.node.value.ValueType;
+import org.dsa.iot.dslink.util.handler.Handler;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests replaying journal records on top of a snapshot.
+ */
+public class JournalTest {
+
+    private File file;
+
+    @Before
+    public void setup() throws IOException {
+        file = File.createTempFile("nodes", ".journal");
+        Assert.assertTrue(file.delete());
+    }
+
+    @After
+    public void cleanup() {
+        if (file.exists()) {
+            Assert.assertTrue(file.delete());
+        }
+    }
+
+    @Test
+    public void replay() throws IOException {
+        NodeManager manager = new NodeManager(null, "node");
+        Node a = manager.createRootNode("a").build();
+        Node b = a.createChild("b", false)
+                .setValueType(ValueType.NUMBER)
+                .setValue(new Value(1))
+                .build();
+        a.createChild("c", false).setDisplayName("C").build();
+        byte[] snapshot = serialize(manager);
+
+        b.setValue(new Value(2));
+        b.setDisplayName("B");
+        a.removeChild("c", false);
+        Node d = a.createChild("d", false)
+                .setValueType(ValueType.STRING)
+                .setValue(new Value("d"))
+                .build();
+        Journal journal = journal(manager);
+        journal.append(Arrays.asList(b, a, d));
+        Assert.assertEquals(3, journal.size());
+
+        NodeManager restored = restore(snapshot);
+        journal = journal(restored);
+        journal.replay();
+        Assert.assertEquals(3, journal.size());
+        Assert.assertArrayEquals(serialize(manager), serialize(restored));
+
+        // Replaying again must not change anything
+        journal.replay();
+        Assert.assertArrayEquals(serialize(manager), serialize(restored));
+    }
+
+    /**
+     * Fields missing from a record must be reset as if the node was loaded
+     * from a snapshot.
+     */
+    @Test
+    public void resetsMissingFields() throws IOException {
+        NodeManager manager = new NodeManager(null, "node");
+        Node a = manager.createRootNode("a").build();
+        Node b = a.createChild("b", "custom", false)
+                .setValueType(ValueType.NUMBER)
+                .setValue(new Value(1))
+                .build();
+        byte[] snapshot = serialize(manager);
+
+        b.setValue(null);
+        b.setValueType(null);
+        b.setProfile(null);
+        journal(manager).append(Collections.singletonList(b));
+
+        NodeManager restored = restore(snapshot);
+        Node node = restored.getNode("/a/b").getNode();
+        node.setAction(new Action(Permission.READ, new Handler<ActionResult>() {
+            @Override
+            public void handle(ActionResult event) {
+            }
+        }));
+        Assert.assertTrue(journal(restored).replay());
+        Assert.assertNull(node.getValue());
+        Assert.assertNull(node.getValueType());
+        Assert.assertEquals("node", node.getProfile());
+        Assert.assertNull(node.getAction());
+        Assert.assertArrayEquals(serialize(restore(serialize(manager))), serialize(restored));
+    }
+
+    @Test
+    public void detachedNodesAreSkipped() throws IOException {
+        NodeManager manager = new NodeManager(null, "node");
+        Node a = manager.createRootNode("a").build();
+        Node b = a.createChild("b", false).build();
+        a.removeChild("b", false);
+        Journal journal = journal(manager);
+        journal.append(Collections.singletonList(b));
+        Assert.assertEquals(0, journal.size());
+    }
+
+    @Test
+    public void truncatedRecordEndsReplay() throws IOException {
+        NodeManager manager = new NodeManager(null, "node");
+        Node a = manager.createRootNode("a").build();
+        a.setDisplayName("A");
+        journal(manager).append(Collections.singletonList(a));
+        long length = file.length();
+        try (FileOutputStream out = new FileOutputStream(file, true)) {
+            out.write("{\"path\":\"/a\",\"no".getBytes("UTF-8"));
+        }
+
+        NodeManager restored = new NodeManager(null, "node");
+        Journal journal = journal(restored);
+        Assert.assertFalse(journal.replay());
+        Assert.assertEquals(1, journal.size());
+        Assert.assertEquals("A", restored.getNode("/a").getNode().getDisplayName());
+        Assert.assertEquals(length, file.length());
+
+        // Records appended after the torn record must be replayed
+        a.setDisplayName("B");
+        journal(manager).append(Collections.singletonList(a));
+        restored = new NodeManager(null, "node");
+        journal = journal(restored);
+        Assert.assertTrue(journal.replay());
+        Assert.assertEquals(2, journal.size());
+        Assert.assertEquals("B", restored.getNode("/a").getNode().getDisplayName());
+
+        journal.reset();
+        Assert.assertFalse(file.exists());
+    }
+
+    @Test
+    public void journalOfOlderSnapshotIsDiscarded() throws IOException {
+        NodeManager manager = new NodeManager(null, "node");
+        Node a = manager.createRootNode("a").build();
+        a.setDisplayName("A");
+        Journal journal = journal(manager);
+        journal.setSnapshot(1);
+        journal.append(Collections.singletonList(a));
+
+        NodeManager restored = new NodeManager(null, "node");
+        journal = journal(restored);
+        journal.setSnapshot(1);
+        Assert.assertTrue(journal.replay());
+        Assert.assertEquals(1, journal.size());
+        Assert.assertEquals("A", restored.getNode("/a").getNode().getDisplayName());
+
+        restored = new NodeManager(null, "node");
+        journal = journal(restored);
+        journal.setSnapshot(2);
+        Assert.assertTrue(journal.replay());
+        Assert.assertEquals(0, journal.size());
+        Assert.assertNull(restored.getNode("/a", false, false).getNode());
+        Assert.assertFalse(file.exists());
+    }
+
+    private Journal journal(NodeManager manager) {
+        return new Journal(file, manager,
+                           new Serializer(null, manager),
+                           new Deserializer(null, manager));
+    }
+
+    private static byte[] serialize(NodeManager manager) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new Serializer(null, manager).serialize(out, true);
+        return out.toByteArray();
+    }
+
+    private static NodeManager restore(byte[] snapshot) throws IOException {
+        NodeManager manager = new NodeManager(null, "node");
+        new Deserializer(null, manager).deserialize(new ByteArrayInputStream(snapshot));
+        return manager;
+    }
+}
@@ -0,0 +1,140 @@
+package org.dsa.iot.dslink.serializer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import org.dsa.iot.dslink.node.Node;
+import org.dsa.iot.dslink.node.NodeManager;
+import org.dsa.iot.dslink.node.Writable;
+import org.dsa.iot.dslink.node.value.Value;
+import org.dsa.iot.dslink.node.value.ValueType;
+import org.dsa.iot.dslink.util.json.JsonArray;
+import org.dsa.iot.dslink.util.json.JsonObject;
+import org.junit.Assert;
+import org.junit.Ignore;
+import org.junit.Test;
+
+/**
+ * Tests the streaming serializer and deserializer against the tree based
+ * serializer.
+ */
+public class SerializerTest {
+
+    @Test
+    public void streamMatchesTree() throws IOException {
+        NodeManager manager = build(5, 20);
+        Serializer serializer = new Serializer(null, manager);
+        String tree = serializer.serialize().toString();
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        serializer.serialize(out, true);
+        Assert.assertEquals(tree, new String(out.toByteArray(), "UTF-8"));
+
+        out.reset();
+        serializer.serialize(out, false);
+        JsonObject pretty = new JsonObject(new String(out.toByteArray(), "UTF-8"));
+        Assert.assertEquals(tree, pretty.toString());
+    }
+
+    @Test
+    public void roundTrip() throws IOException {
+        NodeManager manager = build(3, 10);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new Serializer(null, manager).serialize(out, true);
+        byte[] bytes = out.toByteArray();
+
+        NodeManager restored = new NodeManager(null, "node");
+        Deserializer deserializer = new Deserializer(null, restored);
+        deserializer.deserialize(new ByteArrayInputStream(bytes));
+
+        Node node = restored.getNode("/n0/n1/n2").getNode();
+        Assert.assertEquals(ValueType.NUMBER, node.getValueType());
+        Assert.assertEquals(2.5, node.getValue().getNumber().doubleValue(), 0);
+        Assert.assertEquals("Node 2", node.getDisplayName());
+        Assert.assertEquals(Writable.WRITE, node.getWritable());
+        Assert.assertEquals("node", node.getProfile());
+
+        node = restored.getNode("/n0/n1/n2/list").getNode();
+        JsonArray list = node.getValue().getArray();
+        Assert.assertEquals(2, list.size());
+        Assert.assertEquals("two", list.get(1));
+
+        out.reset();
+        new Serializer(null, restored).serialize(out, true);
+        Assert.assertArrayEquals(bytes, out.toByteArray());
+    }
+
+    @Test
+    public void valueBeforeType() throws IOException {
+        String json = "{\"a\":{\"?value\":1,\"$type\":\"number\"}}";
+        NodeManager manager = new NodeManager(null, "node");
+        Deserializer deserializer = new Deserializer(null, manager);
+        deserializer.deserialize(new ByteArrayInputStream(json.getBytes("UTF-8")));
+        Node node = manager.getNode("/a").getNode();
+        Assert.assertEquals(ValueType.NUMBER, node.getValueType());
+        Assert.assertEquals(1, node.getValue().getNumber().intValue());
+    }
+
+    /**
+     * Not really a test, times both serializers on a larger tree.
+     */
+    @Ignore
+    @Test
+    public void performanceTest() throws IOException {
+        NodeManager manager = build(40, 250);
+        Serializer serializer = new Serializer(null, manager);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int i = 3; --i >= 0; ) {
+            serializer.serialize().encodePrettily();
+            out.reset();
+            serializer.serialize(out, false);
+        }
+        long start = System.currentTimeMillis();
+        serializer.serialize().encodePrettily();
+        System.out.println("Tree = " + (System.currentTimeMillis() - start) + "ms");
+        start = System.currentTimeMillis();
+        out.reset();
+        serializer.serialize(out, false);
+        System.out.println("Stream = " + (System.currentTimeMillis() - start) + "ms");
+        start = System.currentTimeMillis();
+        out.reset();
+        serializer.serialize(out, true);
+        System.out.println("Compact = " + (System.currentTimeMillis() - start) + "ms");
+    }
+
+    /**
+     * Builds a tree of folders each holding a chain of value nodes.
+     */
+    private static NodeManager build(int folders, int depth) {
+        NodeManager manager = new NodeManager(null, "node");
+        for (int i = 0; i < folders; i++) {
+            Node parent = manager.createRootNode("f" + i).build();
+            for (int j = 0; j < depth; j++) {
+                parent = child(parent, j);
+            }
+        }
+        Node parent = manager.createRootNode("n0").build();
+        for (int j = 1; j < 3; j++) {
+            parent = child(parent, j);
+        }
+        return manager;
+    }
+
+    private static Node child(Node parent, int idx) {
+        Node node = parent.createChild("n" + idx, "node", false)
+                .setDisplayName("Node " + idx)
+                .setValueType(ValueType.NUMBER)
+                .setValue(new Value(idx + 0.5))
+                .setWritable(Writable.WRITE)
+                .build();
+        JsonArray list = new JsonArray();
+        list.add(1);
+        list.add("two");
+        node.createChild("list", false)
+                .setValueType(ValueType.ARRAY)
+                .setValue(new Value(list))
+                .setHidden(true)
+                .build();
+        return node;
+    }
+}
@@ -320,6 +320,80 @@ public class TimeUtilsTest {
         validateEqual(encoded,"2016-01-01T00:00:00.000-08:00");
     }
 
+    @Test
+    public void testFastEncoding() {
+        Calendar cal = Calendar.getInstance();
+        TimeUtils.addYears(-1, cal);
+        StringBuilder buffer = new StringBuilder();
+        char[] chars = new char[TimeUtils.MAX_ENCODED_LENGTH];
+        // Odd step so every second and millis digit gets exercised
+        for (int i = 0; i < 20000; i++) {
+            long time = cal.getTimeInMillis();
+            buffer.setLength(0);
+            String expected = TimeUtils.encode(cal, true, buffer).toString();
+            validateEqual(TimeUtils.format(time), expected);
+            int len = TimeUtils.encode(time, false, chars, 0);
+            validateEqual(new String(chars, 0, len), expected.substring(0, 23));
+            cal.setTimeInMillis(time + 1234567L);
+        }
+    }
+
+    @Test
+    public void testZoneEncoding() {
+        String[] zones = {
+                "UTC", "America/Los_Angeles", "Asia/Kolkata", "America/St_Johns"
+        };
+        char[] chars = new char[TimeUtils.MAX_ENCODED_LENGTH];
+        for (String zone : zones) {
+            TimeZone timeZone = TimeZone.getTimeZone(zone);
+            Calendar cal = Calendar.getInstance(timeZone);
+            TimeUtils.addYears(-1, cal);
+            StringBuilder buffer = new StringBuilder();
+            for (int i = 0; i < 20000; i++) {
+                long time = cal.getTimeInMillis();
+                buffer.setLength(0);
+                String expected = TimeUtils.encode(cal, true, buffer).toString();
+                int len = TimeUtils.encode(time, timeZone, true, chars, 0);
+                Assert.assertEquals(expected, new String(chars, 0, len));
+                len = TimeUtils.encode(time, timeZone, false, chars, 0);
+                Assert.assertEquals(expected.substring(0, 23), new String(chars, 0, len));
+                cal.setTimeInMillis(time + 1234567L);
+            }
+        }
+    }
+
+    @Test
+    public void testFastDecoding() {
+        Calendar cal = Calendar.getInstance();
+        TimeUtils.addYears(-1, cal);
+        StringBuilder buffer = new StringBuilder();
+        for (int i = 0; i < 20000; i++) {
+            long time = cal.getTimeInMillis();
+            buffer.setLength(0);
+            String encoded = TimeUtils.encode(cal, true, buffer).toString();
+            Assert.assertEquals(time, TimeUtils.decode(encoded));
+            String local = encoded.substring(0, 23);
+            Assert.assertEquals(time, TimeUtils.decode(local));
+            cal.setTimeInMillis(time + 1234567L);
+        }
+        Assert.assertEquals(0L, TimeUtils.decode("1970-01-01T00:00:00.000Z"));
+        Assert.assertEquals(0L, TimeUtils.decode("1970-01-01T00:00:00Z"));
+        Assert.assertEquals(1451606400987L,
+                            TimeUtils.decode("2015-12-31T16:00:00.987654-08:00"));
+        Assert.assertEquals(1451602800000L,
+                            TimeUtils.decode("2016-01-01T00:00:00.000+01"));
+        Assert.assertEquals(951782400000L,
+                            TimeUtils.decode("2000-02-29T00:00:00.000Z"));
+        try {
+            TimeUtils.decode("2016-13-01T00:00:00.000Z");
+            throw new IllegalStateException();
+        } catch (IllegalArgumentException ignored) {}
+        try {
+            TimeUtils.decode("2016-01-01T00:00");
+            throw new IllegalStateException();
+        } catch (IllegalArgumentException ignored) {}
+    }
+
     /**
      * Throws an IllegalStateException if the two calendars are not equal.
      */
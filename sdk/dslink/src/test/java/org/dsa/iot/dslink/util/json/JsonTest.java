@@ -0,0 +1,221 @@
+package org.dsa.iot.dslink.util.json;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.dsa.iot.dslink.node.value.Value;
+import org.dsa.iot.dslink.node.value.ValueType;
+import org.dsa.iot.dslink.node.value.ValueUtils;
+import org.dsa.iot.dslink.util.json.decoders.ElementHandler;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests encoding and decoding through every supported format.
+ */
+public class JsonTest {
+
+    @Test
+    public void formatNames() {
+        Assert.assertEquals(EncodingFormat.JSON, EncodingFormat.toEnum(null));
+        Assert.assertEquals(EncodingFormat.JSON, EncodingFormat.toEnum("json"));
+        Assert.assertEquals(EncodingFormat.MSGPACK, EncodingFormat.toEnum("MsgPack"));
+        Assert.assertEquals(EncodingFormat.JSON, EncodingFormat.toEnum("unknown"));
+        Assert.assertEquals(2, EncodingFormat.toJsonArray().size());
+    }
+
+    @Test
+    public void roundTripJson() {
+        roundTrip(EncodingFormat.JSON);
+    }
+
+    @Test
+    public void roundTripMsgPack() {
+        roundTrip(EncodingFormat.MSGPACK);
+    }
+
+    /**
+     * Binary data must be written natively in msgpack rather than through
+     * the escaped base64 string used by JSON.
+     */
+    @Test
+    public void nativeBinary() {
+        byte[] data = new byte[]{0, 1, 2, (byte) 0xFF};
+        JsonObject obj = new JsonObject();
+        obj.put("bin", data);
+
+        JsonObject json = new JsonObject(EncodingFormat.JSON, obj.encode());
+        Object s = json.get("bin");
+        Assert.assertTrue(s instanceof String);
+        Value val = ValueUtils.toValue(s);
+        Assert.assertEquals(ValueType.BINARY, val.getType());
+        Assert.assertArrayEquals(data, val.getBinary());
+
+        byte[] enc = obj.encode(EncodingFormat.MSGPACK);
+        JsonObject msgpack = new JsonObject(EncodingFormat.MSGPACK, enc);
+        Object b = msgpack.get("bin");
+        Assert.assertTrue(b instanceof byte[]);
+        Assert.assertArrayEquals(data, (byte[]) b);
+    }
+
+    /**
+     * Values held directly by a map, as a map given to the constructor can
+     * hold them, must be encoded by their type.
+     */
+    @Test
+    public void valuesInMap() {
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("string", new Value("text"));
+        map.put("bool", new Value(true));
+        map.put("number", new Value(3));
+        map.put("double", new Value(1.5, 0));
+        map.put("long", new Value(7L, 0));
+        JsonObject obj = new JsonObject();
+        obj.put("nested", map);
+        for (EncodingFormat format : EncodingFormat.values()) {
+            JsonObject dec = new JsonObject(format, new JsonObject(map).encode(format));
+            Assert.assertEquals("text", dec.get("string"));
+            Assert.assertEquals(true, dec.get("bool"));
+            Assert.assertEquals(3, dec.<Number>get("number").intValue());
+            Assert.assertEquals(1.5, dec.<Number>get("double").doubleValue(), 0);
+            Assert.assertEquals(7, dec.<Number>get("long").longValue());
+
+            dec = new JsonObject(format, obj.encode(format)).get("nested");
+            Assert.assertEquals("text", dec.get("string"));
+            Assert.assertEquals(true, dec.get("bool"));
+        }
+    }
+
+    /**
+     * Streaming into an output stream must produce the same bytes as the
+     * array based encoder.
+     */
+    @Test
+    public void streamingEncode() {
+        JsonObject obj = new JsonObject();
+        obj.put("rid", 1);
+        obj.put("updates", new JsonArray().add(new JsonArray().add("a").add(2)));
+        for (EncodingFormat format : EncodingFormat.values()) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            obj.encode(format, out);
+            Assert.assertArrayEquals(obj.encode(format), out.toByteArray());
+        }
+    }
+
+    /**
+     * Arrays selected by the element handler must be handed off element by
+     * element and left out of the decoded tree.
+     */
+    @Test
+    public void streamingDecode() {
+        JsonArray updates = new JsonArray();
+        for (int i = 0; i < 10; i++) {
+            updates.add(new JsonArray().add(i).add(i * 2).add("ts"));
+        }
+        JsonObject sub = new JsonObject();
+        sub.put("rid", 0);
+        sub.put("updates", updates);
+        JsonObject other = new JsonObject();
+        other.put("rid", 5);
+        other.put("updates", new JsonArray().add(new JsonArray().add(1)));
+        JsonObject msg = new JsonObject();
+        msg.put("msg", 3);
+        msg.put("responses", new JsonArray().add(sub).add(other));
+
+        for (EncodingFormat format : EncodingFormat.values()) {
+            byte[] bytes = msg.encode(format);
+            final List<Object> streamed = new ArrayList<>();
+            ElementHandler handler = new ElementHandler() {
+                @Override
+                public boolean streamField(Map<String, Object> parent, String name) {
+                    return "updates".equals(name) && Integer.valueOf(0).equals(parent.get("rid"));
+                }
+
+                @Override
+                public void onElement(Map<String, Object> parent, String name, Object element) {
+                    streamed.add(element);
+                }
+            };
+            InputStream in = new ByteArrayInputStream(bytes);
+            JsonObject dec = new JsonObject(Json.decodeMap(format, in, handler));
+
+            Assert.assertEquals(10, streamed.size());
+            Assert.assertEquals(9, ((JsonArray) streamed.get(9)).<Number>get(0).intValue());
+            Assert.assertEquals(3, dec.<Number>get("msg").intValue());
+            JsonArray responses = dec.get("responses");
+            Assert.assertFalse(responses.<JsonObject>get(0).contains("updates"));
+            Assert.assertEquals(1, responses.<JsonObject>get(1).<JsonArray>get("updates").size());
+        }
+    }
+
+    @Test
+    public void msgPackIsSmaller() {
+        JsonArray updates = new JsonArray();
+        for (int i = 0; i < 100; i++) {
+            updates.add(new JsonArray().add(i).add(i * 1.5).add("2016-01-01T00:00:00.000Z"));
+        }
+        JsonObject obj = new JsonObject();
+        obj.put("rid", 0);
+        obj.put("updates", updates);
+        int json = obj.encode(EncodingFormat.JSON).length;
+        int msgpack = obj.encode(EncodingFormat.MSGPACK).length;
+        Assert.assertTrue(msgpack < json);
+    }
+
+    private static void roundTrip(EncodingFormat format) {
+        JsonObject nested = new JsonObject();
+        nested.put("a", "b");
+        nested.put("empty", new JsonObject());
+
+        JsonArray array = new JsonArray();
+        array.add(1);
+        array.add("two");
+        array.add(3.5);
+        array.add(null);
+        array.add(new JsonArray().add(false));
+        array.add(nested);
+
+        JsonObject obj = new JsonObject();
+        obj.put("int", 42);
+        obj.put("long", Long.MAX_VALUE);
+        obj.put("negative", -7);
+        obj.put("double", 1.25);
+        obj.put("true", true);
+        obj.put("false", false);
+        obj.put("null", null);
+        obj.put("string", "h\u00E9llo \u2603");
+        obj.put("array", array);
+        obj.put("map", nested);
+
+        byte[] bytes = obj.encode(format);
+        JsonObject dec = new JsonObject(format, bytes);
+
+        Assert.assertEquals(42, dec.<Number>get("int").intValue());
+        Assert.assertEquals(Long.MAX_VALUE, dec.<Number>get("long").longValue());
+        Assert.assertEquals(-7, dec.<Number>get("negative").intValue());
+        Assert.assertEquals(1.25, dec.<Number>get("double").doubleValue(), 0);
+        Assert.assertEquals(true, dec.get("true"));
+        Assert.assertEquals(false, dec.get("false"));
+        Assert.assertTrue(dec.contains("null"));
+        Assert.assertNull(dec.get("null"));
+        Assert.assertEquals("h\u00E9llo \u2603", dec.get("string"));
+
+        JsonArray decArray = dec.get("array");
+        Assert.assertEquals(6, decArray.size());
+        Assert.assertEquals(1, decArray.<Number>get(0).intValue());
+        Assert.assertEquals("two", decArray.get(1));
+        Assert.assertEquals(3.5, decArray.<Number>get(2).doubleValue(), 0);
+        Assert.assertNull(decArray.get(3));
+        Assert.assertEquals(false, decArray.<JsonArray>get(4).get(0));
+        Assert.assertEquals("b", decArray.<JsonObject>get(5).get("a"));
+        Assert.assertEquals(0, dec.<JsonObject>get("map").<JsonObject>get("empty").size());
+
+        JsonArray list = new JsonArray(format, array.encode(format));
+        Assert.assertEquals(6, list.size());
+        Assert.assertEquals("two", list.get(1));
+    }
+}
@@ -7,9 +7,11 @@ import org.dsa.iot.dslink.util.handler.CompleteHandler;
 import org.dsa.iot.dslink.util.handler.Handler;
 import org.dsa.iot.historian.utils.QueryData;
 import org.dsa.iot.historian.utils.TimeParser;
+import org.dsa.iot.historian.utils.WriteData;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.Collection;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
@@ -102,6 +104,20 @@ public abstract class Database {
         write(watch.getPath(), value, ts);
     }
 
+    /**
+     * Writes multiple values at once. Values are given in the order they
+     * were received. Calls {@link #write(Watch, Value, long)} for every
+     * value by default, databases that support batched inserts should
+     * override this.
+     *
+     * @param batch Values to write.
+     */
+    public void writeBatch(Collection<WriteData> batch) {
+        for (WriteData data : batch) {
+            write(data.getWatch(), data.getValue(), data.getTimestamp());
+        }
+    }
+
     /**
      * Times must be in UTC. At the end of the query, the {@code handler} must
      * receive a {@code null} event in order to close the table stream.
@@ -128,6 +144,21 @@ public abstract class Database {
      */
     public abstract QueryData queryLast(String path);
 
+    /**
+     * Removes all values of a path between {@code fromTs} and {@code toTs},
+     * both inclusive. Databases must support this for the rollup tiers of
+     * their watch groups to be rebuilt.
+     *
+     * @param path   Path to delete the values of.
+     * @param fromTs Beginning time of the range.
+     * @param toTs   End time of the range.
+     * @throws UnsupportedOperationException The database cannot delete
+     *                                       values.
+     */
+    public void deleteRange(String path, long fromTs, long toTs) {
+        throw new UnsupportedOperationException("deleteRange");
+    }
+
     /**
      * Closes the database connection and frees any resources.
      *
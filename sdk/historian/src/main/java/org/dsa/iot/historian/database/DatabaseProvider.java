@@ -10,6 +10,7 @@ import org.dsa.iot.dslink.node.value.SubscriptionValue;
 import org.dsa.iot.dslink.node.value.Value;
 import org.dsa.iot.dslink.node.value.ValueType;
 import org.dsa.iot.dslink.util.handler.Handler;
+import org.dsa.iot.historian.stats.tier.RollupTiers;
 
 import java.util.Map;
 
@@ -144,8 +145,31 @@ public abstract class DatabaseProvider {
         }
     }
 
+    /**
+     * Does not rebuild the rollup tiers, callers must call
+     * {@link #rebuildRollupTiers} once the values of the range are final.
+     *
+     * @param watch  Watch to delete the values of.
+     * @param fromTs Beginning time of the range.
+     * @param toTs   End time of the range.
+     */
     public abstract void deleteRange(Watch watch, long fromTs, long toTs);
 
+    /**
+     * Rebuilds the summaries of a watch after its values in a range were
+     * deleted or overwritten.
+     *
+     * @param watch  Watch whose values changed.
+     * @param fromTs Beginning time of the range.
+     * @param toTs   End time of the range.
+     */
+    protected void rebuildRollupTiers(Watch watch, long fromTs, long toTs) {
+        RollupTiers tiers = watch.getGroup().getRollupTiers();
+        if (tiers != null) {
+            tiers.rebuild(watch.getPath(), fromTs, toTs);
+        }
+    }
+
     public void deleteDb(Node node) {
         Database db = node.getMetaData();
         try {
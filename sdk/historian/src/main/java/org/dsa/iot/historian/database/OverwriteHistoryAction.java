@@ -70,11 +70,13 @@ class OverwriteHistoryAction implements Handler<ActionResult> {
 
             @Override
             public void complete() {
-                db.getProvider().deleteRange(watch, from, to);
+                DatabaseProvider provider = db.getProvider();
+                provider.deleteRange(watch, from, to);
 
                 for (Long timestamp : timestampsOfValuesToOverwrite) {
                     db.write(watch, newValue, timestamp);
                 }
+                provider.rebuildRollupTiers(watch, from, to);
             }
         });
     }
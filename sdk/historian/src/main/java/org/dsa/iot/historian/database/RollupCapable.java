@@ -0,0 +1,50 @@
+package org.dsa.iot.historian.database;
+
+import org.dsa.iot.dslink.util.handler.CompleteHandler;
+import org.dsa.iot.historian.stats.interval.IntervalParser;
+import org.dsa.iot.historian.stats.interval.IntervalProcessor;
+import org.dsa.iot.historian.stats.rollup.Rollup;
+import org.dsa.iot.historian.utils.QueryData;
+
+import java.util.TimeZone;
+
+/**
+ * Optional capability of a {@link Database} that can calculate interval
+ * rollups itself rather than returning every raw value. History queries
+ * use it automatically when the database implements it.
+ * <p>
+ * The results must be equal to processing the raw values with an
+ * {@link IntervalProcessor}.
+ *
+ * @see org.dsa.iot.historian.stats.GetHistory
+ */
+public interface RollupCapable {
+
+    /**
+     * @param rollup Rollup of the query.
+     * @return Whether {@link #queryRollup} supports the rollup.
+     */
+    boolean supportsRollup(Rollup.Type rollup);
+
+    /**
+     * Times must be in UTC. The {@code handler} receives one value per
+     * interval with the timestamp of the start of the interval and must
+     * be completed at the end of the query.
+     *
+     * @param path     Path to query.
+     * @param from     Beginning search time.
+     * @param to       End search time.
+     * @param parser   Interval to roll the values up into.
+     * @param rollup   Rollup to calculate per interval.
+     * @param timeZone Time zone the intervals are aligned in.
+     * @param handler  Handler callback for the interval values.
+     * @see IntervalProcessor#update(QueryData, long)
+     */
+    void queryRollup(String path,
+                     long from,
+                     long to,
+                     IntervalParser parser,
+                     Rollup.Type rollup,
+                     TimeZone timeZone,
+                     CompleteHandler<QueryData> handler);
+}
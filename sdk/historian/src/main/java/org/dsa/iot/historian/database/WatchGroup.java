@@ -14,8 +14,12 @@ import org.dsa.iot.dslink.node.value.ValueType;
 import org.dsa.iot.dslink.provider.LoopProvider;
 import org.dsa.iot.dslink.util.StringUtils;
 import org.dsa.iot.dslink.util.handler.Handler;
-import org.dsa.iot.historian.utils.QueryData;
+import org.dsa.iot.historian.stats.tier.RollupTiers;
+import org.dsa.iot.historian.utils.PropertyReference;
 import org.dsa.iot.historian.utils.WatchUpdate;
+import org.dsa.iot.historian.utils.WriteData;
+
+import io.netty.util.internal.SystemPropertyUtil;
 
 import java.util.ArrayList;
 import java.util.Date;
@@ -40,6 +44,9 @@ public class WatchGroup {
     private static final LoggingType DEFAULT_LOGGING_TYPE = LoggingType.ALL_DATA;
     private static int AVAILABLE_PROCESSORS = Runtime.getRuntime().availableProcessors();
     private static final ScheduledExecutorService INTERVAL_SCHEDULER = Executors.newScheduledThreadPool(Math.min(MINIMUM_AMOUNT_OF_THREADS, AVAILABLE_PROCESSORS));
+    private static final int WRITE_BATCH_SIZE;
+    private static final int WRITE_BATCH_AGE;
+    private static final boolean ROLLUP_TIERS;
 
     private final Permission permission;
     private final Database db;
@@ -47,6 +54,8 @@ public class WatchGroup {
     private final Queue<WatchUpdate> queue = new ConcurrentLinkedDeque<>();
     private final Object writeLoopLock = new Object();
     private final List<Watch> watches = new ArrayList<>();
+    private final WriteBuffer writeBuffer;
+    private final RollupTiers rollupTiers;
 
     private ScheduledFuture<?> bufferFut;
     private ScheduledFuture<?> scheduledIntervalWriter;
@@ -63,10 +72,16 @@ public class WatchGroup {
         this.permission = perm;
         this.node = node;
         this.db = db;
+        this.writeBuffer = new WriteBuffer(db, WRITE_BATCH_SIZE, WRITE_BATCH_AGE);
+        this.rollupTiers = ROLLUP_TIERS ? new RollupTiers(db) : null;
     }
 
     public void close() {
         cancelIntervalScheduler();
+        writeBuffer.flush();
+        if (rollupTiers != null) {
+            rollupTiers.flush();
+        }
     }
 
     /**
@@ -79,6 +94,15 @@ public class WatchGroup {
         return db;
     }
 
+    /**
+     * @return The summaries of the watches or {@code null} if rollup tiers
+     * are disabled.
+     * @see PropertyReference#ROLLUP_TIERS
+     */
+    public RollupTiers getRollupTiers() {
+        return rollupTiers;
+    }
+
     /**
      * Returns a new collection of currently known watches.
      */
@@ -443,10 +467,10 @@ public class WatchGroup {
             } else {
                 time = value.getTime();
             }
-            Watch watch = update.getWatch();
-
-            db.write(watch, value, time);
-            watch.notifyHandlers(new QueryData(value, time));
+            writeBuffer.add(new WriteData(update.getWatch(), value, time));
+            if (rollupTiers != null) {
+                rollupTiers.add(update.getWatch().getPath(), value, time);
+            }
         }
     }
 
@@ -547,4 +571,15 @@ public class WatchGroup {
             scheduleWriteToBuffer();
         }
     }
+
+    static {
+        String s = PropertyReference.BATCH_SIZE;
+        WRITE_BATCH_SIZE = SystemPropertyUtil.getInt(s, 1000);
+
+        s = PropertyReference.BATCH_AGE;
+        WRITE_BATCH_AGE = SystemPropertyUtil.getInt(s, 100);
+
+        s = PropertyReference.ROLLUP_TIERS;
+        ROLLUP_TIERS = SystemPropertyUtil.getBoolean(s, false);
+    }
 }
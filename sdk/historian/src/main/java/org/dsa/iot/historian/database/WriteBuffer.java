@@ -0,0 +1,118 @@
+package org.dsa.iot.historian.database;
+
+import org.dsa.iot.dslink.provider.LoopProvider;
+import org.dsa.iot.historian.utils.QueryData;
+import org.dsa.iot.historian.utils.WriteData;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Group commits the writes of a watch group. Values are collected and
+ * written as a single batch once the batch is full or the oldest value
+ * reached the maximum age, whichever comes first.
+ */
+class WriteBuffer implements Runnable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(WriteBuffer.class);
+
+    private final Object flushLock = new Object();
+    private final Database db;
+    private final int batchSize;
+    private final long maxAge;
+    private List<WriteData> pending = new ArrayList<>();
+    private boolean scheduled;
+
+    /**
+     * @param db        Database to write to.
+     * @param batchSize Number of values that causes an immediate flush, 1
+     *                  or less writes every value as it is added.
+     * @param maxAge    Milliseconds a value may wait before it is written.
+     */
+    WriteBuffer(Database db, int batchSize, long maxAge) {
+        if (db == null) {
+            throw new NullPointerException("db");
+        }
+        this.db = db;
+        this.batchSize = batchSize;
+        this.maxAge = maxAge;
+    }
+
+    /**
+     * Adds a value to the next batch.
+     *
+     * @param data Value to write.
+     */
+    void add(WriteData data) {
+        if ((batchSize <= 1) || (maxAge <= 0)) {
+            synchronized (flushLock) {
+                write(Collections.singletonList(data));
+            }
+            return;
+        }
+        boolean flush = false;
+        synchronized (this) {
+            pending.add(data);
+            if (pending.size() >= batchSize) {
+                flush = true;
+            } else if (!scheduled) {
+                scheduled = true;
+                LoopProvider.getProvider().schedule(this, maxAge, TimeUnit.MILLISECONDS);
+            }
+        }
+        if (flush) {
+            flush();
+        }
+    }
+
+    /**
+     * @return The number of values waiting to be written.
+     */
+    synchronized int size() {
+        return pending.size();
+    }
+
+    /**
+     * Writes all pending values. Flushes are serialized so that batches
+     * are written in the order they were taken.
+     */
+    void flush() {
+        synchronized (flushLock) {
+            List<WriteData> batch;
+            synchronized (this) {
+                if (pending.isEmpty()) {
+                    return;
+                }
+                batch = pending;
+                pending = new ArrayList<>();
+            }
+            write(batch);
+        }
+    }
+
+    @Override
+    public void run() {
+        synchronized (this) {
+            scheduled = false;
+        }
+        try {
+            flush();
+        } catch (Exception e) {
+            LOGGER.error("Failed to write batch", e);
+        }
+    }
+
+    private void write(List<WriteData> batch) {
+        db.writeBatch(batch);
+        for (WriteData data : batch) {
+            Watch watch = data.getWatch();
+            if (watch != null) {
+                watch.notifyHandlers(new QueryData(data.getValue(), data.getTimestamp()));
+            }
+        }
+    }
+}
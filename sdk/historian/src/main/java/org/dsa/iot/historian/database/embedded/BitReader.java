@@ -0,0 +1,47 @@
+package org.dsa.iot.historian.database.embedded;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Reads values written by a {@link BitWriter} from a region of a buffer.
+ */
+final class BitReader {
+
+    private final ByteBuffer buf;
+    private final int offset;
+    private long bits;
+
+    /**
+     * @param buf    Buffer to read from, its position is not modified.
+     * @param offset Index of the first byte to read.
+     */
+    BitReader(ByteBuffer buf, int offset) {
+        this.buf = buf;
+        this.offset = offset;
+    }
+
+    /**
+     * @return The next bit.
+     */
+    boolean readBit() {
+        return readBits(1) != 0;
+    }
+
+    /**
+     * @param n Number of bits to read, between 1 and 64.
+     * @return The bits read as the lowest bits of the result.
+     */
+    long readBits(int n) {
+        long value = 0;
+        while (n > 0) {
+            int b = buf.get(offset + (int) (bits >>> 3)) & 0xFF;
+            int avail = 8 - (int) (bits & 7);
+            int take = Math.min(avail, n);
+            int chunk = (b >>> (avail - take)) & ((1 << take) - 1);
+            value = (value << take) | chunk;
+            bits += take;
+            n -= take;
+        }
+        return value;
+    }
+}
@@ -0,0 +1,57 @@
+package org.dsa.iot.historian.database.embedded;
+
+import java.util.Arrays;
+
+/**
+ * Writes values of arbitrary bit lengths, most significant bit first.
+ */
+final class BitWriter {
+
+    private byte[] buf = new byte[256];
+    private long bits;
+
+    /**
+     * @param bit Bit to write.
+     */
+    void writeBit(boolean bit) {
+        writeBits(bit ? 1 : 0, 1);
+    }
+
+    /**
+     * @param value Value whose lowest {@code n} bits are written.
+     * @param n     Number of bits to write, between 1 and 64.
+     */
+    void writeBits(long value, int n) {
+        ensure(n);
+        while (n > 0) {
+            int pos = (int) (bits >>> 3);
+            int free = 8 - (int) (bits & 7);
+            int take = Math.min(free, n);
+            int chunk = (int) (value >>> (n - take)) & ((1 << take) - 1);
+            buf[pos] |= (byte) (chunk << (free - take));
+            bits += take;
+            n -= take;
+        }
+    }
+
+    /**
+     * @return Number of bytes written so far, including a partial byte.
+     */
+    int size() {
+        return (int) ((bits + 7) >>> 3);
+    }
+
+    /**
+     * @return The written bytes.
+     */
+    byte[] toByteArray() {
+        return Arrays.copyOf(buf, size());
+    }
+
+    private void ensure(int n) {
+        int needed = (int) ((bits + n + 7) >>> 3);
+        if (needed > buf.length) {
+            buf = Arrays.copyOf(buf, Math.max(needed, buf.length * 2));
+        }
+    }
+}
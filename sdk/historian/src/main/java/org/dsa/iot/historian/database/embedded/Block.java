@@ -0,0 +1,480 @@
+package org.dsa.iot.historian.database.embedded;
+
+import org.dsa.iot.dslink.node.value.Value;
+import org.dsa.iot.dslink.node.value.ValueUtils;
+import org.dsa.iot.dslink.util.json.EncodingFormat;
+import org.dsa.iot.dslink.util.json.JsonArray;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * Encoding of a block of samples. Every block starts with a fixed size
+ * header that holds the time range of its samples so that blocks can be
+ * skipped without decoding them.
+ * <p>
+ * Timestamps are stored as the delta of their deltas, numbers are stored
+ * as the XOR of their bits and the bits of the previous number. Values
+ * that are not numbers are stored as encoded MessagePack. The header
+ * ends with a CRC-32 of the payload so that a payload that was only
+ * partially written is detected.
+ */
+final class Block {
+
+    /**
+     * Size of the header in bytes: payload length, count, minimum and
+     * maximum timestamp, kind, flags and the checksum of the payload.
+     */
+    static final int HEADER_SIZE = 4 + 4 + 8 + 8 + 1 + 1 + 4;
+
+    static final byte KIND_DOUBLE = 0;
+    static final byte KIND_LONG = 1;
+    static final byte KIND_GENERIC = 2;
+
+    private static final byte FLAG_SORTED = 1;
+
+    /**
+     * Largest magnitude of a long that survives the conversion to a double.
+     */
+    private static final long MAX_EXACT = 1L << 53;
+
+    private Block() {
+    }
+
+    /**
+     * @param value Value to store.
+     * @return The kind of block that can hold the value.
+     */
+    static byte kindOf(Value value) {
+        if (value != null && value.isPrimitive()) {
+            if (value.isDouble()) {
+                return KIND_DOUBLE;
+            }
+            long l = value.getLong();
+            if (l >= -MAX_EXACT && l <= MAX_EXACT) {
+                return KIND_LONG;
+            }
+        }
+        return KIND_GENERIC;
+    }
+
+    /**
+     * Reads the header of a block.
+     *
+     * @param buf      Buffer holding the header.
+     * @param position Position of the block in the file.
+     * @return The header or {@code null} if it is malformed.
+     */
+    static Header readHeader(ByteBuffer buf, long position) {
+        int length = buf.getInt();
+        int count = buf.getInt();
+        long minTs = buf.getLong();
+        long maxTs = buf.getLong();
+        byte kind = buf.get();
+        byte flags = buf.get();
+        int crc = buf.getInt();
+        if (length < 0 || count <= 0 || kind < KIND_DOUBLE || kind > KIND_GENERIC) {
+            return null;
+        }
+        boolean sorted = (flags & FLAG_SORTED) != 0;
+        return new Header(position, length, count, minTs, maxTs, kind, sorted, crc);
+    }
+
+    /**
+     * @param buf    Buffer holding the payload.
+     * @param header Header of the block.
+     * @param offset Index of the payload in the buffer.
+     * @return Whether the payload matches the checksum of the header.
+     */
+    static boolean verify(ByteBuffer buf, Header header, int offset) {
+        ByteBuffer payload = buf.duplicate();
+        payload.limit(offset + header.length);
+        payload.position(offset);
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        return (int) crc.getValue() == header.crc;
+    }
+
+    /**
+     * Decodes the samples of a block in the order they were written.
+     *
+     * @param buf     Buffer holding the payload.
+     * @param header  Header of the block.
+     * @param offset  Index of the payload in the buffer.
+     * @param visitor Receives the samples.
+     * @return Whether all samples were visited.
+     */
+    static boolean decode(ByteBuffer buf, Header header, int offset, Visitor visitor) {
+        if (header.kind == KIND_GENERIC) {
+            BitReader in = new BitReader(buf, offset);
+            long ts = 0;
+            long delta = 0;
+            for (int i = 0; i < header.count; i++) {
+                if (i == 0) {
+                    ts = in.readBits(64);
+                } else {
+                    delta += readDod(in);
+                    ts += delta;
+                }
+                if (!visitor.visit(ts, readGeneric(in, ts))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        long[] times = new long[header.count];
+        double[] values = new double[header.count];
+        decode(buf, header, offset, times, values);
+        boolean whole = header.kind == KIND_LONG;
+        for (int i = 0; i < header.count; i++) {
+            Value value;
+            if (whole) {
+                value = new Value((long) values[i], times[i]);
+            } else {
+                value = new Value(values[i], times[i]);
+            }
+            if (!visitor.visit(times[i], value)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Decodes the samples of a block of numbers into arrays without
+     * creating a value per sample.
+     *
+     * @param buf    Buffer holding the payload.
+     * @param header Header of the block, must not be of the generic kind.
+     * @param offset Index of the payload in the buffer.
+     * @param times  Receives the timestamps, must hold the count of the
+     *               block.
+     * @param values Receives the numbers, must hold the count of the
+     *               block.
+     */
+    static void decode(ByteBuffer buf, Header header, int offset,
+                       long[] times, double[] values) {
+        BitReader in = new BitReader(buf, offset);
+        long ts = 0;
+        long delta = 0;
+        long bits = 0;
+        int leading = 0;
+        int trailing = 0;
+        for (int i = 0; i < header.count; i++) {
+            if (i == 0) {
+                ts = in.readBits(64);
+                bits = in.readBits(64);
+            } else {
+                delta += readDod(in);
+                ts += delta;
+                if (in.readBit()) {
+                    if (in.readBit()) {
+                        leading = (int) in.readBits(5);
+                        int len = (int) in.readBits(6) + 1;
+                        trailing = 64 - leading - len;
+                    }
+                    int len = 64 - leading - trailing;
+                    bits ^= in.readBits(len) << trailing;
+                }
+            }
+            times[i] = ts;
+            values[i] = Double.longBitsToDouble(bits);
+        }
+    }
+
+    private static long readDod(BitReader in) {
+        if (!in.readBit()) {
+            return 0;
+        }
+        long zz;
+        if (!in.readBit()) {
+            zz = in.readBits(7);
+        } else if (!in.readBit()) {
+            zz = in.readBits(9);
+        } else if (!in.readBit()) {
+            zz = in.readBits(12);
+        } else {
+            zz = in.readBits(64);
+        }
+        return (zz >>> 1) ^ -(zz & 1);
+    }
+
+    private static Value readGeneric(BitReader in, long ts) {
+        int len = (int) in.readBits(32);
+        byte[] bytes = new byte[len];
+        for (int i = 0; i < len; i++) {
+            bytes[i] = (byte) in.readBits(8);
+        }
+        JsonArray array = new JsonArray(EncodingFormat.MSGPACK, bytes);
+        Value value = ValueUtils.toValue(array.get(0));
+        if (value != null) {
+            value.setTime(ts);
+        }
+        return value;
+    }
+
+    /**
+     * Receives decoded samples.
+     */
+    interface Visitor {
+
+        /**
+         * @param ts    Timestamp of the sample.
+         * @param value Value of the sample.
+         * @return Whether to continue decoding.
+         */
+        boolean visit(long ts, Value value);
+    }
+
+    /**
+     * Receives the samples of number blocks as primitives, samples of
+     * generic blocks are still given as values.
+     */
+    interface NumberVisitor extends Visitor {
+
+        /**
+         * @param ts    Timestamp of the sample.
+         * @param value Number of the sample.
+         * @param whole Whether the number was written as a whole number.
+         * @return Whether to continue decoding.
+         */
+        boolean visit(long ts, double value, boolean whole);
+    }
+
+    /**
+     * Header of a block that was written to a segment.
+     */
+    static final class Header {
+
+        final long position;
+        final int length;
+        final int count;
+        final long minTs;
+        final long maxTs;
+        final byte kind;
+
+        /**
+         * Whether the timestamps of the block never decrease.
+         */
+        final boolean sorted;
+
+        /**
+         * CRC-32 of the payload.
+         */
+        final int crc;
+
+        Header(long position, int length, int count, long minTs,
+               long maxTs, byte kind, boolean sorted, int crc) {
+            this.position = position;
+            this.length = length;
+            this.count = count;
+            this.minTs = minTs;
+            this.maxTs = maxTs;
+            this.kind = kind;
+            this.sorted = sorted;
+            this.crc = crc;
+        }
+
+        /**
+         * @return Position of the payload in the file.
+         */
+        long payload() {
+            return position + HEADER_SIZE;
+        }
+
+        /**
+         * @return Position of the next block in the file.
+         */
+        long end() {
+            return payload() + length;
+        }
+
+        boolean overlaps(long from, long to) {
+            return minTs <= to && maxTs >= from;
+        }
+    }
+
+    /**
+     * Encodes the samples of the open block. The samples are also kept
+     * as they were given so the open block can be queried.
+     */
+    static final class Encoder {
+
+        private final byte kind;
+        private final BitWriter out = new BitWriter();
+        private long[] times;
+        private Value[] values;
+        private int count;
+        private long minTs = Long.MAX_VALUE;
+        private long maxTs = Long.MIN_VALUE;
+        private boolean sorted = true;
+
+        private long prevTs;
+        private long prevDelta;
+        private long prevBits;
+        private int prevLeading = -1;
+        private int prevTrailing;
+
+        /**
+         * @param kind     Kind of values the block holds.
+         * @param capacity Expected number of samples.
+         */
+        Encoder(byte kind, int capacity) {
+            this.kind = kind;
+            capacity = Math.max(capacity, 1);
+            this.times = new long[capacity];
+            this.values = new Value[capacity];
+        }
+
+        byte getKind() {
+            return kind;
+        }
+
+        int getCount() {
+            return count;
+        }
+
+        long getMinTs() {
+            return minTs;
+        }
+
+        long getMaxTs() {
+            return maxTs;
+        }
+
+        boolean isSorted() {
+            return sorted;
+        }
+
+        /**
+         * @param ts    Timestamp of the sample.
+         * @param value Value of the sample, must be of the kind of the
+         *              block.
+         */
+        void add(long ts, Value value) {
+            if (count == times.length) {
+                times = Arrays.copyOf(times, count * 2);
+                values = Arrays.copyOf(values, count * 2);
+            }
+            times[count] = ts;
+            values[count] = value;
+
+            if (count == 0) {
+                out.writeBits(ts, 64);
+            } else {
+                long delta = ts - prevTs;
+                writeDod(delta - prevDelta);
+                prevDelta = delta;
+                if (ts < prevTs) {
+                    sorted = false;
+                }
+            }
+            prevTs = ts;
+            minTs = Math.min(minTs, ts);
+            maxTs = Math.max(maxTs, ts);
+
+            if (kind == KIND_GENERIC) {
+                writeGeneric(value);
+            } else {
+                double d = kind == KIND_DOUBLE ? value.getDouble() : value.getLong();
+                writeXor(Double.doubleToRawLongBits(d));
+            }
+            count++;
+        }
+
+        /**
+         * @param visitor Receives the samples in the order they were added.
+         * @return Whether all samples were visited.
+         */
+        boolean visit(Visitor visitor) {
+            for (int i = 0; i < count; i++) {
+                if (!visitor.visit(times[i], values[i])) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * @return The block header followed by its payload.
+         */
+        ByteBuffer toBuffer() {
+            byte[] payload = out.toByteArray();
+            CRC32 crc = new CRC32();
+            crc.update(payload);
+            ByteBuffer buf = ByteBuffer.allocate(HEADER_SIZE + payload.length);
+            buf.putInt(payload.length);
+            buf.putInt(count);
+            buf.putLong(minTs);
+            buf.putLong(maxTs);
+            buf.put(kind);
+            buf.put(sorted ? FLAG_SORTED : 0);
+            buf.putInt((int) crc.getValue());
+            buf.put(payload);
+            buf.flip();
+            return buf;
+        }
+
+        private void writeDod(long dod) {
+            if (dod == 0) {
+                out.writeBit(false);
+                return;
+            }
+            long zz = (dod << 1) ^ (dod >> 63);
+            if (zz < (1 << 7)) {
+                out.writeBits(0b10, 2);
+                out.writeBits(zz, 7);
+            } else if (zz < (1 << 9)) {
+                out.writeBits(0b110, 3);
+                out.writeBits(zz, 9);
+            } else if (zz < (1 << 12)) {
+                out.writeBits(0b1110, 4);
+                out.writeBits(zz, 12);
+            } else {
+                out.writeBits(0b1111, 4);
+                out.writeBits(zz, 64);
+            }
+        }
+
+        private void writeXor(long bits) {
+            if (count == 0) {
+                out.writeBits(bits, 64);
+                prevBits = bits;
+                return;
+            }
+            long xor = bits ^ prevBits;
+            prevBits = bits;
+            if (xor == 0) {
+                out.writeBit(false);
+                return;
+            }
+            out.writeBit(true);
+            int leading = Math.min(Long.numberOfLeadingZeros(xor), 31);
+            int trailing = Long.numberOfTrailingZeros(xor);
+            if (prevLeading >= 0 && leading >= prevLeading && trailing >= prevTrailing) {
+                out.writeBit(false);
+                out.writeBits(xor >>> prevTrailing, 64 - prevLeading - prevTrailing);
+            } else {
+                int len = 64 - leading - trailing;
+                out.writeBit(true);
+                out.writeBits(leading, 5);
+                out.writeBits(len - 1, 6);
+                out.writeBits(xor >>> trailing, len);
+                prevLeading = leading;
+                prevTrailing = trailing;
+            }
+        }
+
+        private void writeGeneric(Value value) {
+            JsonArray array = new JsonArray();
+            array.add(ValueUtils.toObject(value));
+            byte[] bytes = array.encode(EncodingFormat.MSGPACK);
+            out.writeBits(bytes.length, 32);
+            for (byte b : bytes) {
+                out.writeBits(b, 8);
+            }
+        }
+    }
+}
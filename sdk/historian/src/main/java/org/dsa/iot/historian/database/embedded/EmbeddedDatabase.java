@@ -0,0 +1,479 @@
+package org.dsa.iot.historian.database.embedded;
+
+import org.dsa.iot.dslink.node.Node;
+import org.dsa.iot.dslink.node.value.Value;
+import org.dsa.iot.dslink.provider.LoopProvider;
+import org.dsa.iot.dslink.util.UrlBase64;
+import org.dsa.iot.dslink.util.handler.CompleteHandler;
+import org.dsa.iot.historian.database.Database;
+import org.dsa.iot.historian.database.DatabaseProvider;
+import org.dsa.iot.historian.database.RollupCapable;
+import org.dsa.iot.historian.stats.interval.IntervalParser;
+import org.dsa.iot.historian.stats.interval.IntervalProcessor;
+import org.dsa.iot.historian.stats.rollup.Rollup;
+import org.dsa.iot.historian.utils.PropertyReference;
+import org.dsa.iot.historian.utils.QueryData;
+import org.dsa.iot.historian.utils.WriteData;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.netty.util.internal.SystemPropertyUtil;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * File backed database that needs no external server. Every path is
+ * stored in its own append-only segment file inside of the database
+ * directory, see {@link Segment} for the file layout. Interval rollups
+ * are calculated while the segment is decoded so only one value per
+ * interval leaves the database. Only the files of the most recently used
+ * segments are kept open. Once a segment file reaches the segment size,
+ * the path continues in a new file, the next part of its history.
+ *
+ * @see EmbeddedDatabaseProvider
+ */
+public class EmbeddedDatabase extends Database implements RollupCapable, Runnable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(EmbeddedDatabase.class);
+    private static final String EXTENSION = ".seg";
+    private static final int BLOCK_SIZE;
+    private static final long BLOCK_AGE;
+    private static final int OPEN_SEGMENTS;
+    private static final int SEGMENT_SIZE;
+
+    /**
+     * Segment files must stay below 2GB to be mapped, this leaves room
+     * for the block that crosses the segment size.
+     */
+    private static final int MAX_SEGMENT_SIZE = Integer.MAX_VALUE - (64 << 20);
+
+    private final Map<String, Segment> segments = new ConcurrentHashMap<>();
+
+    /**
+     * Segments in the order they were last used.
+     */
+    private final LinkedHashMap<Segment, Boolean> used = new LinkedHashMap<>(16, 0.75f, true);
+    private final File dir;
+    private final int blockSize;
+    private final long blockAge;
+    private final int openSegments;
+    private final long segmentSize;
+    private ScheduledFuture<?> sealer;
+
+    /**
+     * @param name     Name of the database.
+     * @param provider Provider of the database.
+     * @param dir      Directory that holds the segment files.
+     */
+    public EmbeddedDatabase(String name, DatabaseProvider provider, File dir) {
+        this(name, provider, dir, BLOCK_SIZE, BLOCK_AGE);
+    }
+
+    /**
+     * @param name      Name of the database.
+     * @param provider  Provider of the database.
+     * @param dir       Directory that holds the segment files.
+     * @param blockSize Number of values per compressed block.
+     * @param blockAge  Milliseconds values may stay in memory before they
+     *                  are written, 0 or less to only write full blocks.
+     */
+    public EmbeddedDatabase(String name, DatabaseProvider provider, File dir,
+                            int blockSize, long blockAge) {
+        this(name, provider, dir, blockSize, blockAge, OPEN_SEGMENTS);
+    }
+
+    /**
+     * @param name         Name of the database.
+     * @param provider     Provider of the database.
+     * @param dir          Directory that holds the segment files.
+     * @param blockSize    Number of values per compressed block.
+     * @param blockAge     Milliseconds values may stay in memory before
+     *                     they are written, 0 or less to only write full
+     *                     blocks.
+     * @param openSegments Number of segment files that are kept open, 0
+     *                     or less to keep all of them open.
+     */
+    public EmbeddedDatabase(String name, DatabaseProvider provider, File dir,
+                            int blockSize, long blockAge, int openSegments) {
+        this(name, provider, dir, blockSize, blockAge, openSegments, SEGMENT_SIZE);
+    }
+
+    /**
+     * @param segmentSize Bytes after which a path continues in a new
+     *                    segment file, at most slightly below 2GB.
+     */
+    EmbeddedDatabase(String name, DatabaseProvider provider, File dir,
+                     int blockSize, long blockAge, int openSegments,
+                     long segmentSize) {
+        super(name, provider);
+        if (dir == null) {
+            throw new NullPointerException("dir");
+        }
+        this.dir = dir;
+        this.blockSize = blockSize;
+        this.blockAge = blockAge;
+        this.openSegments = openSegments;
+        this.segmentSize = Math.min(Math.max(segmentSize, 1), MAX_SEGMENT_SIZE);
+    }
+
+    /**
+     * @return The directory that holds the segment files.
+     */
+    public File getDirectory() {
+        return dir;
+    }
+
+    @Override
+    public void write(String path, Value value, long ts) {
+        try {
+            append(path, ts, value, System.currentTimeMillis());
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public void writeBatch(Collection<WriteData> batch) {
+        long now = System.currentTimeMillis();
+        for (WriteData data : batch) {
+            try {
+                append(data.getWatch().getPath(), data.getTimestamp(), data.getValue(), now);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    @Override
+    public void query(String path, long from, long to,
+                      final CompleteHandler<QueryData> handler) {
+        try {
+            Segment segment = segment(path, false);
+            if (segment != null) {
+                segment.query(from, to, new Block.Visitor() {
+                    @Override
+                    public boolean visit(long ts, Value value) {
+                        handler.handle(new QueryData(value, ts));
+                        return true;
+                    }
+                });
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } finally {
+            handler.complete();
+        }
+    }
+
+    @Override
+    public boolean supportsRollup(Rollup.Type rollup) {
+        return rollup != null && rollup != Rollup.Type.NONE;
+    }
+
+    @Override
+    public void queryRollup(String path, long from, long to,
+                            IntervalParser parser, Rollup.Type rollup,
+                            TimeZone timeZone,
+                            final CompleteHandler<QueryData> handler) {
+        final IntervalProcessor interval = IntervalProcessor.parse(parser, rollup, timeZone);
+        try {
+            Segment segment = segment(path, false);
+            if (segment != null) {
+                segment.query(from, to, new Block.NumberVisitor() {
+                    @Override
+                    public boolean visit(long ts, double value, boolean whole) {
+                        QueryData done = interval.update(value, whole, ts);
+                        if (done != null) {
+                            handler.handle(done);
+                        }
+                        return true;
+                    }
+
+                    @Override
+                    public boolean visit(long ts, Value value) {
+                        QueryData done = interval.update(new QueryData(value, ts), ts);
+                        if (done != null) {
+                            handler.handle(done);
+                        }
+                        return true;
+                    }
+                });
+                QueryData done = interval.completeInterval();
+                if (done != null) {
+                    handler.handle(done);
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } finally {
+            handler.complete();
+        }
+    }
+
+    @Override
+    public QueryData queryFirst(String path) {
+        try {
+            Segment segment = segment(path, false);
+            return segment == null ? null : segment.first();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public QueryData queryLast(String path) {
+        try {
+            Segment segment = segment(path, false);
+            return segment == null ? null : segment.last();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public void deleteRange(String path, long fromTs, long toTs) {
+        try {
+            Segment segment = segment(path, false);
+            if (segment != null) {
+                segment.deleteRange(fromTs, toTs);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Writes the values of all paths that are still held in memory.
+     */
+    public void flush() {
+        for (Segment segment : segments.values()) {
+            try {
+                segment.seal();
+                releaseIfUnused(segment);
+            } catch (IOException e) {
+                LOGGER.error("Failed to write {}", segment.getFile(), e);
+            }
+        }
+    }
+
+    /**
+     * Writes the blocks that reached the maximum age.
+     */
+    @Override
+    public void run() {
+        long now = System.currentTimeMillis();
+        for (Segment segment : segments.values()) {
+            try {
+                segment.sealIfOlder(now, blockAge);
+                releaseIfUnused(segment);
+            } catch (IOException e) {
+                LOGGER.error("Failed to write {}", segment.getFile(), e);
+            }
+        }
+    }
+
+    @Override
+    public void close() throws Exception {
+        synchronized (this) {
+            if (sealer != null) {
+                sealer.cancel(false);
+                sealer = null;
+            }
+        }
+        IOException failure = null;
+        for (Segment segment : segments.values()) {
+            try {
+                segment.close();
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+        segments.clear();
+        synchronized (used) {
+            used.clear();
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    @Override
+    protected void performConnect() throws Exception {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Failed to create " + dir);
+        }
+        synchronized (this) {
+            if (sealer == null && blockAge > 0) {
+                LoopProvider provider = LoopProvider.getProvider();
+                TimeUnit unit = TimeUnit.MILLISECONDS;
+                sealer = provider.schedulePeriodic(this, blockAge, blockAge, unit);
+            }
+        }
+    }
+
+    @Override
+    public void initExtensions(Node node) {
+    }
+
+    /**
+     * @return The number of segments whose file is open.
+     */
+    int countOpenSegments() {
+        int count = 0;
+        for (Segment segment : segments.values()) {
+            if (segment.isOpen()) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Appends a value to the last part of the history of a path, starting
+     * the next part once the last one reached the segment size.
+     */
+    private void append(String path, long ts, Value value, long now) throws IOException {
+        while (true) {
+            Segment segment = segment(path, true);
+            if (segment.size() >= segmentSize) {
+                rollOver(path, segment);
+            } else if (segment.append(ts, value, now, blockAge)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Starts the next part of the history of a path unless another writer
+     * already did. The full part is retired so that writers still holding
+     * it retry with the next part.
+     */
+    private void rollOver(String path, Segment segment) throws IOException {
+        synchronized (segments) {
+            if (segments.get(path) != segment) {
+                return;
+            }
+            segment.retire();
+            Segment next = new Segment(file(path, segment.getPart() + 1), blockSize, segment);
+            next.open();
+            segments.put(path, next);
+        }
+        synchronized (used) {
+            used.remove(segment);
+        }
+        segment.release();
+    }
+
+    /**
+     * @param path   Path of the segment.
+     * @param create Whether to create the segment if it does not exist.
+     * @return The last part of the history of the path, opened along with
+     * the previous parts, or {@code null} if it does not exist and must
+     * not be created.
+     */
+    private Segment segment(String path, boolean create) throws IOException {
+        Segment segment = segments.get(path);
+        if (segment == null) {
+            synchronized (segments) {
+                segment = segments.get(path);
+                if (segment == null) {
+                    File file = file(path, 0);
+                    if (!create && !file.exists()) {
+                        return null;
+                    }
+                    segment = new Segment(file, blockSize);
+                    segment.open();
+                    while ((file = file(path, segment.getPart() + 1)).exists()) {
+                        segment.retire();
+                        segment = new Segment(file, blockSize, segment);
+                        segment.open();
+                    }
+                    segments.put(path, segment);
+                }
+            }
+        }
+        use(segment);
+        return segment;
+    }
+
+    /**
+     * @param path Path of the segment.
+     * @param part Index of the part of the history.
+     * @return The file of the part, the first part has no index in its
+     * name.
+     */
+    private File file(String path, int part) {
+        String name = UrlBase64.encode(path);
+        if (part > 0) {
+            name += "." + part;
+        }
+        return new File(dir, name + EXTENSION);
+    }
+
+    /**
+     * Marks the segment as the most recently used one and releases the
+     * file of the least recently used segment once too many are open.
+     * Segments keep their open blocks in memory when they are released.
+     */
+    private void use(Segment segment) {
+        if (openSegments <= 0) {
+            return;
+        }
+        Segment eldest = null;
+        synchronized (used) {
+            used.put(segment, Boolean.TRUE);
+            if (used.size() > openSegments) {
+                Iterator<Segment> it = used.keySet().iterator();
+                eldest = it.next();
+                it.remove();
+            }
+        }
+        if (eldest != null) {
+            try {
+                eldest.release();
+            } catch (IOException e) {
+                LOGGER.warn("Failed to close {}", eldest.getFile(), e);
+            }
+        }
+    }
+
+    /**
+     * Releases the file of a segment that had to be opened again to write
+     * its open block but is not among the most recently used ones.
+     */
+    private void releaseIfUnused(Segment segment) throws IOException {
+        if (openSegments <= 0) {
+            return;
+        }
+        boolean recent;
+        synchronized (used) {
+            recent = used.containsKey(segment);
+        }
+        if (!recent) {
+            segment.release();
+        }
+    }
+
+    static {
+        String s = PropertyReference.BLOCK_SIZE;
+        BLOCK_SIZE = SystemPropertyUtil.getInt(s, 1024);
+
+        s = PropertyReference.BLOCK_AGE;
+        BLOCK_AGE = SystemPropertyUtil.getInt(s, 60000);
+
+        s = PropertyReference.OPEN_SEGMENTS;
+        OPEN_SEGMENTS = SystemPropertyUtil.getInt(s, 256);
+
+        s = PropertyReference.SEGMENT_SIZE;
+        SEGMENT_SIZE = SystemPropertyUtil.getInt(s, 1 << 30);
+    }
+}
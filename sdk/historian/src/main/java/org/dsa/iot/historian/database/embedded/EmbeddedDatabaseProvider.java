@@ -0,0 +1,74 @@
+package org.dsa.iot.historian.database.embedded;
+
+import org.dsa.iot.dslink.node.Node;
+import org.dsa.iot.dslink.node.NodeBuilder;
+import org.dsa.iot.dslink.node.Permission;
+import org.dsa.iot.dslink.node.actions.Action;
+import org.dsa.iot.dslink.node.actions.ActionResult;
+import org.dsa.iot.dslink.node.actions.Parameter;
+import org.dsa.iot.dslink.node.value.Value;
+import org.dsa.iot.dslink.node.value.ValueType;
+import org.dsa.iot.dslink.util.handler.Handler;
+import org.dsa.iot.historian.database.Database;
+import org.dsa.iot.historian.database.DatabaseProvider;
+import org.dsa.iot.historian.database.Watch;
+
+import java.io.File;
+
+/**
+ * Provides {@link EmbeddedDatabase}s. Every database is stored in a
+ * directory named after its node inside of the root directory.
+ */
+public class EmbeddedDatabaseProvider extends DatabaseProvider {
+
+    private final File root;
+
+    /**
+     * @param root Directory that holds the databases.
+     */
+    public EmbeddedDatabaseProvider(File root) {
+        if (root == null) {
+            throw new NullPointerException("root");
+        }
+        this.root = root;
+    }
+
+    @Override
+    public Action createDbAction(Permission perm) {
+        Action a = new Action(perm, new Handler<ActionResult>() {
+            @Override
+            public void handle(ActionResult event) {
+                Value vName = event.getParameter("Name", ValueType.STRING);
+                String name = vName.getString();
+
+                NodeBuilder b = createDbNode(name, event);
+                createAndInitDb(b.build());
+            }
+        });
+        {
+            Parameter p = new Parameter("Name", ValueType.STRING);
+            p.setDescription("Name of the database directory");
+            a.addParameter(p);
+        }
+        return a;
+    }
+
+    @Override
+    protected Database createDb(Node node) {
+        File dir = new File(root, node.getName());
+        return new EmbeddedDatabase(node.getName(), this, dir);
+    }
+
+    @Override
+    public Permission dbPermission() {
+        return Permission.CONFIG;
+    }
+
+    @Override
+    public void deleteRange(Watch watch, long fromTs, long toTs) {
+        Database db = watch.getGroup().getDb();
+        if (db instanceof EmbeddedDatabase) {
+            db.deleteRange(watch.getPath(), fromTs, toTs);
+        }
+    }
+}
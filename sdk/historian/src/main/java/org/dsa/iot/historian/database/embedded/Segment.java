@@ -0,0 +1,676 @@
+package org.dsa.iot.historian.database.embedded;
+
+import org.dsa.iot.dslink.node.value.Value;
+import org.dsa.iot.historian.utils.QueryData;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Append-only file that holds the history of a single path. The file
+ * starts with a magic number and a version followed by sealed blocks.
+ * Values are collected in an open block in memory and appended to the
+ * file once the block is full, too old or the segment is closed.
+ * <p>
+ * Every sealed block is forced to the storage device before the next
+ * one is appended.
+ * <p>
+ * The headers of all sealed blocks are kept in memory so that queries
+ * only decode the blocks that overlap the queried time range. The sealed
+ * blocks are mapped once and the mapping is shared by all queries until
+ * blocks past its end are needed. The file itself can be
+ * {@link #release() released} while the segment is idle and is opened
+ * again when it is needed.
+ * <p>
+ * A file must stay below 2GB to be mapped, so the history of a path is
+ * split into parts. Every part is a segment that links to the previous
+ * part, only the last part is written to and queries read all of them.
+ */
+final class Segment {
+
+    static final int MAGIC = 0x44534854;
+    static final int VERSION = 2;
+
+    private static final int FILE_HEADER_SIZE = 8;
+
+    private final File file;
+    private final int blockSize;
+    private final Segment previous;
+    private final List<Block.Header> blocks = new ArrayList<>();
+    private FileChannel channel;
+    private MappedByteBuffer mapping;
+    private boolean closed = true;
+    private boolean retired;
+    private long end;
+
+    private Block.Encoder open;
+    private long openedAt;
+
+    /**
+     * @param file      File of the segment.
+     * @param blockSize Number of samples that seals a block.
+     */
+    Segment(File file, int blockSize) {
+        this(file, blockSize, null);
+    }
+
+    /**
+     * @param file      File of the segment.
+     * @param blockSize Number of samples that seals a block.
+     * @param previous  Previous part of the history, {@code null} if this
+     *                  is the first one.
+     */
+    Segment(File file, int blockSize, Segment previous) {
+        this.file = file;
+        this.blockSize = Math.max(blockSize, 1);
+        this.previous = previous;
+    }
+
+    File getFile() {
+        return file;
+    }
+
+    /**
+     * @return Index of this part of the history, 0 for the first one.
+     */
+    int getPart() {
+        return previous == null ? 0 : previous.getPart() + 1;
+    }
+
+    /**
+     * @return Size of the sealed blocks in the file.
+     */
+    synchronized long size() {
+        return end;
+    }
+
+    /**
+     * Opens the file and reads the headers of all blocks. The file is cut
+     * off at the first block that was only partially written or whose
+     * payload does not match its checksum.
+     *
+     * @throws IOException The file could not be opened or is not a
+     *                     segment.
+     */
+    synchronized void open() throws IOException {
+        blocks.clear();
+        mapping = null;
+        @SuppressWarnings("resource")
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        channel = raf.getChannel();
+        closed = false;
+        try {
+            long size = channel.size();
+            if (size < FILE_HEADER_SIZE) {
+                ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_SIZE);
+                header.putInt(MAGIC).putInt(VERSION).flip();
+                channel.truncate(0);
+                writeFully(header, 0);
+                end = FILE_HEADER_SIZE;
+                return;
+            }
+
+            ByteBuffer header = ByteBuffer.allocate(Block.HEADER_SIZE);
+            readFully(header, 0, FILE_HEADER_SIZE);
+            if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+                throw new IOException("Not a segment: " + file);
+            }
+
+            long pos = FILE_HEADER_SIZE;
+            while (pos + Block.HEADER_SIZE <= size) {
+                readFully(header, pos, Block.HEADER_SIZE);
+                Block.Header block = Block.readHeader(header, pos);
+                if (block == null || block.end() > size) {
+                    break;
+                }
+                blocks.add(block);
+                pos = block.end();
+            }
+            pos = verify(pos);
+            if (pos < size) {
+                channel.truncate(pos);
+            }
+            end = pos;
+        } catch (IOException e) {
+            channel.close();
+            channel = null;
+            closed = true;
+            throw e;
+        }
+    }
+
+    /**
+     * @param ts    Timestamp of the value.
+     * @param value Value to store.
+     * @param now   Current time, used to seal blocks that are too old.
+     * @param maxAge Milliseconds an open block may exist before it is
+     *               sealed, 0 or less to only seal full blocks.
+     * @return Whether the value was stored, false if the segment was
+     * {@link #retire() retired} and the value must go to the next part.
+     * @throws IOException A sealed block failed to be written.
+     */
+    synchronized boolean append(long ts, Value value, long now, long maxAge) throws IOException {
+        if (retired) {
+            return false;
+        }
+        byte kind = Block.kindOf(value);
+        if (open != null && (open.getKind() != kind || open.getCount() >= blockSize)) {
+            seal();
+        }
+        if (open == null) {
+            open = new Block.Encoder(kind, Math.min(blockSize, 64));
+            openedAt = now;
+        }
+        open.add(ts, value);
+        if (open.getCount() >= blockSize || (maxAge > 0 && now - openedAt >= maxAge)) {
+            seal();
+        }
+        return true;
+    }
+
+    /**
+     * Seals the open block and rejects further values, used once the next
+     * part of the history takes over.
+     *
+     * @throws IOException The open block failed to be written.
+     */
+    synchronized void retire() throws IOException {
+        seal();
+        retired = true;
+    }
+
+    /**
+     * Seals the open block if it exists for at least {@code maxAge}.
+     *
+     * @throws IOException The block failed to be written.
+     */
+    synchronized void sealIfOlder(long now, long maxAge) throws IOException {
+        if (open != null && now - openedAt >= maxAge) {
+            seal();
+        }
+    }
+
+    /**
+     * Writes the open block to the file.
+     *
+     * @throws IOException The block failed to be written.
+     */
+    synchronized void seal() throws IOException {
+        if (open == null || open.getCount() == 0) {
+            open = null;
+            return;
+        }
+        Block.Encoder block = open;
+        open = null;
+        end = append(block);
+        channel().force(false);
+    }
+
+    /**
+     * Queries all values between {@code from} and {@code to}, both
+     * inclusive, of this and all previous parts. Values are given in
+     * timestamp order. The values are decoded outside of the lock of the
+     * segment so that writes are not blocked by slow handlers. A
+     * {@link Block.NumberVisitor} receives the numbers of sealed blocks
+     * as primitives when they can be given in order.
+     *
+     * @param visitor Receives the values.
+     * @throws IOException The file failed to be mapped.
+     */
+    void query(final long from, final long to, final Block.Visitor visitor) throws IOException {
+        List<Match> matches = new ArrayList<>();
+        if (previous != null) {
+            previous.match(from, to, matches);
+        }
+        List<Sample> pending = null;
+        boolean streamable = true;
+        synchronized (this) {
+            match(from, to, matches);
+            long last = Long.MIN_VALUE;
+            for (Match match : matches) {
+                Block.Header block = match.block;
+                streamable &= block.sorted && block.minTs >= last;
+                last = block.maxTs;
+            }
+            if (open != null && open.getMinTs() <= to && open.getMaxTs() >= from) {
+                streamable &= open.isSorted() && open.getMinTs() >= last;
+                pending = new ArrayList<>();
+                open.visit(collect(from, to, pending));
+            }
+        }
+
+        if (streamable) {
+            Block.Visitor filter = new Block.Visitor() {
+                @Override
+                public boolean visit(long ts, Value value) {
+                    if (ts > to) {
+                        return false;
+                    }
+                    return ts < from || visitor.visit(ts, value);
+                }
+            };
+            Block.NumberVisitor numbers = null;
+            if (visitor instanceof Block.NumberVisitor) {
+                numbers = (Block.NumberVisitor) visitor;
+            }
+            long[] times = null;
+            double[] values = null;
+            for (Match match : matches) {
+                Block.Header block = match.block;
+                if (numbers == null || block.kind == Block.KIND_GENERIC) {
+                    if (!match.decode(filter)) {
+                        return;
+                    }
+                    continue;
+                }
+                if (times == null || times.length < block.count) {
+                    times = new long[block.count];
+                    values = new double[block.count];
+                }
+                match.decode(times, values);
+                boolean whole = block.kind == Block.KIND_LONG;
+                for (int i = 0; i < block.count; i++) {
+                    long ts = times[i];
+                    if (ts > to) {
+                        return;
+                    }
+                    if (ts >= from && !numbers.visit(ts, values[i], whole)) {
+                        return;
+                    }
+                }
+            }
+            if (pending != null) {
+                for (Sample s : pending) {
+                    if (!visitor.visit(s.ts, s.value)) {
+                        return;
+                    }
+                }
+            }
+            return;
+        }
+
+        List<Sample> samples = new ArrayList<>();
+        Block.Visitor collector = collect(from, to, samples);
+        for (Match match : matches) {
+            match.decode(collector);
+        }
+        if (pending != null) {
+            samples.addAll(pending);
+        }
+        Collections.sort(samples, Sample.ORDER);
+        for (Sample s : samples) {
+            if (!visitor.visit(s.ts, s.value)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return The value with the lowest timestamp, the earliest written
+     * value if several share it.
+     * @throws IOException The file failed to be mapped.
+     */
+    QueryData first() throws IOException {
+        QueryData first = previous == null ? null : previous.first();
+        QueryData own = edge(true);
+        if (first == null || (own != null && own.getTimestamp() < first.getTimestamp())) {
+            return own;
+        }
+        return first;
+    }
+
+    /**
+     * @return The value with the highest timestamp, the latest written
+     * value if several share it.
+     * @throws IOException The file failed to be mapped.
+     */
+    QueryData last() throws IOException {
+        QueryData last = previous == null ? null : previous.last();
+        QueryData own = edge(false);
+        if (last == null || (own != null && own.getTimestamp() >= last.getTimestamp())) {
+            return own;
+        }
+        return last;
+    }
+
+    /**
+     * Removes all values between {@code from} and {@code to}, both
+     * inclusive, from this and all previous parts. Blocks outside of the
+     * range are copied as they are, blocks partially inside of it are
+     * encoded again.
+     *
+     * @throws IOException The segment failed to be rewritten.
+     */
+    synchronized void deleteRange(final long from, final long to) throws IOException {
+        if (previous != null) {
+            previous.deleteRange(from, to);
+        }
+        seal();
+        boolean affected = false;
+        for (Block.Header block : blocks) {
+            affected |= block.overlaps(from, to);
+        }
+        if (!affected) {
+            return;
+        }
+
+        File tmp = new File(file.getPath() + ".tmp");
+        Segment copy = new Segment(tmp, blockSize);
+        Files.deleteIfExists(tmp.toPath());
+        copy.open();
+        try {
+            ByteBuffer map = map(end);
+            for (Block.Header block : blocks) {
+                if (!block.overlaps(from, to)) {
+                    ByteBuffer raw = map.duplicate();
+                    raw.limit((int) block.end());
+                    raw.position((int) block.position);
+                    long position = copy.end;
+                    copy.end = copy.writeFully(raw, position);
+                    copy.blocks.add(new Block.Header(position, block.length,
+                            block.count, block.minTs, block.maxTs,
+                            block.kind, block.sorted, block.crc));
+                } else if (block.minTs < from || block.maxTs > to) {
+                    final Block.Encoder kept = new Block.Encoder(block.kind, block.count);
+                    Block.decode(map, block, (int) block.payload(), new Block.Visitor() {
+                        @Override
+                        public boolean visit(long ts, Value value) {
+                            if (ts < from || ts > to) {
+                                kept.add(ts, value);
+                            }
+                            return true;
+                        }
+                    });
+                    if (kept.getCount() > 0) {
+                        copy.end = copy.append(kept);
+                    }
+                }
+            }
+            copy.close();
+        } catch (IOException e) {
+            copy.close();
+            Files.deleteIfExists(tmp.toPath());
+            throw e;
+        }
+
+        release();
+        try {
+            Files.move(tmp.toPath(), file.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            // Opens the copy or, if it failed to replace the file, the
+            // original file again.
+            open();
+        }
+    }
+
+    /**
+     * Seals the open block and closes the files of this and all previous
+     * parts.
+     *
+     * @throws IOException The open block failed to be written.
+     */
+    synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        try {
+            seal();
+            channel().force(true);
+        } finally {
+            closed = true;
+            release();
+            if (previous != null) {
+                previous.close();
+            }
+        }
+    }
+
+    /**
+     * Closes the files of this and all previous parts but keeps the open
+     * block and the block headers in memory. The files are opened again
+     * once they are needed.
+     *
+     * @throws IOException A file failed to be closed.
+     */
+    synchronized void release() throws IOException {
+        mapping = null;
+        if (channel != null) {
+            FileChannel c = channel;
+            channel = null;
+            c.close();
+        }
+        if (previous != null) {
+            previous.release();
+        }
+    }
+
+    /**
+     * @return Whether the file of this or a previous part is open.
+     */
+    synchronized boolean isOpen() {
+        return channel != null || (previous != null && previous.isOpen());
+    }
+
+    /**
+     * @return The first or last value of this part only.
+     */
+    private QueryData edge(final boolean first) throws IOException {
+        Block.Header best = null;
+        ByteBuffer map;
+        final QueryData[] result = new QueryData[1];
+        synchronized (this) {
+            for (Block.Header block : blocks) {
+                if (best == null
+                        || (first && block.minTs < best.minTs)
+                        || (!first && block.maxTs >= best.maxTs)) {
+                    best = block;
+                }
+            }
+            if (open != null && (best == null
+                    || (first && open.getMinTs() < best.minTs)
+                    || (!first && open.getMaxTs() >= best.maxTs))) {
+                final long target = first ? open.getMinTs() : open.getMaxTs();
+                open.visit(find(target, first, result));
+                return result[0];
+            }
+            if (best == null) {
+                return null;
+            }
+            map = map(best.end());
+        }
+        long target = first ? best.minTs : best.maxTs;
+        Block.decode(map, best, (int) best.payload(), find(target, first, result));
+        return result[0];
+    }
+
+    /**
+     * @return The end of the file after the block was appended.
+     */
+    private long append(Block.Encoder block) throws IOException {
+        ByteBuffer buf = block.toBuffer();
+        long position = end;
+        Block.Header header = Block.readHeader(buf.duplicate(), position);
+        long newEnd = writeFully(buf, position);
+        blocks.add(header);
+        return newEnd;
+    }
+
+    /**
+     * Drops the blocks from the first one whose payload does not match
+     * its checksum.
+     *
+     * @param end End of the last block.
+     * @return The end of the last intact block.
+     */
+    private long verify(long end) throws IOException {
+        if (blocks.isEmpty()) {
+            return end;
+        }
+        ByteBuffer payload = null;
+        for (int i = 0; i < blocks.size(); i++) {
+            Block.Header block = blocks.get(i);
+            if (payload == null || payload.capacity() < block.length) {
+                payload = ByteBuffer.allocate(block.length);
+            }
+            readFully(payload, block.payload(), block.length);
+            if (!Block.verify(payload, block, 0)) {
+                blocks.subList(i, blocks.size()).clear();
+                return block.position;
+            }
+        }
+        return end;
+    }
+
+    /**
+     * Adds the sealed blocks of this part that overlap the range, must be
+     * called after the blocks of the previous parts were added.
+     */
+    private synchronized void match(long from, long to, List<Match> matches) throws IOException {
+        long size = 0;
+        int first = matches.size();
+        for (Block.Header block : blocks) {
+            if (block.overlaps(from, to)) {
+                matches.add(new Match(block));
+                size = block.end();
+            }
+        }
+        if (size > 0) {
+            ByteBuffer map = map(size);
+            for (int i = first; i < matches.size(); i++) {
+                matches.get(i).map = map;
+            }
+        }
+    }
+
+    /**
+     * Maps the sealed blocks of the file. The mapping is shared by queries,
+     * which only use absolute reads, and is only replaced once a block
+     * past its end is needed. Replaced mappings are unmapped once the
+     * queries that still read them are done.
+     *
+     * @param size Bytes from the start of the file that must be mapped.
+     */
+    private ByteBuffer map(long size) throws IOException {
+        if (mapping == null || mapping.capacity() < size) {
+            if (end > Integer.MAX_VALUE) {
+                throw new IOException("Segment too large: " + file);
+            }
+            mapping = channel().map(FileChannel.MapMode.READ_ONLY, 0, end);
+        }
+        return mapping;
+    }
+
+    /**
+     * @return The channel of the file, opened again if it was released.
+     */
+    private FileChannel channel() throws IOException {
+        if (closed) {
+            throw new IOException("Segment closed: " + file);
+        } else if (channel == null) {
+            @SuppressWarnings("resource")
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            channel = raf.getChannel();
+        }
+        return channel;
+    }
+
+    private long writeFully(ByteBuffer buf, long position) throws IOException {
+        while (buf.hasRemaining()) {
+            position += channel().write(buf, position);
+        }
+        return position;
+    }
+
+    private void readFully(ByteBuffer buf, long position, int length) throws IOException {
+        buf.clear();
+        buf.limit(length);
+        while (buf.hasRemaining()) {
+            if (channel().read(buf, position + buf.position()) < 0) {
+                throw new IOException("Unexpected end of segment: " + file);
+            }
+        }
+        buf.flip();
+    }
+
+    private static Block.Visitor collect(final long from, final long to,
+                                         final List<Sample> samples) {
+        return new Block.Visitor() {
+            @Override
+            public boolean visit(long ts, Value value) {
+                if (ts >= from && ts <= to) {
+                    samples.add(new Sample(ts, value));
+                }
+                return true;
+            }
+        };
+    }
+
+    private static Block.Visitor find(final long target, final boolean first,
+                                      final QueryData[] result) {
+        return new Block.Visitor() {
+            @Override
+            public boolean visit(long ts, Value value) {
+                if (ts == target) {
+                    result[0] = new QueryData(value, ts);
+                    return !first;
+                }
+                return true;
+            }
+        };
+    }
+
+    /**
+     * Sealed block found by a query and the mapping of its part.
+     */
+    private static final class Match {
+
+        final Block.Header block;
+        ByteBuffer map;
+
+        Match(Block.Header block) {
+            this.block = block;
+        }
+
+        boolean decode(Block.Visitor visitor) {
+            return Block.decode(map, block, (int) block.payload(), visitor);
+        }
+
+        void decode(long[] times, double[] values) {
+            Block.decode(map, block, (int) block.payload(), times, values);
+        }
+    }
+
+    private static final class Sample {
+
+        /**
+         * Orders by timestamp, {@link Collections#sort} keeps the write
+         * order of equal timestamps.
+         */
+        static final Comparator<Sample> ORDER = new Comparator<Sample>() {
+            @Override
+            public int compare(Sample a, Sample b) {
+                return Long.compare(a.ts, b.ts);
+            }
+        };
+
+        final long ts;
+        final Value value;
+
+        Sample(long ts, Value value) {
+            this.ts = ts;
+            this.value = value;
+        }
+    }
+}
@@ -10,17 +10,20 @@ import org.dsa.iot.dslink.node.actions.table.Row;
 import org.dsa.iot.dslink.node.actions.table.Table;
 import org.dsa.iot.dslink.node.value.Value;
 import org.dsa.iot.dslink.node.value.ValueType;
-import org.dsa.iot.dslink.provider.LoopProvider;
 import org.dsa.iot.dslink.util.*;
 import org.dsa.iot.dslink.util.handler.CompleteHandler;
 import org.dsa.iot.dslink.util.handler.Handler;
 import org.dsa.iot.historian.database.Database;
+import org.dsa.iot.historian.database.RollupCapable;
 import org.dsa.iot.historian.database.Watch;
 import org.dsa.iot.historian.stats.interval.IntervalParser;
 import org.dsa.iot.historian.stats.interval.IntervalProcessor;
 import org.dsa.iot.historian.stats.rollup.Rollup;
+import org.dsa.iot.historian.stats.tier.RollupTiers;
+import org.dsa.iot.historian.stats.tier.Tier;
 import org.dsa.iot.historian.utils.QueryData;
 import java.util.*;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
 
 /**
  * @author Samuel Grenier
@@ -84,7 +87,9 @@ public class GetHistory implements Handler<ActionResult> {
                            final IntervalParser parser) {
         final IntervalProcessor interval = IntervalProcessor.parse(
                 parser, rollup, from.getTimeZone());
-        LoopProvider.getProvider().schedule(new Runnable() {
+        // Adding rows blocks while the table is full, which must not
+        // happen on the threads of the loop provider that write the table.
+        QueryPool.EXECUTOR.execute(new Runnable() {
 
             private boolean open = true;
             Handler<QueryData> handler;
@@ -105,11 +110,17 @@ public class GetHistory implements Handler<ActionResult> {
                         }
                     }
                 });
-                
-                
 
-                query(from.getTimeInMillis(), to.getTimeInMillis(), rollup, parser,
-                        new CompleteHandler<QueryData>() {
+                // When the intervals are rolled up from summaries or by the
+                // database itself, every value returned is already a
+                // finished interval.
+                final TimeZone timeZone = from.getTimeZone();
+                final RollupTiers tiers = realTime ? null : getRollupTiers(event);
+                final Tier tier = tiers == null ? null : tiers.select(parser, rollup, timeZone);
+                final boolean pushDown = tier != null
+                        || isRollupPushedDown(rollup, parser, realTime);
+                final IntervalProcessor rows = pushDown ? null : interval;
+                CompleteHandler<QueryData> queryHandler = new CompleteHandler<QueryData>() {
 
                     private List<QueryData> updates = new LinkedList<>();
 
@@ -119,7 +130,7 @@ public class GetHistory implements Handler<ActionResult> {
                         if (updates != null) {
                             updates.add(data);
                             if (updates.size() >= 500) {
-                                processQueryData(table, interval, updates, calendar, buffer);
+                                processQueryData(table, rows, updates, calendar, buffer);
                             }
                         }
                     }
@@ -127,13 +138,13 @@ public class GetHistory implements Handler<ActionResult> {
                     @Override
                     public void complete() {
                         if (!updates.isEmpty()) {
-                            processQueryData(table, interval, updates, calendar, buffer);
+                            processQueryData(table, rows, updates, calendar, buffer);
                         }
                         updates = null;
 
                         if (!realTime) {
-                            if (interval != null) {
-                                Row row = interval.complete();
+                            if (rows != null) {
+                                Row row = rows.complete();
                                 if (row != null) {
                                     table.addRow(row);
                                 }
@@ -143,7 +154,7 @@ public class GetHistory implements Handler<ActionResult> {
                             handler = new Handler<QueryData>() {
                                 @Override
                                 public void handle(QueryData event) {
-                                    processQueryData(table, interval, event, calendar, buffer);
+                                    processQueryData(table, rows, event, calendar, buffer);
                                 }
                             };
                             table.sendReady();
@@ -151,7 +162,17 @@ public class GetHistory implements Handler<ActionResult> {
                             w.addHandler(handler);
                         }
                     }
-                });
+                };
+
+                long fromTs = from.getTimeInMillis();
+                long toTs = to.getTimeInMillis();
+                if (tier != null) {
+                    tiers.query(path, fromTs, toTs, tier, parser, rollup, timeZone, queryHandler);
+                } else if (pushDown) {
+                    queryRollup(fromTs, toTs, rollup, parser, timeZone, queryHandler);
+                } else {
+                    query(fromTs, toTs, rollup, parser, queryHandler);
+                }
             }
         });
     }
@@ -164,6 +185,41 @@ public class GetHistory implements Handler<ActionResult> {
         db.query(path, from, to, handler);
     }
 
+    /**
+     * @return The summaries of the watch of the invoked action or
+     * {@code null} if there are none.
+     */
+    protected RollupTiers getRollupTiers(ActionResult event) {
+        Object meta = event.getNode().getParent().getMetaData();
+        if (meta instanceof Watch) {
+            return ((Watch) meta).getGroup().getRollupTiers();
+        }
+        return null;
+    }
+
+    /**
+     * @return Whether the rollup of the query is calculated by the
+     * database rather than from the raw values. Real time queries always
+     * use the raw values so that new values continue the last interval.
+     */
+    protected boolean isRollupPushedDown(Rollup.Type type,
+                                         IntervalParser parser,
+                                         boolean realTime) {
+        if (realTime || parser == null || type == null || type == Rollup.Type.NONE) {
+            return false;
+        }
+        return db instanceof RollupCapable && ((RollupCapable) db).supportsRollup(type);
+    }
+
+    protected void queryRollup(long from,
+                               long to,
+                               Rollup.Type type,
+                               IntervalParser parser,
+                               TimeZone timeZone,
+                               CompleteHandler<QueryData> handler) {
+        ((RollupCapable) db).queryRollup(path, from, to, parser, type, timeZone, handler);
+    }
+
     protected void processQueryData(Table table,
                                     IntervalProcessor interval,
                                     Collection<QueryData> data,
@@ -298,4 +354,12 @@ public class GetHistory implements Handler<ActionResult> {
         act.setResultType(ResultType.STREAM);
     }
 
+    /**
+     * Threads history queries are run on.
+     */
+    private static class QueryPool {
+
+        private static final ScheduledThreadPoolExecutor EXECUTOR
+                = org.dsa.iot.dslink.util.Objects.createDaemonThreadPool();
+    }
 }
@@ -8,6 +8,11 @@ import java.util.*;
  */
 public class IntervalParser {
 
+    private static final long SECOND = 1000;
+    private static final long MINUTE = 60 * SECOND;
+    private static final long HOUR = 60 * MINUTE;
+    private static final long DAY = 24 * HOUR;
+
     private int seconds = -1;
     private boolean alignSeconds;
 
@@ -104,6 +109,92 @@ public class IntervalParser {
         return modified;
     }
 
+    /**
+     * @return Milliseconds of the finest calendar unit the intervals are
+     * aligned to or 0 if they are not aligned. Days and longer units all
+     * return the length of a day.
+     */
+    public long getAlignment() {
+        if (alignSeconds) {
+            return 1000;
+        } else if (alignMinutes) {
+            return 60 * 1000;
+        } else if (alignHours) {
+            return 60 * 60 * 1000;
+        } else if (alignDays || alignWeeks || alignMonths || alignYears) {
+            return 24 * 60 * 60 * 1000;
+        }
+        return 0;
+    }
+
+    /**
+     * Intervals of seconds, minutes, hours and days have the same length
+     * in local time so they can be aligned and advanced without a calendar.
+     *
+     * @return Whether the interval has no weeks, months or years.
+     * @see #alignLocal(long)
+     * @see #getFixedTime()
+     * @see #getFixedDays()
+     */
+    public boolean isFixed() {
+        return weeks < 0 && months < 0 && years < 0;
+    }
+
+    /**
+     * Aligns a local time, the milliseconds since the epoch of the time
+     * shown by a wall clock, the same way {@link #alignTime(Calendar)}
+     * aligns a calendar. Only valid for {@link #isFixed() fixed} intervals.
+     *
+     * @param local Local time to align.
+     * @return The aligned local time.
+     */
+    public long alignLocal(long local) {
+        if (alignSeconds) {
+            long minute = Math.floorDiv(local, MINUTE) * MINUTE;
+            long second = (local - minute) / SECOND;
+            local = minute + (second - second % seconds) * SECOND;
+        }
+        if (alignMinutes) {
+            long hour = Math.floorDiv(local, HOUR) * HOUR;
+            long minute = (local - hour) / MINUTE;
+            local = hour + (minute - minute % minutes) * MINUTE;
+        }
+        if (alignHours) {
+            local = Math.floorDiv(local, HOUR) * HOUR;
+        }
+        if (alignDays) {
+            local = Math.floorDiv(local, DAY) * DAY;
+        }
+        return local;
+    }
+
+    /**
+     * @return Milliseconds of the seconds, minutes and hours of the
+     * interval, which {@link #nextInterval(Calendar)} adds regardless of
+     * the local time.
+     */
+    public long getFixedTime() {
+        long time = 0;
+        if (seconds > 0) {
+            time += seconds * SECOND;
+        }
+        if (minutes > 0) {
+            time += minutes * MINUTE;
+        }
+        if (hours > 0) {
+            time += hours * HOUR;
+        }
+        return time;
+    }
+
+    /**
+     * @return Days of the interval, which {@link #nextInterval(Calendar)}
+     * adds after the {@link #getFixedTime() time} keeping the local time.
+     */
+    public int getFixedDays() {
+        return days > 0 ? days : 0;
+    }
+
     private void update(char interval, String number) {
         int num = Integer.parseInt(number);
         switch (interval) {
@@ -12,9 +12,34 @@ import java.util.*;
  */
 public class IntervalProcessor {
 
+    /**
+     * Time zones are assumed not to change their offset twice within this
+     * many milliseconds, so an offset that is the same at both ends is the
+     * offset of the whole range.
+     */
+    private static final long STABLE = 2 * 24 * 60 * 60 * 1000;
+
+    /**
+     * More than any daylight saving shift. Local times within this many
+     * milliseconds of an offset change can be ambiguous.
+     */
+    private static final long SHIFT = 6 * 60 * 60 * 1000;
+
+    private static final int UNSTABLE = Integer.MIN_VALUE;
+
+    private static final long SAME = -1; // Still in the current interval.
+    private static final long OLDER = -2; // Before the current interval.
+
     private Calendar calendar; // Calendar with the correct timezone.
+    private final TimeZone timeZone;
+    private final boolean fixed; // Whether intervals can skip the calendar.
+    private long stableFrom = Long.MAX_VALUE; // Range with a single offset.
+    private long stableTo = Long.MIN_VALUE;
+    private int stableOffset;
+    private final char[] chars = new char[TimeUtils.MAX_ENCODED_LENGTH];
     private long currentInterval = -1;  //Timestamp of the current interval.
     private QueryData lastValue; // The last value of the current interval.
+    private boolean hasValue; // Whether the current interval has data.
     private long nextInterval = -1; //Timestamp of the next interval.
     private final IntervalParser parser;
     private final Rollup rollup;
@@ -24,6 +49,8 @@ public class IntervalProcessor {
                               TimeZone timeZone) {
         this.parser = parser;
         this.rollup = rollup;
+        this.timeZone = timeZone;
+        this.fixed = parser.isFixed();
         calendar = Calendar.getInstance();
         calendar.setTimeZone(timeZone);
     }
@@ -37,45 +64,78 @@ public class IntervalProcessor {
      * @return The last interval, or null.
      */
     public Row getRowUpdate(QueryData data, long fullTs) {
-        calendar.setTimeInMillis(fullTs);
-        parser.alignTime(calendar);
-        long alignedTs = calendar.getTimeInMillis();
-        if (currentInterval < 0) {
-            currentInterval = alignedTs;
-            parser.nextInterval(calendar);
-            nextInterval = calendar.getTimeInMillis();
-        }
-        Row row = null;
-        if (alignedTs < currentInterval) { //Out of order timestamp, ignore it.
+        return makeRow(update(data, fullTs));
+    }
+
+    /**
+     * Same as {@link #getRowUpdate(QueryData, long)} but the finished
+     * interval is returned as the value of the interval with the timestamp
+     * of the start of the interval.
+     *
+     * @param data   Value retrieved from the database.
+     * @param fullTs Full timestamp of the value.
+     * @return The last interval, or null.
+     */
+    public QueryData update(QueryData data, long fullTs) {
+        long left = moveTo(fullTs);
+        if (left == OLDER) { //Out of order timestamp, ignore it.
             return null;
         }
-        if (alignedTs < nextInterval) { // Update the current interval
+        QueryData done = null;
+        if (left != SAME) { // Finish the last interval
+            if (hasValue) {
+                if (rollup == null) {
+                    done = new QueryData(data.getValue(), left);
+                } else {
+                    done = new QueryData(rollup.getValue(), left);
+                }
+            }
             if (rollup != null) {
-                rollup.update(data.getValue(), currentInterval);
+                rollup.reset();
             }
-            lastValue = data;
-            return null;
         }
-        if (lastValue != null) { // Finish the last interval
-            if (rollup == null) {
-                row = makeRow(data.getValue(), currentInterval);
+        if (rollup != null) {
+            rollup.update(data.getValue(), currentInterval);
+        }
+        lastValue = data;
+        hasValue = true;
+        return done;
+    }
+
+    /**
+     * Same as {@link #update(QueryData, long)} but numbers are given to a
+     * {@link PrimitiveRollup} without creating a value for each of them.
+     *
+     * @param value  Number retrieved from the database.
+     * @param whole  Whether the number was stored as a whole number.
+     * @param fullTs Full timestamp of the number.
+     * @return The last interval, or null.
+     */
+    public QueryData update(double value, boolean whole, long fullTs) {
+        if (!(rollup instanceof PrimitiveRollup)) {
+            Value v;
+            if (whole) {
+                v = new Value((long) value, fullTs);
             } else {
-                row = makeRow(rollup.getValue(), currentInterval);
+                v = new Value(value, fullTs);
             }
-            lastValue = null;
+            return update(new QueryData(v, fullTs), fullTs);
         }
-        while (alignedTs >= nextInterval) { //Advance to the next interval
-            currentInterval = nextInterval;
-            calendar.setTimeInMillis(currentInterval);
-            parser.nextInterval(calendar);
-            nextInterval = calendar.getTimeInMillis();
+        PrimitiveRollup primitive = (PrimitiveRollup) rollup;
+        long left = moveTo(fullTs);
+        if (left == OLDER) {
+            return null;
         }
-        if (rollup != null) {
-            rollup.reset();
-            rollup.update(data.getValue(), currentInterval);
+        QueryData done = null;
+        if (left != SAME) {
+            if (hasValue) {
+                done = new QueryData(primitive.getValue(), left);
+            }
+            primitive.reset();
         }
-        lastValue = data;
-        return row;
+        primitive.update(value, whole, currentInterval);
+        hasValue = true;
+        return done;
     }
 
     /**
@@ -83,28 +143,156 @@ public class IntervalProcessor {
      * interval has no data.
      */
     public Row complete() {
-        if (lastValue == null) { //There is no data in the current interval.
+        return makeRow(completeInterval());
+    }
+
+    /**
+     * Same as {@link #complete()} but the current interval is returned as
+     * the value of the interval with the timestamp of the start of the
+     * interval.
+     */
+    public QueryData completeInterval() {
+        if (!hasValue) { //There is no data in the current interval.
             return null;
         }
         // Finish the current interval
-        Row row = null;
+        QueryData done;
         if (rollup == null) {
-            row = makeRow(lastValue.getValue(), currentInterval);
+            done = new QueryData(lastValue.getValue(), currentInterval);
         } else {
-            row = makeRow(rollup.getValue(), currentInterval);
+            done = new QueryData(rollup.getValue(), currentInterval);
         }
         lastValue = null;
-        return row;
+        hasValue = false;
+        return done;
+    }
+
+    /**
+     * Moves to the interval of a timestamp. Timestamps within the current
+     * interval are compared without aligning them, so a sorted query only
+     * aligns once per interval.
+     *
+     * @param fullTs Full timestamp of a value.
+     * @return The start of the interval that was left, {@link #SAME} if
+     * the timestamp is in the current interval or {@link #OLDER} if it is
+     * before it.
+     */
+    private long moveTo(long fullTs) {
+        if (fullTs >= currentInterval && fullTs < nextInterval) {
+            return SAME;
+        }
+        long alignedTs = align(fullTs);
+        if (currentInterval < 0) {
+            currentInterval = alignedTs;
+            nextInterval = next(alignedTs);
+            return SAME;
+        }
+        if (alignedTs < currentInterval) {
+            return OLDER;
+        } else if (alignedTs < nextInterval) {
+            return SAME;
+        }
+        long left = currentInterval;
+        while (alignedTs >= nextInterval) { //Advance to the next interval
+            currentInterval = nextInterval;
+            nextInterval = next(currentInterval);
+        }
+        return left;
+    }
+
+    private Row makeRow(QueryData data) {
+        if (data == null) {
+            return null;
+        }
+        return makeRow(data.getValue(), data.getTimestamp());
     }
 
     private Row makeRow(Value value, long ts) {
         Row row = new Row();
-        calendar.setTimeInMillis(ts);
-        row.addValue(new Value(TimeUtils.encode(calendar, true, null).toString()));
+        int len = TimeUtils.encode(ts, timeZone, true, chars, 0);
+        row.addValue(new Value(new String(chars, 0, len)));
         row.addValue(value);
         return row;
     }
 
+    /**
+     * Aligns a timestamp in local time when the interval is fixed and the
+     * local time is unambiguous, otherwise with the calendar.
+     */
+    private long align(long ts) {
+        if (fixed) {
+            int offset = getOffset(ts);
+            if (offset != UNSTABLE) {
+                long aligned = parser.alignLocal(ts + offset) - offset;
+                if (getOffset(aligned) == offset) {
+                    return aligned;
+                }
+            }
+        }
+        calendar.setTimeInMillis(ts);
+        parser.alignTime(calendar);
+        return calendar.getTimeInMillis();
+    }
+
+    /**
+     * The calendar adds the time of an interval as is and the days keeping
+     * the local time, which is the same as adding them as is when the
+     * offset does not change.
+     */
+    private long next(long start) {
+        if (fixed) {
+            long time = start + parser.getFixedTime();
+            long days = parser.getFixedDays();
+            if (days == 0) {
+                return time;
+            }
+            int offset = getOffset(time);
+            if (offset != UNSTABLE) {
+                long next = time + days * 24 * 60 * 60 * 1000;
+                if (getOffset(next) == offset) {
+                    return next;
+                }
+            }
+        }
+        calendar.setTimeInMillis(start);
+        parser.nextInterval(calendar);
+        return calendar.getTimeInMillis();
+    }
+
+    /**
+     * @return The offset of the time zone or {@link #UNSTABLE} if the
+     * offset changes close to the timestamp.
+     */
+    private int getOffset(long ts) {
+        if (ts < stableFrom || ts > stableTo) {
+            int offset = timeZone.getOffset(ts);
+            if (timeZone.getOffset(ts - STABLE) != offset
+                    || timeZone.getOffset(ts + STABLE) != offset) {
+                return UNSTABLE;
+            }
+            stableFrom = ts - STABLE + SHIFT;
+            stableTo = ts + STABLE - SHIFT;
+            stableOffset = offset;
+        }
+        return stableOffset;
+    }
+
+    /**
+     * @param parser   Interval to process, can be {@code null}.
+     * @param rollup   Rollup to calculate per interval, {@code null} to
+     *                 use the values as they are.
+     * @param timeZone Time zone the intervals are aligned in.
+     * @return A processor or {@code null} if there is no interval.
+     */
+    public static IntervalProcessor create(IntervalParser parser,
+                                           Rollup rollup,
+                                           TimeZone timeZone) {
+        if (parser == null) {
+            return null;
+        }
+        return new IntervalProcessor(parser, rollup, timeZone);
+    }
+
     public static IntervalProcessor parse(IntervalParser parser,
                                           Rollup.Type rollup,
                                           TimeZone timeZone) {
@@ -5,7 +5,7 @@ import org.dsa.iot.dslink.node.value.Value;
 /**
  * @author Samuel Grenier
  */
-public class AvgRollup extends Rollup {
+public class AvgRollup extends PrimitiveRollup {
 
     private double total;
     private int count;
@@ -17,18 +17,23 @@ public class AvgRollup extends Rollup {
     }
 
     @Override
-    public void update(Value value, long ts) {
+    public void update(double value, long ts) {
         count++;
+        total += value;
+    }
+
+    @Override
+    protected void updateOther(Value value, long ts) {
+        count++;
+    }
 
-        Number number = value.getNumber();
-        if (number != null) {
-            total += number.doubleValue();
-        }
+    @Override
+    public double getDouble() {
+        return total / count;
     }
 
     @Override
     public Value getValue() {
-        double avg = total / count;
-        return new Value(avg);
+        return new Value(getDouble());
     }
 }
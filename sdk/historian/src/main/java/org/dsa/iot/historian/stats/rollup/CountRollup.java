@@ -5,7 +5,7 @@ import org.dsa.iot.dslink.node.value.Value;
 /**
  * @author Samuel Grenier
  */
-public class CountRollup extends Rollup {
+public class CountRollup extends PrimitiveRollup {
 
     private long count;
 
@@ -19,6 +19,16 @@ public class CountRollup extends Rollup {
         count++;
     }
 
+    @Override
+    public void update(double value, long ts) {
+        count++;
+    }
+
+    @Override
+    public double getDouble() {
+        return count;
+    }
+
     @Override
     public Value getValue() {
         return new Value(count);
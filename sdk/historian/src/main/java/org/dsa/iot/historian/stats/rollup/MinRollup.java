@@ -5,29 +5,57 @@ import org.dsa.iot.dslink.node.value.Value;
 /**
  * @author Samuel Grenier
  */
-public class MinRollup extends Rollup {
+public class MinRollup extends PrimitiveRollup {
 
-    private Number number;
+    private double number;
+    private long count;
+    private boolean whole; // Whether the first number is a whole number.
 
     @Override
     public void reset() {
-        number = null;
+        number = 0;
+        count = 0;
+        whole = false;
     }
 
     @Override
     public void update(Value value, long ts) {
-        Number num = value.getNumber();
-        if (number == null) {
-            number = num;
-        } else if (num != null) {
-            double a = num.doubleValue();
-            double b = number.doubleValue();
-            number = Math.min(a, b);
+        if (count == 0) {
+            whole = isLong(value);
         }
+        super.update(value, ts);
+    }
+
+    @Override
+    public void update(double value, boolean whole, long ts) {
+        if (count == 0) {
+            this.whole = whole;
+        }
+        update(value, ts);
+    }
+
+    @Override
+    public void update(double value, long ts) {
+        if (count++ == 0) {
+            number = value;
+        } else {
+            number = Math.min(number, value);
+        }
+    }
+
+    @Override
+    public double getDouble() {
+        return count == 0 ? Double.NaN : number;
     }
 
     @Override
     public Value getValue() {
+        if (count == 0) {
+            return new Value((Number) null);
+        } else if (count == 1 && whole) {
+            // A single number keeps its type
+            return new Value((long) number);
+        }
         return new Value(number);
     }
 }
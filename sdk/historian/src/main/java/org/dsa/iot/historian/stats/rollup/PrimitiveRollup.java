@@ -0,0 +1,75 @@
+package org.dsa.iot.historian.stats.rollup;
+
+import org.dsa.iot.dslink.node.value.Value;
+
+/**
+ * Rollup of numbers that accumulates primitive doubles. Primitive values
+ * are read without boxing their number.
+ */
+public abstract class PrimitiveRollup extends Rollup {
+
+    /**
+     * Updates the rollup with a number.
+     *
+     * @param value Number to update.
+     * @param ts Timestamp of the value.
+     */
+    public abstract void update(double value, long ts);
+
+    /**
+     * Updates the rollup with a number that was decoded without a value.
+     *
+     * @param value Number to update.
+     * @param whole Whether the number is a whole number.
+     * @param ts Timestamp of the value.
+     */
+    public void update(double value, boolean whole, long ts) {
+        update(value, ts);
+    }
+
+    /**
+     * Updates the rollup with a value that is not a number. Ignored by
+     * default.
+     *
+     * @param value Value to update, can be {@code null}.
+     * @param ts Timestamp of the value.
+     */
+    protected void updateOther(Value value, long ts) {
+    }
+
+    /**
+     * @return The statistical value of the rollup or NaN if there is none.
+     */
+    public abstract double getDouble();
+
+    @Override
+    public void update(Value value, long ts) {
+        if (value != null && value.isPrimitive()) {
+            update(value.getDouble(), ts);
+            return;
+        }
+        Number number = value == null ? null : value.getNumber();
+        if (number != null) {
+            update(number.doubleValue(), ts);
+        } else {
+            updateOther(value, ts);
+        }
+    }
+
+    /**
+     * @param value Value to check, can be {@code null}.
+     * @return Whether the number of the value is a whole number type.
+     */
+    protected static boolean isLong(Value value) {
+        if (value == null) {
+            return false;
+        } else if (value.isPrimitive()) {
+            return !value.isDouble();
+        }
+        Number number = value.getNumber();
+        return number instanceof Long
+                || number instanceof Integer
+                || number instanceof Short
+                || number instanceof Byte;
+    }
+}
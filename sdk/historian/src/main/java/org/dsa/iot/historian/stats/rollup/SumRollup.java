@@ -5,7 +5,7 @@ import org.dsa.iot.dslink.node.value.Value;
 /**
  * @author Samuel Grenier
  */
-public class SumRollup extends Rollup {
+public class SumRollup extends PrimitiveRollup {
 
     private double sum;
 
@@ -15,11 +15,13 @@ public class SumRollup extends Rollup {
     }
 
     @Override
-    public void update(Value value, long ts) {
-        Number number = value.getNumber();
-        if (number != null) {
-            sum += number.doubleValue();
-        }
+    public void update(double value, long ts) {
+        sum += value;
+    }
+
+    @Override
+    public double getDouble() {
+        return sum;
     }
 
     @Override
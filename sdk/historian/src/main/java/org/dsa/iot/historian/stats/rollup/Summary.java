@@ -0,0 +1,156 @@
+package org.dsa.iot.historian.stats.rollup;
+
+import org.dsa.iot.dslink.node.value.Value;
+import org.dsa.iot.dslink.node.value.ValueUtils;
+import org.dsa.iot.dslink.util.json.JsonObject;
+
+/**
+ * Count, sum, min, max, first and last value of a series of values. The
+ * statistics are calculated the same way as the rollups of the same name
+ * so a rollup of summaries equals the rollup of the summarized values.
+ * Summaries of consecutive ranges can be merged.
+ */
+public class Summary {
+
+    private long count;
+    private double sum;
+    private Number min;
+    private Number max;
+    private Value first;
+    private Value last;
+
+    /**
+     * @param value Next value of the series.
+     */
+    public void add(Value value) {
+        if (count == 0) {
+            first = value;
+        }
+        last = value;
+        count++;
+
+        Number number = value == null ? null : value.getNumber();
+        if (number != null) {
+            sum += number.doubleValue();
+        }
+        min = min(min, number);
+        max = max(max, number);
+    }
+
+    /**
+     * @param other Summary of the values that follow the values of this
+     *              summary.
+     */
+    public void merge(Summary other) {
+        if (other.count == 0) {
+            return;
+        }
+        if (count == 0) {
+            first = other.first;
+        }
+        last = other.last;
+        count += other.count;
+        sum += other.sum;
+        min = min(min, other.min);
+        max = max(max, other.max);
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * @param type Rollup to calculate.
+     * @return The value of the rollup.
+     * @see #supports(Rollup.Type)
+     */
+    public Value getValue(Rollup.Type type) {
+        switch (type) {
+            case AVERAGE:
+                return new Value(sum / count);
+            case COUNT:
+                return new Value(count);
+            case SUM:
+                return new Value(sum);
+            case MIN:
+                return new Value(min);
+            case MAX:
+                return new Value(max);
+            case FIRST:
+                return first;
+            case LAST:
+                return last;
+            default:
+                throw new RuntimeException("Unsupported rollup: " + type);
+        }
+    }
+
+    /**
+     * @return The summary as a value that can be stored.
+     */
+    public Value toValue() {
+        JsonObject obj = new JsonObject();
+        obj.put("count", count);
+        obj.put("sum", sum);
+        if (min != null) {
+            obj.put("min", min);
+            obj.put("max", max);
+        }
+        obj.put("first", ValueUtils.toObject(first));
+        obj.put("last", ValueUtils.toObject(last));
+        return new Value(obj);
+    }
+
+    /**
+     * @param value Value created by {@link #toValue()}.
+     * @return The summary of the value.
+     */
+    public static Summary fromValue(Value value) {
+        JsonObject obj = value.getMap();
+        Summary summary = new Summary();
+        summary.count = ((Number) obj.get("count")).longValue();
+        summary.sum = ((Number) obj.get("sum")).doubleValue();
+        summary.min = obj.get("min");
+        summary.max = obj.get("max");
+        summary.first = ValueUtils.toValue(obj.get("first"));
+        summary.last = ValueUtils.toValue(obj.get("last"));
+        return summary;
+    }
+
+    /**
+     * @param type Rollup to calculate.
+     * @return Whether the rollup can be calculated from summaries.
+     */
+    public static boolean supports(Rollup.Type type) {
+        switch (type) {
+            case AVERAGE:
+            case COUNT:
+            case SUM:
+            case MIN:
+            case MAX:
+            case FIRST:
+            case LAST:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private static Number min(Number a, Number b) {
+        if (a == null) {
+            return b;
+        } else if (b == null) {
+            return a;
+        }
+        return Math.min(a.doubleValue(), b.doubleValue());
+    }
+
+    private static Number max(Number a, Number b) {
+        if (a == null) {
+            return b;
+        } else if (b == null) {
+            return a;
+        }
+        return Math.max(a.doubleValue(), b.doubleValue());
+    }
+}
@@ -0,0 +1,59 @@
+package org.dsa.iot.historian.stats.rollup;
+
+import org.dsa.iot.dslink.node.value.Value;
+
+/**
+ * Calculates a rollup from stored {@link Summary summaries}. Raw values
+ * can be mixed in for the ranges that have no summary.
+ */
+public class SummaryRollup extends Rollup {
+
+    private final Type type;
+    private Summary summary = new Summary();
+    private boolean raw;
+
+    /**
+     * @param type Rollup to calculate.
+     * @see Summary#supports(Type)
+     */
+    public SummaryRollup(Type type) {
+        if (!Summary.supports(type)) {
+            throw new IllegalArgumentException("Unsupported rollup: " + type);
+        }
+        this.type = type;
+    }
+
+    /**
+     * @param raw Whether the following updates are raw values rather than
+     *            summaries.
+     */
+    public void setRaw(boolean raw) {
+        this.raw = raw;
+    }
+
+    /**
+     * @return Whether the updates are raw values rather than summaries.
+     */
+    public boolean isRaw() {
+        return raw;
+    }
+
+    @Override
+    public void reset() {
+        summary = new Summary();
+    }
+
+    @Override
+    public void update(Value value, long ts) {
+        if (raw) {
+            summary.add(value);
+        } else {
+            summary.merge(Summary.fromValue(value));
+        }
+    }
+
+    @Override
+    public Value getValue() {
+        return summary.getValue(type);
+    }
+}
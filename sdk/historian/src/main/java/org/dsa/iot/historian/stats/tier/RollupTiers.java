@@ -0,0 +1,434 @@
+package org.dsa.iot.historian.stats.tier;
+
+import org.dsa.iot.dslink.node.value.Value;
+import org.dsa.iot.dslink.util.handler.CompleteHandler;
+import org.dsa.iot.historian.database.Database;
+import org.dsa.iot.historian.stats.interval.IntervalParser;
+import org.dsa.iot.historian.stats.interval.IntervalProcessor;
+import org.dsa.iot.historian.stats.rollup.Rollup;
+import org.dsa.iot.historian.stats.rollup.Summary;
+import org.dsa.iot.historian.stats.rollup.SummaryRollup;
+import org.dsa.iot.historian.utils.QueryData;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Maintains a {@link Summary} per minute, hour and day of every watch as
+ * values are written. A summary is written to the database, under the
+ * path of its {@link Tier}, once the first value of the next summary
+ * arrives or the tiers are flushed.
+ * <p>
+ * Rollup queries read the summaries of the coarsest tier that fits the
+ * interval and only read raw values for the ranges at the edges of the
+ * query that summaries do not fully cover. Values that arrive older than
+ * the open summary of a tier are only written raw.
+ * <p>
+ * Open summaries are only held in memory. The first value of a watch
+ * rebuilds them from the raw values since the start of each tier's
+ * summary, so a summary written again after a restart holds every value
+ * of its range. When several summaries share a start, queries only use
+ * the one that was written last.
+ */
+public class RollupTiers {
+
+    private final Map<String, Open> open = new HashMap<>();
+    private final Database db;
+
+    /**
+     * @param db Database the summaries are written to and read from.
+     */
+    public RollupTiers(Database db) {
+        if (db == null) {
+            throw new NullPointerException("db");
+        }
+        this.db = db;
+    }
+
+    /**
+     * Adds a value to the summaries of a watch. The first value of a watch
+     * recovers its open summaries without holding the lock, so other
+     * watches are not held up by the query.
+     *
+     * @param path  Path of the watch.
+     * @param value Value that was written.
+     * @param ts    Timestamp the value was written with.
+     */
+    public void add(String path, Value value, long ts) {
+        Open recovered = null;
+        while (true) {
+            synchronized (this) {
+                Open o = open.get(path);
+                if (o == null && recovered != null) {
+                    o = recovered;
+                    open.put(path, o);
+                }
+                if (o != null) {
+                    add(o, path, value, ts);
+                    return;
+                }
+            }
+            recovered = recover(path, ts);
+        }
+    }
+
+    /**
+     * Must be called while holding the lock.
+     */
+    private void add(Open o, String path, Value value, long ts) {
+        Tier[] tiers = Tier.values();
+        Summary[] summaries = o.summaries;
+        long[] starts = o.starts;
+        for (int i = 0; i < tiers.length; i++) {
+            long start = tiers[i].align(ts);
+            Summary summary = summaries[i];
+            if (summary != null) {
+                if (start < starts[i]) {
+                    continue;
+                } else if (start > starts[i]) {
+                    write(tiers[i], path, summary, starts[i]);
+                    summary = null;
+                }
+            }
+            if (summary == null) {
+                summary = new Summary();
+                summaries[i] = summary;
+                starts[i] = start;
+            }
+            summary.add(value);
+        }
+    }
+
+    /**
+     * Writes all open summaries.
+     */
+    public synchronized void flush() {
+        Tier[] tiers = Tier.values();
+        for (Map.Entry<String, Open> entry : open.entrySet()) {
+            Open o = entry.getValue();
+            for (int i = 0; i < tiers.length; i++) {
+                if (o.summaries[i] != null) {
+                    write(tiers[i], entry.getKey(), o.summaries[i], o.starts[i]);
+                }
+            }
+        }
+        open.clear();
+    }
+
+    /**
+     * Rebuilds the summaries that overlap a range of raw values that was
+     * deleted or overwritten. Open summaries that overlap the range are
+     * rebuilt from the raw values by the next value of the watch.
+     *
+     * @param path Path of the watch.
+     * @param from Beginning time of the range.
+     * @param to   End time of the range.
+     */
+    public void rebuild(String path, long from, long to) {
+        Tier[] tiers = Tier.values();
+        long[] starts = new long[tiers.length];
+        long[] ends = new long[tiers.length];
+        synchronized (this) {
+            Open o = open.get(path);
+            for (int i = 0; i < tiers.length; i++) {
+                starts[i] = tiers[i].align(from);
+                ends[i] = tiers[i].align(to) + tiers[i].getMillis() - 1;
+                db.deleteRange(tiers[i].getPath(path), starts[i], ends[i]);
+                if (o != null && o.summaries[i] != null
+                        && o.starts[i] >= starts[i] && o.starts[i] <= ends[i]) {
+                    open.remove(path);
+                }
+            }
+        }
+        Builder builder = new Builder(path, starts, ends);
+        db.query(path, min(starts), max(ends), builder);
+        builder.await();
+        builder.write();
+    }
+
+    /**
+     * @param parser   Interval of the query.
+     * @param rollup   Rollup of the query.
+     * @param timeZone Time zone of the query.
+     * @return The tier to answer the query with or {@code null} if the
+     * query must be answered from raw values.
+     */
+    public Tier select(IntervalParser parser, Rollup.Type rollup, TimeZone timeZone) {
+        if (parser == null || rollup == null || !Summary.supports(rollup)) {
+            return null;
+        }
+        return Tier.select(parser, timeZone);
+    }
+
+    /**
+     * Queries the rollup of every interval. The {@code handler} receives
+     * one value per interval with the timestamp of the start of the
+     * interval and is completed at the end of the query.
+     *
+     * @param path     Path of the watch.
+     * @param from     Beginning search time.
+     * @param to       End search time.
+     * @param tier     Tier returned by {@link #select}.
+     * @param parser   Interval of the query.
+     * @param rollup   Rollup of the query.
+     * @param timeZone Time zone of the query.
+     * @param handler  Handler callback for the interval values.
+     */
+    public void query(String path, long from, long to, Tier tier,
+                      IntervalParser parser, Rollup.Type rollup,
+                      TimeZone timeZone, CompleteHandler<QueryData> handler) {
+        SummaryRollup summaries = new SummaryRollup(rollup);
+        IntervalProcessor interval = IntervalProcessor.create(parser, summaries, timeZone);
+        Query query = new Query(interval, summaries, handler);
+
+        // The first summary may have started mid way and the last summary
+        // may still be extended, their ranges are read raw.
+        String tierPath = tier.getPath(path);
+        long start = Long.MAX_VALUE;
+        long end = Long.MIN_VALUE;
+        QueryData first = db.queryFirst(tierPath);
+        QueryData last = db.queryLast(tierPath);
+        if (first != null && last != null) {
+            long millis = tier.getMillis();
+            start = first.getTimestamp() + millis;
+            if (from > start) {
+                start = tier.align(from + millis - 1);
+            }
+            end = last.getTimestamp();
+            if (to < end) {
+                end = tier.align(to + 1);
+            }
+        }
+
+        if (start < end) {
+            query.add(path, from, start - 1, true);
+            query.add(tierPath, start, end - 1, false);
+            query.add(path, end, to, true);
+        } else {
+            query.add(path, from, to, true);
+        }
+        query.next();
+    }
+
+    /**
+     * Rebuilds the open summaries of a watch from the raw values that were
+     * written before {@code ts} since the start of each summary. Blocks
+     * until the query completes, so it must not be called while holding
+     * the lock.
+     */
+    private Open recover(String path, long ts) {
+        Tier[] tiers = Tier.values();
+        long[] starts = new long[tiers.length];
+        long[] ends = new long[tiers.length];
+        for (int i = 0; i < tiers.length; i++) {
+            starts[i] = tiers[i].align(ts);
+            ends[i] = ts - 1;
+        }
+        Builder builder = new Builder(path, starts, ends);
+        db.query(path, min(starts), ts - 1, builder);
+        builder.await();
+        return builder.open;
+    }
+
+    private void write(Tier tier, String path, Summary summary, long start) {
+        db.write(tier.getPath(path), summary.toValue(), start);
+    }
+
+    private static long min(long[] values) {
+        long min = Long.MAX_VALUE;
+        for (long v : values) {
+            min = Math.min(min, v);
+        }
+        return min;
+    }
+
+    private static long max(long[] values) {
+        long max = Long.MIN_VALUE;
+        for (long v : values) {
+            max = Math.max(max, v);
+        }
+        return max;
+    }
+
+    /**
+     * Runs the raw and summary queries of a rollup query one after the
+     * other and feeds their values into the interval processor.
+     */
+    private class Query implements CompleteHandler<QueryData> {
+
+        private final List<Range> ranges = new ArrayList<>();
+        private final IntervalProcessor interval;
+        private final SummaryRollup summaries;
+        private final CompleteHandler<QueryData> handler;
+
+        /**
+         * Summary that is held back until the next one has another start.
+         */
+        private QueryData pending;
+
+        Query(IntervalProcessor interval, SummaryRollup summaries,
+              CompleteHandler<QueryData> handler) {
+            this.interval = interval;
+            this.summaries = summaries;
+            this.handler = handler;
+        }
+
+        void add(String path, long from, long to, boolean raw) {
+            if (from <= to) {
+                ranges.add(new Range(path, from, to, raw));
+            }
+        }
+
+        void next() {
+            if (ranges.isEmpty()) {
+                QueryData done = interval.completeInterval();
+                if (done != null) {
+                    handler.handle(done);
+                }
+                handler.complete();
+                return;
+            }
+            Range range = ranges.remove(0);
+            summaries.setRaw(range.raw);
+            db.query(range.path, range.from, range.to, this);
+        }
+
+        @Override
+        public void handle(QueryData data) {
+            if (!summaries.isRaw()) {
+                QueryData previous = pending;
+                pending = data;
+                if (previous == null
+                        || previous.getTimestamp() == data.getTimestamp()) {
+                    return;
+                }
+                data = previous;
+            }
+            update(data);
+        }
+
+        @Override
+        public void complete() {
+            if (pending != null) {
+                update(pending);
+                pending = null;
+            }
+            next();
+        }
+
+        private void update(QueryData data) {
+            QueryData done = interval.update(data, data.getTimestamp());
+            if (done != null) {
+                handler.handle(done);
+            }
+        }
+    }
+
+    /**
+     * Open summaries of a watch per tier.
+     */
+    private static class Open {
+
+        private final Summary[] summaries;
+        private final long[] starts;
+
+        Open(int tiers) {
+            summaries = new Summary[tiers];
+            starts = new long[tiers];
+        }
+    }
+
+    /**
+     * Summarizes raw values per tier. Every tier only summarizes the
+     * values of its own range.
+     */
+    private class Builder implements CompleteHandler<QueryData> {
+
+        private final CountDownLatch done = new CountDownLatch(1);
+        private final Tier[] tiers = Tier.values();
+        private final Open open = new Open(tiers.length);
+        private final String path;
+        private final long[] from;
+        private final long[] to;
+
+        Builder(String path, long[] from, long[] to) {
+            this.path = path;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        public void handle(QueryData data) {
+            long ts = data.getTimestamp();
+            for (int i = 0; i < tiers.length; i++) {
+                if (ts < from[i] || ts > to[i]) {
+                    continue;
+                }
+                long start = tiers[i].align(ts);
+                Summary summary = open.summaries[i];
+                if (summary != null && start != open.starts[i]) {
+                    RollupTiers.this.write(tiers[i], path, summary, open.starts[i]);
+                    summary = null;
+                }
+                if (summary == null) {
+                    summary = new Summary();
+                    open.summaries[i] = summary;
+                    open.starts[i] = start;
+                }
+                summary.add(data.getValue());
+            }
+        }
+
+        @Override
+        public void complete() {
+            done.countDown();
+        }
+
+        /**
+         * Waits for databases that complete queries on other threads.
+         */
+        void await() {
+            try {
+                done.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            }
+        }
+
+        /**
+         * Writes the last summary of every tier.
+         */
+        void write() {
+            for (int i = 0; i < tiers.length; i++) {
+                if (open.summaries[i] != null) {
+                    RollupTiers.this.write(tiers[i], path,
+                            open.summaries[i], open.starts[i]);
+                }
+            }
+        }
+    }
+
+    private static class Range {
+
+        private final String path;
+        private final long from;
+        private final long to;
+
+        /**
+         * Whether the path holds raw values rather than summaries.
+         */
+        private final boolean raw;
+
+        Range(String path, long from, long to, boolean raw) {
+            this.path = path;
+            this.from = from;
+            this.to = to;
+            this.raw = raw;
+        }
+    }
+}
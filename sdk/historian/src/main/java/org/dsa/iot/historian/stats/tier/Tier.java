@@ -0,0 +1,89 @@
+package org.dsa.iot.historian.stats.tier;
+
+import org.dsa.iot.historian.stats.interval.IntervalParser;
+
+import java.util.TimeZone;
+
+/**
+ * Resolution of the summaries maintained by {@link RollupTiers}. Tiers
+ * are aligned in UTC.
+ */
+public enum Tier {
+
+    MINUTE("1m", 60 * 1000),
+    HOUR("1h", 60 * 60 * 1000),
+    DAY("1d", 24 * 60 * 60 * 1000);
+
+    private final String name;
+    private final long millis;
+
+    Tier(String name, long millis) {
+        this.name = name;
+        this.millis = millis;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return Length of a summary in milliseconds.
+     */
+    public long getMillis() {
+        return millis;
+    }
+
+    /**
+     * @param ts Timestamp to align.
+     * @return The start of the summary that holds the timestamp.
+     */
+    public long align(long ts) {
+        return Math.floorDiv(ts, millis) * millis;
+    }
+
+    /**
+     * @param path Path of the watch.
+     * @return The path the summaries of the watch are stored under.
+     */
+    public String getPath(String path) {
+        return path + "?rollup=" + name;
+    }
+
+    /**
+     * Summaries can replace raw values when every interval boundary is a
+     * summary boundary, so the intervals must be aligned to a calendar unit
+     * of at least the length of a summary in a time zone whose offset does
+     * not move the boundaries, and the length of an interval must be a
+     * multiple of the length of a summary.
+     *
+     * @param parser   Interval of the query.
+     * @param timeZone Time zone of the query.
+     * @return Whether the summaries of this tier can answer the query.
+     */
+    public boolean fits(IntervalParser parser, TimeZone timeZone) {
+        if (parser == null || parser.getAlignment() < millis) {
+            return false;
+        }
+        long length = parser.getFixedTime() + parser.getFixedDays() * DAY.millis;
+        if (length % millis != 0) {
+            return false;
+        } else if (this == DAY) {
+            return timeZone.getRawOffset() == 0 && !timeZone.useDaylightTime();
+        }
+        return timeZone.getRawOffset() % millis == 0
+                && timeZone.getDSTSavings() % millis == 0;
+    }
+
+    /**
+     * @return The coarsest tier that fits the query or {@code null}.
+     */
+    public static Tier select(IntervalParser parser, TimeZone timeZone) {
+        Tier[] tiers = values();
+        for (int i = tiers.length - 1; i >= 0; i--) {
+            if (tiers[i].fits(parser, timeZone)) {
+                return tiers[i];
+            }
+        }
+        return null;
+    }
+}
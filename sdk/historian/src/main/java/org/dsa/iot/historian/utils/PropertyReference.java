@@ -0,0 +1,71 @@
+package org.dsa.iot.historian.utils;
+
+/**
+ * Global string references for the system properties of the historian.
+ *
+ * @see System#getProperty(String)
+ */
+public class PropertyReference {
+
+    public static final String NAMESPACE =
+            org.dsa.iot.dslink.util.PropertyReference.NAMESPACE + ".historian";
+
+    /**
+     * An integer property that determines how many values a historian
+     * watch group collects before they are written to the database as a
+     * single batch. A value of 1 or less writes every value on its own.
+     *
+     * Default value is 1000.
+     */
+    public static final String BATCH_SIZE = NAMESPACE + ".batchSize";
+    /**
+     * An integer property that determines how many milliseconds a value
+     * may wait in a historian watch group batch before the batch is
+     * written. A value of 0 or less writes every value on its own.
+     *
+     * Default value is 100.
+     */
+    public static final String BATCH_AGE = NAMESPACE + ".batchAge";
+    /**
+     * An integer property that determines how many values the embedded
+     * historian database holds in a single compressed block.
+     *
+     * Default value is 1024.
+     */
+    public static final String BLOCK_SIZE = NAMESPACE + ".blockSize";
+    /**
+     * An integer property that determines how many milliseconds values
+     * of the embedded historian database may stay in memory before their
+     * block is written to disk, even when it is not full.
+     *
+     * Default value is 60000.
+     */
+    public static final String BLOCK_AGE = NAMESPACE + ".blockAge";
+    /**
+     * An integer property that determines how many segment files the
+     * embedded historian database keeps open. The files of the least
+     * recently used paths are closed beyond that. A value of 0 or less
+     * keeps every file open.
+     *
+     * Default value is 256.
+     */
+    public static final String OPEN_SEGMENTS = NAMESPACE + ".openSegments";
+    /**
+     * An integer property that determines after how many bytes the
+     * embedded historian database continues the history of a path in a
+     * new segment file. Values close to 2GB are lowered to leave room for
+     * the last block.
+     *
+     * Default value is 1073741824.
+     */
+    public static final String SEGMENT_SIZE = NAMESPACE + ".segmentSize";
+    /**
+     * A boolean property that determines whether historian watch groups
+     * maintain minute, hour and day summaries of every watch. History
+     * queries with a rollup are then answered from the coarsest summary
+     * that fits the requested interval.
+     *
+     * Default value is false.
+     */
+    public static final String ROLLUP_TIERS = NAMESPACE + ".rollupTiers";
+}
@@ -0,0 +1,37 @@
+package org.dsa.iot.historian.utils;
+
+import org.dsa.iot.dslink.node.value.Value;
+import org.dsa.iot.historian.database.Watch;
+
+/**
+ * A single value to be written into the database.
+ */
+public class WriteData {
+
+    private final Watch watch;
+    private final Value value;
+    private final long ts;
+
+    /**
+     * @param watch Watch the value was received on.
+     * @param value Value to write.
+     * @param ts    Converted time in UTC.
+     */
+    public WriteData(Watch watch, Value value, long ts) {
+        this.watch = watch;
+        this.value = value;
+        this.ts = ts;
+    }
+
+    public Watch getWatch() {
+        return watch;
+    }
+
+    public Value getValue() {
+        return value;
+    }
+
+    public long getTimestamp() {
+        return ts;
+    }
+}
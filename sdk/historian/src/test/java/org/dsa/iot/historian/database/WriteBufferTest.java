@@ -0,0 +1,176 @@
+package org.dsa.iot.historian.database;
+
+import org.dsa.iot.dslink.node.Node;
+import org.dsa.iot.dslink.node.value.Value;
+import org.dsa.iot.dslink.util.handler.CompleteHandler;
+import org.dsa.iot.historian.utils.QueryData;
+import org.dsa.iot.historian.utils.WriteData;
+import org.junit.Assert;
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tests the group commit of watch group writes.
+ */
+public class WriteBufferTest {
+
+    /**
+     * Reaching the batch size must write a single batch.
+     */
+    @Test
+    public void flushesAtBatchSize() {
+        StubDatabase db = new StubDatabase(0);
+        WriteBuffer buffer = new WriteBuffer(db, 10, 60000);
+        for (int i = 0; i < 25; i++) {
+            buffer.add(data(i));
+        }
+        Assert.assertEquals(2, db.batches.get());
+        Assert.assertEquals(20, db.rows.get());
+        Assert.assertEquals(5, buffer.size());
+
+        buffer.flush();
+        Assert.assertEquals(3, db.batches.get());
+        Assert.assertEquals(25, db.rows.get());
+        Assert.assertEquals(0, buffer.size());
+    }
+
+    /**
+     * A batch size of 1 must write every value as it is added.
+     */
+    @Test
+    public void unbuffered() {
+        StubDatabase db = new StubDatabase(0);
+        WriteBuffer buffer = new WriteBuffer(db, 1, 100);
+        buffer.add(data(0));
+        buffer.add(data(1));
+        Assert.assertEquals(2, db.batches.get());
+        Assert.assertEquals(0, buffer.size());
+    }
+
+    /**
+     * The default batch write must fall back to single writes in order.
+     */
+    @Test
+    public void perRowFallback() {
+        final List<Long> written = new ArrayList<>();
+        Database db = new StubDatabase(0) {
+            @Override
+            public void writeBatch(Collection<WriteData> batch) {
+                writeRows(batch);
+            }
+
+            @Override
+            public void write(Watch watch, Value value, long ts) {
+                written.add(ts);
+            }
+        };
+        List<WriteData> batch = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            batch.add(data(i));
+        }
+        db.writeBatch(batch);
+        Assert.assertEquals(3, written.size());
+        Assert.assertEquals(2, (long) written.get(2));
+    }
+
+    /**
+     * Not really a test, reports the samples written per second at
+     * different batch sizes against a database with a fixed cost per
+     * call.
+     */
+    @Ignore
+    @Test
+    public void performanceTest() {
+        int samples = 50000;
+        for (int batchSize : new int[] {1, 10, 100, 1000}) {
+            StubDatabase db = new StubDatabase(20000);
+            WriteBuffer buffer = new WriteBuffer(db, batchSize, 60000);
+            long start = System.nanoTime();
+            for (int i = 0; i < samples; i++) {
+                buffer.add(data(i));
+            }
+            buffer.flush();
+            long time = System.nanoTime() - start;
+            Assert.assertEquals(samples, db.rows.get());
+
+            long rate = samples * 1000000000L / Math.max(1, time);
+            System.out.println("Batch size " + batchSize + ": "
+                    + rate + " samples/s");
+        }
+    }
+
+    private static WriteData data(long ts) {
+        return new WriteData(null, new Value(ts, ts), ts);
+    }
+
+    private static class StubDatabase extends Database {
+
+        private final AtomicLong batches = new AtomicLong();
+        private final AtomicLong rows = new AtomicLong();
+        private final long callCost;
+
+        /**
+         * @param callCost Nanoseconds spent per call to simulate a round
+         *                 trip to the database.
+         */
+        StubDatabase(long callCost) {
+            super("stub", null);
+            this.callCost = callCost;
+        }
+
+        @Override
+        public void writeBatch(Collection<WriteData> batch) {
+            long end = System.nanoTime() + callCost;
+            while (System.nanoTime() < end) {
+                Thread.yield();
+            }
+            batches.incrementAndGet();
+            rows.addAndGet(batch.size());
+        }
+
+        /**
+         * Calls the default batch write of the database.
+         */
+        void writeRows(Collection<WriteData> batch) {
+            super.writeBatch(batch);
+        }
+
+        @Override
+        public void write(String path, Value value, long ts) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void query(String path, long from, long to,
+                          CompleteHandler<QueryData> handler) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public QueryData queryFirst(String path) {
+            return null;
+        }
+
+        @Override
+        public QueryData queryLast(String path) {
+            return null;
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        protected void performConnect() {
+        }
+
+        @Override
+        public void initExtensions(Node node) {
+        }
+    }
+}
@@ -0,0 +1,469 @@
+package org.dsa.iot.historian.database.embedded;
+
+import org.dsa.iot.dslink.node.actions.table.Row;
+import org.dsa.iot.dslink.node.value.Value;
+import org.dsa.iot.dslink.util.handler.CompleteHandler;
+import org.dsa.iot.dslink.util.handler.Handler;
+import org.dsa.iot.historian.database.Database;
+import org.dsa.iot.historian.stats.interval.IntervalParser;
+import org.dsa.iot.historian.stats.interval.IntervalProcessor;
+import org.dsa.iot.historian.stats.rollup.Rollup;
+import org.dsa.iot.historian.utils.QueryData;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Ignore;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.TimeZone;
+
+/**
+ * Tests the storage of the embedded database.
+ */
+public class EmbeddedDatabaseTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private EmbeddedDatabase db;
+
+    @Before
+    public void setup() {
+        db = open(16);
+    }
+
+    @After
+    public void teardown() throws Exception {
+        db.close();
+    }
+
+    /**
+     * Values must be read back as they were written, from memory and
+     * after the database was opened again.
+     */
+    @Test
+    public void roundTrip() throws Exception {
+        for (int i = 0; i < 100; i++) {
+            db.write("/a", new Value(i * 0.5, 1000L + i * 10), 1000L + i * 10);
+            db.write("/b", new Value((long) -i, 2000L + i), 2000L + i);
+        }
+        db.write("/c", new Value("text"), 5);
+        verify();
+
+        db.close();
+        db = open(16);
+        verify();
+    }
+
+    /**
+     * Values must be given in timestamp order even when they were written
+     * out of order.
+     */
+    @Test
+    public void outOfOrder() {
+        long[] times = {50, 10, 40, 20, 30};
+        for (long ts : times) {
+            db.write("/a", new Value(ts, ts), ts);
+        }
+        db.flush();
+        List<QueryData> data = query("/a", 0, 100);
+        Assert.assertEquals(5, data.size());
+        for (int i = 0; i < data.size(); i++) {
+            Assert.assertEquals(10 * (i + 1), data.get(i).getTimestamp());
+        }
+        Assert.assertEquals(10, db.queryFirst("/a").getTimestamp());
+        Assert.assertEquals(50, db.queryLast("/a").getTimestamp());
+    }
+
+    /**
+     * Queries must only give values within the range, both ends
+     * inclusive.
+     */
+    @Test
+    public void range() {
+        for (int i = 0; i < 100; i++) {
+            db.write("/a", new Value(i, i), i);
+        }
+        List<QueryData> data = query("/a", 20, 39);
+        Assert.assertEquals(20, data.size());
+        Assert.assertEquals(20, data.get(0).getTimestamp());
+        Assert.assertEquals(39, data.get(19).getTimestamp());
+        Assert.assertTrue(query("/a", 200, 300).isEmpty());
+        Assert.assertTrue(query("/missing", 0, 100).isEmpty());
+        Assert.assertNull(db.queryFirst("/missing"));
+        Assert.assertNull(db.queryLast("/missing"));
+    }
+
+    /**
+     * Deleting must remove all values of the range and keep the rest.
+     */
+    @Test
+    public void deleteRange() throws Exception {
+        for (int i = 0; i < 100; i++) {
+            db.write("/a", new Value(i * 1.5, i), i);
+        }
+        db.deleteRange("/a", 10, 89);
+        verifyDeleted();
+
+        db.close();
+        db = open(16);
+        verifyDeleted();
+    }
+
+    /**
+     * A block whose payload does not match its checksum must be cut off
+     * rather than decoded.
+     */
+    @Test
+    public void corruptBlock() throws Exception {
+        for (int i = 0; i < 24; i++) {
+            db.write("/a", new Value(i * 1.5, i), i);
+        }
+        db.close();
+        File[] files = new File(folder.getRoot(), "db-16").listFiles();
+        Assert.assertEquals(1, files.length);
+        long length = files[0].length();
+        try (RandomAccessFile raf = new RandomAccessFile(files[0], "rw")) {
+            raf.seek(length - 2);
+            int b = raf.read();
+            raf.seek(length - 2);
+            raf.write(b ^ 0x55);
+        }
+
+        db = open(16);
+        List<QueryData> data = query("/a", 0, 100);
+        Assert.assertEquals(16, data.size());
+        Assert.assertTrue(files[0].length() < length);
+        db.write("/a", new Value(1.0, 50), 50);
+        db.close();
+        db = open(16);
+        Assert.assertEquals(17, query("/a", 0, 100).size());
+    }
+
+    /**
+     * Only the files of the most recently used segments may stay open
+     * and released segments must still be readable and writable.
+     */
+    @Test
+    public void openSegments() throws Exception {
+        db.close();
+        File dir = new File(folder.getRoot(), "lru");
+        db = new EmbeddedDatabase("test", null, dir, 16, 0, 4);
+        db.connect(new Handler<Database>() {
+            @Override
+            public void handle(Database event) {
+            }
+        });
+        for (int i = 0; i < 100; i++) {
+            for (int path = 0; path < 20; path++) {
+                db.write("/" + path, new Value(i, i), i);
+            }
+            Assert.assertTrue(db.countOpenSegments() <= 4);
+        }
+        db.flush();
+        Assert.assertTrue(db.countOpenSegments() <= 4);
+        for (int path = 0; path < 20; path++) {
+            List<QueryData> data = query("/" + path, 0, 100);
+            Assert.assertEquals(100, data.size());
+            Assert.assertEquals(99, data.get(99).getValue().getNumber().intValue());
+            Assert.assertTrue(db.countOpenSegments() <= 4);
+        }
+    }
+
+    /**
+     * A path must continue in a new segment file once the file reached the
+     * segment size and all parts must be read, also after reopening.
+     */
+    @Test
+    public void rollOver() throws Exception {
+        db.close();
+        File dir = new File(folder.getRoot(), "parts");
+        db = new EmbeddedDatabase("test", null, dir, 16, 0, 0, 256);
+        db.connect(new Handler<Database>() {
+            @Override
+            public void handle(Database event) {
+            }
+        });
+        for (int i = 0; i < 1000; i++) {
+            db.write("/a", new Value(i * 0.5, i), i);
+        }
+        db.write("/a", new Value(-1.0, 500), 500);
+        verifyParts(dir);
+
+        db.close();
+        db = new EmbeddedDatabase("test", null, dir, 16, 0, 0, 256);
+        db.connect(new Handler<Database>() {
+            @Override
+            public void handle(Database event) {
+            }
+        });
+        verifyParts(dir);
+
+        db.deleteRange("/a", 100, 899);
+        List<QueryData> data = query("/a", 0, 1000);
+        Assert.assertEquals(200, data.size());
+        Assert.assertEquals(99, data.get(99).getTimestamp());
+        Assert.assertEquals(900, data.get(100).getTimestamp());
+    }
+
+    /**
+     * Not really a test, reports the write and read throughput and the
+     * size of the stored samples.
+     */
+    @Ignore
+    @Test
+    public void performanceTest() throws Exception {
+        int samples = 1000000;
+        EmbeddedDatabase perf = open(1024);
+        long ts = System.currentTimeMillis();
+        long start = System.nanoTime();
+        for (int i = 0; i < samples; i++) {
+            double value = Math.round(Math.sin(i / 100.0) * 1000) / 10.0;
+            perf.write("/perf", new Value(value, ts + i), ts + i);
+        }
+        perf.flush();
+        long writeTime = System.nanoTime() - start;
+
+        final int[] read = new int[1];
+        start = System.nanoTime();
+        perf.query("/perf", ts, ts + samples, new CompleteHandler<QueryData>() {
+            @Override
+            public void handle(QueryData event) {
+                read[0]++;
+            }
+
+            @Override
+            public void complete() {
+            }
+        });
+        long readTime = System.nanoTime() - start;
+        Assert.assertEquals(samples, read[0]);
+
+        long bytes = 0;
+        File[] files = perf.getDirectory().listFiles();
+        if (files != null) {
+            for (File file : files) {
+                bytes += file.length();
+            }
+        }
+        System.out.println("Embedded database: "
+                + (samples * 1000000000L / Math.max(1, writeTime)) + " writes/s, "
+                + (samples * 1000000000L / Math.max(1, readTime)) + " reads/s, "
+                + ((double) bytes / samples) + " bytes/sample");
+        perf.close();
+    }
+
+    /**
+     * Rollups calculated by the database must equal the rollups of the
+     * raw values.
+     */
+    @Test
+    public void rollupQuery() {
+        for (int i = 0; i < 3 * 60; i++) {
+            long ts = i * 60000L + 30000;
+            db.write("/a", new Value(Math.sin(i / 10.0), ts), ts);
+        }
+        TimeZone utc = TimeZone.getTimeZone("UTC");
+        for (Rollup.Type type : new Rollup.Type[] {
+                Rollup.Type.AVERAGE, Rollup.Type.MAX, Rollup.Type.COUNT,
+                Rollup.Type.FIRST, Rollup.Type.DELTA}) {
+            Assert.assertTrue(db.supportsRollup(type));
+            IntervalProcessor interval = IntervalProcessor.parse(
+                    IntervalParser.parse("1H"), type, utc);
+            List<QueryData> expected = new ArrayList<>();
+            for (QueryData data : query("/a", 0, Long.MAX_VALUE)) {
+                QueryData done = interval.update(data, data.getTimestamp());
+                if (done != null) {
+                    expected.add(done);
+                }
+            }
+            expected.add(interval.completeInterval());
+
+            final List<QueryData> actual = new ArrayList<>();
+            db.queryRollup("/a", 0, Long.MAX_VALUE, IntervalParser.parse("1H"),
+                    type, utc, new CompleteHandler<QueryData>() {
+                        @Override
+                        public void handle(QueryData event) {
+                            actual.add(event);
+                        }
+
+                        @Override
+                        public void complete() {
+                        }
+                    });
+
+            Assert.assertEquals(3, actual.size());
+            for (int i = 0; i < expected.size(); i++) {
+                Assert.assertEquals(i * 3600000L, actual.get(i).getTimestamp());
+                Assert.assertEquals(expected.get(i).getTimestamp(), actual.get(i).getTimestamp());
+                Assert.assertEquals(expected.get(i).getValue(), actual.get(i).getValue());
+            }
+        }
+        Assert.assertFalse(db.supportsRollup(Rollup.Type.NONE));
+    }
+
+    /**
+     * Not really a test, compares a daily average over 30 days of 10
+     * second values calculated from the raw values, as history queries did,
+     * against the rollup calculated by the database.
+     */
+    @Ignore
+    @Test
+    public void rollupPerformanceTest() throws Exception {
+        EmbeddedDatabase perf = open(1024);
+        int samples = 30 * 24 * 360;
+        for (int i = 0; i < samples; i++) {
+            long ts = i * 10000L;
+            perf.write("/perf", new Value(Math.round(Math.sin(i / 360.0) * 1000) / 10.0, ts), ts);
+        }
+        perf.flush();
+        final TimeZone utc = TimeZone.getTimeZone("UTC");
+
+        for (int run = 0; run < 3; run++) {
+            final IntervalProcessor interval = IntervalProcessor.parse(
+                    IntervalParser.parse("1D"), Rollup.Type.AVERAGE, utc);
+            final List<Row> raw = new ArrayList<>();
+            long start = System.nanoTime();
+            perf.query("/perf", 0, Long.MAX_VALUE, new CompleteHandler<QueryData>() {
+                private final List<QueryData> updates = new LinkedList<>();
+
+                @Override
+                public void handle(QueryData event) {
+                    updates.add(event);
+                    if (updates.size() >= 500) {
+                        process();
+                    }
+                }
+
+                @Override
+                public void complete() {
+                    process();
+                    Row row = interval.complete();
+                    if (row != null) {
+                        raw.add(row);
+                    }
+                }
+
+                private void process() {
+                    Iterator<QueryData> it = updates.iterator();
+                    while (it.hasNext()) {
+                        QueryData data = it.next();
+                        it.remove();
+                        Row row = interval.getRowUpdate(data, data.getTimestamp());
+                        if (row != null) {
+                            raw.add(row);
+                        }
+                    }
+                }
+            });
+            long rawTime = System.nanoTime() - start;
+
+            final List<QueryData> rolled = new ArrayList<>();
+            start = System.nanoTime();
+            perf.queryRollup("/perf", 0, Long.MAX_VALUE, IntervalParser.parse("1D"),
+                    Rollup.Type.AVERAGE, utc, new CompleteHandler<QueryData>() {
+                        @Override
+                        public void handle(QueryData event) {
+                            rolled.add(event);
+                        }
+
+                        @Override
+                        public void complete() {
+                        }
+                    });
+            long rolledTime = System.nanoTime() - start;
+
+            Assert.assertEquals(30, raw.size());
+            Assert.assertEquals(30, rolled.size());
+            System.out.println("Rollup of " + samples + " values: in process "
+                    + (rawTime / 1000000) + "ms, in database "
+                    + (rolledTime / 1000000) + "ms");
+        }
+        perf.close();
+    }
+
+    private void verify() {
+        List<QueryData> data = query("/a", 0, Long.MAX_VALUE);
+        Assert.assertEquals(100, data.size());
+        for (int i = 0; i < 100; i++) {
+            QueryData d = data.get(i);
+            Assert.assertEquals(1000L + i * 10, d.getTimestamp());
+            Assert.assertEquals(i * 0.5, d.getValue().getNumber().doubleValue(), 0);
+        }
+
+        data = query("/b", 0, Long.MAX_VALUE);
+        Assert.assertEquals(100, data.size());
+        Assert.assertEquals(-99, data.get(99).getValue().getNumber().intValue());
+
+        QueryData first = db.queryFirst("/c");
+        Assert.assertEquals("text", first.getValue().getString());
+        Assert.assertEquals(5, first.getTimestamp());
+        Assert.assertEquals(2099, db.queryLast("/b").getTimestamp());
+    }
+
+    private void verifyDeleted() {
+        List<QueryData> data = query("/a", 0, Long.MAX_VALUE);
+        Assert.assertEquals(20, data.size());
+        Assert.assertEquals(9, data.get(9).getTimestamp());
+        Assert.assertEquals(90, data.get(10).getTimestamp());
+        Assert.assertEquals(135, data.get(10).getValue().getNumber().doubleValue(), 0);
+        Assert.assertEquals(0, db.queryFirst("/a").getTimestamp());
+        Assert.assertEquals(99, db.queryLast("/a").getTimestamp());
+    }
+
+    private void verifyParts(File dir) {
+        File[] files = dir.listFiles();
+        Assert.assertNotNull(files);
+        Assert.assertTrue(files.length > 1);
+        for (File file : files) {
+            Assert.assertTrue(file.length() < 1024);
+        }
+        List<QueryData> data = query("/a", 0, 1000);
+        Assert.assertEquals(1001, data.size());
+        for (int i = 0; i < 500; i++) {
+            Assert.assertEquals(i, data.get(i).getTimestamp());
+        }
+        Assert.assertEquals(250, data.get(500).getValue().getNumber().doubleValue(), 0);
+        Assert.assertEquals(-1, data.get(501).getValue().getNumber().doubleValue(), 0);
+        Assert.assertEquals(999, data.get(1000).getTimestamp());
+        Assert.assertEquals(0, db.queryFirst("/a").getTimestamp());
+        Assert.assertEquals(999, db.queryLast("/a").getTimestamp());
+    }
+
+    private List<QueryData> query(String path, long from, long to) {
+        final List<QueryData> data = new ArrayList<>();
+        final boolean[] completed = new boolean[1];
+        db.query(path, from, to, new CompleteHandler<QueryData>() {
+            @Override
+            public void handle(QueryData event) {
+                data.add(event);
+            }
+
+            @Override
+            public void complete() {
+                completed[0] = true;
+            }
+        });
+        Assert.assertTrue(completed[0]);
+        return data;
+    }
+
+    private EmbeddedDatabase open(int blockSize) {
+        File dir = new File(folder.getRoot(), "db-" + blockSize);
+        EmbeddedDatabase db = new EmbeddedDatabase("test", null, dir, blockSize, 0);
+        db.connect(new Handler<Database>() {
+            @Override
+            public void handle(Database event) {
+            }
+        });
+        return db;
+    }
+}
@@ -0,0 +1,215 @@
+package org.dsa.iot.historian.stats.interval;
+
+import org.dsa.iot.dslink.node.actions.table.Row;
+import org.dsa.iot.dslink.node.value.Value;
+import org.dsa.iot.dslink.util.TimeUtils;
+import org.dsa.iot.historian.stats.rollup.AvgRollup;
+import org.dsa.iot.historian.stats.rollup.MinRollup;
+import org.dsa.iot.historian.stats.rollup.Rollup;
+import org.dsa.iot.historian.utils.QueryData;
+import org.junit.Assert;
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.TimeZone;
+
+/**
+ * Tests intervals aligned without a calendar and the primitive rollups.
+ */
+public class IntervalProcessorTest {
+
+    private static final long MINUTE = 60 * 1000;
+
+    /**
+     * Intervals must start and end where the calendar puts them, including
+     * across daylight saving changes and in time zones with offsets that
+     * are not whole hours.
+     */
+    @Test
+    public void alignment() {
+        String[] intervals = {
+                "1S", "7S", "15S", "30s", "1M", "7M", "15M", "90m", "1H",
+                "2H", "1h", "1H30M", "1D", "2D", "1d", "1D12H", "1W", "1N"
+        };
+        String[] zones = {
+                "UTC", "America/New_York", "Europe/London", "Asia/Kolkata",
+                "Australia/Lord_Howe", "America/St_Johns"
+        };
+        // Two weeks around the end and the start of daylight saving time
+        // in New York and London.
+        long[] starts = {1382500000000L, 1393800000000L, 1395600000000L};
+        for (String zone : zones) {
+            TimeZone timeZone = TimeZone.getTimeZone(zone);
+            for (String interval : intervals) {
+                IntervalParser parser = IntervalParser.parse(interval);
+                for (long start : starts) {
+                    long[] ts = new long[20000];
+                    long t = start;
+                    for (int i = 0; i < ts.length; i++) {
+                        t += MINUTE + (i % 7) * 1000;
+                        ts[i] = t;
+                    }
+                    String msg = zone + " " + interval;
+                    Assert.assertEquals(msg,
+                            calendar(parser, timeZone, ts),
+                            process(parser, timeZone, ts));
+                }
+            }
+        }
+    }
+
+    /**
+     * Rows must encode the start of their interval in the time zone of the
+     * processor the same way as a calendar.
+     */
+    @Test
+    public void rowTimestamps() {
+        TimeZone timeZone = TimeZone.getTimeZone("Asia/Kolkata");
+        IntervalParser parser = IntervalParser.parse("1H");
+        IntervalProcessor interval = IntervalProcessor.parse(
+                parser, Rollup.Type.COUNT, timeZone);
+        Calendar calendar = Calendar.getInstance(timeZone);
+        long start = 1382500000000L;
+        for (int i = 0; i <= 48; i++) {
+            long ts = start + i * 60 * MINUTE;
+            Row row = interval.getRowUpdate(new QueryData(new Value(1L, ts), ts), ts);
+            if (i == 0) {
+                Assert.assertNull(row);
+                continue;
+            }
+            calendar.setTimeInMillis(ts - 60 * MINUTE);
+            parser.alignTime(calendar);
+            String expected = TimeUtils.encode(calendar, true, null).toString();
+            Assert.assertEquals(expected, row.getValues().get(0).getString());
+        }
+    }
+
+    /**
+     * Primitive updates must be the same as updates with values.
+     */
+    @Test
+    public void primitiveUpdate() {
+        AvgRollup values = new AvgRollup();
+        AvgRollup numbers = new AvgRollup();
+        for (int i = 0; i < 100; i++) {
+            double d = Math.sin(i) * 100;
+            values.update(new Value(d, i), i);
+            numbers.update(d, i);
+        }
+        Assert.assertEquals(values.getDouble(), numbers.getDouble(), 0);
+        Assert.assertEquals(values.getValue(), numbers.getValue());
+
+        MinRollup min = new MinRollup();
+        min.update(3, true, 0);
+        Assert.assertEquals(new Value(3L, 0), min.getValue());
+        min.update(1.5, false, 1);
+        Assert.assertEquals(new Value(1.5, 0), min.getValue());
+    }
+
+    /**
+     * Not really a test, compares the rows per second of one minute
+     * averages of one second values through the processor against
+     * aligning each value with a calendar.
+     */
+    @Ignore
+    @Test
+    public void performanceTest() {
+        TimeZone timeZone = TimeZone.getTimeZone("America/New_York");
+        IntervalParser parser = IntervalParser.parse("1M");
+        int count = 2000000;
+        QueryData[] data = new QueryData[count];
+        long start = 1400000000000L;
+        for (int i = 0; i < count; i++) {
+            long ts = start + i * 1000L;
+            data[i] = new QueryData(new Value(Math.sin(i / 60.0), ts), ts);
+        }
+        Calendar calendar = Calendar.getInstance(timeZone);
+        for (int run = 0; run < 3; run++) {
+            long time = System.nanoTime();
+            long sum = 0;
+            for (QueryData d : data) {
+                calendar.setTimeInMillis(d.getTimestamp());
+                parser.alignTime(calendar);
+                sum += calendar.getTimeInMillis();
+            }
+            long calendarTime = System.nanoTime() - time;
+
+            IntervalProcessor interval = IntervalProcessor.parse(
+                    parser, Rollup.Type.AVERAGE, timeZone);
+            time = System.nanoTime();
+            int rows = 0;
+            for (QueryData d : data) {
+                if (interval.update(d, d.getTimestamp()) != null) {
+                    rows++;
+                }
+            }
+            long processorTime = System.nanoTime() - time;
+
+            Assert.assertEquals(count / 60, rows);
+            Assert.assertTrue(sum != 0);
+            System.out.println("Calendar alignment: "
+                    + (count * 1000000000L / calendarTime) + " rows/s, "
+                    + "interval processor: "
+                    + (count * 1000000000L / processorTime) + " rows/s");
+        }
+    }
+
+    /**
+     * Intervals as the processor calculated them with a calendar.
+     */
+    private static List<String> calendar(IntervalParser parser,
+                                         TimeZone timeZone,
+                                         long[] ts) {
+        Calendar calendar = Calendar.getInstance(timeZone);
+        List<String> intervals = new ArrayList<>();
+        long current = -1;
+        long next = -1;
+        int count = 0;
+        for (long t : ts) {
+            calendar.setTimeInMillis(t);
+            parser.alignTime(calendar);
+            long aligned = calendar.getTimeInMillis();
+            if (current < 0) {
+                current = aligned;
+                parser.nextInterval(calendar);
+                next = calendar.getTimeInMillis();
+            }
+            if (aligned < current) {
+                continue;
+            } else if (aligned < next) {
+                count++;
+                continue;
+            }
+            intervals.add(current + " " + count);
+            while (aligned >= next) {
+                current = next;
+                calendar.setTimeInMillis(current);
+                parser.nextInterval(calendar);
+                next = calendar.getTimeInMillis();
+            }
+            count = 1;
+        }
+        intervals.add(current + " " + count);
+        return intervals;
+    }
+
+    private static List<String> process(IntervalParser parser,
+                                        TimeZone timeZone,
+                                        long[] ts) {
+        IntervalProcessor interval = IntervalProcessor.parse(
+                parser, Rollup.Type.COUNT, timeZone);
+        List<String> intervals = new ArrayList<>();
+        for (long t : ts) {
+            QueryData done = interval.update(new QueryData(new Value(1L, t), t), t);
+            if (done != null) {
+                intervals.add(done.getTimestamp() + " " + done.getValue().getNumber());
+            }
+        }
+        QueryData done = interval.completeInterval();
+        intervals.add(done.getTimestamp() + " " + done.getValue().getNumber());
+        return intervals;
+    }
+}
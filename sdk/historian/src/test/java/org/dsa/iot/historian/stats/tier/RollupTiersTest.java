@@ -0,0 +1,282 @@
+package org.dsa.iot.historian.stats.tier;
+
+import org.dsa.iot.dslink.node.value.Value;
+import org.dsa.iot.dslink.util.handler.CompleteHandler;
+import org.dsa.iot.dslink.util.handler.Handler;
+import org.dsa.iot.historian.database.Database;
+import org.dsa.iot.historian.database.embedded.EmbeddedDatabase;
+import org.dsa.iot.historian.stats.interval.IntervalParser;
+import org.dsa.iot.historian.stats.interval.IntervalProcessor;
+import org.dsa.iot.historian.stats.rollup.Rollup;
+import org.dsa.iot.historian.utils.QueryData;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Ignore;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TimeZone;
+
+/**
+ * Tests answering rollup queries from summaries.
+ */
+public class RollupTiersTest {
+
+    private static final long MINUTE = 60 * 1000;
+    private static final long DAY = 24 * 60 * MINUTE;
+    private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private EmbeddedDatabase db;
+    private RollupTiers tiers;
+
+    @Before
+    public void setup() {
+        db = new EmbeddedDatabase("test", null, folder.getRoot(), 1024, 0);
+        db.connect(new Handler<Database>() {
+            @Override
+            public void handle(Database event) {
+            }
+        });
+        tiers = new RollupTiers(db);
+    }
+
+    @After
+    public void teardown() throws Exception {
+        db.close();
+    }
+
+    /**
+     * The coarsest tier whose boundaries are interval boundaries must be
+     * selected.
+     */
+    @Test
+    public void select() {
+        Rollup.Type avg = Rollup.Type.AVERAGE;
+        TimeZone ny = TimeZone.getTimeZone("America/New_York");
+        TimeZone kolkata = TimeZone.getTimeZone("Asia/Kolkata");
+        Assert.assertEquals(Tier.DAY, tiers.select(IntervalParser.parse("1D"), avg, UTC));
+        Assert.assertEquals(Tier.DAY, tiers.select(IntervalParser.parse("1N"), avg, UTC));
+        Assert.assertEquals(Tier.HOUR, tiers.select(IntervalParser.parse("1H"), avg, UTC));
+        Assert.assertEquals(Tier.HOUR, tiers.select(IntervalParser.parse("1D"), avg, ny));
+        Assert.assertEquals(Tier.MINUTE, tiers.select(IntervalParser.parse("1H"), avg, kolkata));
+        Assert.assertEquals(Tier.MINUTE, tiers.select(IntervalParser.parse("15M"), avg, UTC));
+        Assert.assertNull(tiers.select(IntervalParser.parse("30S"), avg, UTC));
+        Assert.assertNull(tiers.select(IntervalParser.parse("1d"), avg, UTC));
+        // Intervals longer than the alignment must be whole summaries
+        Assert.assertEquals(Tier.MINUTE, tiers.select(IntervalParser.parse("1H30m"), avg, UTC));
+        Assert.assertNull(tiers.select(IntervalParser.parse("1M30s"), avg, UTC));
+        Assert.assertEquals(Tier.HOUR, tiers.select(IntervalParser.parse("1D12h"), avg, UTC));
+        Assert.assertNull(tiers.select(IntervalParser.parse("1D"), Rollup.Type.DELTA, UTC));
+        Assert.assertNull(tiers.select(null, avg, UTC));
+    }
+
+    /**
+     * Rollups from summaries must equal the rollups of the raw values,
+     * including ranges that start and end within a summary.
+     */
+    @Test
+    public void matchesRaw() {
+        for (long ts = 0; ts < 3 * DAY; ts += 20000) {
+            write(ts, (ts / 20000) % 97);
+        }
+        tiers.flush();
+        db.flush();
+
+        long from = 5 * 60 * MINUTE + 17 * MINUTE + 3000;
+        long to = 2 * DAY + 13 * 60 * MINUTE + 41 * MINUTE;
+        Rollup.Type[] types = {
+                Rollup.Type.AVERAGE, Rollup.Type.COUNT, Rollup.Type.SUM,
+                Rollup.Type.MIN, Rollup.Type.MAX, Rollup.Type.FIRST
+        };
+        for (String interval : new String[] {"1D", "6H", "1H", "15M"}) {
+            IntervalParser parser = IntervalParser.parse(interval);
+            for (Rollup.Type type : types) {
+                Tier tier = tiers.select(parser, type, UTC);
+                List<QueryData> expected = raw(from, to, parser, type);
+                List<QueryData> actual = tiered(from, to, tier, parser, type);
+                Assert.assertEquals(interval + " " + type, expected.size(), actual.size());
+                for (int i = 0; i < expected.size(); i++) {
+                    QueryData e = expected.get(i);
+                    QueryData a = actual.get(i);
+                    Assert.assertEquals(e.getTimestamp(), a.getTimestamp());
+                    Assert.assertEquals(interval + " " + type,
+                            e.getValue().getNumber().doubleValue(),
+                            a.getValue().getNumber().doubleValue(), 0);
+                }
+            }
+        }
+    }
+
+    /**
+     * Values written after the last summary must be read raw.
+     */
+    @Test
+    public void openSummary() {
+        for (long ts = 0; ts < 3 * DAY + 30 * MINUTE; ts += MINUTE) {
+            write(ts, 1);
+        }
+        List<QueryData> data = tiered(0, 4 * DAY, Tier.DAY,
+                IntervalParser.parse("1D"), Rollup.Type.COUNT);
+        Assert.assertEquals(4, data.size());
+        for (int i = 0; i < 3; i++) {
+            Assert.assertEquals(1440, data.get(i).getValue().getNumber().intValue());
+        }
+        Assert.assertEquals(30, data.get(3).getValue().getNumber().intValue());
+    }
+
+    /**
+     * Open summaries lost by a restart, with or without writing them
+     * first, must be rebuilt from the raw values.
+     */
+    @Test
+    public void restart() {
+        for (long ts = 0; ts < DAY + 90 * MINUTE + 30000; ts += 20000) {
+            write(ts, 1);
+        }
+        tiers = new RollupTiers(db);
+        for (long ts = DAY + 90 * MINUTE + 30000; ts < 2 * DAY; ts += 20000) {
+            write(ts, 1);
+        }
+        tiers.flush();
+        tiers = new RollupTiers(db);
+        for (long ts = 2 * DAY; ts < 3 * DAY + 20 * MINUTE; ts += 20000) {
+            write(ts, 1);
+        }
+        tiers.flush();
+        tiers = new RollupTiers(db);
+        for (long ts = 3 * DAY + 20 * MINUTE; ts < 5 * DAY; ts += 20000) {
+            write(ts, 1);
+        }
+        tiers.flush();
+        assertMatchesRaw(0, 5 * DAY - 1);
+    }
+
+    /**
+     * Summaries must follow raw values that were deleted or overwritten.
+     */
+    @Test
+    public void rebuild() {
+        for (long ts = 0; ts < 3 * DAY; ts += 20000) {
+            write(ts, (ts / 20000) % 97);
+        }
+        tiers.flush();
+        long from = DAY - 3 * MINUTE - 10000;
+        long to = DAY + 2 * 60 * MINUTE + 5 * MINUTE;
+        db.deleteRange("/a", from, to);
+        for (long ts = from; ts <= to; ts += 60000) {
+            db.write("/a", new Value(5), ts);
+        }
+        tiers.rebuild("/a", from, to);
+        assertMatchesRaw(0, 3 * DAY - 1);
+    }
+
+    /**
+     * Not really a test, compares daily averages over 90 days of 10 second
+     * values from raw values against the summaries.
+     */
+    @Ignore
+    @Test
+    public void performanceTest() {
+        long days = 90;
+        for (long ts = 0; ts < days * DAY; ts += 10000) {
+            write(ts, Math.round(Math.sin(ts / 3600000.0) * 1000) / 10.0);
+        }
+        tiers.flush();
+        db.flush();
+
+        IntervalParser parser = IntervalParser.parse("1D");
+        Rollup.Type type = Rollup.Type.AVERAGE;
+        for (int run = 0; run < 3; run++) {
+            long start = System.nanoTime();
+            List<QueryData> raw = raw(0, days * DAY, parser, type);
+            long rawTime = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            List<QueryData> tiered = tiered(0, days * DAY, Tier.DAY, parser, type);
+            long tieredTime = System.nanoTime() - start;
+
+            Assert.assertEquals(raw.size(), tiered.size());
+            System.out.println("Daily average of " + days + " days: raw "
+                    + (rawTime / 1000000) + "ms, tiered "
+                    + (tieredTime / 1000000) + "ms");
+        }
+    }
+
+    private void assertMatchesRaw(long from, long to) {
+        Rollup.Type[] types = {
+                Rollup.Type.COUNT, Rollup.Type.SUM, Rollup.Type.MIN,
+                Rollup.Type.MAX, Rollup.Type.FIRST
+        };
+        for (String interval : new String[] {"1D", "1H", "1M"}) {
+            IntervalParser parser = IntervalParser.parse(interval);
+            for (Rollup.Type type : types) {
+                Tier tier = tiers.select(parser, type, UTC);
+                List<QueryData> expected = raw(from, to, parser, type);
+                List<QueryData> actual = tiered(from, to, tier, parser, type);
+                Assert.assertEquals(interval + " " + type, expected.size(), actual.size());
+                for (int i = 0; i < expected.size(); i++) {
+                    Assert.assertEquals(expected.get(i).getTimestamp(),
+                            actual.get(i).getTimestamp());
+                    Assert.assertEquals(interval + " " + type,
+                            expected.get(i).getValue().getNumber().doubleValue(),
+                            actual.get(i).getValue().getNumber().doubleValue(), 0);
+                }
+            }
+        }
+    }
+
+    private void write(long ts, double value) {
+        Value v = new Value(value, ts);
+        db.write("/a", v, ts);
+        tiers.add("/a", v, ts);
+    }
+
+    private List<QueryData> raw(long from, long to, IntervalParser parser, Rollup.Type type) {
+        final IntervalProcessor interval = IntervalProcessor.parse(parser, type, UTC);
+        final List<QueryData> data = new ArrayList<>();
+        db.query("/a", from, to, new CompleteHandler<QueryData>() {
+            @Override
+            public void handle(QueryData event) {
+                QueryData done = interval.update(event, event.getTimestamp());
+                if (done != null) {
+                    data.add(done);
+                }
+            }
+
+            @Override
+            public void complete() {
+                QueryData done = interval.completeInterval();
+                if (done != null) {
+                    data.add(done);
+                }
+            }
+        });
+        return data;
+    }
+
+    private List<QueryData> tiered(long from, long to, Tier tier,
+                                   IntervalParser parser, Rollup.Type type) {
+        final List<QueryData> data = new ArrayList<>();
+        final boolean[] completed = new boolean[1];
+        tiers.query("/a", from, to, tier, parser, type, UTC, new CompleteHandler<QueryData>() {
+            @Override
+            public void handle(QueryData event) {
+                data.add(event);
+            }
+
+            @Override
+            public void complete() {
+                completed[0] = true;
+            }
+        });
+        Assert.assertTrue(completed[0]);
+        return data;
+    }
+}